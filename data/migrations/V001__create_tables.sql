@@ -0,0 +1,25 @@
+-- Initial HomEx schema: users, groups and their expenses.
+-- Uses IF NOT EXISTS so that databases created by earlier versions of the application are adopted as-is.
+
+CREATE TABLE IF NOT EXISTS users (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    username VARCHAR(255) UNIQUE,
+    password VARCHAR(255),
+    avatar VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS groups (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    groupname VARCHAR(255) NOT NULL,
+    password VARCHAR(255)
+);
+
+CREATE TABLE IF NOT EXISTS expenses (
+    id INT AUTO_INCREMENT PRIMARY KEY,
+    groupID INT,
+    expenseName VARCHAR(255),
+    amount DECIMAL(10, 2),
+    date DATE,
+    username VARCHAR(255),
+    FOREIGN KEY (groupID) REFERENCES groups(id)
+);
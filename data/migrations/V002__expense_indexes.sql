@@ -0,0 +1,7 @@
+-- Indexes for the hot expense queries.
+-- (groupID, date) serves the group table pages ordered by (date, id): InnoDB appends the primary key to
+-- every secondary index, so the keyset range scan needs no sort. (username) serves the personal wallet totals.
+
+CREATE INDEX IF NOT EXISTS idx_expenses_group_date ON expenses (groupID, date);
+
+CREATE INDEX IF NOT EXISTS idx_expenses_username ON expenses (username);
@@ -0,0 +1,35 @@
+-- Per-group totals by day and by month, kept up to date in the same transaction as every expense change
+-- (see ExpenseRollups). Period totals read a few rollup rows instead of scanning the group's expenses.
+-- gains is the sum of the positive amounts, losses the sum of the negative amounts (<= 0).
+-- month holds the first day of the month.
+
+CREATE TABLE IF NOT EXISTS expense_rollup_day (
+    groupID INT NOT NULL,
+    day DATE NOT NULL,
+    gains DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    losses DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    expense_count INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (groupID, day)
+);
+
+CREATE TABLE IF NOT EXISTS expense_rollup_month (
+    groupID INT NOT NULL,
+    month DATE NOT NULL,
+    gains DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    losses DECIMAL(14, 2) NOT NULL DEFAULT 0,
+    expense_count INT NOT NULL DEFAULT 0,
+    PRIMARY KEY (groupID, month)
+);
+
+-- Backfill from the existing expenses
+DELETE FROM expense_rollup_day;
+
+INSERT INTO expense_rollup_day (groupID, day, gains, losses, expense_count)
+SELECT groupID, date, SUM(CASE WHEN amount > 0 THEN amount ELSE 0 END), SUM(CASE WHEN amount < 0 THEN amount ELSE 0 END), COUNT(*)
+FROM expenses WHERE groupID IS NOT NULL AND date IS NOT NULL GROUP BY groupID, date;
+
+DELETE FROM expense_rollup_month;
+
+INSERT INTO expense_rollup_month (groupID, month, gains, losses, expense_count)
+SELECT groupID, DATE_FORMAT(day, '%Y-%m-01'), SUM(gains), SUM(losses), SUM(expense_count)
+FROM expense_rollup_day GROUP BY groupID, DATE_FORMAT(day, '%Y-%m-01');
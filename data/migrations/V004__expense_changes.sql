@@ -0,0 +1,21 @@
+-- Change feed of the expenses (see ExpenseChanges). Every change to a group's expenses takes the next number
+-- of groups.change_seq and logs one row here in the same transaction: the numbers of a group have no gaps
+-- and are committed in order, so a reader that saw number N only needs the rows after N.
+-- kind: I added, U edited, D removed, R many rows changed at once (CSV import), reload the group.
+-- old_date is the date before an edit or removal (the table order is by date, then id).
+-- The new values are copied, so a change can be replayed without reading the expenses table.
+
+ALTER TABLE groups ADD COLUMN IF NOT EXISTS change_seq BIGINT NOT NULL DEFAULT 0;
+
+CREATE TABLE IF NOT EXISTS expense_changes (
+    groupID INT NOT NULL,
+    seq BIGINT NOT NULL,
+    kind CHAR(1) NOT NULL,
+    expenseID INT,
+    old_date DATE,
+    expenseName VARCHAR(255),
+    amount_cents BIGINT,
+    date DATE,
+    username VARCHAR(255),
+    PRIMARY KEY (groupID, seq)
+);
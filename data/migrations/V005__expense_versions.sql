@@ -0,0 +1,7 @@
+-- Row version of each expense for optimistic concurrency: every edit increments it, and edits and removals
+-- only apply if the version is still the one the user saw (UPDATE ... WHERE id = ? AND version = ?), so two
+-- members editing the same expense cannot silently overwrite each other. The change feed carries it along.
+
+ALTER TABLE expenses ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 0;
+
+ALTER TABLE expense_changes ADD COLUMN IF NOT EXISTS version INT;
@@ -0,0 +1,10 @@
+-- Changes saved offline in a client's local journal (see ExpenseJournal) that were replayed. The replay
+-- inserts the row in the same transaction as the change, so a journal replayed again (crash, lost commit)
+-- skips what is already in. expenseID is the ID given to an expense added offline, for the later changes
+-- of the same expense. Rows older than 30 days are pruned by the replay.
+
+CREATE TABLE IF NOT EXISTS journal_replays (
+    op_id CHAR(36) NOT NULL PRIMARY KEY,
+    expenseID INT,
+    replayed_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
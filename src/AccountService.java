@@ -0,0 +1,102 @@
+/**
+ * Libraries
+ */
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * The AccountService class logs users in, creates accounts and updates profiles: the password checks,
+ * the hashing (PasswordHasher) and the user storage (Repositories.users()) chained in the background.
+ *
+ * It is shared by the LogIn and Profile screens and the HTTP API (ApiServer). Every method returns a future,
+ * completed on a background thread, so the screens never wait on the event dispatch thread.
+ */
+public class AccountService {
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private AccountService() {
+    }
+
+
+    /**
+     * Checks a username and password with a single query. On success the wallet totals read by that query are
+     * cached, and a password hash made with an older work factor is upgraded in the background.
+     *
+     * @param username The username entered by the user.
+     * @param password The password entered by the user.
+     * @return A future completed with the user's data, or with null if the credentials are invalid.
+     */
+    public static CompletableFuture<UserRepository.LoginData> logIn(String username, String password) {
+        long walletVersion = WalletService.version(username);
+        UserRepository users = Repositories.users();
+        return AsyncDatabase.query(() -> users.findLogin(username))
+                .thenCompose(login -> PasswordHasher.verify(password, login != null ? login.passwordHash() : null)
+                        .thenApply(verification -> {
+                            if (!verification.valid()) {
+                                return null;
+                            }
+                            if (verification.rehash() != null) {
+                                // Older hash or plain text: store it with the current work factor, off the login path
+                                AsyncDatabase.query(() -> users.updatePasswordHash(username, login.passwordHash(), verification.rehash()))
+                                        .exceptionally(error -> {
+                                            System.out.println("Could not upgrade the password hash of " + username + ": " + AsyncDatabase.rootCause(error));
+                                            return null;
+                                        });
+                            }
+                            WalletService.cacheIfUnchanged(username, walletVersion, login.wallet());
+                            return login;
+                        }));
+    }
+
+
+    /**
+     * Creates an account. The password is hashed while the avatar is being stored.
+     *
+     * @param username The username of the new user.
+     * @param password The password of the new user, already checked with isValidPassword.
+     * @param avatarHash The future content hash of the avatar in the AvatarStore, completed with null for the default avatar.
+     * @return A future completed with true if the account was created, false if the username is already taken.
+     */
+    public static CompletableFuture<Boolean> signUp(String username, String password, CompletableFuture<String> avatarHash) {
+        CompletableFuture<String> passwordHash = PasswordHasher.hash(password);
+        return avatarHash.thenCompose(avatar -> passwordHash.thenCompose(hash -> AsyncDatabase.query(
+                () -> Repositories.users().insertUser(username, hash, avatar))));
+    }
+
+
+    /**
+     * Changes a user's username and password.
+     *
+     * @param currentUsername The current username.
+     * @param newUsername The new username.
+     * @param newPassword The new password, already checked with isValidPassword.
+     * @return A future completed with true if the user was updated.
+     */
+    public static CompletableFuture<Boolean> updateProfile(String currentUsername, String newUsername, String newPassword) {
+        return PasswordHasher.hash(newPassword)
+                .thenCompose(passwordHash -> AsyncDatabase.query(
+                        () -> Repositories.users().updateUser(currentUsername, newUsername, passwordHash)))
+                .thenApply(updated -> {
+                    if (updated) {
+                        WalletService.invalidate(currentUsername);
+                        WalletService.invalidate(newUsername);
+                    }
+                    return updated;
+                });
+    }
+
+
+    /**
+     * Validates the password according to the rules:
+     * at least 8 characters long, contains at least one uppercase letter, one lowercase letter, and one digit.
+     *
+     * @param password The password to validate.
+     * @return True if the password meets the criteria, false otherwise.
+     */
+    public static boolean isValidPassword(String password) {
+        String regex = "^(?=.*[a-z])(?=.*[A-Z])(?=.*\\d)(?!.*\\s).{8,}$";
+        return password != null && password.matches(regex);
+    }
+}
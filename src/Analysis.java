@@ -0,0 +1,279 @@
+/**
+ * Libraries
+ */
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+
+
+/**
+ * The Analysis class represents the user interface for analysing expenses: the totals of the gains and losses
+ * by month, by member, and overall, for a date range and optionally a single member.
+ * It analyses either every expense the user added, or the expenses of one group when opened from the Group screen.
+ *
+ * The expenses are loaded once into an ExpenseColumns snapshot; changing the filter re-runs
+ * ExpenseAnalytics on the snapshot without going back to the database.
+ */
+public class Analysis extends JFrame {
+
+    private static final String ALL_MEMBERS = "All members";
+
+    private ExpenseScope scope;
+    private ExpenseColumns columns;     // Null until loaded
+
+    // GUI components
+    JPanel headerPanel, userInfoPanel, leftPanel, centerPanel, filterPanel, statusPanel;
+    JButton homeButton, personalWalletButton, profileButton, analysisButton, logOutButton, applyButton;
+    JLabel pageNameLabel, appNameLabel, usernameLabel, avatarLabel, statusLabel;
+    JTextField fromField, toField;
+    JComboBox<String> memberComboBox;
+    DefaultTableModel monthTableModel, memberTableModel, typeTableModel;
+    JProgressBar loadingBar;
+    private ScreenTasks tasks;
+
+
+    /**
+     * Constructor to analyse every expense added by the logged-in user.
+     */
+    public Analysis() {
+        this(ExpenseScope.user(User.getUsername()));
+    }
+
+
+    /**
+     * Constructor to initialize GUI components
+     * @param scope: The expenses to analyse
+     */
+    public Analysis(ExpenseScope scope) {
+        this.scope = scope;
+
+        // Frame setup
+        setTitle("Analysis");
+        setSize(1000, 800);
+        setLocationRelativeTo(null);
+        setIconImage(ImageCache.getAppLogo());
+        setLayout(new BorderLayout(0, 0));
+        setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
+
+        // Create the header panel
+        headerPanel = new JPanel(new BorderLayout());
+        headerPanel.setBackground(new Color(12, 73, 87));
+        headerPanel.setPreferredSize(new Dimension(600, 80));
+        headerPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        // Page name label (left side)
+        pageNameLabel = new JLabel("Analysis: " + scope.description());
+        pageNameLabel.setForeground(Color.WHITE);
+        pageNameLabel.setFont(new Font("Arial", Font.BOLD, 20));
+        headerPanel.add(pageNameLabel, BorderLayout.WEST);
+
+        // App name label (center)
+        appNameLabel = new JLabel("HomeEx", SwingConstants.CENTER);
+        appNameLabel.setForeground(Color.WHITE);
+        appNameLabel.setFont(new Font("Arial", Font.BOLD, 24));
+        headerPanel.add(appNameLabel, BorderLayout.CENTER);
+
+        // User information panel (right side)
+        userInfoPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        userInfoPanel.setOpaque(false); // Make the panel transparent
+
+        usernameLabel = new JLabel(User.getUsername());
+        usernameLabel.setForeground(Color.WHITE);
+        usernameLabel.setFont(new Font("Arial", Font.BOLD, 16));
+
+        avatarLabel = new JLabel();
+        ImageIcon avatarIcon = AvatarStore.getIcon(User.getAvatarPath(), 50);
+        if (avatarIcon != null) {
+            avatarLabel.setIcon(avatarIcon);
+        }
+
+        userInfoPanel.add(usernameLabel);
+        userInfoPanel.add(avatarLabel);
+        headerPanel.add(userInfoPanel, BorderLayout.EAST);
+
+        // Add the header panel to the frame
+        add(headerPanel, BorderLayout.NORTH);
+
+        // Create the left-side panel
+        leftPanel = new JPanel();
+        leftPanel.setBackground(new Color(12, 73, 87, 179));
+        leftPanel.setLayout(new GridLayout(5, 1, 10, 10));
+        leftPanel.setPreferredSize(new Dimension(200, 0));
+        leftPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20)); // Padding around buttons
+
+        // Home button
+        homeButton = new JButton("Home");
+        homeButton.addActionListener(_ -> {
+            new Home(); // Navigate to the Home page
+            dispose();
+        });
+        leftPanel.add(homeButton);
+
+        // Personal Wallet button
+        personalWalletButton = new JButton("Personal Wallet");
+        personalWalletButton.addActionListener(_ -> {
+            new PersonalWallet(); // Navigate to Personal Wallet page
+            dispose();
+        });
+        leftPanel.add(personalWalletButton);
+
+        // Profile button
+        profileButton = new JButton("Profile");
+        profileButton.addActionListener(_ -> {
+            new Profile(); // Navigate to the profile page
+            dispose();
+        });
+        leftPanel.add(profileButton);
+
+        // Analysis button
+        analysisButton = new JButton("Analysis");
+        analysisButton.setEnabled(false);   // Already on the Analysis page
+        leftPanel.add(analysisButton);
+
+        // Log Out button
+        logOutButton = new JButton("Log Out");
+        logOutButton.addActionListener(_ -> {
+            new LogIn(); // Navigate to Log In page
+            dispose();
+        });
+        leftPanel.add(logOutButton);
+
+        add(leftPanel, BorderLayout.WEST);
+
+        // Center panel: filters on top, one table per breakdown below
+        centerPanel = new JPanel(new BorderLayout(10, 10));
+        centerPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20)); // Padding
+        add(centerPanel, BorderLayout.CENTER);
+
+        filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        fromField = new JTextField(10);
+        toField = new JTextField(10);
+        fromField.setToolTipText("YYYY-MM-DD, empty for no limit");
+        toField.setToolTipText("YYYY-MM-DD, empty for no limit");
+        memberComboBox = new JComboBox<>(new String[]{ALL_MEMBERS});
+        applyButton = new JButton("Apply");
+        applyButton.setEnabled(false);  // Until the expenses are loaded
+        filterPanel.add(new JLabel("From:"));
+        filterPanel.add(fromField);
+        filterPanel.add(new JLabel("To:"));
+        filterPanel.add(toField);
+        filterPanel.add(new JLabel("Member:"));
+        filterPanel.add(memberComboBox);
+        filterPanel.add(applyButton);
+        centerPanel.add(filterPanel, BorderLayout.NORTH);
+
+        monthTableModel = createTableModel("Month");
+        memberTableModel = createTableModel("Member");
+        typeTableModel = createTableModel("Type");
+        JTabbedPane tabbedPane = new JTabbedPane();
+        tabbedPane.addTab("By Month", new JScrollPane(new JTable(monthTableModel)));
+        tabbedPane.addTab("By Member", new JScrollPane(new JTable(memberTableModel)));
+        tabbedPane.addTab("Gains / Losses", new JScrollPane(new JTable(typeTableModel)));
+        centerPanel.add(tabbedPane, BorderLayout.CENTER);
+
+        // Status line and loading indicator
+        statusLabel = new JLabel("Loading expenses...");
+        loadingBar = new JProgressBar();
+        loadingBar.setIndeterminate(true);
+        loadingBar.setString("Loading...");
+        loadingBar.setStringPainted(true);
+        statusPanel = new JPanel(new BorderLayout(10, 0));
+        statusPanel.add(statusLabel, BorderLayout.CENTER);
+        statusPanel.add(loadingBar, BorderLayout.EAST);
+        centerPanel.add(statusPanel, BorderLayout.SOUTH);
+
+        // Load the expenses once, then analyse them in memory
+        tasks = new ScreenTasks(this, loadingBar);
+        applyButton.addActionListener(_ -> analyze());
+        long started = System.nanoTime();
+        tasks.query(() -> ExpenseColumns.load(Repositories.expenses(), scope), loaded -> {
+            columns = loaded;
+            for (int m = 0; m < loaded.memberCount(); m++) {
+                memberComboBox.addItem(loaded.memberName(m));
+            }
+            statusLabel.setText(String.format("Loaded %,d expenses in %d ms.", loaded.size(), (System.nanoTime() - started) / 1_000_000));
+            applyButton.setEnabled(true);
+            analyze();
+        });
+
+        // Make the frame visible
+        setVisible(true);
+    }
+
+
+    /**
+     * Creates a read-only table model for one breakdown.
+     *
+     * @param labelColumn The name of the first column.
+     */
+    private static DefaultTableModel createTableModel(String labelColumn) {
+        return new DefaultTableModel(new Object[]{labelColumn, "Gains", "Losses", "Net", "Expenses"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+    }
+
+
+    /**
+     * Reads the filters and analyses the loaded expenses in the background.
+     */
+    private void analyze() {
+        int fromDay;
+        int toDay;
+        try {
+            fromDay = fromField.getText().isBlank() ? Integer.MIN_VALUE : (int) LocalDate.parse(fromField.getText().trim()).toEpochDay();
+            toDay = toField.getText().isBlank() ? Integer.MAX_VALUE : (int) LocalDate.parse(toField.getText().trim()).toEpochDay();
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(this, "Dates must be valid dates in the format YYYY-MM-DD.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        String member = (String) memberComboBox.getSelectedItem();
+        int memberIndex = member == null || member.equals(ALL_MEMBERS) ? ExpenseAnalytics.Filter.ALL_MEMBERS : columns.memberIndex(member);
+        ExpenseAnalytics.Filter filter = new ExpenseAnalytics.Filter(fromDay, toDay, memberIndex);
+
+        ExpenseColumns snapshot = columns;
+        tasks.track(CompletableFuture.supplyAsync(() -> ExpenseAnalytics.analyze(snapshot, filter)), this::showReport);
+    }
+
+
+    /**
+     * Displays the breakdowns of an analysis.
+     */
+    private void showReport(ExpenseAnalytics.Report report) {
+        fill(monthTableModel, report.byMonth());
+        fill(memberTableModel, report.byMember());
+        fill(typeTableModel, report.byType());
+        statusLabel.setText(String.format("%,d of %,d expenses analysed in %.1f ms.", report.matched(), columns.size(), report.elapsedNanos() / 1e6));
+    }
+
+
+    /**
+     * Replaces the rows of a table with a breakdown.
+     */
+    private static void fill(DefaultTableModel tableModel, ExpenseAnalytics.Breakdown breakdown) {
+        tableModel.setRowCount(0);
+        for (int i = 0; i < breakdown.size(); i++) {
+            tableModel.addRow(new Object[]{
+                    breakdown.labels()[i],
+                    Money.format(breakdown.gains()[i]),
+                    Money.format(Math.abs(breakdown.losses()[i])),  // Losses shown as a positive number
+                    Money.format(breakdown.net(i)),
+                    breakdown.counts()[i]
+            });
+        }
+    }
+
+
+    /**
+     * Main Method to open the Analysis page.
+     */
+    public static void main(String[] args) {
+        SwingUtilities.invokeLater(() -> new Analysis());
+    }
+}
@@ -0,0 +1,839 @@
+/**
+ * Libraries
+ */
+import com.sun.net.httpserver.*;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.regex.*;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * The ApiServer class runs HomEx headless, as a JSON HTTP API for phones and scripts, on the HTTP server built
+ * into the JDK. It is started with "java Main --server [port] [address]" and exposes what the screens do, through
+ * the same services (AccountService, Repositories, WalletService, ExpenseSearchIndex):
+ *
+ *   GET    /api/health                          No login needed; also the figures of the write queue
+ *   POST   /api/login                           {"username", "password"} -> token, avatar, groups, wallet
+ *   POST   /api/logout
+ *   POST   /api/users                           {"username", "password"}: sign up
+ *   PUT    /api/profile                         {"currentPassword", "username", "password"}: new username and password
+ *   GET    /api/wallet                          Totals of the user's expenses
+ *   POST   /api/groups/{id}/join                {"password"}: gives this session access to the group
+ *   GET    /api/groups/{id}                     Name and totals of the current month
+ *   GET    /api/groups/{id}/expenses            ?limit=200&afterDate=YYYY-MM-DD&afterId=N, in (date, id) order
+ *   POST   /api/groups/{id}/expenses            {"name", "amount", "date"}; negative amounts are losses
+ *   GET    /api/groups/{id}/search              ?q=text&limit=50
+ *   GET    /api/groups/{id}/changes             ?since=N&wait=25: changes after N, waiting up to 25 s for one
+ *   GET    /api/expenses/{id}
+ *   PUT    /api/expenses/{id}                   {"name", "amount", "date", "version"}
+ *   DELETE /api/expenses/{id}                   ?version=N
+ *
+ * Every other call sends the token returned by the login in an "Authorization: Bearer <token>" header.
+ * Errors are answered as {"error": "message"} with the matching status code.
+ *
+ * A session may only use its user's groups (the ones they added expenses to, as on the login screen) and the
+ * groups it joined with their password; other groups are answered with 403, and their expenses with 404.
+ * Edits and removals must give the "version" the client read (or an "If-Match" header, the "ETag" of
+ * GET /api/expenses/{id}), and fail with 409 and the current expense if another member changed it meanwhile
+ * (optimistic concurrency, see ExpenseDao.update).
+ *
+ * The server speaks plain HTTP and listens on the loopback address unless told otherwise: passwords and tokens
+ * cross the network in clear text, so before other devices use it, it has to be reached through a reverse
+ * proxy that terminates TLS (e.g. nginx or Caddy on the same computer).
+ *
+ * Each request runs on its own virtual thread and reads and writes through the repositories (see
+ * Repositories); on MariaDB it borrows a pooled connection only while it queries, so slow clients cost no
+ * platform thread, and expense changes go through ExpenseWriteQueue, so the changes of concurrent requests
+ * share their commits. Responses always carry a Content-Length, so connections are kept alive between
+ * requests, and larger bodies are gzipped for clients that accept it.
+ */
+public class ApiServer {
+
+    static final int DEFAULT_PORT = 8080;
+    static final String DEFAULT_ADDRESS = InetAddress.getLoopbackAddress().getHostAddress();
+    private static final int BACKLOG = 1024;
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+    private static final int GZIP_MIN_BYTES = 1024;     // Smaller bodies do not shrink enough to be worth it
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_WAIT_SECONDS = 30;     // Long polls answer before common proxy timeouts
+    private static final long SESSION_TTL_MS = 12 * 60 * 60_000L;
+    private static final int TOKEN_BYTES = 32;
+
+    private static final SecureRandom random = new SecureRandom();
+
+    static {
+        // Headers and body are written separately; without TCP_NODELAY each small response waits for a delayed ACK (~40 ms)
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService requests = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("homex-api-", 0).factory());
+    private final List<Route> routes = new ArrayList<>();
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+
+    /**
+     * A logged-in client.
+     *
+     * @param groups The IDs of the groups the client may use, shared by the renewed copies of the session.
+     */
+    private record Session(String username, long expiresAt, Set<Integer> groups) {
+    }
+
+
+    /**
+     * Answers one route.
+     */
+    @FunctionalInterface
+    private interface Handler {
+        Object handle(Request request) throws Exception;
+    }
+
+
+    /**
+     * A method and a path pattern, whose groups are the path parameters.
+     */
+    private record Route(String method, Pattern path, boolean loggedIn, Handler handler) {
+    }
+
+
+    /**
+     * A response with a status other than 200.
+     */
+    private record Response(int status, Object body) {
+    }
+
+
+    /**
+     * An error answered with its status code and message.
+     */
+    private static class ApiException extends RuntimeException {
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+
+    /**
+     * One request, as seen by the handlers.
+     */
+    private static class Request {
+        final HttpExchange exchange;
+        final Matcher path;
+        final String token;
+        final Session session;     // Null for routes that need no login
+        final String username;
+        private final byte[] body;
+        private Map<String, String> query;
+        private Map<String, Object> json;
+
+        Request(HttpExchange exchange, Matcher path, String token, Session session, byte[] body) {
+            this.exchange = exchange;
+            this.path = path;
+            this.token = token;
+            this.session = session;
+            this.username = session != null ? session.username() : null;
+            this.body = body;
+        }
+
+        int pathId(int group) {
+            try {
+                return Integer.parseInt(path.group(group));
+            } catch (NumberFormatException e) {
+                throw new ApiException(404, "Not found");
+            }
+        }
+
+        String query(String name) {
+            if (query == null) {
+                query = new HashMap<>();
+                String raw = exchange.getRequestURI().getRawQuery();
+                if (raw != null) {
+                    for (String pair : raw.split("&")) {
+                        int equals = pair.indexOf('=');
+                        String key = URLDecoder.decode(equals < 0 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+                        String value = equals < 0 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+                        query.put(key, value);
+                    }
+                }
+            }
+            return query.get(name);
+        }
+
+        int queryInt(String name, int defaultValue, int min, int max) {
+            String value = query(name);
+            if (value == null || value.isEmpty()) {
+                return defaultValue;
+            }
+            try {
+                return Math.max(min, Math.min(max, Integer.parseInt(value)));
+            } catch (NumberFormatException e) {
+                throw new ApiException(400, "'" + name + "' must be a number");
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> json() {
+            if (json == null) {
+                Object value;
+                try {
+                    value = Json.parse(new String(body, StandardCharsets.UTF_8));
+                } catch (IllegalArgumentException e) {
+                    throw new ApiException(400, "Invalid JSON: " + e.getMessage());
+                }
+                if (!(value instanceof Map)) {
+                    throw new ApiException(400, "The body must be a JSON object");
+                }
+                json = (Map<String, Object>) value;
+            }
+            return json;
+        }
+
+        String string(String name) {
+            Object value = json().get(name);
+            if (value == null || value.toString().isBlank()) {
+                throw new ApiException(400, "'" + name + "' is required");
+            }
+            return value.toString().trim();
+        }
+    }
+
+
+    /**
+     * Starts the server in this process and blocks until it is stopped.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        start(args.length > 1 ? args[1] : DEFAULT_ADDRESS, port);
+    }
+
+
+    /**
+     * Brings the schema up to date (unless the storage is embedded), calibrates the password hashing and starts listening.
+     *
+     * @param address The address to listen on: DEFAULT_ADDRESS (this computer only), the address of a network interface, or 0.0.0.0 for all.
+     * @param port The TCP port to listen on.
+     * @return The running server.
+     */
+    public static ApiServer start(String address, int port) throws IOException {
+        if (!Repositories.isEmbedded()) {
+            SchemaMigrator.migrateOnce().join();
+        }
+        PasswordHasher.calibrateOnce().join();
+        InetSocketAddress listenAddress = new InetSocketAddress(address, port);
+        if (listenAddress.isUnresolved()) {
+            throw new IOException("Unknown address to listen on: " + address);
+        }
+        ApiServer apiServer = new ApiServer(listenAddress);
+        apiServer.listen();
+        System.out.println("HomEx API listening on http://" + address + ":" + apiServer.port() + "/api/");
+        if (!listenAddress.getAddress().isLoopbackAddress()) {
+            System.out.println("Warning: the API speaks plain HTTP; reach it through a reverse proxy that terminates TLS, "
+                    + "or passwords and tokens cross the network in clear text.");
+        }
+        return apiServer;
+    }
+
+
+    /**
+     * Creates the server and its routes on the loopback address, without starting it.
+     */
+    ApiServer(int port) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+
+    /**
+     * Creates the server and its routes, without starting it.
+     */
+    ApiServer(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, BACKLOG);
+        server.setExecutor(requests);     // One virtual thread per request
+        server.createContext("/api/", this::dispatch);
+
+        route("GET", "/api/health", false, _ -> Map.of("status", "ok", "writeQueue", writeQueueJson(ExpenseWriteQueue.stats())));
+        route("POST", "/api/login", false, this::logIn);
+        route("POST", "/api/logout", true, request -> {
+            sessions.remove(request.token);
+            return new Response(204, null);
+        });
+        route("POST", "/api/users", false, ApiServer::signUp);
+        route("PUT", "/api/profile", true, this::updateProfile);
+        route("GET", "/api/wallet", true, request -> walletJson(WalletService.getSummary(request.username)));
+        route("POST", "/api/groups/(\\d+)/join", true, ApiServer::joinGroup);
+        route("GET", "/api/groups/(\\d+)", true, ApiServer::group);
+        route("GET", "/api/groups/(\\d+)/expenses", true, ApiServer::listExpenses);
+        route("POST", "/api/groups/(\\d+)/expenses", true, ApiServer::addExpense);
+        route("GET", "/api/groups/(\\d+)/search", true, ApiServer::search);
+        route("GET", "/api/groups/(\\d+)/changes", true, ApiServer::changes);
+        route("GET", "/api/expenses/(\\d+)", true, ApiServer::getExpense);
+        route("PUT", "/api/expenses/(\\d+)", true, ApiServer::updateExpense);
+        route("DELETE", "/api/expenses/(\\d+)", true, ApiServer::removeExpense);
+    }
+
+
+    /**
+     * Starts accepting requests, without preparing the database first.
+     */
+    void listen() {
+        server.start();
+    }
+
+
+    /**
+     * Returns the port the server listens on, useful when it was created with port 0.
+     */
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+
+    /**
+     * Stops accepting requests, waiting up to a second for the ones in progress.
+     */
+    public void stop() {
+        server.stop(1);
+        requests.shutdown();
+    }
+
+
+    private void route(String method, String path, boolean loggedIn, Handler handler) {
+        routes.add(new Route(method, Pattern.compile(path), loggedIn, handler));
+    }
+
+
+    /**
+     * Finds the route of a request, checks the session, runs the handler and writes its answer.
+     */
+    private void dispatch(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            int status = 200;
+            Object body;
+            try {
+                byte[] requestBody = readBody(exchange);
+                String path = exchange.getRequestURI().getPath();
+                Route route = null;
+                Matcher matcher = null;
+                boolean pathFound = false;
+                for (Route candidate : routes) {
+                    Matcher candidateMatcher = candidate.path().matcher(path);
+                    if (candidateMatcher.matches()) {
+                        pathFound = true;
+                        if (candidate.method().equals(exchange.getRequestMethod())) {
+                            route = candidate;
+                            matcher = candidateMatcher;
+                            break;
+                        }
+                    }
+                }
+                if (route == null) {
+                    throw new ApiException(pathFound ? 405 : 404, pathFound ? "Method not allowed" : "Not found");
+                }
+
+                String token = bearerToken(exchange);
+                Session session = null;
+                if (route.loggedIn()) {
+                    session = authenticate(token);
+                }
+
+                body = route.handler().handle(new Request(exchange, matcher, token, session, requestBody));
+                if (body instanceof Response response) {
+                    status = response.status();
+                    body = response.body();
+                }
+            } catch (Exception e) {
+                Throwable cause = AsyncDatabase.rootCause(e);
+                status = switch (cause) {
+                    case ApiException api -> api.status;
+                    case RejectedExecutionException _ -> 503;     // Busy: password workers
+                    case StorageException storage -> switch (storage.getReason()) {
+                        case BUSY, UNREACHABLE -> 503;      // No connection free in time, or none at all
+                        case DUPLICATE -> 409;
+                        case INVALID -> 400;
+                        case NOT_FOUND -> 404;
+                        default -> 500;
+                    };
+                    default -> 500;
+                };
+                if (status == 503) {
+                    exchange.getResponseHeaders().set("Retry-After", "1");
+                }
+                if (status == 500) {
+                    System.out.println("API error on " + exchange.getRequestMethod() + " " + exchange.getRequestURI() + ": " + cause);
+                }
+                body = Map.of("error", status == 500 ? "Internal error" : String.valueOf(cause.getMessage()));
+            }
+            respond(exchange, status, body);
+        }
+    }
+
+
+    /**
+     * Reads the whole request body, which also lets the connection be reused for the next request.
+     */
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] body = in.readNBytes(MAX_BODY_BYTES + 1);
+            if (body.length > MAX_BODY_BYTES) {
+                throw new ApiException(413, "The body is larger than " + MAX_BODY_BYTES + " bytes");
+            }
+            return body;
+        }
+    }
+
+
+    /**
+     * Writes a JSON answer with a known length (keep-alive), gzipped if it is large and the client accepts it.
+     */
+    private static void respond(HttpExchange exchange, int status, Object body) throws IOException {
+        Headers headers = exchange.getResponseHeaders();
+        if (status == 204 || body == null) {
+            exchange.sendResponseHeaders(status == 200 ? 204 : status, -1);
+            return;
+        }
+
+        byte[] bytes = Json.write(body).getBytes(StandardCharsets.UTF_8);
+        headers.set("Content-Type", "application/json; charset=utf-8");
+        if (bytes.length >= GZIP_MIN_BYTES) {
+            headers.set("Vary", "Accept-Encoding");
+            String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (accepted != null && accepted.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4);
+                try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                    gzip.write(bytes);
+                }
+                bytes = compressed.toByteArray();
+                headers.set("Content-Encoding", "gzip");
+            }
+        }
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+
+    // Sessions
+
+    private static String bearerToken(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        return authorization != null && authorization.startsWith("Bearer ") ? authorization.substring(7).trim() : null;
+    }
+
+
+    /**
+     * Returns the session of a valid token and extends it.
+     */
+    private Session authenticate(String token) {
+        Session session = token != null ? sessions.get(token) : null;
+        long now = System.currentTimeMillis();
+        if (session == null || session.expiresAt() < now) {
+            if (session != null) {
+                sessions.remove(token, session);
+            }
+            throw new ApiException(401, "Please log in");
+        }
+        if (session.expiresAt() - now < SESSION_TTL_MS / 2) {
+            sessions.replace(token, session, new Session(session.username(), now + SESSION_TTL_MS, session.groups()));
+        }
+        return session;
+    }
+
+
+    /**
+     * Opens a session with access to the user's groups.
+     */
+    private String newSession(String username, Collection<Integer> groups) {
+        long now = System.currentTimeMillis();
+        sessions.values().removeIf(session -> session.expiresAt() < now);    // Forget the expired ones
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        Set<Integer> granted = ConcurrentHashMap.newKeySet();
+        granted.addAll(groups);
+        sessions.put(token, new Session(username, now + SESSION_TTL_MS, granted));
+        return token;
+    }
+
+
+    /**
+     * Checks that the session may use a group, see the class comment.
+     */
+    private static void checkMember(Request request, int groupId) {
+        if (!request.session.groups().contains(groupId)) {
+            throw new ApiException(403, "Join group " + groupId + " with its password first");
+        }
+    }
+
+
+    // Accounts
+
+    private Object logIn(Request request) {
+        String username = request.string("username");
+        UserRepository.LoginData login = AccountService.logIn(username, request.string("password")).join();
+        if (login == null) {
+            throw new ApiException(401, "Invalid username or password.");
+        }
+
+        List<Map<String, Object>> groups = new ArrayList<>();
+        login.groups().forEach((id, name) -> groups.add(Map.of("id", id, "name", name != null ? name : "")));
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("token", newSession(username, login.groups().keySet()));
+        result.put("username", username);
+        result.put("avatar", login.avatarPath());
+        result.put("groups", groups);
+        result.put("wallet", walletJson(login.wallet()));
+        return result;
+    }
+
+
+    private static Object signUp(Request request) {
+        String username = request.string("username");
+        String password = request.string("password");
+        if (!AccountService.isValidPassword(password)) {
+            throw new ApiException(400, "Password must be at least 8 characters long, contain at least one uppercase letter, one lowercase letter, and one digit.");
+        }
+        if (!AccountService.signUp(username, password, CompletableFuture.completedFuture(null)).join()) {
+            throw new ApiException(409, "User already exists.");
+        }
+        return new Response(201, Map.of("username", username));
+    }
+
+
+    /**
+     * Changes the username and password of the session's user, who confirms the current password first.
+     * The user's other sessions follow the new username, or are closed when the password changed.
+     */
+    private Object updateProfile(Request request) {
+        String currentPassword = request.string("currentPassword");
+        String newUsername = request.string("username");
+        String newPassword = request.string("password");
+        if (!AccountService.isValidPassword(newPassword)) {
+            throw new ApiException(400, "Password must be at least 8 characters long, contain at least one uppercase letter, one lowercase letter, and one digit.");
+        }
+        if (AccountService.logIn(request.username, currentPassword).join() == null) {
+            throw new ApiException(403, "The current password is incorrect.");
+        }
+        if (!AccountService.updateProfile(request.username, newUsername, newPassword).join()) {
+            throw new ApiException(409, "Failed to update profile.");
+        }
+
+        boolean passwordChanged = !newPassword.equals(currentPassword);
+        for (String token : sessions.keySet()) {
+            sessions.computeIfPresent(token, (_, session) -> !session.username().equals(request.username) ? session
+                    : passwordChanged && !token.equals(request.token) ? null     // null removes the session
+                    : new Session(newUsername, session.expiresAt(), session.groups()));
+        }
+        return Map.of("username", newUsername);
+    }
+
+
+    // Groups and expenses
+
+    /**
+     * Gives the session access to a group whose password the client knows. Groups without a password can
+     * only be used by the members who added expenses to them.
+     */
+    private static Object joinGroup(Request request) throws StorageException {
+        int groupId = request.pathId(1);
+        String password = request.string("password");
+        GroupRepository groups = Repositories.groups();
+        PasswordHasher.Verification verification = PasswordHasher.verify(password, groups.findGroupPassword(groupId)).join();
+        if (!verification.valid()) {
+            throw new ApiException(403, "Invalid group or password.");
+        }
+        request.session.groups().add(groupId);
+        return Map.of("id", groupId, "name", Objects.requireNonNullElse(groups.findGroupName(groupId), ""));
+    }
+
+
+    private static Object group(Request request) throws StorageException {
+        int groupId = request.pathId(1);
+        checkMember(request, groupId);
+        LocalDate today = LocalDate.now();
+        record GroupData(String name, List<ExpenseRepository.PeriodTotal> month) {}
+        ExpenseRepository expenses = Repositories.expenses();
+        GroupData data = expenses.read(() -> new GroupData(
+                Repositories.groups().findGroupName(groupId),
+                expenses.monthly(groupId, today, today)));
+        if (data.name() == null) {
+            throw new ApiException(404, "No group " + groupId);
+        }
+
+        ExpenseRepository.PeriodTotal month = data.month().isEmpty() ? null : data.month().get(0);
+        Map<String, Object> thisMonth = new LinkedHashMap<>();
+        thisMonth.put("gains", Money.format(month != null ? month.gainsCents() : 0));
+        thisMonth.put("losses", Money.format(month != null ? month.lossesCents() : 0));
+        thisMonth.put("count", month != null ? month.count() : 0);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", groupId);
+        result.put("name", data.name());
+        result.put("thisMonth", thisMonth);
+        return result;
+    }
+
+
+    private static Object listExpenses(Request request) throws StorageException {
+        int groupId = request.pathId(1);
+        checkMember(request, groupId);
+        int limit = request.queryInt("limit", ExpenseTableModel.PAGE_SIZE, 1, MAX_PAGE_SIZE);
+        String afterDate = request.query("afterDate");
+        Expense after = null;
+        if (afterDate != null && !afterDate.isEmpty()) {
+            after = new Expense(request.queryInt("afterId", Integer.MAX_VALUE, 0, Integer.MAX_VALUE), groupId, null, 0, validDate(afterDate), null);
+        }
+        Expense from = after;
+        List<Expense> expenses = Repositories.expenses().findPage(groupId, from, limit);
+
+        List<Map<String, Object>> items = new ArrayList<>(expenses.size());
+        for (Expense expense : expenses) {
+            items.add(expenseJson(expense));
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("expenses", items);
+        if (expenses.size() == limit) {
+            Expense last = expenses.get(expenses.size() - 1);
+            result.put("next", "/api/groups/" + groupId + "/expenses?limit=" + limit + "&afterDate=" + last.getDate() + "&afterId=" + last.getId());
+        } else {
+            result.put("next", null);
+        }
+        return result;
+    }
+
+
+    private static Object addExpense(Request request) throws StorageException {
+        int groupId = request.pathId(1);
+        checkMember(request, groupId);
+        String name = request.string("name");
+        long amount = amount(request);
+        String date = validDate(request.string("date"));
+        if (Repositories.groups().findGroupName(groupId) == null) {
+            throw new ApiException(404, "No group " + groupId);
+        }
+        Expense added = Repositories.expenses().add(groupId, name, amount, date, request.username);
+        return new Response(201, expenseJson(added));
+    }
+
+
+    private static Object updateExpense(Request request) throws StorageException {
+        int expenseId = request.pathId(1);
+        String name = request.string("name");
+        long amount = amount(request);
+        String date = validDate(request.string("date"));
+        int version = version(request, request.json().get("version"));
+        ExpenseRepository expenses = Repositories.expenses();
+        Expense current = visible(request, expenses.findById(expenseId));
+        ExpenseRepository.Outcome outcome = current == null || version != current.getVersion()
+                ? new ExpenseRepository.Outcome(false, current)
+                : expenses.update(current, name, amount, date);
+        return outcome.written() ? expenseJson(outcome.current()) : conflict(expenseId, outcome);
+    }
+
+
+    private static Object removeExpense(Request request) throws StorageException {
+        int expenseId = request.pathId(1);
+        int version = version(request, request.query("version"));
+        ExpenseRepository expenses = Repositories.expenses();
+        Expense current = visible(request, expenses.findById(expenseId));
+        ExpenseRepository.Outcome outcome = current == null || version != current.getVersion()
+                ? new ExpenseRepository.Outcome(false, current)
+                : expenses.remove(current);
+        return outcome.written() ? new Response(204, null) : conflict(expenseId, outcome);
+    }
+
+
+    /**
+     * Answers an edit or removal that was not written: 404 if the expense is gone, otherwise 409 with the
+     * version another member saved, which the client shows before trying again with its number.
+     */
+    private static Response conflict(int expenseId, ExpenseRepository.Outcome outcome) {
+        if (!outcome.conflict()) {
+            throw new ApiException(404, "No expense " + expenseId);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("error", "This expense was changed by another member.");
+        result.put("current", expenseJson(outcome.current()));
+        return new Response(409, result);
+    }
+
+
+    private static Object search(Request request) throws StorageException {
+        int groupId = request.pathId(1);
+        checkMember(request, groupId);
+        String query = request.query("q");
+        int limit = request.queryInt("limit", 50, 1, MAX_PAGE_SIZE);
+        if (query == null || query.isBlank()) {
+            throw new ApiException(400, "'q' is required");
+        }
+        ExpenseSearchIndex index = ExpenseSearchIndex.forGroup(groupId);
+        index.sync(Repositories.expenses());
+
+        List<Map<String, Object>> hits = new ArrayList<>();
+        for (ExpenseSearchIndex.Hit hit : index.search(query, limit)) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("id", hit.expenseId());
+            item.put("name", hit.name());
+            item.put("amount", Money.format(hit.amountCents()));
+            item.put("date", hit.date());
+            item.put("score", hit.score());
+            hits.add(item);
+        }
+        return Map.of("hits", hits);
+    }
+
+
+    /**
+     * Answers the changes of a group after "since", waiting up to "wait" seconds for one (long polling).
+     * Without "since", answers the current number only. When "reload" is true the client reloads the
+     * expenses and continues from "seq"; changes are idempotent by expense ID, so replaying one that the
+     * reload already showed is harmless.
+     */
+    private static Object changes(Request request) throws StorageException, InterruptedException {
+        int groupId = request.pathId(1);
+        checkMember(request, groupId);
+        String since = request.query("since");
+        long afterSeq;
+        try {
+            afterSeq = since == null || since.isEmpty() ? -1 : Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "'since' must be a number");
+        }
+        int wait = request.queryInt("wait", 0, 0, MAX_WAIT_SECONDS);
+
+        ExpenseRepository.Batch batch = afterSeq < 0 ? ExpenseRepository.Batch.NONE : ExpenseChanges.await(groupId, afterSeq, wait * 1000L);
+        List<Map<String, Object>> items = new ArrayList<>(batch.changes().size());
+        long seq = afterSeq;
+        for (ExpenseRepository.Change change : batch.changes()) {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("seq", change.seq());
+            item.put("kind", change.kind().name().toLowerCase());
+            item.put("id", (change.after() != null ? change.after() : change.before()).getId());
+            item.put("oldDate", change.before() != null ? change.before().getDate() : null);
+            item.put("expense", change.after() != null ? expenseJson(change.after()) : null);
+            items.add(item);
+            seq = change.seq();
+        }
+        if (afterSeq < 0 || batch.reload()) {
+            seq = Repositories.expenses().currentSeq(groupId);
+        }
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("seq", seq);
+        result.put("reload", batch.reload());
+        result.put("changes", items);
+        return result;
+    }
+
+
+    /**
+     * Answers an expense with its version as the ETag, to be sent back in "If-Match" by an edit or removal.
+     */
+    private static Object getExpense(Request request) throws StorageException {
+        int expenseId = request.pathId(1);
+        Expense expense = visible(request, Repositories.expenses().findById(expenseId));
+        if (expense == null) {
+            throw new ApiException(404, "No expense " + expenseId);
+        }
+        request.exchange.getResponseHeaders().set("ETag", "\"" + expense.getVersion() + "\"");
+        return expenseJson(expense);
+    }
+
+
+    /**
+     * Returns an expense if the session may use its group, otherwise null, so that the expenses of other
+     * groups look the same as missing ones.
+     */
+    private static Expense visible(Request request, Expense expense) {
+        return expense != null && request.session.groups().contains(expense.getGroupId()) ? expense : null;
+    }
+
+
+    // Helpers
+
+    /**
+     * Reads the version an edit or removal applies to, from the "If-Match" header or else from the request.
+     * It is required, so that a client never overwrites a change it has not seen.
+     */
+    private static int version(Request request, Object value) {
+        String ifMatch = request.exchange.getRequestHeaders().getFirst("If-Match");
+        if (ifMatch != null) {
+            value = ifMatch.trim().replaceFirst("^W/", "").replace("\"", "");
+        }
+        if (value == null || value.toString().isEmpty()) {
+            throw new ApiException(400, "'version' is required (or an If-Match header)");
+        }
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "'version' must be a number");
+        }
+    }
+
+
+    private static long amount(Request request) {
+        String amount = request.string("amount");
+        try {
+            return Money.parse(amount);
+        } catch (NumberFormatException e) {
+            throw new ApiException(400, "'amount' must be a number with at most 8 digits before the decimal point");
+        }
+    }
+
+
+    private static String validDate(String date) {
+        try {
+            return java.sql.Date.valueOf(date).toString();
+        } catch (IllegalArgumentException e) {
+            throw new ApiException(400, "Dates must be valid dates in the format YYYY-MM-DD");
+        }
+    }
+
+
+    private static Map<String, Object> expenseJson(Expense expense) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("id", expense.getId());
+        result.put("groupId", expense.getGroupId());
+        result.put("name", expense.getExpenseName());
+        result.put("amount", expense.getAmount());
+        result.put("date", expense.getDate());
+        result.put("username", expense.getUsername());
+        result.put("version", expense.getVersion());
+        return result;
+    }
+
+
+    private static Map<String, Object> walletJson(WalletSummary summary) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("gains", Money.format(summary.getTotalGains()));
+        result.put("losses", Money.format(summary.getTotalLosses()));
+        result.put("count", summary.getCount());
+        return result;
+    }
+
+
+    private static Map<String, Object> writeQueueJson(ExpenseWriteQueue.Stats stats) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("queued", stats.queued());
+        result.put("writing", stats.writing());
+        result.put("committed", stats.committed());
+        result.put("failed", stats.failed());
+        result.put("batches", stats.batches());
+        result.put("averageBatch", stats.averageBatch());
+        result.put("retries", stats.retries());
+        result.put("lastCommitMillis", stats.lastCommitMillis());
+        return result;
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Libraries
+ */
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * The ApiServerBenchmark class sends requests to the HTTP API from many concurrent clients and reports
+ * the throughput and the latencies.
+ *
+ * Without a URL it starts a server in this process on a free port and calls /api/health, which measures
+ * the HTTP layer alone (virtual threads, keep-alive, JSON) without a database. Given the URL of a running
+ * server and an account, it logs in and calls the wallet, the first page of a group's expenses and the
+ * group's summary in turn, which includes the database. The account must have added expenses to the group,
+ * or the group's password must be given so that the session joins it.
+ *
+ * Run with: java ApiServerBenchmark [clients] [seconds] [url username password groupId [groupPassword]]
+ */
+public class ApiServerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        ApiServer local = null;
+        String url;
+        String token = null;
+        List<String> paths;
+        if (args.length > 2) {
+            url = args[2].endsWith("/") ? args[2].substring(0, args[2].length() - 1) : args[2];
+            String groupId = args.length > 5 ? args[5] : "1";
+            paths = List.of("/api/wallet", "/api/groups/" + groupId + "/expenses?limit=50", "/api/groups/" + groupId);
+        } else {
+            local = new ApiServer(0);
+            local.listen();
+            url = "http://localhost:" + local.port();
+            paths = List.of("/api/health");
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        if (args.length > 4) {
+            String body = Json.write(Map.of("username", args[3], "password", args[4]));
+            HttpResponse<String> login = client.send(HttpRequest.newBuilder(URI.create(url + "/api/login"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+            if (login.statusCode() != 200) {
+                System.out.println("Login failed: " + login.statusCode() + " " + login.body());
+                return;
+            }
+            token = (String) ((Map<?, ?>) Json.parse(login.body())).get("token");
+        }
+        if (args.length > 6) {
+            String body = Json.write(Map.of("password", args[6]));
+            HttpResponse<String> join = client.send(HttpRequest.newBuilder(URI.create(url + "/api/groups/" + args[5] + "/join"))
+                    .header("Content-Type", "application/json")
+                    .header("Authorization", "Bearer " + token)
+                    .POST(HttpRequest.BodyPublishers.ofString(body)).build(), HttpResponse.BodyHandlers.ofString());
+            if (join.statusCode() != 200) {
+                System.out.println("Joining the group failed: " + join.statusCode() + " " + join.body());
+                return;
+            }
+        }
+
+        List<HttpRequest> requests = new ArrayList<>();
+        for (String path : paths) {
+            HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url + path)).header("Accept-Encoding", "gzip").GET();
+            if (token != null) {
+                builder.header("Authorization", "Bearer " + token);
+            }
+            requests.add(builder.build());
+        }
+
+        System.out.println("Warming up...");
+        run(client, requests, clients, 2);
+        System.out.println(clients + " clients for " + seconds + " s against " + url + " " + paths);
+        Result result = run(client, requests, clients, seconds);
+
+        long[] latencies = result.latencies();
+        Arrays.sort(latencies);
+        System.out.printf("%,d requests, %,.0f requests/s, %d errors%n", latencies.length, latencies.length / (double) seconds, result.errors());
+        if (latencies.length > 0) {
+            System.out.printf("Latency ms: median %.2f, p99 %.2f, max %.2f%n",
+                    latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6, latencies[latencies.length - 1] / 1e6);
+        }
+        if (local != null) {
+            local.stop();
+        }
+    }
+
+
+    private record Result(long[] latencies, int errors) {
+    }
+
+
+    /**
+     * Sends the requests in turn from each client, one at a time, for a number of seconds.
+     */
+    private static Result run(HttpClient client, List<HttpRequest> requests, int clients, int seconds) throws InterruptedException {
+        long end = System.nanoTime() + seconds * 1_000_000_000L;
+        AtomicInteger errors = new AtomicInteger();
+        List<long[]> perClient = new ArrayList<>();
+        int[] counts = new int[clients];
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                long[] latencies = new long[1 << 16];
+                perClient.add(latencies);
+                int index = c;
+                executor.submit(() -> {
+                    int count = 0;
+                    long[] own = latencies;
+                    while (System.nanoTime() < end) {
+                        HttpRequest request = requests.get(count % requests.size());
+                        long started = System.nanoTime();
+                        try {
+                            HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                            if (response.statusCode() >= 400) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        if (count == own.length) {
+                            own = Arrays.copyOf(own, own.length * 2);
+                            perClient.set(index, own);
+                        }
+                        own[count++] = System.nanoTime() - started;
+                    }
+                    counts[index] = count;
+                });
+            }
+        }
+
+        int total = Arrays.stream(counts).sum();
+        long[] all = new long[total];
+        int position = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(perClient.get(c), 0, all, position, counts[c]);
+            position += counts[c];
+        }
+        return new Result(all, errors.get());
+    }
+}
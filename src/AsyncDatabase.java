@@ -0,0 +1,168 @@
+/**
+ * Libraries
+ */
+import javax.swing.*;
+import java.sql.*;
+import java.util.concurrent.*;
+
+
+/**
+ * The AsyncDatabase class runs database work away from the Swing event dispatch thread (EDT).
+ * Each piece of work borrows a pooled connection on its own virtual thread and completes a CompletableFuture
+ * with the result. Screens apply the result back on the EDT through the EDT executor below,
+ * usually via a ScreenTasks instance that also handles loading indicators and cancellation.
+ * Work going through the repositories (see Repositories) runs as a Query instead: the repository gets its
+ * own connection if it needs one, so the same code runs on the embedded storage, which has none.
+ */
+public class AsyncDatabase {
+
+    // One virtual thread per query: blocking JDBC calls are cheap to park, the pool bounds real concurrency
+    private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("homex-db-", 0).factory());
+
+    /**
+     * Executor that runs callbacks on the Swing event dispatch thread.
+     */
+    public static final Executor EDT = SwingUtilities::invokeLater;
+
+
+    /**
+     * A unit of database work executed with a borrowed connection.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    public interface Work<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+
+    /**
+     * A unit of database work without a result (updates, deletes, DDL).
+     */
+    @FunctionalInterface
+    public interface VoidWork {
+        void run(Connection connection) throws SQLException;
+    }
+
+
+    /**
+     * A unit of work through the repositories, which borrow a connection themselves if they need one.
+     *
+     * @param <T> The type of the result.
+     */
+    @FunctionalInterface
+    public interface Query<T> {
+        T run() throws StorageException;
+    }
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private AsyncDatabase() {
+    }
+
+
+    /**
+     * Runs the given work on a background thread with a pooled connection.
+     * Cancelling the returned future interrupts the worker thread.
+     *
+     * @param work The database work to run.
+     * @return A future completed with the work's result, or exceptionally with its SQLException.
+     */
+    public static <T> CompletableFuture<T> submit(Work<T> work) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = EXECUTOR.submit(() -> {
+            if (result.isDone()) {
+                return;     // Cancelled before it started
+            }
+            try {
+                SchemaMigrator.migrateOnce().join();   // No query runs against an outdated schema
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return;
+            }
+            try (Connection connection = ConnectionPool.getConnection()) {
+                result.complete(work.run(connection));
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((_, _) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+
+    /**
+     * Runs work through the repositories on a background thread.
+     * Cancelling the returned future interrupts the worker thread.
+     *
+     * @param query The work to run.
+     * @return A future completed with the work's result, or exceptionally with its StorageException.
+     */
+    public static <T> CompletableFuture<T> query(Query<T> query) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = EXECUTOR.submit(() -> {
+            if (result.isDone()) {
+                return;     // Cancelled before it started
+            }
+            try {
+                result.complete(query.run());
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+            }
+        });
+        result.whenComplete((_, _) -> {
+            if (result.isCancelled()) {
+                task.cancel(true);
+            }
+        });
+        return result;
+    }
+
+
+    /**
+     * Runs the given work without a result on a background thread with a pooled connection.
+     *
+     * @param work The database work to run.
+     * @return A future completed once the work is done.
+     */
+    public static CompletableFuture<Void> run(VoidWork work) {
+        return submit(connection -> {
+            work.run(connection);
+            return null;
+        });
+    }
+
+
+    /**
+     * Runs a task that manages its own connections (for example the server bootstrap) on a background thread.
+     *
+     * @param task The task to run.
+     * @return A future completed once the task is done.
+     */
+    public static CompletableFuture<Void> background(Runnable task) {
+        return CompletableFuture.runAsync(task, EXECUTOR);
+    }
+
+
+    /**
+     * Unwraps the CompletionException layers added by CompletableFuture (and the UncheckedIOException
+     * used to pass file errors out of database work) to get the original error.
+     *
+     * @param error The error passed to a completion callback.
+     * @return The underlying cause.
+     */
+    public static Throwable rootCause(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException
+                || error instanceof java.io.UncheckedIOException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+}
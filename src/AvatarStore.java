@@ -0,0 +1,190 @@
+/**
+ * Libraries
+ */
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.file.*;
+import java.security.*;
+import java.util.HexFormat;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+
+/**
+ * The AvatarStore class keeps the avatar images chosen by the users in an application-managed,
+ * content-addressed store (data/avatars). An image is named after the SHA-256 of its bytes,
+ * so the same picture uploaded twice is stored once, and the 'users.avatar' column holds that hash
+ * instead of the path of the file the user picked.
+ *
+ * At ingest time the store keeps a copy of the original and writes one downscaled variant per size
+ * the screens display (ThumbnailService.SIZES), so the headers decode a file of a few KB.
+ * Accounts created before the store existed keep a file path in 'users.avatar'; it is still displayed.
+ */
+public class AvatarStore {
+
+    private static final Path STORE_DIR = Paths.get("data/avatars");
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{64}");
+
+    // Ingests started or finished in this run, by source path and modification time
+    private static final ConcurrentHashMap<String, CompletableFuture<String>> ingested = new ConcurrentHashMap<>();
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private AvatarStore() {
+    }
+
+
+    /**
+     * Adds an image to the store in the background, unless it is already there.
+     * Calling it again for the same unchanged file returns the same future.
+     *
+     * @param source The image file picked by the user.
+     * @return A future completed with the content hash to save in 'users.avatar'.
+     */
+    public static CompletableFuture<String> ingest(File source) {
+        String key = source.getAbsolutePath() + "@" + source.lastModified();
+        CompletableFuture<String> task = ingested.computeIfAbsent(key, _ -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return store(source);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, ThumbnailService.workers));
+
+        // Allow a retry after a failure
+        task.whenComplete((_, error) -> {
+            if (error != null) {
+                ingested.remove(key, task);
+            }
+        });
+        return task;
+    }
+
+
+    /**
+     * Returns the file to display for an avatar at the given size.
+     *
+     * @param avatar The value of 'users.avatar': a content hash, or the file path of an older account.
+     * @param size One of ThumbnailService.SIZES.
+     * @return The path of the image file, or null if there is no avatar.
+     */
+    public static String resolve(String avatar, int size) {
+        if (avatar == null || !HASH.matcher(avatar).matches()) {
+            return avatar;  // Older accounts store the path of the image itself
+        }
+        return variantFile(avatar, size).toString();
+    }
+
+
+    /**
+     * Returns the icon of an avatar at the given size, through the ImageCache.
+     *
+     * @param avatar The value of 'users.avatar'.
+     * @param size One of ThumbnailService.SIZES.
+     * @return The icon, or null if there is no avatar or it cannot be read.
+     */
+    public static ImageIcon getIcon(String avatar, int size) {
+        return ImageCache.getIcon(resolve(avatar, size), size, size);
+    }
+
+
+    /**
+     * Hashes the image and, if the store does not hold it yet, copies it and writes its variants.
+     * Runs on a worker thread.
+     *
+     * @return The content hash.
+     */
+    private static String store(File source) throws IOException {
+        byte[] content = Files.readAllBytes(source.toPath());
+        String hash = sha256(content);
+
+        if (isStored(hash)) {
+            return hash;    // Same picture already uploaded, possibly by another user
+        }
+
+        BufferedImage original = ImageIO.read(new ByteArrayInputStream(content));
+        if (original == null) {
+            throw new IOException("Unsupported image format: " + source.getName());
+        }
+
+        Files.createDirectories(STORE_DIR);
+
+        // Variants are scaled from the next larger one, largest first
+        BufferedImage larger = original;
+        for (int size : ThumbnailService.SIZES) {
+            BufferedImage variant = ImageCache.scale(larger, size, size);
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(variant, "png", png);
+            writeAtomically(variantFile(hash, size), png.toByteArray());
+
+            ImageCache.put(variantFile(hash, size).toString(), variant);
+            larger = variant;
+        }
+
+        // The original is written last: its presence marks a complete entry
+        writeAtomically(originalFile(hash), content);
+        return hash;
+    }
+
+
+    /**
+     * Returns whether the store already holds a complete entry for the hash.
+     */
+    private static boolean isStored(String hash) {
+        if (!Files.isRegularFile(originalFile(hash))) {
+            return false;
+        }
+        for (int size : ThumbnailService.SIZES) {
+            if (!Files.isRegularFile(variantFile(hash, size))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Writes a file through a temporary file, so that readers never see a partial image.
+     */
+    private static void writeAtomically(Path file, byte[] content) throws IOException {
+        Path temporary = Files.createTempFile(STORE_DIR, "avatar", ".tmp");
+        try {
+            Files.write(temporary, content);
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+
+    /**
+     * Returns the copy of the uploaded image.
+     */
+    private static Path originalFile(String hash) {
+        return STORE_DIR.resolve(hash + ".img");
+    }
+
+
+    /**
+     * Returns the downscaled variant of an image.
+     */
+    private static Path variantFile(String hash, int size) {
+        return STORE_DIR.resolve(hash + "_" + size + ".png");
+    }
+
+
+    /**
+     * Returns the SHA-256 of the content as 64 hex digits.
+     */
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // Every JVM provides SHA-256
+        }
+    }
+}
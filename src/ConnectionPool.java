@@ -0,0 +1,391 @@
+/**
+ * Libraries
+ */
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ * The ConnectionPool class holds the single, bounded pool of MariaDB connections shared by the whole application.
+ * Every screen borrows a connection with getConnection() inside a try-with-resources block;
+ * closing the borrowed connection hands it back to the pool instead of closing the physical link.
+ *
+ * The pool validates connections that have been idle for a while before lending them out,
+ * evicts connections that stay idle for too long, gives up after a timeout when every connection is busy,
+ * and reports connections that are borrowed for suspiciously long (leaks), with the thread that borrowed them.
+ * Started with -Dhomex.pool.leakTrace=true, it also records where each connection is borrowed and prints that
+ * stack trace with the report; this costs a stack walk per borrow, so it is off by default.
+ */
+public class ConnectionPool {
+
+    // Database connection parameters
+    static final String SERVER_URL = "jdbc:mariadb://localhost:3306";
+    static final String DB_URL = SERVER_URL + "/homex_db";
+    static final String DB_USER = "your_username";
+    static final String DB_PASSWORD = "your_password";
+
+    // Pool settings
+    private static final int MAX_SIZE = 8;                          // Maximum number of physical connections
+    private static final long ACQUIRE_TIMEOUT_MS = 5_000;           // How long a caller waits for a free connection
+    private static final long IDLE_TIMEOUT_MS = 5 * 60_000;         // Idle connections older than this are closed
+    private static final long VALIDATE_AFTER_IDLE_MS = 30_000;      // Idle connections older than this are checked before use
+    private static final long LEAK_THRESHOLD_MS = 60_000;           // Borrowed longer than this is reported as a leak
+    private static final long HOUSEKEEPING_PERIOD_MS = 15_000;
+    private static final int VALIDATION_TIMEOUT_S = 2;
+    private static final boolean LEAK_TRACE = Boolean.getBoolean("homex.pool.leakTrace");  // Record the borrow sites
+
+    private static final ConnectionPool INSTANCE = new ConnectionPool();
+
+    private final Semaphore permits = new Semaphore(MAX_SIZE, true);
+    private final Deque<PooledConnection> idle = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper;
+    private volatile boolean closed = false;
+
+
+    /**
+     * Private constructor, the pool is only reachable through the static methods.
+     */
+    private ConnectionPool() {
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "homex-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeeping, HOUSEKEEPING_PERIOD_MS, HOUSEKEEPING_PERIOD_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "homex-pool-shutdown"));
+    }
+
+
+    /**
+     * Borrows a connection to the 'homex_db' database from the shared pool.
+     * The returned connection must be closed by the caller (try-with-resources) to give it back.
+     *
+     * @return A validated connection to 'homex_db'.
+     * @throws SQLException If no connection becomes available before the acquire timeout or the database cannot be reached.
+     */
+    public static Connection getConnection() throws SQLException {
+        return INSTANCE.borrow();
+    }
+
+
+    /**
+     * Opens a one-off connection to the MariaDB server without selecting a database.
+     * Only used to bootstrap 'homex_db' itself, which the pooled connections point at.
+     *
+     * @return A new, unpooled server connection that the caller must close.
+     * @throws SQLException If the server cannot be reached.
+     */
+    static Connection openServerConnection() throws SQLException {
+        return DriverManager.getConnection(SERVER_URL, DB_USER, DB_PASSWORD);
+    }
+
+
+    /**
+     * Takes a permit, then reuses an idle connection or opens a new one.
+     */
+    private Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is shut down");
+        }
+
+        try {
+            if (!permits.tryAcquire(ACQUIRE_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                throw new SQLTimeoutException("Timed out after " + ACQUIRE_TIMEOUT_MS + " ms waiting for a database connection ("
+                        + borrowed.size() + " in use)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled = takeIdle();
+            if (pooled == null) {
+                pooled = new PooledConnection(DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD));
+            }
+            pooled.onBorrow();
+            borrowed.add(pooled);
+            return pooled.proxy;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+
+    /**
+     * Pops the most recently used idle connection, validating it if it sat unused for a while.
+     * Broken connections are discarded and the next one is tried.
+     *
+     * @return A usable idle connection, or null if none is left.
+     */
+    private PooledConnection takeIdle() {
+        while (true) {
+            PooledConnection pooled;
+            synchronized (idle) {
+                pooled = idle.pollFirst();
+            }
+            if (pooled == null) {
+                return null;
+            }
+
+            boolean stale = System.currentTimeMillis() - pooled.lastUsed > VALIDATE_AFTER_IDLE_MS;
+            if (!stale || pooled.isValid()) {
+                return pooled;
+            }
+            pooled.closePhysical();
+        }
+    }
+
+
+    /**
+     * Gives a connection back to the pool, called when the borrower closes its proxy.
+     */
+    private void giveBack(PooledConnection pooled) {
+        if (!borrowed.remove(pooled)) {
+            return;     // Already returned
+        }
+
+        try {
+            boolean reusable = !closed && pooled.reset();
+            if (reusable) {
+                synchronized (idle) {
+                    idle.addFirst(pooled);
+                }
+            } else {
+                pooled.closePhysical();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+
+    /**
+     * Periodic task: closes connections idle for longer than the idle timeout
+     * and reports borrowed connections held longer than the leak threshold.
+     */
+    private void housekeeping() {
+        long now = System.currentTimeMillis();
+
+        List<PooledConnection> expired = new ArrayList<>();
+        synchronized (idle) {
+            Iterator<PooledConnection> iterator = idle.iterator();
+            while (iterator.hasNext()) {
+                PooledConnection pooled = iterator.next();
+                if (now - pooled.lastUsed > IDLE_TIMEOUT_MS) {
+                    iterator.remove();
+                    expired.add(pooled);
+                }
+            }
+        }
+        for (PooledConnection pooled : expired) {
+            pooled.closePhysical();
+        }
+
+        for (PooledConnection pooled : borrowed) {
+            if (!pooled.leakReported && now - pooled.borrowedAt > LEAK_THRESHOLD_MS) {
+                pooled.leakReported = true;
+                System.out.println("Connection pool: connection borrowed by thread " + pooled.borrowThread + " for "
+                        + (now - pooled.borrowedAt) + " ms, possible leak"
+                        + (LEAK_TRACE ? "" : " (start with -Dhomex.pool.leakTrace=true to see where it was borrowed)"));
+                Throwable borrowSite = pooled.borrowSite;
+                if (borrowSite != null) {
+                    borrowSite.printStackTrace(System.out);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Closes every idle connection when the application exits.
+     */
+    private void shutdown() {
+        closed = true;
+        housekeeper.shutdownNow();
+        synchronized (idle) {
+            for (PooledConnection pooled : idle) {
+                pooled.closePhysical();
+            }
+            idle.clear();
+        }
+    }
+
+
+    /**
+     * A physical connection plus its bookkeeping.
+     * The proxy forwards every call to the physical connection, except close(), which returns it to the pool,
+     * and the statement factories, whose statements are tracked (see PooledStatement) so that any left open
+     * are closed on return.
+     */
+    private class PooledConnection implements InvocationHandler {
+        private final Connection physical;
+        private final Connection proxy;
+        private final Set<Statement> openStatements = Collections.newSetFromMap(new IdentityHashMap<>());
+        private volatile long lastUsed = System.currentTimeMillis();
+        private volatile long borrowedAt;
+        private volatile String borrowThread;
+        private volatile Throwable borrowSite;      // Only with LEAK_TRACE
+        private volatile boolean leakReported;
+        private volatile boolean returned;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+            this.proxy = (Connection) Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(), new Class<?>[]{Connection.class}, this);
+        }
+
+        void onBorrow() {
+            borrowedAt = System.currentTimeMillis();
+            borrowThread = Thread.currentThread().getName();
+            borrowSite = LEAK_TRACE ? new Throwable("Connection borrowed here") : null;
+            leakReported = false;
+            returned = false;
+        }
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!returned) {
+                        returned = true;
+                        giveBack(this);
+                    }
+                    return null;
+                case "isClosed":
+                    return returned || physical.isClosed();
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                case "equals":
+                    return target == args[0];
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "toString":
+                    return "Pooled" + physical;
+                default:
+                    break;
+            }
+
+            if (returned) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+
+            try {
+                Object result = method.invoke(physical, args);
+                if (result instanceof Statement statement) {
+                    synchronized (openStatements) {
+                        openStatements.add(statement);
+                    }
+                    return new PooledStatement(this, statement, method.getReturnType()).proxy;
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Puts the connection back in a clean state before it is pooled again.
+         *
+         * @return True if the connection can be reused.
+         */
+        boolean reset() {
+            lastUsed = System.currentTimeMillis();
+            try {
+                synchronized (openStatements) {
+                    for (Statement statement : openStatements) {
+                        if (!statement.isClosed()) {
+                            statement.close();
+                        }
+                    }
+                    openStatements.clear();
+                }
+                if (!physical.getAutoCommit()) {
+                    physical.rollback();
+                    physical.setAutoCommit(true);
+                }
+                return !physical.isClosed();
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        boolean isValid() {
+            try {
+                return physical.isValid(VALIDATION_TIMEOUT_S);
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+                System.out.println("SQL Exception: " + e.getMessage());
+            }
+        }
+
+        void closed(Statement statement) {
+            synchronized (openStatements) {
+                openStatements.remove(statement);
+            }
+        }
+    }
+
+
+    /**
+     * A statement made on a pooled connection. The proxy forwards every call to the physical statement,
+     * except close(), which also stops tracking it, so that a connection borrowed for a long time does not
+     * hold on to every statement it ever made, and getConnection(), which returns the pooled connection
+     * rather than the physical one, so that closing it returns the connection to the pool.
+     */
+    private static class PooledStatement implements InvocationHandler {
+        private final PooledConnection connection;
+        private final Statement physical;
+        private final Statement proxy;
+
+        PooledStatement(PooledConnection connection, Statement physical, Class<?> type) {
+            this.connection = connection;
+            this.physical = physical;
+            this.proxy = (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type}, this);
+        }
+
+        @Override
+        public Object invoke(Object target, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    connection.closed(physical);
+                    break;
+                case "getConnection":
+                    return connection.proxy;
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    break;
+                case "equals":
+                    return target == args[0];
+                case "hashCode":
+                    return System.identityHashCode(target);
+                case "toString":
+                    return "Pooled" + physical;
+                default:
+                    break;
+            }
+
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
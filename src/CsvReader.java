@@ -0,0 +1,153 @@
+/**
+ * Libraries
+ */
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The CsvReader class reads a CSV file one record at a time, so files of any size are parsed in constant memory.
+ * It follows RFC 4180: fields may be quoted, quoted fields may contain the delimiter, line breaks
+ * and doubled quotes (""), and lines may end with CRLF or LF.
+ */
+public class CsvReader implements Closeable {
+
+    private final Reader reader;
+    private final char delimiter;
+    private final List<String> fields = new ArrayList<>();
+    private final StringBuilder field = new StringBuilder();
+    private int pushedBack = -2;    // A character read ahead, -2 if none
+    private long line = 0;          // Line on which the last record started
+
+
+    /**
+     * Creates a reader over buffered character input.
+     *
+     * @param reader The input, ideally a BufferedReader.
+     * @param delimiter The field delimiter, usually ',' or ';'.
+     */
+    public CsvReader(Reader reader, char delimiter) {
+        this.reader = reader;
+        this.delimiter = delimiter;
+    }
+
+
+    /**
+     * Reads the next record.
+     *
+     * @return The fields of the record, or null at the end of the input.
+     *         The array is new for every record; blank lines are skipped.
+     */
+    public String[] next() throws IOException {
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                return null;
+            }
+            line++;
+            if (c == '\n') {
+                continue;   // Blank line (LF)
+            }
+            if (c == '\r') {
+                skipLineFeed();
+                continue;   // Blank line (CRLF)
+            }
+            unread(c);
+            return readRecord();
+        }
+    }
+
+
+    /**
+     * Returns the line number (1-based) on which the last record returned by next() started.
+     */
+    public long getLineNumber() {
+        return line;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+
+    /**
+     * Reads the fields up to the end of the record.
+     */
+    private String[] readRecord() throws IOException {
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean fieldStart = true;
+
+        while (true) {
+            int c = read();
+
+            if (quoted) {
+                if (c == -1) {
+                    throw new IOException("Unterminated quoted field starting on line " + line);
+                } else if (c == '"') {
+                    int next = read();
+                    if (next == '"') {
+                        field.append('"');  // Escaped quote
+                    } else {
+                        quoted = false;
+                        unread(next);
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;     // Line break inside a quoted field
+                    }
+                    field.append((char) c);
+                }
+                continue;
+            }
+
+            if (c == '"' && fieldStart) {
+                quoted = true;
+                fieldStart = false;
+            } else if (c == delimiter) {
+                fields.add(field.toString());
+                field.setLength(0);
+                fieldStart = true;
+            } else if (c == '\n' || c == '\r' || c == -1) {
+                if (c == '\r') {
+                    skipLineFeed();
+                }
+                fields.add(field.toString());
+                return fields.toArray(new String[0]);
+            } else {
+                field.append((char) c);
+                fieldStart = false;
+            }
+        }
+    }
+
+
+    /**
+     * Consumes the LF of a CRLF line ending.
+     */
+    private void skipLineFeed() throws IOException {
+        int next = read();
+        if (next != '\n') {
+            unread(next);
+        }
+    }
+
+
+    private int read() throws IOException {
+        if (pushedBack != -2) {
+            int c = pushedBack;
+            pushedBack = -2;
+            return c;
+        }
+        return reader.read();
+    }
+
+
+    private void unread(int c) {
+        pushedBack = c;
+    }
+}
@@ -0,0 +1,1019 @@
+/**
+ * Libraries
+ */
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+
+/**
+ * The EmbeddedStore class stores the users, groups and expenses in a single file on this computer
+ * (data/embedded/homex.log by default), so that HomEx runs without a database server: one household on one
+ * computer, the benchmarks, trying the application out. Main starts it with "--embedded [directory]".
+ *
+ * The file is a log: every change appends one record (a user, a group, an expense as it now is, or the
+ * removal of an expense) and nothing is ever rewritten in place. Each record starts with its length and a
+ * CRC-32C of its contents, like the offline journal (ExpenseJournal); reading stops at the first record cut
+ * short by a crash, which is cut off. Records reach the operating system as they are appended and the disk
+ * every FORCE_MILLIS. When more than half the records are outdated, the file is rewritten with the current
+ * rows only (compaction) the next time it is opened.
+ *
+ * Opening the file replays the log into memory, where the rows are indexed:
+ * - the expenses by ID (primary index), and the groups and users by ID and name
+ * - the expenses of each group in the table order (date, then ID), for pages, positions and monthly totals
+ * - the expenses of each user in the table order with the user's totals and groups, for the wallet and logins
+ * - the last RETAINED changes of each group, numbered like expense_changes, for the change feed
+ * Reads run under a shared lock and never touch the file; writes take the exclusive lock while they append
+ * and update the indexes. The file is locked, so only one HomEx process uses it at a time.
+ */
+public class EmbeddedStore implements UserRepository, GroupRepository, ExpenseRepository {
+
+    static final Path DEFAULT_DIRECTORY = Paths.get("data", "embedded");
+    private static final String LOG_FILE = "homex.log";
+    private static final String LOCK_FILE = "homex.lock";
+    private static final int MAGIC = 0x48584442;    // "HXDB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;     // Magic, version, two spare ints
+    private static final int RECORD_HEADER_BYTES = 8;   // Length and CRC-32C of the contents
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+    private static final long FORCE_MILLIS = 100;
+    private static final int RETAINED = 10_000;     // Changes kept per group for the change feed
+    private static final int COMPACT_MIN_RECORDS = 10_000;
+    private static final int CANCEL_CHECK_ROWS = 4096;
+
+    // Record types
+    private static final byte USER = 'U';
+    private static final byte GROUP = 'G';
+    private static final byte EXPENSE = 'E';
+    private static final byte REMOVAL = 'D';
+    private static final byte COUNTERS = 'C';
+
+    private final Path logFile;
+    private final FileChannel lockChannel;
+    private final FileLock fileLock;
+    private FileChannel channel;
+    private long position;                          // End of the log, where the next record goes
+    private long records = 0;                       // Records in the log, current or outdated
+    private volatile boolean dirty = false;
+    private final ScheduledExecutorService syncer;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    private final Map<String, UserRow> users = new HashMap<>();
+    private final Map<Integer, GroupRow> groups = new HashMap<>();
+    private final Map<Integer, Expense> expenses = new HashMap<>();
+    private final Map<String, Member> members = new HashMap<>();
+    private int lastExpenseId = 0;
+    private int lastGroupId = 0;
+    private Map<String, String> shared = new HashMap<>();  // Repeated dates and usernames share one String while loading
+
+
+    /**
+     * A user account.
+     */
+    private record UserRow(String passwordHash, String avatar) {
+    }
+
+
+    /**
+     * A group, with the indexes of its expenses and its change feed.
+     */
+    private static class GroupRow {
+        final int id;
+        String name;
+        String passwordHash;
+        long seq = 0;                                               // Number of the last change
+        final ArrayList<Expense> rows = new ArrayList<>();          // In the table order
+        final ArrayDeque<Change> recent = new ArrayDeque<>();
+
+        GroupRow(int id) {
+            this.id = id;
+        }
+    }
+
+
+    /**
+     * The expenses a user added, with their totals.
+     */
+    private static class Member {
+        long gains = 0;
+        long losses = 0;
+        final TreeSet<Expense> rows = new TreeSet<>(ExpenseTableModel.ORDER);
+        final Map<Integer, Integer> groups = new HashMap<>();      // Group ID -> number of the user's expenses
+    }
+
+
+    /**
+     * Opens the storage in a directory, creating it if needed, and loads it into memory.
+     *
+     * @param directory The directory of the log file.
+     * @throws IOException If the file cannot be read, is not a HomEx log, or is used by another running HomEx.
+     */
+    EmbeddedStore(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        logFile = directory.resolve(LOG_FILE);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        fileLock = lockChannel.tryLock();
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("The embedded storage " + directory + " is used by another running HomEx.");
+        }
+
+        try {
+            long started = System.nanoTime();
+            channel = FileChannel.open(logFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            if (channel.size() == 0) {
+                channel.write(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).clear(), 0);
+                channel.force(true);
+            }
+            replay();
+            buildIndexes();
+            shared = null;
+            if (records > COMPACT_MIN_RECORDS && records > 2L * (users.size() + groups.size() + expenses.size())) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    System.out.println(e.getMessage());     // The log stays as it is, and works
+                }
+            }
+            System.out.printf("Embedded storage %s: %,d expenses in %,d groups loaded in %d ms%n",
+                    logFile, expenses.size(), groups.size(), (System.nanoTime() - started) / 1_000_000);
+        } catch (IOException | RuntimeException e) {
+            if (channel != null) {
+                channel.close();
+            }
+            fileLock.release();
+            lockChannel.close();
+            throw e;
+        }
+
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "homex-embedded-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, FORCE_MILLIS, FORCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    // Users
+
+    @Override
+    public LoginData findLogin(String username) {
+        lock.readLock().lock();
+        try {
+            UserRow user = users.get(username);
+            if (user == null) {
+                return null;
+            }
+            Member member = members.get(username);
+            Map<Integer, String> userGroups = new LinkedHashMap<>();
+            if (member != null) {
+                member.groups.keySet().stream()
+                        .map(groups::get)
+                        .sorted(Comparator.comparing((GroupRow group) -> group.name).thenComparingInt(group -> group.id))
+                        .forEach(group -> userGroups.put(group.id, group.name));
+            }
+            return new LoginData(user.passwordHash(), avatarOf(user), userGroups, summaryOf(member));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updatePasswordHash(String username, String oldHash, String newHash) throws StorageException {
+        lock.writeLock().lock();
+        try {
+            UserRow user = users.get(username);
+            if (user == null || !Objects.equals(user.passwordHash(), oldHash)) {
+                return false;
+            }
+            UserRow updated = new UserRow(newHash, user.avatar());
+            appendUser(null, username, updated);
+            users.put(username, updated);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public String findAvatarPath(String username) {
+        lock.readLock().lock();
+        try {
+            UserRow user = users.get(username);
+            return user != null ? avatarOf(user) : UserDao.DEFAULT_AVATAR;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean insertUser(String username, String passwordHash, String avatarPath) throws StorageException {
+        lock.writeLock().lock();
+        try {
+            if (users.containsKey(username)) {
+                return false;   // Username already exists
+            }
+            UserRow user = new UserRow(passwordHash, avatarPath);
+            appendUser(null, username, user);
+            users.put(username, user);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Renames a user; as on MariaDB, the expenses the user added keep the name they were added under.
+     */
+    @Override
+    public boolean updateUser(String currentUsername, String newUsername, String newPasswordHash) throws StorageException {
+        lock.writeLock().lock();
+        try {
+            UserRow user = users.get(currentUsername);
+            if (user == null) {
+                return false;
+            }
+            if (!newUsername.equals(currentUsername) && users.containsKey(newUsername)) {
+                throw new StorageException(StorageException.Reason.DUPLICATE, "The username " + newUsername + " is already taken.");
+            }
+            UserRow updated = new UserRow(newPasswordHash, user.avatar());
+            appendUser(currentUsername, newUsername, updated);
+            users.remove(currentUsername);
+            users.put(newUsername, updated);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    // Groups
+
+    @Override
+    public String findGroupName(int groupId) {
+        lock.readLock().lock();
+        try {
+            GroupRow group = groups.get(groupId);
+            return group != null ? group.name : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public String findGroupPassword(int groupId) {
+        lock.readLock().lock();
+        try {
+            GroupRow group = groups.get(groupId);
+            return group != null ? group.passwordHash : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int createGroup(String groupName, String passwordHash) throws StorageException {
+        lock.writeLock().lock();
+        try {
+            GroupRow group = new GroupRow(lastGroupId + 1);
+            group.name = groupName;
+            group.passwordHash = passwordHash;
+            appendGroup(group);
+            groups.put(group.id, group);
+            lastGroupId = group.id;
+            return group.id;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    // Expenses: reads
+
+    /**
+     * Runs the reads under the shared lock, so no change comes in between. Only reads may be made inside.
+     */
+    @Override
+    public <T> T read(Read<T> work) throws StorageException {
+        lock.readLock().lock();
+        try {
+            return work.run();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Expense findById(int expenseId) {
+        lock.readLock().lock();
+        try {
+            return expenses.get(expenseId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int countByGroup(int groupId) {
+        lock.readLock().lock();
+        try {
+            GroupRow group = groups.get(groupId);
+            return group != null ? group.rows.size() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Expense> findPage(int groupId, Expense after, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Expense> rows = rowsOf(groupId);
+            int start = after == null ? 0 : insertionPoint(rows, after, true);
+            return new ArrayList<>(rows.subList(start, Math.min(rows.size(), start + limit)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Expense> findAll(int groupId) {
+        lock.readLock().lock();
+        try {
+            return new ArrayList<>(rowsOf(groupId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Expense findAt(int groupId, int position) {
+        lock.readLock().lock();
+        try {
+            List<Expense> rows = rowsOf(groupId);
+            return position >= 0 && position < rows.size() ? rows.get(position) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public int positionOf(int groupId, String date, int expenseId) {
+        lock.readLock().lock();
+        try {
+            return insertionPoint(rowsOf(groupId), new Expense(expenseId, groupId, null, 0, date, null), false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Visits a copy of the rows taken under the lock, so a slow visitor (an export) does not hold back the writes.
+     */
+    @Override
+    public void forEach(ExpenseScope scope, Visitor visitor) throws StorageException {
+        List<Expense> rows;
+        lock.readLock().lock();
+        try {
+            if (scope.groupId() != null) {
+                rows = new ArrayList<>(rowsOf(scope.groupId()));
+            } else {
+                Member member = members.get(scope.username());
+                rows = member != null ? new ArrayList<>(member.rows) : List.of();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        visit(rows, visitor);
+    }
+
+    @Override
+    public void forEachAfter(int groupId, int afterId, Visitor visitor) throws StorageException {
+        List<Expense> rows = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Expense expense : rowsOf(groupId)) {
+                if (expense.getId() > afterId) {
+                    rows.add(expense);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        rows.sort(Comparator.comparingInt(Expense::getId));
+        visit(rows, visitor);
+    }
+
+    @Override
+    public WalletSummary summaryForUser(String username) {
+        lock.readLock().lock();
+        try {
+            return summaryOf(members.get(username));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Sums the months from the group's rows in the table order, which are sorted by date: a binary search
+     * finds the first day of the first month and the rows are read up to the end of the last.
+     */
+    @Override
+    public List<PeriodTotal> monthly(int groupId, LocalDate from, LocalDate to) {
+        String first = from != null ? from.withDayOfMonth(1).toString() : null;
+        String end = to != null ? to.withDayOfMonth(1).plusMonths(1).toString() : null;    // Exclusive
+
+        List<PeriodTotal> totals = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            List<Expense> rows = rowsOf(groupId);
+            int index = first == null ? 0 : insertionPoint(rows, new Expense(Integer.MIN_VALUE, groupId, null, 0, first, null), false);
+            String month = null;
+            long gains = 0;
+            long losses = 0;
+            int count = 0;
+            for (; index < rows.size(); index++) {
+                Expense expense = rows.get(index);
+                if (end != null && expense.getDate().compareTo(end) >= 0) {
+                    break;
+                }
+                if (!expense.getDate().startsWith(month != null ? month : "-")) {
+                    if (month != null) {
+                        totals.add(new PeriodTotal(LocalDate.parse(month + "-01"), gains, losses, count));
+                    }
+                    month = expense.getDate().substring(0, 7);
+                    gains = 0;
+                    losses = 0;
+                    count = 0;
+                }
+                long amount = expense.getAmountCents();
+                gains += Math.max(amount, 0);
+                losses += Math.min(amount, 0);
+                count++;
+            }
+            if (month != null) {
+                totals.add(new PeriodTotal(LocalDate.parse(month + "-01"), gains, losses, count));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return totals;
+    }
+
+    @Override
+    public long currentSeq(int groupId) {
+        lock.readLock().lock();
+        try {
+            GroupRow group = groups.get(groupId);
+            return group != null ? group.seq : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Batch since(int groupId, long afterSeq) {
+        if (afterSeq < 0) {
+            return Batch.NONE;
+        }
+        lock.readLock().lock();
+        try {
+            GroupRow group = groups.get(groupId);
+            long seq = group != null ? group.seq : 0;
+            if (afterSeq == seq) {
+                return Batch.NONE;
+            }
+            if (afterSeq > seq || seq - afterSeq > ExpenseChanges.MAX_BATCH
+                    || group.recent.isEmpty() || group.recent.peekFirst().seq() > afterSeq + 1) {
+                return new Batch(List.of(), true);   // Numbers of another file, too many, or no longer kept
+            }
+            List<Change> changes = new ArrayList<>((int) (seq - afterSeq));
+            Iterator<Change> newestFirst = group.recent.descendingIterator();
+            while (changes.size() < seq - afterSeq) {
+                changes.add(newestFirst.next());
+            }
+            Collections.reverse(changes);
+            return new Batch(changes, false);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+
+    // Expenses: writes
+
+    @Override
+    public Expense add(int groupId, String expenseName, long amountCents, String date, String username) throws StorageException {
+        String storedDate = validDate(date);
+        Expense added;
+        lock.writeLock().lock();
+        try {
+            GroupRow group = groups.get(groupId);
+            if (group == null) {
+                throw new StorageException(StorageException.Reason.NOT_FOUND, "No group " + groupId);
+            }
+            added = new Expense(lastExpenseId + 1, groupId, expenseName, amountCents, storedDate, username, 0);
+            appendExpense(group.seq + 1, ChangeKind.ADDED, added);
+            lastExpenseId = added.getId();
+            apply(group, group.seq + 1, ChangeKind.ADDED, null, added, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ExpenseService.added(added);
+        return added;
+    }
+
+    @Override
+    public Outcome update(Expense expense, String newName, long newAmountCents, String newDate) throws StorageException {
+        String storedDate = validDate(newDate);
+        Outcome outcome;
+        lock.writeLock().lock();
+        try {
+            Expense current = expenses.get(expense.getId());
+            if (current == null || current.getVersion() != expense.getVersion()) {
+                outcome = new Outcome(false, current);
+            } else {
+                Expense edited = new Expense(current.getId(), current.getGroupId(), newName, newAmountCents, storedDate,
+                        current.getUsername(), current.getVersion() + 1);
+                GroupRow group = groups.get(current.getGroupId());
+                appendExpense(group.seq + 1, ChangeKind.EDITED, edited);
+                apply(group, group.seq + 1, ChangeKind.EDITED, current, edited, true);
+                outcome = new Outcome(true, edited);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ExpenseService.updated(expense, outcome);
+        return outcome;
+    }
+
+    @Override
+    public Outcome remove(Expense expense) throws StorageException {
+        Outcome outcome;
+        lock.writeLock().lock();
+        try {
+            Expense current = expenses.get(expense.getId());
+            if (current == null || current.getVersion() != expense.getVersion()) {
+                outcome = new Outcome(false, current);
+            } else {
+                GroupRow group = groups.get(current.getGroupId());
+                appendRemoval(group.seq + 1, current);
+                apply(group, group.seq + 1, ChangeKind.REMOVED, current, null, true);
+                outcome = new Outcome(true, null);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ExpenseService.removed(expense, outcome);
+        return outcome;
+    }
+
+
+    /**
+     * Forces the log to disk and closes it.
+     */
+    void close() {
+        lock.writeLock().lock();
+        try {
+            syncer.shutdownNow();
+            channel.force(false);
+            channel.close();
+            fileLock.release();
+            lockChannel.close();
+        } catch (IOException e) {
+            System.out.println("Could not close the embedded storage: " + e.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+
+    // The indexes
+
+    /**
+     * Applies a change of an expense to the rows, and to the indexes unless the log is being replayed
+     * (buildIndexes() makes them afterwards, in one pass).
+     *
+     * @param group The group of the expense.
+     * @param seq The number of the change, 0 for a row rewritten by a compaction (not a change).
+     * @param kind ADDED, EDITED or REMOVED.
+     * @param before The expense before an edit or removal, otherwise null.
+     * @param after The expense after an addition or edit, otherwise null.
+     * @param indexed Whether the indexes are built already.
+     */
+    private void apply(GroupRow group, long seq, ChangeKind kind, Expense before, Expense after, boolean indexed) {
+        if (after != null) {
+            expenses.put(after.getId(), after);
+            lastExpenseId = Math.max(lastExpenseId, after.getId());
+        } else {
+            expenses.remove(before.getId());
+        }
+        if (indexed) {
+            if (before != null) {
+                group.rows.remove(insertionPoint(group.rows, before, false));
+                unindexMember(before);
+            }
+            if (after != null) {
+                group.rows.add(insertionPoint(group.rows, after, false), after);
+                indexMember(after);
+            }
+        }
+        if (seq > 0) {
+            group.seq = Math.max(group.seq, seq);
+            Expense place = before != null ? new Expense(before.getId(), before.getGroupId(), null, 0, before.getDate(), null) : null;
+            group.recent.addLast(new Change(seq, kind, place, after));
+            if (group.recent.size() > RETAINED) {
+                group.recent.removeFirst();
+            }
+        }
+    }
+
+
+    /**
+     * Sorts the rows of every group and makes the indexes of the users once the log is replayed.
+     */
+    private void buildIndexes() {
+        for (Expense expense : expenses.values()) {
+            group(expense.getGroupId()).rows.add(expense);
+            indexMember(expense);
+        }
+        for (GroupRow group : groups.values()) {
+            group.rows.sort(ExpenseTableModel.ORDER);
+        }
+    }
+
+
+    private void indexMember(Expense expense) {
+        Member member = members.computeIfAbsent(expense.getUsername(), _ -> new Member());
+        member.rows.add(expense);
+        member.gains += Math.max(expense.getAmountCents(), 0);
+        member.losses += Math.min(expense.getAmountCents(), 0);
+        member.groups.merge(expense.getGroupId(), 1, Integer::sum);
+    }
+
+
+    private void unindexMember(Expense expense) {
+        Member member = members.get(expense.getUsername());
+        member.rows.remove(expense);
+        member.gains -= Math.max(expense.getAmountCents(), 0);
+        member.losses -= Math.min(expense.getAmountCents(), 0);
+        if (member.groups.merge(expense.getGroupId(), -1, Integer::sum) == 0) {
+            member.groups.remove(expense.getGroupId());
+        }
+        if (member.rows.isEmpty()) {
+            members.remove(expense.getUsername());
+        }
+    }
+
+
+    /**
+     * Returns the group with an ID, creating it if a record names a group that is not in the log.
+     */
+    private GroupRow group(int groupId) {
+        return groups.computeIfAbsent(groupId, GroupRow::new);
+    }
+
+
+    private List<Expense> rowsOf(int groupId) {
+        GroupRow group = groups.get(groupId);
+        return group != null ? group.rows : List.of();
+    }
+
+
+    /**
+     * Returns the index of an expense in rows sorted in the table order, or where it would go.
+     *
+     * @param after True to return the index just after the expense if it is there.
+     */
+    private static int insertionPoint(List<Expense> rows, Expense expense, boolean after) {
+        int index = Collections.binarySearch(rows, expense, ExpenseTableModel.ORDER);
+        return index >= 0 ? (after ? index + 1 : index) : -index - 1;
+    }
+
+
+    private static WalletSummary summaryOf(Member member) {
+        return member != null ? new WalletSummary(member.gains, member.losses, member.rows.size()) : new WalletSummary(0, 0, 0);
+    }
+
+
+    private static String avatarOf(UserRow user) {
+        return user.avatar() != null && !user.avatar().isEmpty() ? user.avatar() : UserDao.DEFAULT_AVATAR;
+    }
+
+
+    private static void visit(List<Expense> rows, Visitor visitor) throws StorageException {
+        for (int i = 0; i < rows.size(); i++) {
+            visitor.visit(rows.get(i));
+            if ((i + 1) % CANCEL_CHECK_ROWS == 0 && Thread.currentThread().isInterrupted()) {
+                throw new StorageException(StorageException.Reason.CANCELLED, "Reading cancelled after " + (i + 1) + " expenses");
+            }
+        }
+    }
+
+
+    /**
+     * Checks a date (YYYY-MM-DD) as the DATE column of MariaDB would, and returns it in that form.
+     */
+    private static String validDate(String date) throws StorageException {
+        try {
+            return LocalDate.parse(date).toString();
+        } catch (DateTimeParseException | NullPointerException e) {
+            throw new StorageException(StorageException.Reason.INVALID, "Invalid date: " + date);
+        }
+    }
+
+
+
+    // The log
+
+    /**
+     * Reads the records of the log up to the first empty or damaged one, which is cut off with what follows.
+     */
+    private void replay() throws IOException {
+        channel.position(0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 1 << 16));
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException(logFile + " is not an embedded storage of this version.");
+        }
+        input.skipNBytes(HEADER_BYTES - 2 * Integer.BYTES);
+        position = HEADER_BYTES;
+
+        byte[] contents = new byte[1024];
+        while (true) {
+            int length;
+            int checksum;
+            try {
+                length = input.readInt();
+                checksum = input.readInt();
+                if (length <= 0 || length > MAX_RECORD_BYTES) {
+                    break;
+                }
+                if (contents.length < length) {
+                    contents = new byte[Math.max(length, 2 * contents.length)];
+                }
+                input.readFully(contents, 0, length);
+            } catch (EOFException e) {
+                break;
+            }
+            crc.reset();
+            crc.update(contents, 0, length);
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            read(ByteBuffer.wrap(contents, 0, length));
+            position += RECORD_HEADER_BYTES + length;
+            records++;
+        }
+
+        if (position < channel.size()) {
+            System.out.println("The embedded storage ends with a damaged record, cut off at offset " + position);
+            channel.truncate(position);
+            channel.force(true);
+        }
+    }
+
+
+    /**
+     * Applies one record of the log to the rows.
+     */
+    private void read(ByteBuffer record) {
+        byte type = record.get();
+        switch (type) {
+            case USER -> {
+                String previous = getString(record);
+                String username = getString(record);
+                if (previous != null) {
+                    users.remove(previous);
+                }
+                users.put(username, new UserRow(getString(record), getString(record)));
+            }
+            case GROUP -> {
+                GroupRow group = group(record.getInt());
+                group.seq = Math.max(group.seq, record.getLong());
+                group.name = getString(record);
+                group.passwordHash = getString(record);
+                lastGroupId = Math.max(lastGroupId, group.id);
+            }
+            case EXPENSE -> {
+                long seq = record.getLong();
+                ChangeKind kind = ChangeKind.of(String.valueOf((char) record.get()));
+                Expense read = getExpense(record);
+                Expense expense = new Expense(read.getId(), read.getGroupId(), read.getExpenseName(), read.getAmountCents(),
+                        shared.computeIfAbsent(read.getDate(), value -> value),
+                        read.getUsername() != null ? shared.computeIfAbsent(read.getUsername(), value -> value) : null, read.getVersion());
+                apply(group(expense.getGroupId()), seq, kind, expenses.get(expense.getId()), expense, false);
+            }
+            case REMOVAL -> {
+                long seq = record.getLong();
+                Expense expense = expenses.get(record.getInt());
+                if (expense != null) {
+                    apply(group(expense.getGroupId()), seq, ChangeKind.REMOVED, expense, null, false);
+                }
+            }
+            case COUNTERS -> {
+                lastExpenseId = Math.max(lastExpenseId, record.getInt());
+                lastGroupId = Math.max(lastGroupId, record.getInt());
+            }
+            default -> throw new IllegalStateException("Unknown record type " + (char) type + " in " + logFile);
+        }
+    }
+
+
+    /**
+     * Rewrites the log with the current rows only, next to it, then moves it into place.
+     */
+    private void compact() throws IOException {
+        long started = System.nanoTime();
+        long before = records;
+        long end = position;
+        Path compacted = logFile.resolveSibling(LOG_FILE + ".compact");
+        FileChannel old = channel;
+        channel = FileChannel.open(compacted, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            channel.write(ByteBuffer.allocate(HEADER_BYTES).putInt(MAGIC).putInt(VERSION).clear(), 0);
+            position = HEADER_BYTES;
+            records = 0;
+
+            begin(8).put(COUNTERS).putInt(lastExpenseId).putInt(lastGroupId);
+            write();
+            for (Map.Entry<String, UserRow> user : users.entrySet()) {
+                appendUser(null, user.getKey(), user.getValue());
+            }
+            for (GroupRow group : groups.values()) {
+                appendGroup(group);
+                for (Expense expense : group.rows) {
+                    appendExpense(0, ChangeKind.ADDED, expense);
+                }
+            }
+            channel.force(true);
+            Files.move(compacted, logFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | StorageException e) {
+            channel.close();
+            channel = old;
+            position = end;
+            records = before;
+            Files.deleteIfExists(compacted);
+            throw new IOException("Could not compact the embedded storage: " + e.getMessage(), e);
+        }
+        old.close();
+        System.out.printf("Embedded storage compacted from %,d to %,d records in %d ms%n",
+                before, records, (System.nanoTime() - started) / 1_000_000);
+    }
+
+
+    private void appendUser(String previous, String username, UserRow user) throws StorageException {
+        begin(strings(previous, username, user.passwordHash(), user.avatar())).put(USER);
+        putString(previous);
+        putString(username);
+        putString(user.passwordHash());
+        putString(user.avatar());
+        write();
+    }
+
+
+    private void appendGroup(GroupRow group) throws StorageException {
+        begin(strings(group.name, group.passwordHash)).put(GROUP).putInt(group.id).putLong(group.seq);
+        putString(group.name);
+        putString(group.passwordHash);
+        write();
+    }
+
+
+    private void appendExpense(long seq, ChangeKind kind, Expense expense) throws StorageException {
+        begin(strings(expense.getExpenseName(), expense.getDate(), expense.getUsername())).put(EXPENSE).putLong(seq).put((byte) kind.code);
+        putExpense(expense);
+        write();
+    }
+
+
+    private void appendRemoval(long seq, Expense expense) throws StorageException {
+        begin(0).put(REMOVAL).putLong(seq).putInt(expense.getId());
+        write();
+    }
+
+
+    /**
+     * Starts a record in the scratch buffer, large enough for the fixed fields and strings of the given size.
+     */
+    private ByteBuffer begin(int stringBytes) {
+        int capacity = RECORD_HEADER_BYTES + 64 + stringBytes;
+        if (scratch.capacity() < capacity) {
+            scratch = ByteBuffer.allocate(Math.max(capacity, 2 * scratch.capacity()));
+        }
+        scratch.clear().position(RECORD_HEADER_BYTES);
+        return scratch;
+    }
+
+
+    /**
+     * Returns the most bytes the strings of a record can take in UTF-8, with their lengths.
+     */
+    private static int strings(String... values) {
+        int bytes = 0;
+        for (String value : values) {
+            bytes += Integer.BYTES + (value != null ? 3 * value.length() : 0);
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Frames the record of the scratch buffer and appends it to the log. If the write fails, the log is cut
+     * back to where the record started, so that the next records are not hidden behind a partial one.
+     */
+    private void write() throws StorageException {
+        int length = scratch.position() - RECORD_HEADER_BYTES;
+        if (length > MAX_RECORD_BYTES) {
+            throw new StorageException(StorageException.Reason.INVALID, "The row is too large for the embedded storage.");
+        }
+        crc.reset();
+        crc.update(scratch.slice(RECORD_HEADER_BYTES, length));
+        scratch.putInt(0, length).putInt(Integer.BYTES, (int) crc.getValue()).flip();
+
+        try {
+            long at = position;
+            while (scratch.hasRemaining()) {
+                at += channel.write(scratch, at);
+            }
+        } catch (IOException e) {
+            try {
+                channel.truncate(position);
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError);
+            }
+            throw new StorageException(StorageException.Reason.FAILED, "Could not write the embedded storage: " + e.getMessage(), e);
+        }
+        position += RECORD_HEADER_BYTES + length;
+        records++;
+        dirty = true;
+    }
+
+
+    private void putExpense(Expense expense) {
+        scratch.putInt(expense.getId()).putInt(expense.getGroupId()).putLong(expense.getAmountCents()).putInt(expense.getVersion());
+        putString(expense.getExpenseName());
+        putString(expense.getDate());
+        putString(expense.getUsername());
+    }
+
+
+    private void putString(String value) {
+        if (value == null) {
+            scratch.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        scratch.putInt(bytes.length).put(bytes);
+    }
+
+
+    private static Expense getExpense(ByteBuffer record) {
+        int id = record.getInt();
+        int groupId = record.getInt();
+        long amountCents = record.getLong();
+        int version = record.getInt();
+        return new Expense(id, groupId, getString(record), amountCents, getString(record), getString(record), version);
+    }
+
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Forces the records appended since the last sync to disk.
+     */
+    private void sync() {
+        if (dirty) {
+            dirty = false;
+            try {
+                channel.force(false);
+            } catch (IOException e) {
+                dirty = true;
+                System.out.println("Could not sync the embedded storage: " + e.getMessage());
+            }
+        }
+    }
+}
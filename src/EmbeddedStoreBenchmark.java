@@ -0,0 +1,144 @@
+/**
+ * Libraries
+ */
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+
+/**
+ * The EmbeddedStoreBenchmark class measures the embedded storage (EmbeddedStore) on a temporary directory:
+ * how long adding and editing an expense takes, how long opening the log takes (once compacting it, once
+ * replaying it as is), and how fast the table reads (pages, positions, monthly totals) are served.
+ *
+ * Run with: java EmbeddedStoreBenchmark [expenses]
+ */
+public class EmbeddedStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Path directory = Files.createTempDirectory("homex-embedded");
+
+        try {
+            EmbeddedStore store = new EmbeddedStore(directory);
+            int groupId = store.createGroup("Benchmark", null);
+            System.out.println("Warming up...");
+            write(store, groupId, 20_000);
+            store.close();
+            delete(directory);
+
+            store = new EmbeddedStore(directory);
+            groupId = store.createGroup("Benchmark", null);
+            long[][] latencies = write(store, groupId, count);
+            store.close();
+            report("Adds", latencies[0]);
+            report("Edits", latencies[1]);
+
+            // The edits left one obsolete record per row: the first open compacts the log, the second replays it
+            long started = System.nanoTime();
+            store = new EmbeddedStore(directory);
+            System.out.printf("Opened with compaction in %.1f ms, log of %,d bytes%n",
+                    (System.nanoTime() - started) / 1e6, Files.size(directory.resolve("homex.log")));
+            store.close();
+            started = System.nanoTime();
+            store = new EmbeddedStore(directory);
+            System.out.printf("Opened in %.1f ms, %,d of %,d expenses read back%n",
+                    (System.nanoTime() - started) / 1e6, store.countByGroup(groupId), count);
+
+            read(store, groupId, count);
+            store.close();
+        } finally {
+            delete(directory);
+        }
+    }
+
+
+    /**
+     * Adds expenses on random dates, then edits each of them once, timing every call.
+     */
+    private static long[][] write(EmbeddedStore store, int groupId, int count) throws Exception {
+        Random random = new Random(42);
+        LocalDate first = LocalDate.of(2015, 1, 1);
+        long[] adds = new long[count];
+        long[] edits = new long[count];
+        List<Expense> added = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String date = first.plusDays(random.nextInt(3_650)).toString();
+            long started = System.nanoTime();
+            added.add(store.add(groupId, "Groceries " + i, -2_550 - i, date, "benchmark"));
+            adds[i] = System.nanoTime() - started;
+        }
+        for (int i = 0; i < count; i++) {
+            Expense expense = added.get(i);
+            long started = System.nanoTime();
+            ExpenseRepository.Outcome outcome = store.update(expense, "Groceries (market) " + i, expense.getAmountCents() - 50, expense.getDate());
+            edits[i] = System.nanoTime() - started;
+            if (!outcome.written()) {
+                throw new IllegalStateException("Edit of expense " + expense.getId() + " was refused");
+            }
+        }
+        return new long[][] { adds, edits };
+    }
+
+
+    /**
+     * Walks the table page by page, then jumps to random positions and reads the monthly totals.
+     */
+    private static void read(EmbeddedStore store, int groupId, int count) throws Exception {
+        long started = System.nanoTime();
+        int rows = 0;
+        Expense last = null;
+        List<Expense> page;
+        while (!(page = store.findPage(groupId, last, ExpenseTableModel.PAGE_SIZE)).isEmpty()) {
+            rows += page.size();
+            last = page.get(page.size() - 1);
+        }
+        System.out.printf("Paged through %,d rows in %.1f ms%n", rows, (System.nanoTime() - started) / 1e6);
+
+        Random random = new Random(7);
+        int lookups = 100_000;
+        started = System.nanoTime();
+        for (int i = 0; i < lookups; i++) {
+            Expense expense = store.findAt(groupId, random.nextInt(count));
+            if (store.positionOf(groupId, expense.getDate(), expense.getId()) < 0) {
+                throw new IllegalStateException("Expense " + expense.getId() + " has no position");
+            }
+        }
+        System.out.printf("%,d findAt + positionOf in %.1f ms%n", lookups, (System.nanoTime() - started) / 1e6);
+
+        started = System.nanoTime();
+        int months = store.monthly(groupId, null, null).size();
+        System.out.printf("%d monthly totals in %.1f ms%n", months, (System.nanoTime() - started) / 1e6);
+    }
+
+
+    /**
+     * Prints the rate and the latency percentiles of a series of calls.
+     */
+    private static void report(String label, long[] latencies) {
+        int count = latencies.length;
+        Arrays.sort(latencies);
+        long total = Arrays.stream(latencies).sum();
+        System.out.printf("%s: %,d, %,.0f/s, latency us: median %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+                label, count, count / (total / 1e9), latencies[count / 2] / 1e3, latencies[(int) (count * 0.99)] / 1e3,
+                latencies[(int) (count * 0.999)] / 1e3, latencies[count - 1] / 1e3);
+    }
+
+
+    /**
+     * Deletes the files of the storage, and the directory itself.
+     */
+    private static void delete(Path directory) throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path path : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Class to hold one row of the 'expenses' table
+ */
+public class Expense {
+    private final int id;
+    private final int groupId;
+    private final String expenseName;
+    private final long amountCents;     // Fixed-point amount, see Money
+    private String amount;              // Formatted on first display, then kept
+    private final String date;
+    private final String username;
+    private final int version;          // Row version, incremented by every edit (optimistic concurrency)
+
+    // Constructor
+    public Expense(int id, int groupId, String expenseName, long amountCents, String date, String username, int version) {
+        this.id = id;
+        this.groupId = groupId;
+        this.expenseName = expenseName;
+        this.amountCents = amountCents;
+        this.date = date;
+        this.username = username;
+        this.version = version;
+    }
+
+    // Constructor for a new row, or a key (id and date) to look a row up
+    public Expense(int id, int groupId, String expenseName, long amountCents, String date, String username) {
+        this(id, groupId, expenseName, amountCents, date, username, 0);
+    }
+
+    // Getters
+    public int getId() {
+        return id;
+    }
+
+    public int getGroupId() {
+        return groupId;
+    }
+
+    public String getExpenseName() {
+        return expenseName;
+    }
+
+    public String getAmount() {
+        if (amount == null) {
+            amount = Money.format(amountCents);     // Rows never displayed are never formatted
+        }
+        return amount;
+    }
+
+    public long getAmountCents() {
+        return amountCents;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,85 @@
+/**
+ * Libraries
+ */
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Random;
+
+
+/**
+ * The ExpenseAnalyticsBenchmark class measures the answer time of ExpenseAnalytics on 1,000,000 generated expenses,
+ * without a database: 8 members, dates spread over 5 years, about one expense in four being a gain.
+ *
+ * It reports the median and the worst time of the analyses the Analysis screen runs:
+ * no filter, one member, and one year. The first rounds warm up the JIT and are not reported.
+ *
+ * Run with: java ExpenseAnalyticsBenchmark [expenses]
+ */
+public class ExpenseAnalyticsBenchmark {
+
+    private static final int DEFAULT_EXPENSES = 1_000_000;
+    private static final int MEMBERS = 8;
+    private static final int YEARS = 5;
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+
+    public static void main(String[] args) {
+        int expenseCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EXPENSES;
+
+        long started = System.nanoTime();
+        ExpenseColumns columns = generate(expenseCount);
+        System.out.printf("Generated %,d expenses (%d months, %d members) in %d ms%n", columns.size(),
+                columns.monthCount(), columns.memberCount(), (System.nanoTime() - started) / 1_000_000);
+
+        int firstYear = (int) LocalDate.now().minusYears(YEARS).withDayOfYear(1).toEpochDay();
+        int secondYear = (int) LocalDate.ofEpochDay(firstYear).plusYears(1).toEpochDay();
+
+        run("all expenses", columns, ExpenseAnalytics.Filter.all());
+        run("one member", columns, new ExpenseAnalytics.Filter(Integer.MIN_VALUE, Integer.MAX_VALUE, 0));
+        run("one year", columns, new ExpenseAnalytics.Filter(firstYear, secondYear - 1, ExpenseAnalytics.Filter.ALL_MEMBERS));
+    }
+
+
+    /**
+     * Times one analysis.
+     */
+    private static void run(String name, ExpenseColumns columns, ExpenseAnalytics.Filter filter) {
+        ExpenseAnalytics.Report report = null;
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            report = ExpenseAnalytics.analyze(columns, filter);
+        }
+
+        long[] times = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            report = ExpenseAnalytics.analyze(columns, filter);
+            times[round] = report.elapsedNanos();
+        }
+        Arrays.sort(times);
+
+        System.out.printf("%-14s %,9d expenses, %3d months, %d members: median %6.2f ms, worst %6.2f ms%n", name,
+                report.matched(), report.byMonth().size(), report.byMember().size(), times[ROUNDS / 2] / 1e6, times[ROUNDS - 1] / 1e6);
+    }
+
+
+    /**
+     * Generates expenses the way a household would add them: in date order, in runs from the same member.
+     */
+    private static ExpenseColumns generate(int expenseCount) {
+        Random random = new Random(42);
+        int firstDay = (int) LocalDate.now().minusYears(YEARS).withDayOfYear(1).toEpochDay();
+        int days = YEARS * 365;
+
+        ExpenseColumns.Builder builder = new ExpenseColumns.Builder();
+        int member = 0;
+        for (int i = 0; i < expenseCount; i++) {
+            if (random.nextInt(4) == 0) {
+                member = random.nextInt(MEMBERS);
+            }
+            int day = firstDay + (int) ((long) i * days / expenseCount);
+            long cents = 100 + random.nextInt(20_000);
+            builder.add(day, random.nextInt(4) == 0 ? cents : -cents, "member" + member);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * Libraries
+ */
+import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+
+
+/**
+ * The ExpenseCellRenderer class paints the cells of the expense table, showing gains in green and losses in red.
+ * It is called for every visible cell on every repaint, so it allocates nothing: the colours are constants,
+ * the amount's sign comes from the cents already parsed into the Expense, and the displayed texts are the
+ * strings the Expense already holds.
+ */
+public class ExpenseCellRenderer extends DefaultTableCellRenderer {
+
+    // Column showing the amount
+    private static final int AMOUNT_COLUMN = 2;
+
+    private static final Color GAIN_COLOR = new Color(76, 250, 0);
+    private static final Color LOSS_COLOR = new Color(255, 82, 82);
+
+
+    @Override
+    public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+        Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+
+        if (!isSelected) {
+            // Apply color for gain or loss in the "Amount" column
+            Expense expense = column == AMOUNT_COLUMN ? expenseAt(table, row) : null;
+            if (expense != null) {
+                c.setForeground(expense.getAmountCents() >= 0 ? GAIN_COLOR : LOSS_COLOR);
+            } else {
+                c.setForeground(Color.BLACK);   // Other columns, or the amount while its page loads
+            }
+        } else {
+            c.setBackground(table.getSelectionBackground());
+            c.setForeground(table.getSelectionForeground());
+        }
+
+        return c;
+    }
+
+
+    /**
+     * Returns the expense of a view row, or null if it is not loaded yet.
+     */
+    private static Expense expenseAt(JTable table, int row) {
+        if (table.getModel() instanceof ExpenseTableModel model) {
+            return model.getExpenseAt(table.convertRowIndexToModel(row));
+        }
+        return null;
+    }
+}
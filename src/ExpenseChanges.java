@@ -0,0 +1,388 @@
+/**
+ * Libraries
+ */
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+
+/**
+ * The ExpenseChanges class is the change feed of the groups' expenses, so that every open window (and
+ * every API client) sees what the other members add, edit and remove without reloading the group.
+ *
+ * Each change to a group's expenses takes the next number of the group's change sequence
+ * (groups.change_seq) and is logged in expense_changes with the new values, in the same transaction as
+ * the change itself. The group row stays locked until the commit, so the numbers of a group have no gaps
+ * and become visible in order: a reader that has applied every change up to N asks for the changes after
+ * N, an index range read that costs next to nothing when there are none, and replays them.
+ *
+ * Readers in this process are woken as soon as a change is committed here (published); changes made by
+ * other processes are picked up by polling every POLL_MILLIS. Only the last RETAINED changes of a group
+ * are kept; a reader that is further behind, or that meets a bulk change (CSV import), reloads instead.
+ */
+public class ExpenseChanges {
+
+    static final long POLL_MILLIS = 2000;
+    static final int MAX_BATCH = 500;           // More changes than this are cheaper to reload
+    private static final int RETAINED = 10_000;
+    private static final int PRUNE_EVERY = 1000;
+
+    private static final String INSERT_SQL =
+            "INSERT INTO expense_changes (groupID, seq, kind, expenseID, old_date, expenseName, amount_cents, date, username, version) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // In-process wake-ups of the groups someone is waiting on (see acquire); a ReentrantLock rather than
+    // synchronized, so waiting virtual threads release their carrier
+    private static final ConcurrentHashMap<Integer, Signal> signals = new ConcurrentHashMap<>();
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ExpenseChanges() {
+    }
+
+
+    /**
+     * Logs an addition, edit or removal. Call it on the connection that changed the expense, before the commit.
+     *
+     * @param connection The connection to use.
+     * @param kind ADDED, EDITED or REMOVED.
+     * @param before The expense as stored before an edit or removal, otherwise null.
+     * @param after The expense as stored after an addition or edit, otherwise null.
+     * @return The number of the change.
+     */
+    public static long record(Connection connection, ExpenseRepository.ChangeKind kind, Expense before, Expense after) throws SQLException {
+        Expense expense = after != null ? after : before;
+        int groupId = expense.getGroupId();
+        long seq = nextSeq(connection, groupId);
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL)) {
+            preparedStatement.setInt(1, groupId);
+            preparedStatement.setLong(2, seq);
+            preparedStatement.setString(3, String.valueOf(kind.code));
+            preparedStatement.setInt(4, expense.getId());
+            preparedStatement.setDate(5, before != null && before.getDate() != null ? Date.valueOf(before.getDate()) : null);
+            preparedStatement.setString(6, after != null ? after.getExpenseName() : null);
+            if (after != null) {
+                preparedStatement.setLong(7, after.getAmountCents());
+                preparedStatement.setInt(10, after.getVersion());
+            } else {
+                preparedStatement.setNull(7, Types.BIGINT);
+                preparedStatement.setNull(10, Types.INTEGER);
+            }
+            preparedStatement.setDate(8, after != null ? Date.valueOf(after.getDate()) : null);
+            preparedStatement.setString(9, after != null ? after.getUsername() : null);
+            preparedStatement.executeUpdate();
+        }
+        prune(connection, groupId, seq);
+        return seq;
+    }
+
+
+    /**
+     * Logs that many expenses of a group changed at once, so readers reload it instead of replaying each row.
+     * Call it on the connection that changed the expenses, before the commit.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @return The number of the change.
+     */
+    public static long recordReload(Connection connection, int groupId) throws SQLException {
+        long seq = nextSeq(connection, groupId);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO expense_changes (groupID, seq, kind) VALUES (?, ?, ?)")) {
+            preparedStatement.setInt(1, groupId);
+            preparedStatement.setLong(2, seq);
+            preparedStatement.setString(3, String.valueOf(ExpenseRepository.ChangeKind.RELOAD.code));
+            preparedStatement.executeUpdate();
+        }
+        prune(connection, groupId, seq);
+        return seq;
+    }
+
+
+    /**
+     * Returns the number of the last change of a group. Read it in the same transaction as the rows it
+     * describes, so that the rows and the number come from one snapshot.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @return The number, 0 if the group never changed or does not exist.
+     */
+    public static long currentSeq(Connection connection, int groupId) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT change_seq FROM groups WHERE id = ?")) {
+            preparedStatement.setInt(1, groupId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getLong(1) : 0;
+            }
+        }
+    }
+
+
+    /**
+     * Reads the changes of a group after a given number.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @param afterSeq The number of the last change the reader has applied, or -1 if it has nothing loaded yet.
+     * @return The changes, or a batch asking to reload.
+     */
+    public static ExpenseRepository.Batch since(Connection connection, int groupId, long afterSeq) throws SQLException {
+        if (afterSeq < 0) {
+            return ExpenseRepository.Batch.NONE;
+        }
+
+        String sql = "SELECT seq, kind, expenseID, old_date, expenseName, amount_cents, date, username, version " +
+                "FROM expense_changes WHERE groupID = ? AND seq > ? ORDER BY seq LIMIT ?";
+        List<ExpenseRepository.Change> changes = new ArrayList<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, groupId);
+            preparedStatement.setLong(2, afterSeq);
+            preparedStatement.setInt(3, MAX_BATCH + 1);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                long expected = afterSeq + 1;
+                while (resultSet.next()) {
+                    long seq = resultSet.getLong("seq");
+                    ExpenseRepository.ChangeKind kind = ExpenseRepository.ChangeKind.of(resultSet.getString("kind"));
+                    if (seq != expected || kind == ExpenseRepository.ChangeKind.RELOAD || changes.size() == MAX_BATCH) {
+                        return new ExpenseRepository.Batch(List.of(), true);  // Pruned, bulk change or too many
+                    }
+                    expected++;
+
+                    int expenseId = resultSet.getInt("expenseID");
+                    String oldDate = resultSet.getString("old_date");
+                    Expense before = kind == ExpenseRepository.ChangeKind.ADDED ? null : new Expense(expenseId, groupId, null, 0, oldDate, null);
+                    Expense after = kind == ExpenseRepository.ChangeKind.REMOVED ? null : new Expense(expenseId, groupId,
+                            resultSet.getString("expenseName"), resultSet.getLong("amount_cents"),
+                            resultSet.getString("date"), resultSet.getString("username"), resultSet.getInt("version"));
+                    changes.add(new ExpenseRepository.Change(seq, kind, before, after));
+                }
+            }
+        }
+        return changes.isEmpty() ? ExpenseRepository.Batch.NONE : new ExpenseRepository.Batch(changes, false);
+    }
+
+
+    /**
+     * Wakes the readers of a group in this process. Call it after the commit of a change.
+     *
+     * @param groupId The ID of the group that changed.
+     */
+    public static void published(int groupId) {
+        Signal signal = signals.get(groupId);
+        if (signal != null) {
+            signal.fire();
+        }
+    }
+
+
+    /**
+     * Waits for the changes of a group after a given number (long polling), reading them from the expense
+     * repository (see Repositories), which on MariaDB borrows a pooled connection only while it reads.
+     * Meant for virtual threads, which can wait cheaply.
+     *
+     * @param groupId The ID of the group.
+     * @param afterSeq The number of the last change the reader has applied.
+     * @param timeoutMillis How long to wait for a change.
+     * @return The changes, or an empty batch if nothing changed in time.
+     */
+    public static ExpenseRepository.Batch await(int groupId, long afterSeq, long timeoutMillis) throws StorageException, InterruptedException {
+        Signal signal = acquire(groupId);
+        try {
+            ExpenseRepository repository = Repositories.expenses();
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (true) {
+                long seen = signal.count();
+                ExpenseRepository.Batch batch = repository.since(groupId, afterSeq);
+                long left = deadline - System.currentTimeMillis();
+                if (!batch.isEmpty() || left <= 0) {
+                    return batch;
+                }
+                signal.await(seen, Math.min(left, POLL_MILLIS));
+            }
+        } finally {
+            release(groupId);
+        }
+    }
+
+
+    /**
+     * Returns the signal of a group for one more reader, creating it for the first.
+     */
+    private static Signal acquire(int groupId) {
+        return signals.compute(groupId, (_, signal) -> {
+            Signal acquired = signal != null ? signal : new Signal();
+            acquired.readers++;
+            return acquired;
+        });
+    }
+
+
+    /**
+     * Gives back the signal of a group; the last reader removes it, so groups nobody follows any more cost nothing.
+     */
+    private static void release(int groupId) {
+        signals.computeIfPresent(groupId, (_, signal) -> --signal.readers == 0 ? null : signal);
+    }
+
+
+    /**
+     * Follows the changes of a group on a virtual thread until closed.
+     *
+     * @param groupId The ID of the group.
+     * @param applied Returns the number of the last change the reader has applied (-1 while it loads); may be called from any thread.
+     * @param onChanges Called on the feed's thread with each non-empty batch.
+     * @return The subscription, to close when the reader goes away.
+     */
+    public static Subscription subscribe(int groupId, LongSupplier applied, Consumer<ExpenseRepository.Batch> onChanges) {
+        return new Subscription(groupId, applied, onChanges);
+    }
+
+
+    /**
+     * A reader following a group's changes.
+     */
+    public static class Subscription implements AutoCloseable {
+
+        private final int groupId;
+        private final Signal signal;
+        private final Thread thread;
+        private volatile boolean closed = false;
+
+        private Subscription(int groupId, LongSupplier applied, Consumer<ExpenseRepository.Batch> onChanges) {
+            this.groupId = groupId;
+            this.signal = acquire(groupId);     // Released by the feed's thread when it ends
+            this.thread = Thread.ofVirtual().name("homex-changes-" + groupId).start(() -> follow(applied, onChanges));
+        }
+
+        /**
+         * Reads the changes now instead of at the next poll, e.g. when the reader noticed it is behind.
+         */
+        public void pollNow() {
+            signal.fire();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            thread.interrupt();
+        }
+
+        private void follow(LongSupplier applied, Consumer<ExpenseRepository.Batch> onChanges) {
+            boolean failing = false;
+            ExpenseRepository repository = Repositories.expenses();
+            try {
+                while (!closed) {
+                    long seen = signal.count();
+                    try {
+                        ExpenseRepository.Batch batch = repository.since(groupId, applied.getAsLong());
+                        if (!batch.isEmpty() && !closed) {
+                            onChanges.accept(batch);
+                        }
+                        failing = false;
+                    } catch (StorageException e) {
+                        if (!failing) {
+                            System.out.println("Change feed of group " + groupId + " failed, retrying: " + e.getMessage());
+                            failing = true;     // Reported once, until it works again
+                        }
+                    }
+                    signal.await(seen, POLL_MILLIS);
+                }
+            } catch (InterruptedException e) {
+                // Closed
+            } catch (RuntimeException e) {
+                if (!closed) {
+                    System.out.println("Change feed of group " + groupId + " stopped: " + AsyncDatabase.rootCause(e));
+                }
+            } finally {
+                release(groupId);
+            }
+        }
+    }
+
+
+    /**
+     * Takes the next number of a group's sequence and locks the group row until the commit.
+     */
+    private static long nextSeq(Connection connection, int groupId) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             PreparedStatement preparedStatement = connection.prepareStatement(
+                     "UPDATE groups SET change_seq = LAST_INSERT_ID(change_seq + 1) WHERE id = ?")) {
+            preparedStatement.setInt(1, groupId);
+            if (preparedStatement.executeUpdate() == 0) {
+                throw new SQLException("No group " + groupId);
+            }
+            try (ResultSet resultSet = statement.executeQuery("SELECT LAST_INSERT_ID()")) {
+                resultSet.next();
+                return resultSet.getLong(1);
+            }
+        }
+    }
+
+
+    /**
+     * Every PRUNE_EVERY changes, drops the changes of the group older than the last RETAINED.
+     */
+    private static void prune(Connection connection, int groupId, long seq) throws SQLException {
+        if (seq % PRUNE_EVERY != 0 || seq <= RETAINED) {
+            return;
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "DELETE FROM expense_changes WHERE groupID = ? AND seq <= ?")) {
+            preparedStatement.setInt(1, groupId);
+            preparedStatement.setLong(2, seq - RETAINED);
+            preparedStatement.executeUpdate();
+        }
+    }
+
+
+    /**
+     * A counter bumped by each change of a group in this process, which readers wait on.
+     */
+    private static class Signal {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private long count = 0;
+        private int readers = 0;    // Only changed inside signals.compute, see acquire and release
+
+        long count() {
+            lock.lock();
+            try {
+                return count;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void fire() {
+            lock.lock();
+            try {
+                count++;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void await(long seen, long millis) throws InterruptedException {
+            lock.lock();
+            try {
+                long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+                while (count == seen && nanos > 0) {
+                    nanos = changed.awaitNanos(nanos);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Libraries
+ */
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The ExpenseColumns class is a compact, read-only, in-memory copy of a set of expenses laid out by column,
+ * for the analyses: one primitive array per field instead of one object per expense.
+ *
+ * - epochDays: the date of each expense, as days since 1970-01-01 (int)
+ * - amounts: the amount of each expense, in cents (long, negative for losses)
+ * - members: the user who added each expense, as an index into memberNames (int)
+ *
+ * A million expenses take 16 MB and a scan reads them sequentially, without touching any object header.
+ * Months are precomputed for every day between the first and the last expense (monthOfDay),
+ * so that grouping by month costs one array read per expense.
+ */
+public class ExpenseColumns {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final int size;
+    private final int[] epochDays;
+    private final long[] amounts;
+    private final int[] members;
+    private final String[] memberNames;
+
+    private final int firstDay;             // Smallest epoch day, 0 if empty
+    private final int[] monthOfDay;         // Month index (0 = month of firstDay) of every day from firstDay
+    private final String[] monthLabels;     // Label of every month index, e.g. "2024-03"
+
+
+    /**
+     * Private constructor, built by the Builder.
+     */
+    private ExpenseColumns(int size, int[] epochDays, long[] amounts, int[] members, String[] memberNames, int firstDay, int lastDay) {
+        this.size = size;
+        this.epochDays = epochDays;
+        this.amounts = amounts;
+        this.members = members;
+        this.memberNames = memberNames;
+        this.firstDay = firstDay;
+
+        // Month index of every day of the covered range
+        this.monthOfDay = new int[size == 0 ? 0 : lastDay - firstDay + 1];
+        LocalDate first = LocalDate.ofEpochDay(firstDay);
+        LocalDate last = LocalDate.ofEpochDay(size == 0 ? firstDay : lastDay);
+        int monthCount = size == 0 ? 0 : (last.getYear() - first.getYear()) * 12 + last.getMonthValue() - first.getMonthValue() + 1;
+        this.monthLabels = new String[monthCount];
+        int day = 0;
+        for (int m = 0; m < monthCount; m++) {
+            LocalDate month = first.withDayOfMonth(1).plusMonths(m);
+            monthLabels[m] = YearMonth.from(month).toString();
+            long nextMonth = month.plusMonths(1).toEpochDay() - firstDay;
+            while (day < monthOfDay.length && day < nextMonth) {
+                monthOfDay[day++] = m;
+            }
+        }
+    }
+
+
+    /**
+     * Loads the expenses of a scope, streaming the rows so that only the columns are kept in memory.
+     * The repository checks for interruption while streaming, so cancelling the AsyncDatabase future stops the load.
+     *
+     * @param repository The expense storage (see Repositories).
+     * @param scope The expenses to load.
+     * @return The expenses, by column.
+     */
+    public static ExpenseColumns load(ExpenseRepository repository, ExpenseScope scope) throws StorageException {
+        Builder builder = new Builder();
+        Map<String, Integer> epochDays = new HashMap<>();   // Dates repeat, each is parsed once
+        repository.forEach(scope, expense -> builder.add(
+                epochDays.computeIfAbsent(expense.getDate(), date -> (int) LocalDate.parse(date).toEpochDay()),
+                expense.getAmountCents(), expense.getUsername()));
+        return builder.build();
+    }
+
+
+    /**
+     * Number of expenses.
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Number of distinct members who added expenses.
+     */
+    public int memberCount() {
+        return memberNames.length;
+    }
+
+
+    /**
+     * Name of a member index.
+     */
+    public String memberName(int member) {
+        return memberNames[member];
+    }
+
+
+    /**
+     * Index of a member, or -1 if the member added none of the expenses.
+     */
+    public int memberIndex(String name) {
+        for (int i = 0; i < memberNames.length; i++) {
+            if (memberNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Number of months from the first to the last expense, both included.
+     */
+    public int monthCount() {
+        return monthLabels.length;
+    }
+
+
+    /**
+     * Label of a month index, e.g. "2024-03".
+     */
+    public String monthLabel(int month) {
+        return monthLabels[month];
+    }
+
+
+    // Column access for the scans, package-private: the arrays are shared, not copied
+
+    int[] epochDays() {
+        return epochDays;
+    }
+
+    long[] amounts() {
+        return amounts;
+    }
+
+    int[] members() {
+        return members;
+    }
+
+    int firstDay() {
+        return firstDay;
+    }
+
+    int[] monthOfDay() {
+        return monthOfDay;
+    }
+
+
+    /**
+     * Collects expenses one by one into growable columns.
+     */
+    public static class Builder {
+        private int size = 0;
+        private int[] epochDays = new int[INITIAL_CAPACITY];
+        private long[] amounts = new long[INITIAL_CAPACITY];
+        private int[] members = new int[INITIAL_CAPACITY];
+        private final Map<String, Integer> memberIndexes = new HashMap<>();
+        private String[] memberNames = new String[16];
+        private int firstDay = Integer.MAX_VALUE;
+        private int lastDay = Integer.MIN_VALUE;
+
+        // Last member seen: consecutive rows are often from the same user, which skips the map lookup
+        private String lastMember = null;
+        private int lastMemberIndex = -1;
+
+
+        /**
+         * Adds one expense.
+         *
+         * @param epochDay The date, as days since 1970-01-01.
+         * @param cents The amount in cents.
+         * @param member The user who added it.
+         */
+        public Builder add(int epochDay, long cents, String member) {
+            if (size == epochDays.length) {
+                int capacity = size + (size >> 1);
+                epochDays = Arrays.copyOf(epochDays, capacity);
+                amounts = Arrays.copyOf(amounts, capacity);
+                members = Arrays.copyOf(members, capacity);
+            }
+
+            if (member == null) {
+                member = "";
+            }
+            if (!member.equals(lastMember)) {
+                Integer index = memberIndexes.get(member);
+                if (index == null) {
+                    index = memberIndexes.size();
+                    memberIndexes.put(member, index);
+                    if (index == memberNames.length) {
+                        memberNames = Arrays.copyOf(memberNames, index * 2);
+                    }
+                    memberNames[index] = member;
+                }
+                lastMember = member;
+                lastMemberIndex = index;
+            }
+
+            epochDays[size] = epochDay;
+            amounts[size] = cents;
+            members[size] = lastMemberIndex;
+            size++;
+            firstDay = Math.min(firstDay, epochDay);
+            lastDay = Math.max(lastDay, epochDay);
+            return this;
+        }
+
+
+        /**
+         * Builds the columns, trimmed to their size.
+         */
+        public ExpenseColumns build() {
+            return new ExpenseColumns(size, Arrays.copyOf(epochDays, size), Arrays.copyOf(amounts, size), Arrays.copyOf(members, size),
+                    Arrays.copyOf(memberNames, memberIndexes.size()), size == 0 ? 0 : firstDay, size == 0 ? 0 : lastDay);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+/**
+ * Libraries
+ */
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The ExpenseDao class groups the SQL used on the 'expenses' and 'groups' tables.
+ * Every method works on a connection supplied by the caller, so the same code runs from
+ * AsyncDatabase background tasks and from any other thread that borrowed a pooled connection.
+ * Errors are reported as SQLException and left to the caller to display.
+ *
+ * Adding, editing and removing an expense also updates the group's rollups (see ExpenseRollups)
+ * and logs the change in the group's change feed (see ExpenseChanges) in the same transaction.
+ */
+public class ExpenseDao {
+
+    // Columns read into an Expense; the amount travels as a long number of cents
+    private static final String EXPENSE_COLUMNS = "id, expenseName, " + Money.SQL_AMOUNT_CENTS + " AS amountCents, date, username, version";
+    private static final int STREAM_FETCH_SIZE = 1000;  // Rows per network round-trip when streaming a whole group
+    private static final String INSERT_SQL =
+            "INSERT INTO expenses (groupID, expenseName, amount, date, username) VALUES (?, ?, " + Money.SQL_FROM_CENTS + ", ?, ?)";
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ExpenseDao() {
+    }
+
+
+    /**
+     * Counts the expenses of a specific group.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @return The number of expenses in the group.
+     */
+    public static int countByGroup(Connection connection, int groupId) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM expenses WHERE groupID = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, groupId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        }
+    }
+
+
+    /**
+     * Loads one page of a group's expenses ordered by (date, id), using keyset pagination:
+     * the page starts right after the given expense instead of skipping rows with OFFSET.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group whose expenses should be loaded.
+     * @param after The last expense of the previous page, or null for the first page.
+     * @param limit The maximum number of expenses to return.
+     * @return The expenses of the page.
+     */
+    public static List<Expense> findPage(Connection connection, int groupId, Expense after, int limit) throws SQLException {
+        String sql = after == null
+                ? "SELECT " + EXPENSE_COLUMNS + " FROM expenses WHERE groupID = ? " +
+                  "ORDER BY date, id LIMIT ?"
+                : "SELECT " + EXPENSE_COLUMNS + " FROM expenses WHERE groupID = ? " +
+                  "AND (date > ? OR (date = ? AND id > ?)) ORDER BY date, id LIMIT ?";
+
+        List<Expense> expenses = new ArrayList<>(limit);
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            preparedStatement.setInt(index++, groupId);
+            if (after != null) {
+                preparedStatement.setString(index++, after.getDate());
+                preparedStatement.setString(index++, after.getDate());
+                preparedStatement.setInt(index++, after.getId());
+            }
+            preparedStatement.setInt(index, limit);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    expenses.add(readExpense(resultSet, groupId));
+                }
+            }
+        }
+        return expenses;
+    }
+
+
+    /**
+     * Loads every expense of a group ordered by (date, id), streaming the result instead of buffering it.
+     * Repeated dates and usernames share one String, which keeps large groups compact in memory.
+     * Used when the group table is sorted or filtered, since every row takes part.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group whose expenses should be loaded.
+     * @return The expenses of the group.
+     */
+    public static List<Expense> findAll(Connection connection, int groupId) throws SQLException {
+        String sql = "SELECT " + EXPENSE_COLUMNS + " FROM expenses WHERE groupID = ? ORDER BY date, id";
+
+        List<Expense> expenses = new ArrayList<>();
+        Map<String, String> shared = new HashMap<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+            preparedStatement.setInt(1, groupId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    String date = resultSet.getString("date");
+                    String username = resultSet.getString("username");
+                    expenses.add(new Expense(
+                            resultSet.getInt("id"),
+                            groupId,
+                            resultSet.getString("expenseName"),
+                            resultSet.getLong("amountCents"),
+                            date != null ? shared.computeIfAbsent(date, value -> value) : null,
+                            username != null ? shared.computeIfAbsent(username, value -> value) : null,
+                            resultSet.getInt("version")));
+                    if ((expenses.size() & 4095) == 0 && Thread.currentThread().isInterrupted()) {
+                        throw new SQLException("Loading cancelled after " + expenses.size() + " expenses");
+                    }
+                }
+            }
+        }
+        return expenses;
+    }
+
+
+    /**
+     * Finds the expense at a given position of a group's (date, id) ordering.
+     * Used to locate the start of a page that was not reached by scrolling page after page.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @param position The zero-based position in the ordering.
+     * @return The expense at that position, or null if the group has fewer expenses.
+     */
+    public static Expense findAt(Connection connection, int groupId, int position) throws SQLException {
+        String sql = "SELECT " + EXPENSE_COLUMNS + " FROM expenses WHERE groupID = ? " +
+                "ORDER BY date, id LIMIT 1 OFFSET ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, groupId);
+            preparedStatement.setInt(2, position);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? readExpense(resultSet, groupId) : null;
+            }
+        }
+    }
+
+
+    /**
+     * Finds the position of an expense in its group's (date, id) ordering, i.e. its row in the group table.
+     * Counts the expenses before it with the (groupID, date) index.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @param date The date of the expense (YYYY-MM-DD).
+     * @param expenseId The ID of the expense.
+     * @return The zero-based position.
+     */
+    public static int positionOf(Connection connection, int groupId, String date, int expenseId) throws SQLException {
+        String sql = "SELECT COUNT(*) FROM expenses WHERE groupID = ? AND (date < ? OR (date = ? AND id < ?))";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, groupId);
+            preparedStatement.setString(2, date);
+            preparedStatement.setString(3, date);
+            preparedStatement.setInt(4, expenseId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        }
+    }
+
+
+    /**
+     * Computes the total gains, total losses and number of expenses of a user in one pass
+     * with conditional aggregation (served by the index on username).
+     *
+     * @param connection The connection to use.
+     * @param username The username of the user.
+     * @return The user's totals.
+     */
+    public static WalletSummary summaryForUser(Connection connection, String username) throws SQLException {
+        // Summed as exact DECIMAL values, then returned as cents
+        String sql = "SELECT CAST(COALESCE(SUM(CASE WHEN amount > 0 THEN amount END), 0) * 100 AS SIGNED), " +  // Gains are positive
+                "CAST(COALESCE(SUM(CASE WHEN amount < 0 THEN amount END), 0) * 100 AS SIGNED), " +                // Losses are negative
+                "COUNT(*) FROM expenses WHERE username = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, username);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();   // An aggregate always returns one row
+                return new WalletSummary(resultSet.getLong(1), resultSet.getLong(2), resultSet.getInt(3));
+            }
+        }
+    }
+
+
+    /**
+     * Streams the expenses of a scope ordered by (date, id), for exports and analyses.
+     * Checks for interruption while streaming, so cancelling the AsyncDatabase future stops the scan.
+     *
+     * @param connection The connection to use.
+     * @param scope The expenses to read.
+     * @param visitor Receives each expense.
+     */
+    public static void forEach(Connection connection, ExpenseScope scope, ExpenseRepository.Visitor visitor) throws SQLException {
+        String sql = "SELECT e.groupID, " + EXPENSE_COLUMNS + " FROM expenses e WHERE " + scope.condition() + " ORDER BY e.date, e.id";
+        stream(connection, sql, scope.parameter(), null, visitor);
+    }
+
+
+    /**
+     * Streams the expenses of a group with an ID above the given one, ordered by ID.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @param afterId Only the expenses with a greater ID are read (0 for all).
+     * @param visitor Receives each expense.
+     */
+    public static void forEachAfter(Connection connection, int groupId, int afterId, ExpenseRepository.Visitor visitor) throws SQLException {
+        String sql = "SELECT e.groupID, " + EXPENSE_COLUMNS + " FROM expenses e WHERE e.groupID = ? AND e.id > ? ORDER BY e.id";
+        stream(connection, sql, groupId, afterId, visitor);
+    }
+
+
+    /**
+     * Runs a query on the expenses with a forward-only result set and a fetch size, handing each row over as it arrives.
+     */
+    private static void stream(Connection connection, String sql, Object parameter, Integer afterId, ExpenseRepository.Visitor visitor) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            preparedStatement.setFetchSize(STREAM_FETCH_SIZE);
+            preparedStatement.setObject(1, parameter);
+            if (afterId != null) {
+                preparedStatement.setInt(2, afterId);
+            }
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                long rows = 0;
+                while (resultSet.next()) {
+                    visitor.visit(readExpense(resultSet, resultSet.getInt("groupID")));
+                    if ((++rows & 4095) == 0 && Thread.currentThread().isInterrupted()) {
+                        throw new SQLException("Reading cancelled after " + rows + " expenses");
+                    }
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Maps the current row of a result set to an Expense.
+     */
+    private static Expense readExpense(ResultSet resultSet, int groupId) throws SQLException {
+        return new Expense(
+                resultSet.getInt("id"),
+                groupId,
+                resultSet.getString("expenseName"),
+                resultSet.getLong("amountCents"),
+                resultSet.getString("date"),
+                resultSet.getString("username"),
+                resultSet.getInt("version"));
+    }
+
+
+    /**
+     * Adds a new expense to a group.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group to which the expense belongs.
+     * @param expenseName The name of the expense.
+     * @param amountCents The amount of the expense in cents (positive for gains, negative for losses).
+     * @param date The date of the expense (YYYY-MM-DD).
+     * @param username The username of the user who added the expense.
+     * @return The stored expense, with the ID generated by the database.
+     */
+    public static Expense insert(Connection connection, int groupId, String expenseName, long amountCents, String date, String username) throws SQLException {
+        Date storedDate = Date.valueOf(date);
+
+        return inTransaction(connection, () -> {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                bindInsert(preparedStatement, groupId, expenseName, amountCents, storedDate, username);
+                preparedStatement.executeUpdate();
+
+                try (ResultSet keys = preparedStatement.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        throw new SQLException("No ID generated for the new expense");
+                    }
+                    new ExpenseRollups.Delta().added(groupId, storedDate.toLocalDate(), amountCents).apply(connection);
+                    Expense added = new Expense(keys.getInt(1), groupId, expenseName, amountCents, storedDate.toString(), username);
+                    ExpenseChanges.record(connection, ExpenseRepository.ChangeKind.ADDED, null, added);
+                    return added;
+                }
+            }
+        });
+    }
+
+
+    /**
+     * Prepares the insert statement for adding many expenses with JDBC batches (see addToBatch).
+     *
+     * @param connection The connection to use.
+     * @return The statement; the caller executes and closes it.
+     */
+    public static PreparedStatement prepareBatchInsert(Connection connection) throws SQLException {
+        return connection.prepareStatement(INSERT_SQL);
+    }
+
+
+    /**
+     * Adds one expense to a batch prepared with prepareBatchInsert.
+     *
+     * @param batch The batch insert statement.
+     * @param groupId The ID of the group to which the expense belongs.
+     * @param expenseName The name of the expense.
+     * @param amountCents The amount of the expense in cents (positive for gains, negative for losses).
+     * @param date The date of the expense.
+     * @param username The username of the user who added the expense.
+     */
+    public static void addToBatch(PreparedStatement batch, int groupId, String expenseName, long amountCents, Date date, String username) throws SQLException {
+        bindInsert(batch, groupId, expenseName, amountCents, date, username);
+        batch.addBatch();
+    }
+
+
+    /**
+     * Sets the parameters of the insert statement.
+     */
+    private static void bindInsert(PreparedStatement preparedStatement, int groupId, String expenseName, long amountCents, Date date, String username) throws SQLException {
+        preparedStatement.setInt(1, groupId);
+        preparedStatement.setString(2, expenseName);
+        preparedStatement.setLong(3, amountCents);
+        preparedStatement.setDate(4, date);
+        preparedStatement.setString(5, username); // Store the username of the user adding the expense
+    }
+
+
+    /**
+     * Updates an existing expense with new values, provided nobody changed it since the given version was read.
+     * The check is part of the UPDATE itself (optimistic concurrency), so nothing is locked in advance,
+     * and a matching version guarantees that the old values taken out of the rollups are the stored ones.
+     *
+     * @param connection The connection to use.
+     * @param expense The expense as it is currently displayed, with the version it was read at.
+     * @param newName The new name of the expense.
+     * @param newAmountCents The new amount of the expense in cents (positive for gains, negative for losses).
+     * @param newDate The new date of the expense (YYYY-MM-DD).
+     * @return The outcome: the edited expense, or the competing version if another member changed or removed it.
+     */
+    public static ExpenseRepository.Outcome update(Connection connection, Expense expense, String newName, long newAmountCents, String newDate) throws SQLException {
+        Date storedDate = Date.valueOf(newDate);
+
+        String sql = "UPDATE expenses SET expenseName = ?, amount = " + Money.SQL_FROM_CENTS + ", date = ?, version = version + 1 " +
+                "WHERE id = ? AND version = ?";
+        return inTransaction(connection, () -> {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setString(1, newName);
+                preparedStatement.setLong(2, newAmountCents);
+                preparedStatement.setDate(3, storedDate);
+                preparedStatement.setInt(4, expense.getId());
+                preparedStatement.setInt(5, expense.getVersion());
+                if (preparedStatement.executeUpdate() == 0) {
+                    return new ExpenseRepository.Outcome(false, findById(connection, expense.getId()));
+                }
+            }
+
+            ExpenseRollups.Delta delta = new ExpenseRollups.Delta();
+            if (expense.getDate() != null) {
+                delta.removed(expense.getGroupId(), Date.valueOf(expense.getDate()).toLocalDate(), expense.getAmountCents());
+            }
+            delta.added(expense.getGroupId(), storedDate.toLocalDate(), newAmountCents).apply(connection);
+            Expense updated = new Expense(expense.getId(), expense.getGroupId(), newName, newAmountCents, storedDate.toString(),
+                    expense.getUsername(), expense.getVersion() + 1);
+            ExpenseChanges.record(connection, ExpenseRepository.ChangeKind.EDITED, expense, updated);
+            return new ExpenseRepository.Outcome(true, updated);
+        });
+    }
+
+
+    /**
+     * Removes an expense, provided nobody changed it since the given version was read.
+     *
+     * @param connection The connection to use.
+     * @param expense The expense to be removed, with the version it was read at.
+     * @return The outcome: removed, or the competing version if another member changed or removed it.
+     */
+    public static ExpenseRepository.Outcome delete(Connection connection, Expense expense) throws SQLException {
+        String sql = "DELETE FROM expenses WHERE id = ? AND version = ?";
+        return inTransaction(connection, () -> {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                preparedStatement.setInt(1, expense.getId());
+                preparedStatement.setInt(2, expense.getVersion());
+                if (preparedStatement.executeUpdate() == 0) {
+                    return new ExpenseRepository.Outcome(false, findById(connection, expense.getId()));
+                }
+            }
+
+            if (expense.getDate() != null) {
+                new ExpenseRollups.Delta().removed(expense.getGroupId(), Date.valueOf(expense.getDate()).toLocalDate(), expense.getAmountCents()).apply(connection);
+            }
+            ExpenseChanges.record(connection, ExpenseRepository.ChangeKind.REMOVED, expense, null);
+            return new ExpenseRepository.Outcome(true, null);
+        });
+    }
+
+
+    /**
+     * Finds an expense by its ID.
+     *
+     * @param connection The connection to use.
+     * @param expenseId The ID of the expense.
+     * @return The expense, or null if it does not exist.
+     */
+    public static Expense findById(Connection connection, int expenseId) throws SQLException {
+        String sql = "SELECT groupID, " + EXPENSE_COLUMNS + " FROM expenses WHERE id = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, expenseId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? readExpense(resultSet, resultSet.getInt("groupID")) : null;
+            }
+        }
+    }
+
+
+    /**
+     * A unit of work run inside a transaction.
+     */
+    @FunctionalInterface
+    interface TransactionWork<T> {
+        T run() throws SQLException;
+    }
+
+
+    /**
+     * Runs work in a transaction on the given connection: committed if it returns, rolled back if it throws.
+     * The connection's auto-commit mode is restored afterwards, since pooled connections are shared.
+     * For reads, the transaction makes every query see the same snapshot (InnoDB's REPEATABLE READ).
+     * If the caller already started a transaction (auto-commit off), the work joins it and the caller
+     * commits or rolls back, as ExpenseWriteQueue does for a whole batch of changes.
+     */
+    static <T> T inTransaction(Connection connection, TransactionWork<T> work) throws SQLException {
+        if (!connection.getAutoCommit()) {
+            return work.run();
+        }
+        connection.setAutoCommit(false);
+        try {
+            T result = work.run();
+            connection.commit();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            try {
+                connection.rollback();
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+
+    /**
+     * Retrieves the name of a group based on the group ID.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @return The name of the group, or null if the group is not found.
+     */
+    public static String findGroupName(Connection connection, int groupId) throws SQLException {
+        String sql = "SELECT groupname FROM groups WHERE id = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, groupId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    return resultSet.getString("groupname");
+                }
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Retrieves the password members give to join a group.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @return The password hash (or plain text stored by an older version), or null if the group is not found or has no password.
+     */
+    public static String findGroupPassword(Connection connection, int groupId) throws SQLException {
+        String sql = "SELECT password FROM groups WHERE id = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, groupId);
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    return resultSet.getString("password");
+                }
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * Creates a group.
+     *
+     * @param connection The connection to use.
+     * @param groupName The name of the group.
+     * @param passwordHash The password members give to join it, hashed with PasswordHasher.hash, or null.
+     * @return The ID generated for the group.
+     */
+    public static int insertGroup(Connection connection, String groupName, String passwordHash) throws SQLException {
+        String sql = "INSERT INTO groups (groupname, password) VALUES (?, ?)";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            preparedStatement.setString(1, groupName);
+            preparedStatement.setString(2, passwordHash);
+            preparedStatement.executeUpdate();
+
+            try (ResultSet keys = preparedStatement.getGeneratedKeys()) {
+                if (!keys.next()) {
+                    throw new SQLException("No ID generated for the new group");
+                }
+                return keys.getInt(1);
+            }
+        }
+    }
+}
\ No newline at end of file
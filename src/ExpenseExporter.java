@@ -0,0 +1,248 @@
+/**
+ * Libraries
+ */
+import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * The ExpenseExporter class writes the expenses of a group, or all the expenses added by a user,
+ * to a CSV or JSON Lines file. Rows are streamed from the expense repository (on MariaDB, a forward-only,
+ * read-only result set with a fetch size, see ExpenseDao.forEach), and each row is written to a buffered
+ * file channel as soon as it is read. Memory use stays constant whatever the number of rows.
+ *
+ * The file is written next to the target under a temporary name and moved into place at the end,
+ * so a failed or cancelled export never leaves a truncated file behind.
+ */
+public class ExpenseExporter {
+
+    private static final int BUFFER_SIZE = 1 << 16;  // Characters buffered before writing to the channel
+    private static final int CANCEL_CHECK_ROWS = 4096;
+
+    private static final String[] CSV_HEADER = {"id", "group", "date", "name", "amount", "added_by"};
+
+
+    /**
+     * Output file formats.
+     */
+    public enum Format {
+        CSV("csv"),
+        JSON_LINES("jsonl");
+
+        final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+    }
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ExpenseExporter() {
+    }
+
+
+    /**
+     * Exports the expenses of a scope from the repositories (see Repositories), ordered by (date, id).
+     * The group names are read before the expenses, so that nothing else is queried while they stream.
+     * Checks for interruption while streaming, so cancelling the AsyncDatabase future stops the export.
+     *
+     * @param scope The expenses to export.
+     * @param format The file format.
+     * @param file The file to write; replaced if it exists.
+     * @return The number of exported expenses.
+     */
+    public static long export(ExpenseScope scope, Format format, Path file) throws StorageException, IOException {
+        Map<Integer, String> groupNames = new HashMap<>();
+        if (scope.groupId() != null) {
+            groupNames.put(scope.groupId(), Repositories.groups().findGroupName(scope.groupId()));
+        } else {
+            UserRepository.LoginData user = Repositories.users().findLogin(scope.username());     // Has the groups of the user's expenses
+            if (user != null) {
+                groupNames.putAll(user.groups());
+            }
+        }
+
+        Path directory = file.toAbsolutePath().getParent();
+        Path temporary = Files.createTempFile(directory, ".export", ".tmp");
+        long[] rows = {0};
+
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+
+                StringBuilder line = new StringBuilder(256);    // Reused for every row
+                if (format == Format.CSV) {
+                    writer.write(String.join(",", CSV_HEADER));
+                    writer.write("\r\n");
+                }
+
+                Repositories.expenses().forEach(scope, expense -> {
+                    String groupName = groupNames.getOrDefault(expense.getGroupId(), "group " + expense.getGroupId());
+                    line.setLength(0);
+                    if (format == Format.CSV) {
+                        appendCsv(line, groupName, expense);
+                    } else {
+                        appendJson(line, groupName, expense);
+                    }
+                    try {
+                        writer.append(line);
+                        if (++rows[0] % CANCEL_CHECK_ROWS == 0 && Thread.currentThread().isInterrupted()) {
+                            throw new InterruptedIOException("Export cancelled after " + rows[0] + " rows");
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);  // Out of the visitor, which only throws StorageException
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows[0];
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+
+    /**
+     * Lets the user choose a file and a format, then exports the scope in the background.
+     * The result or the error is reported by the screen's ScreenTasks.
+     *
+     * @param owner The screen starting the export.
+     * @param tasks The background task tracker of that screen.
+     * @param scope The expenses to export.
+     */
+    public static void exportWithDialog(JFrame owner, ScreenTasks tasks, ExpenseScope scope) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Export Expenses of " + scope.description());
+        FileNameExtensionFilter csvFilter = new FileNameExtensionFilter("CSV Files (*.csv)", Format.CSV.extension);
+        FileNameExtensionFilter jsonFilter = new FileNameExtensionFilter("JSON Lines Files (*.jsonl)", Format.JSON_LINES.extension);
+        fileChooser.addChoosableFileFilter(csvFilter);
+        fileChooser.addChoosableFileFilter(jsonFilter);
+        fileChooser.setFileFilter(csvFilter);
+        fileChooser.setSelectedFile(new File(scope.description().replaceAll("[^\\w.-]+", "_") + "." + Format.CSV.extension));
+
+        if (fileChooser.showSaveDialog(owner) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        Format format = fileChooser.getFileFilter() == jsonFilter ? Format.JSON_LINES : Format.CSV;
+        File chosen = fileChooser.getSelectedFile();
+        String name = chosen.getName();
+        if (name.endsWith("." + Format.CSV.extension) && format == Format.JSON_LINES) {
+            name = name.substring(0, name.length() - Format.CSV.extension.length()) + format.extension;
+        } else if (!name.contains(".")) {
+            name = name + "." + format.extension;
+        }
+        Path file = chosen.toPath().resolveSibling(name);
+
+        long started = System.nanoTime();
+        tasks.query(() -> {
+            try {
+                return export(scope, format, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, rows -> JOptionPane.showMessageDialog(owner,
+                String.format("Exported %,d expenses to %s in %.1f s.", rows, file.getFileName(), (System.nanoTime() - started) / 1e9),
+                "Export Finished", JOptionPane.INFORMATION_MESSAGE));
+    }
+
+
+    /**
+     * Appends one row as a CSV line.
+     */
+    private static void appendCsv(StringBuilder line, String groupName, Expense expense) {
+        line.append(expense.getId()).append(',');
+        appendCsvField(line, groupName);
+        line.append(',').append(expense.getDate()).append(',');
+        appendCsvField(line, expense.getExpenseName());
+        line.append(',');
+        Money.append(line, expense.getAmountCents()).append(',');
+        appendCsvField(line, expense.getUsername());
+        line.append("\r\n");
+    }
+
+
+    /**
+     * Appends one row as a JSON object on its own line.
+     */
+    private static void appendJson(StringBuilder line, String groupName, Expense expense) {
+        line.append("{\"id\":").append(expense.getId()).append(",\"group\":");
+        appendJsonString(line, groupName);
+        line.append(",\"date\":\"").append(expense.getDate()).append("\",\"name\":");
+        appendJsonString(line, expense.getExpenseName());
+        line.append(",\"amount\":");
+        Money.append(line, expense.getAmountCents()).append(",\"added_by\":");
+        appendJsonString(line, expense.getUsername());
+        line.append("}\n");
+    }
+
+
+    /**
+     * Appends a CSV field, quoted if it contains a delimiter, a quote or a line break.
+     */
+    private static void appendCsvField(StringBuilder line, String value) {
+        if (value == null) {
+            return;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            line.append(value);
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                line.append('"');   // Quotes are doubled
+            }
+            line.append(c);
+        }
+        line.append('"');
+    }
+
+
+    /**
+     * Appends a JSON string literal, or null.
+     */
+    private static void appendJsonString(StringBuilder line, String value) {
+        if (value == null) {
+            line.append("null");
+            return;
+        }
+        line.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> line.append("\\\"");
+                case '\\' -> line.append("\\\\");
+                case '\n' -> line.append("\\n");
+                case '\r' -> line.append("\\r");
+                case '\t' -> line.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        line.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        line.append(c);
+                    }
+                }
+            }
+        }
+        line.append('"');
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Libraries
+ */
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+
+/**
+ * The ExpenseImporter class loads a CSV bank statement into a group in one go.
+ * The file is parsed record by record (constant memory, whatever its size), every line is validated,
+ * and the valid rows are written with JDBC batch inserts, committed in chunks of CHUNK_SIZE rows:
+ * a failure or a cancellation only rolls back the current chunk. The group's rollups are updated
+ * in the same transaction as each chunk, merged per day (see ExpenseRollups).
+ *
+ * Expected columns: date (YYYY-MM-DD), description and amount (negative for losses).
+ * A header row naming the columns is optional and may list them in any order (extra columns are ignored);
+ * without a header the columns are taken in that order. Fields may be separated by ',' or ';'.
+ */
+public class ExpenseImporter {
+
+    static final int BATCH_SIZE = 1000;     // Rows sent to the server per executeBatch
+    static final int CHUNK_SIZE = 10_000;   // Rows committed per transaction
+    private static final int MAX_REPORTED_ERRORS = 10;
+    private static final int MAX_NAME_LENGTH = 255;     // expenseName is a VARCHAR(255)
+
+
+    /**
+     * Receives the progress of an import, from the importing thread, after every committed chunk.
+     */
+    @FunctionalInterface
+    public interface Progress {
+        /**
+         * @param rowsImported The rows committed so far.
+         * @param fraction The part of the file read so far, from 0 to 1.
+         * @param rowsPerSecond The import speed so far.
+         */
+        void update(long rowsImported, double fraction, double rowsPerSecond);
+    }
+
+
+    /**
+     * Outcome of an import.
+     *
+     * @param imported The number of expenses added to the group.
+     * @param rejected The number of lines skipped because they were not valid.
+     * @param errors A description of the first rejected lines.
+     * @param elapsedNanos The duration of the import.
+     */
+    public record Result(long imported, long rejected, List<String> errors, long elapsedNanos) {
+        public double rowsPerSecond() {
+            return elapsedNanos > 0 ? imported * 1e9 / elapsedNanos : 0;
+        }
+    }
+
+
+    /**
+     * Column positions of the three imported fields.
+     */
+    private record Columns(int date, int name, int amount) {
+        int width() {
+            return Math.max(date, Math.max(name, amount)) + 1;
+        }
+    }
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ExpenseImporter() {
+    }
+
+
+    /**
+     * Imports a CSV file into a group. Checks for interruption between batches, so cancelling the
+     * AsyncDatabase future stops the import after rolling back the current chunk.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group receiving the expenses.
+     * @param username The user recorded as having added the expenses.
+     * @param file The CSV file.
+     * @param progress Called after every committed chunk.
+     * @return The numbers of imported and rejected lines.
+     */
+    public static Result importCsv(Connection connection, int groupId, String username, Path file, Progress progress) throws SQLException, IOException {
+        long started = System.nanoTime();
+        long size = Math.max(1, Files.size(file));
+        char delimiter = detectDelimiter(file);
+
+        long imported = 0;
+        long rejected = 0;
+        List<String> errors = new ArrayList<>();
+
+        CountingInputStream input = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+
+        try (CsvReader csv = new CsvReader(new InputStreamReader(input, StandardCharsets.UTF_8), delimiter);
+             PreparedStatement batch = ExpenseDao.prepareBatchInsert(connection)) {
+
+            String[] record = csv.next();
+            if (record != null && record[0].startsWith("\uFEFF")) {
+                record[0] = record[0].substring(1);    // Byte order mark written by spreadsheet exports
+            }
+            Columns columns = record != null ? findHeader(record) : null;
+            if (columns != null) {
+                record = csv.next();    // The first line was a header
+            } else {
+                columns = new Columns(0, 1, 2);
+            }
+
+            int pending = 0;        // Rows added to the batch but not executed yet
+            long uncommitted = 0;   // Rows executed but not committed yet
+            ExpenseRollups.Delta rollups = new ExpenseRollups.Delta();  // Rollup changes of the uncommitted rows
+            for (; record != null; record = csv.next()) {
+                String error = validate(record, columns);
+                if (error != null) {
+                    rejected++;
+                    if (errors.size() < MAX_REPORTED_ERRORS) {
+                        errors.add("Line " + csv.getLineNumber() + ": " + error);
+                    }
+                    continue;
+                }
+
+                String name = record[columns.name()].trim();
+                if (name.length() > MAX_NAME_LENGTH) {
+                    name = name.substring(0, MAX_NAME_LENGTH);
+                }
+                long amount = parseAmount(record[columns.amount()]);
+                Date date = Date.valueOf(record[columns.date()].trim());
+                ExpenseDao.addToBatch(batch, groupId, name, amount, date, username);
+                rollups.added(groupId, date.toLocalDate(), amount);
+
+                if (++pending == BATCH_SIZE) {
+                    executeBatch(batch, csv);
+                    uncommitted += pending;
+                    pending = 0;
+                }
+                if (uncommitted >= CHUNK_SIZE) {
+                    rollups.apply(connection);
+                    ExpenseChanges.recordReload(connection, groupId);   // Open windows reload instead of replaying each row
+                    connection.commit();
+                    imported += uncommitted;
+                    uncommitted = 0;
+                    progress.update(imported, input.count / (double) size, imported * 1e9 / (System.nanoTime() - started));
+                }
+            }
+
+            if (pending > 0) {
+                executeBatch(batch, csv);
+                uncommitted += pending;
+            }
+            rollups.apply(connection);
+            if (uncommitted > 0) {
+                ExpenseChanges.recordReload(connection, groupId);
+            }
+            connection.commit();
+            imported += uncommitted;
+            progress.update(imported, 1.0, imported * 1e9 / (System.nanoTime() - started));
+        } catch (SQLException | IOException | RuntimeException e) {
+            try {
+                connection.rollback();  // Only the current chunk; earlier chunks stay imported
+            } catch (SQLException rollbackError) {
+                e.addSuppressed(rollbackError);
+            }
+            if (e instanceof SQLException sqlException) {
+                throw new SQLException("Import stopped after " + imported + " rows: " + e.getMessage(), sqlException.getSQLState(), e);
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+
+        return new Result(imported, rejected, errors, System.nanoTime() - started);
+    }
+
+
+    /**
+     * Sends the batched rows, stopping if the import was cancelled meanwhile.
+     */
+    private static void executeBatch(PreparedStatement batch, CsvReader csv) throws SQLException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new SQLException("Import cancelled at line " + csv.getLineNumber());
+        }
+        batch.executeBatch();
+    }
+
+
+    /**
+     * Checks the fields of one line.
+     *
+     * @return A description of the problem, or null if the line can be imported.
+     */
+    private static String validate(String[] record, Columns columns) {
+        if (record.length < columns.width()) {
+            return "expected at least " + columns.width() + " fields, found " + record.length;
+        }
+        String date = record[columns.date()].trim();
+        try {
+            LocalDate.parse(date);
+        } catch (DateTimeParseException e) {
+            return "invalid date '" + date + "', expected YYYY-MM-DD";
+        }
+        if (record[columns.name()].isBlank()) {
+            return "missing description";
+        }
+        try {
+            parseAmount(record[columns.amount()]);
+        } catch (NumberFormatException e) {
+            return "invalid amount '" + record[columns.amount()].trim() + "'";
+        }
+        return null;
+    }
+
+
+    /**
+     * Parses an amount, allowing the thousands separators banks often use (1,234.56).
+     */
+    private static long parseAmount(String text) {
+        String amount = text.trim();
+        if (amount.indexOf(',') >= 0 && amount.indexOf('.') >= 0) {
+            amount = amount.replace(",", "");
+        }
+        return Money.parse(amount);
+    }
+
+
+    /**
+     * Recognises a header row by its column names.
+     *
+     * @return The column positions, or null if the record is not a header.
+     */
+    private static Columns findHeader(String[] record) {
+        int date = -1;
+        int name = -1;
+        int amount = -1;
+        for (int i = 0; i < record.length; i++) {
+            String column = record[i].trim().toLowerCase(Locale.ROOT);
+            if (date < 0 && column.contains("date")) {
+                date = i;
+            } else if (amount < 0 && column.contains("amount")) {
+                amount = i;
+            } else if (name < 0 && (column.contains("description") || column.contains("name")
+                    || column.contains("payee") || column.contains("memo") || column.equals("expense"))) {
+                name = i;
+            }
+        }
+        return date >= 0 && name >= 0 && amount >= 0 ? new Columns(date, name, amount) : null;
+    }
+
+
+    /**
+     * Guesses the delimiter from the first line: ';' if it has more semicolons than commas.
+     */
+    private static char detectDelimiter(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String firstLine = reader.readLine();
+            if (firstLine == null) {
+                return ',';
+            }
+            long semicolons = firstLine.chars().filter(c -> c == ';').count();
+            long commas = firstLine.chars().filter(c -> c == ',').count();
+            return semicolons > commas ? ';' : ',';
+        }
+    }
+
+
+    /**
+     * Counts the bytes read, to report how much of the file has been imported.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        volatile long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,697 @@
+/**
+ * Libraries
+ */
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+
+/**
+ * The ExpenseJournal class keeps the expense changes made in a group window while the database cannot be
+ * reached, in an append-only file on this computer (data/journal/expenses.journal), and replays them to the
+ * database once it is back.
+ *
+ * The file is memory-mapped: appending a change copies a few hundred bytes into the mapping, which takes
+ * microseconds, and the operating system writes it out. A background thread forces the mapping to disk
+ * every FORCE_MILLIS, so a power cut loses at most the last changes of that interval. Each record starts
+ * with its length and a CRC-32C of its contents; reading the file stops at the first record that is empty
+ * or does not match its CRC (a record cut short by a crash).
+ *
+ * Each change has a random ID. The replay writes every change of a group in one transaction, together with
+ * its ID in the journal_replays table, and skips the IDs already there: a journal replayed twice (crash
+ * after the commit, commit lost with the connection) applies each change once. Expenses added offline get a
+ * negative provisional ID, replaced by the real one for their later edits and removals. Edits and removals
+ * keep the version of the expense they were made against (see ExpenseDao.update); one that conflicts with a
+ * change made meanwhile by another member is dropped. The dropped changes are reported once their group is
+ * committed, to the listener set with onDropped (the desktop shows them to the user, see Group). Each replayed
+ * group gets a reload entry in the change feed, so the open windows show the saved rows instead of the
+ * provisional ones.
+ *
+ * Once every change is replayed, the file is emptied. While changes are waiting, isOffline() is true and the
+ * group windows journal their changes directly, so a group's changes reach the database in order.
+ */
+public class ExpenseJournal {
+
+    private static final Path JOURNAL_FILE = Paths.get("data", "journal", "expenses.journal");
+    private static final int MAGIC = 0x48584a4c;    // "HXJL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;     // Magic, version, two spare ints
+    private static final int RECORD_HEADER_BYTES = 8;   // Length and CRC-32C of the contents
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+    private static final long INITIAL_SIZE = 1 << 20;
+    private static final long FORCE_MILLIS = 100;
+    private static final long REPLAY_MILLIS = 5_000;
+    private static final int KEEP_REPLAYS_DAYS = 30;
+
+    private static final AtomicInteger provisionalIds = new AtomicInteger(-1);
+    private static ExpenseJournal local;            // Opened on first use
+    private static volatile Consumer<List<Dropped>> droppedListener;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final boolean replay;
+    private volatile MappedByteBuffer mapped;
+    private int position;                           // Where the next record goes
+    private volatile boolean dirty = false;
+    private final ScheduledExecutorService syncer;
+
+    private final List<Entry> entries = new ArrayList<>();   // Every record of the file, in order
+    private int replayed = 0;                       // How many of them are in the database
+    private volatile boolean pending = false;
+    private Thread replayer;                        // Null when not replaying
+    private final Map<Integer, Integer> realIds = new HashMap<>();  // Provisional ID -> ID given by the replay
+
+    private final CRC32C crc = new CRC32C();
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+
+    /**
+     * A change saved offline that the replay could not apply.
+     *
+     * @param entry The change.
+     * @param reason Why it was dropped, to be shown to the user.
+     * @param current The expense as saved meanwhile by another member, or null.
+     */
+    record Dropped(Entry entry, String reason, Expense current) {
+    }
+
+
+    /**
+     * A journaled change.
+     *
+     * @param id The random ID of the change, recorded in journal_replays once replayed.
+     * @param kind ADDED, EDITED or REMOVED.
+     * @param before The expense as displayed before an edit or removal (null for an addition).
+     * @param after The expense as displayed after an addition or edit (null for a removal).
+     */
+    record Entry(UUID id, ExpenseRepository.ChangeKind kind, Expense before, Expense after) {
+
+        int groupId() {
+            return (after != null ? after : before).getGroupId();
+        }
+
+        @Override
+        public String toString() {
+            Expense expense = after != null ? after : before;
+            return kind.name().toLowerCase() + " " + expense.getExpenseName() + " (" + Money.format(expense.getAmountCents())
+                    + " on " + expense.getDate() + ", group " + expense.getGroupId() + ")";
+        }
+    }
+
+
+    /**
+     * Opens a journal file, creating it if needed, and reads the changes it holds.
+     *
+     * @param file The journal file.
+     * @param replay Whether the changes are replayed to the database (false for the benchmark).
+     * @throws IOException If the file cannot be opened or another HomEx uses it.
+     */
+    ExpenseJournal(Path file, boolean replay) throws IOException {
+        this.replay = replay;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        lock = channel.tryLock();
+        if (lock == null) {
+            channel.close();
+            throw new IOException("The offline journal " + file + " is used by another running HomEx.");
+        }
+
+        boolean created = channel.size() == 0;
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, channel.size()));
+        if (created) {
+            mapped.putInt(0, MAGIC).putInt(4, VERSION);
+            mapped.force();
+        } else if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            lock.release();
+            channel.close();
+            throw new IOException(file + " is not an offline journal of this version.");
+        }
+        readEntries();
+
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "homex-journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, FORCE_MILLIS, FORCE_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+
+    /**
+     * Returns the journal of this computer, opening it on first use.
+     */
+    private static synchronized ExpenseJournal local() throws IOException {
+        if (local == null) {
+            local = new ExpenseJournal(JOURNAL_FILE, true);
+            Runtime.getRuntime().addShutdownHook(new Thread(local::close, "homex-journal-close"));
+        }
+        return local;
+    }
+
+
+    /**
+     * Sets who is told about the changes saved offline that the replay drops; without one they are only printed.
+     *
+     * @param listener Called on the replay thread with the changes dropped by one replay.
+     */
+    public static void onDropped(Consumer<List<Dropped>> listener) {
+        droppedListener = listener;
+    }
+
+
+    /**
+     * Replays the changes left in the journal by a previous run, once the database can be reached.
+     * Called at startup; does nothing if there is no journal.
+     */
+    public static void resume() {
+        if (!Files.exists(JOURNAL_FILE)) {
+            return;
+        }
+        try {
+            local();
+        } catch (IOException e) {
+            System.out.println("Could not open the offline journal: " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Returns whether changes saved offline are still waiting for the database. While they are, new changes
+     * are journaled too, behind them.
+     */
+    public static boolean isOffline() {
+        ExpenseJournal journal;
+        synchronized (ExpenseJournal.class) {
+            journal = local;
+        }
+        return journal != null && journal.pending;
+    }
+
+
+    /**
+     * Returns whether a failed database call failed because the database cannot be reached, so that the
+     * change can be journaled. A commit whose outcome is unknown does not count (see ExpenseWriteQueue).
+     *
+     * @param error The failure, possibly wrapped in a CompletionException.
+     */
+    public static boolean isUnreachable(Throwable error) {
+        Throwable cause = AsyncDatabase.rootCause(error);
+        StorageException e = cause instanceof SQLException sqlException ? MariaDbRepository.translate(sqlException)
+                : cause instanceof StorageException storageException ? storageException : null;
+        return e != null && e.getReason() == StorageException.Reason.UNREACHABLE;
+    }
+
+
+    /**
+     * Returns a new ID for an expense displayed before it has one: negative, and unused by the journal.
+     */
+    public static int nextProvisionalId() {
+        return provisionalIds.getAndDecrement();
+    }
+
+
+    /**
+     * Returns whether an expense with a provisional ID was added offline and is waiting in the journal,
+     * in which case it can be edited or removed offline like any other expense.
+     *
+     * @param provisionalId The negative ID of the expense.
+     */
+    public static boolean isJournaled(int provisionalId) {
+        ExpenseJournal journal;
+        synchronized (ExpenseJournal.class) {
+            journal = local;
+        }
+        if (journal == null) {
+            return false;
+        }
+        synchronized (journal) {
+            for (int i = journal.replayed; i < journal.entries.size(); i++) {
+                Entry entry = journal.entries.get(i);
+                if (entry.kind() == ExpenseRepository.ChangeKind.ADDED && entry.after().getId() == provisionalId) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Journals an expense added offline.
+     *
+     * @param provisional The expense, with a provisional ID (see nextProvisionalId).
+     * @throws IOException If the journal cannot be written.
+     */
+    public static void add(Expense provisional) throws IOException {
+        local().append(new Entry(UUID.randomUUID(), ExpenseRepository.ChangeKind.ADDED, null, provisional));
+    }
+
+
+    /**
+     * Journals an edit made offline.
+     *
+     * @param before The expense as displayed, with the version the edit is made against.
+     * @param after The edited expense, with the next version.
+     * @throws IOException If the journal cannot be written.
+     */
+    public static void update(Expense before, Expense after) throws IOException {
+        local().append(new Entry(UUID.randomUUID(), ExpenseRepository.ChangeKind.EDITED, before, after));
+    }
+
+
+    /**
+     * Journals a removal made offline.
+     *
+     * @param expense The expense as displayed, with the version the removal is made against.
+     * @throws IOException If the journal cannot be written.
+     */
+    public static void remove(Expense expense) throws IOException {
+        local().append(new Entry(UUID.randomUUID(), ExpenseRepository.ChangeKind.REMOVED, expense, null));
+    }
+
+
+
+    // The file
+
+    /**
+     * Appends a change to the mapping; it reaches the disk with the next sync.
+     */
+    synchronized void append(Entry entry) throws IOException {
+        scratch.clear();
+        try {
+            scratch.putLong(entry.id().getMostSignificantBits()).putLong(entry.id().getLeastSignificantBits());
+            scratch.put((byte) entry.kind().code);
+            putExpense(entry.before());
+            putExpense(entry.after());
+        } catch (java.nio.BufferOverflowException e) {
+            if (scratch.capacity() >= MAX_RECORD_BYTES) {
+                throw new IOException("The change is too large for the offline journal.");
+            }
+            scratch = ByteBuffer.allocate(scratch.capacity() * 4);
+            append(entry);
+            return;
+        }
+        scratch.flip();
+        int length = scratch.remaining();
+        crc.reset();
+        crc.update(scratch.duplicate());
+
+        int size = RECORD_HEADER_BYTES + length;
+        if (position + size + Integer.BYTES > mapped.capacity()) {
+            mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(2L * mapped.capacity(), position + size + Integer.BYTES));
+        }
+        // The contents first and the length last: a record is only seen once it is complete
+        mapped.put(position + RECORD_HEADER_BYTES, scratch, 0, length);
+        mapped.putInt(position + Integer.BYTES, (int) crc.getValue());
+        mapped.putInt(position, length);
+        position += size;
+        dirty = true;
+
+        entries.add(entry);
+        if (entry.kind() == ExpenseRepository.ChangeKind.ADDED) {
+            provisionalIds.accumulateAndGet(entry.after().getId() - 1, Math::min);
+        }
+        pending = true;
+        startReplay();
+    }
+
+
+    /**
+     * Reads the records of the file up to the first empty or damaged one.
+     */
+    private void readEntries() {
+        position = HEADER_BYTES;
+        while (position + RECORD_HEADER_BYTES <= mapped.capacity()) {
+            int length = mapped.getInt(position);
+            if (length <= 0 || length > MAX_RECORD_BYTES || position + RECORD_HEADER_BYTES + length > mapped.capacity()) {
+                break;
+            }
+            ByteBuffer record = mapped.slice(position + RECORD_HEADER_BYTES, length);
+            crc.reset();
+            crc.update(record.duplicate());
+            if ((int) crc.getValue() != mapped.getInt(position + Integer.BYTES)) {
+                System.out.println("The offline journal ends with a damaged record, ignored from offset " + position);
+                break;
+            }
+
+            Entry entry = new Entry(new UUID(record.getLong(), record.getLong()), ExpenseRepository.ChangeKind.of(String.valueOf((char) record.get())),
+                    getExpense(record), getExpense(record));
+            entries.add(entry);
+            if (entry.kind() == ExpenseRepository.ChangeKind.ADDED) {
+                provisionalIds.accumulateAndGet(entry.after().getId() - 1, Math::min);
+            }
+            position += RECORD_HEADER_BYTES + length;
+        }
+
+        if (!entries.isEmpty()) {
+            System.out.println(entries.size() + " change(s) saved offline are waiting for the database.");
+            pending = true;
+            startReplay();
+        }
+    }
+
+
+    private void putExpense(Expense expense) {
+        if (expense == null) {
+            scratch.put((byte) 0);
+            return;
+        }
+        scratch.put((byte) 1).putInt(expense.getId()).putInt(expense.getGroupId()).putLong(expense.getAmountCents()).putInt(expense.getVersion());
+        putString(expense.getExpenseName());
+        putString(expense.getDate());
+        putString(expense.getUsername());
+    }
+
+
+    private void putString(String value) {
+        if (value == null) {
+            scratch.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        scratch.putInt(bytes.length).put(bytes);
+    }
+
+
+    private static Expense getExpense(ByteBuffer record) {
+        if (record.get() == 0) {
+            return null;
+        }
+        int id = record.getInt();
+        int groupId = record.getInt();
+        long amountCents = record.getLong();
+        int version = record.getInt();
+        return new Expense(id, groupId, getString(record), amountCents, getString(record), getString(record), version);
+    }
+
+
+    private static String getString(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Forces the changes appended since the last sync to disk.
+     */
+    private void sync() {
+        if (dirty) {
+            dirty = false;
+            mapped.force();
+        }
+    }
+
+
+    /**
+     * Empties the file once every change is in the database. The used part is zeroed and forced before
+     * anything new is appended, so that no old record can show up again behind a new one.
+     */
+    private void clear() {
+        for (int offset = HEADER_BYTES; offset < position; offset += Long.BYTES) {
+            mapped.putLong(offset, 0);
+        }
+        mapped.force();
+        position = HEADER_BYTES;
+        entries.clear();
+        replayed = 0;
+        realIds.clear();
+        pending = false;
+    }
+
+
+    /**
+     * Returns the number of changes in the journal, replayed or not.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * Forces the journal to disk and closes it.
+     */
+    synchronized void close() {
+        syncer.shutdownNow();
+        try {
+            mapped.force();
+            lock.release();
+            channel.close();
+        } catch (IOException e) {
+            System.out.println("Could not close the offline journal: " + e.getMessage());
+        }
+    }
+
+
+
+    // The replay
+
+    /**
+     * Starts the thread replaying the journal unless it runs already. Called with the lock held.
+     */
+    private void startReplay() {
+        if (replay && replayer == null) {
+            replayer = Thread.ofVirtual().name("homex-journal-replay").start(this::replayLoop);
+        }
+    }
+
+
+    /**
+     * Tries to replay the waiting changes every REPLAY_MILLIS until none is left.
+     */
+    private void replayLoop() {
+        boolean failing = false;
+        try {
+            while (true) {
+                Thread.sleep(REPLAY_MILLIS);
+                try {
+                    SchemaMigrator.migrateOnce().join();
+                    replayPending();
+                    if (failing) {
+                        System.out.println("The database is back, the changes saved offline were sent.");
+                    }
+                    failing = false;
+                } catch (SQLException | RuntimeException e) {
+                    if (!failing) {
+                        System.out.println("Changes saved offline will be sent when the database is back: " + AsyncDatabase.rootCause(e).getMessage());
+                        failing = true;     // Reported once, until it works again
+                    }
+                }
+                synchronized (this) {
+                    if (!pending) {
+                        replayer = null;
+                        return;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            synchronized (this) {
+                replayer = null;
+            }
+        }
+    }
+
+
+    /**
+     * Replays the changes not yet in the database, one transaction per group.
+     */
+    private void replayPending() throws SQLException {
+        List<Entry> batch;
+        synchronized (this) {
+            batch = new ArrayList<>(entries.subList(replayed, entries.size()));
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        Map<Integer, List<Entry>> byGroup = new LinkedHashMap<>();
+        for (Entry entry : batch) {
+            byGroup.computeIfAbsent(entry.groupId(), _ -> new ArrayList<>()).add(entry);
+        }
+
+        // Cache updates and dropped changes of the committed groups, handled once isOffline() is up to date, even if a later group fails
+        List<Runnable> afterCommit = new ArrayList<>();
+        List<Dropped> dropped = new ArrayList<>();
+        try {
+            try (Connection connection = ConnectionPool.getConnection()) {
+                for (Map.Entry<Integer, List<Entry>> group : byGroup.entrySet()) {
+                    int groupId = group.getKey();
+                    List<Runnable> hooks = new ArrayList<>();
+                    List<Dropped> groupDropped = new ArrayList<>();
+                    ExpenseDao.inTransaction(connection, () -> {
+                        for (Entry entry : group.getValue()) {
+                            replay(connection, entry, hooks, groupDropped);
+                        }
+                        ExpenseChanges.recordReload(connection, groupId);   // The windows drop their provisional rows
+                        return null;
+                    });
+                    afterCommit.addAll(hooks);
+                    dropped.addAll(groupDropped);
+                }
+
+                try (PreparedStatement preparedStatement = connection.prepareStatement(
+                        "DELETE FROM journal_replays WHERE replayed_at < NOW() - INTERVAL " + KEEP_REPLAYS_DAYS + " DAY")) {
+                    preparedStatement.executeUpdate();
+                }
+            }
+
+            synchronized (this) {
+                replayed += batch.size();
+                if (replayed == entries.size()) {
+                    clear();
+                }
+            }
+        } finally {
+            afterCommit.forEach(Runnable::run);
+            byGroup.keySet().forEach(ExpenseChanges::published);
+            report(dropped);
+        }
+    }
+
+
+    /**
+     * Prints the dropped changes and passes them to the listener set with onDropped.
+     */
+    private static void report(List<Dropped> dropped) {
+        if (dropped.isEmpty()) {
+            return;
+        }
+        for (Dropped change : dropped) {
+            System.out.println("Dropped a change saved offline, " + change.reason() + ": " + change.entry());
+        }
+        Consumer<List<Dropped>> listener = droppedListener;
+        if (listener != null) {
+            try {
+                listener.accept(List.copyOf(dropped));
+            } catch (RuntimeException e) {
+                System.out.println("Could not report the dropped changes: " + e);
+            }
+        }
+    }
+
+
+    /**
+     * Replays one change inside the group's transaction, unless it was replayed before. A change the
+     * database refuses (e.g. its group was deleted) is rolled back alone and dropped.
+     */
+    private void replay(Connection connection, Entry entry, List<Runnable> afterCommit, List<Dropped> dropped) throws SQLException {
+        Integer done = replayedExpenseId(connection, entry.id());
+        if (done != null) {
+            if (entry.kind() == ExpenseRepository.ChangeKind.ADDED && done > 0) {
+                realIds.put(entry.after().getId(), done);
+            }
+            return;
+        }
+
+        Savepoint savepoint = connection.setSavepoint();
+        Integer expenseId = null;
+        try {
+            switch (entry.kind()) {
+                case ADDED -> {
+                    Expense provisional = entry.after();
+                    Expense added = ExpenseDao.insert(connection, provisional.getGroupId(), provisional.getExpenseName(),
+                            provisional.getAmountCents(), provisional.getDate(), provisional.getUsername());
+                    realIds.put(provisional.getId(), added.getId());
+                    expenseId = added.getId();
+                    afterCommit.add(() -> ExpenseService.added(added));
+                }
+                case EDITED -> {
+                    Expense before = resolve(entry.before());
+                    if (before == null) {
+                        dropped.add(new Dropped(entry, "its expense could not be added", null));
+                        break;
+                    }
+                    Expense after = entry.after();
+                    ExpenseRepository.Outcome outcome = ExpenseDao.update(connection, before, after.getExpenseName(), after.getAmountCents(), after.getDate());
+                    if (!outcome.written()) {
+                        dropped.add(notWritten(entry, outcome));
+                    }
+                    afterCommit.add(() -> ExpenseService.updated(before, outcome));
+                }
+                case REMOVED -> {
+                    Expense expense = resolve(entry.before());
+                    if (expense == null) {
+                        dropped.add(new Dropped(entry, "its expense could not be added", null));
+                        break;
+                    }
+                    ExpenseRepository.Outcome outcome = ExpenseDao.delete(connection, expense);
+                    if (!outcome.written()) {
+                        dropped.add(notWritten(entry, outcome));
+                    }
+                    afterCommit.add(() -> ExpenseService.removed(expense, outcome));
+                }
+                case RELOAD -> throw new IllegalStateException("Not a journaled change: " + entry.kind());
+            }
+        } catch (SQLException e) {
+            if (isUnreachable(e)) {
+                throw e;
+            }
+            connection.rollback(savepoint);
+            dropped.add(new Dropped(entry, "the database refused it (" + e.getMessage() + ")", null));
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "INSERT INTO journal_replays (op_id, expenseID) VALUES (?, ?)")) {
+            preparedStatement.setString(1, entry.id().toString());
+            if (expenseId != null) {
+                preparedStatement.setInt(2, expenseId);
+            } else {
+                preparedStatement.setNull(2, Types.INTEGER);
+            }
+            preparedStatement.executeUpdate();
+        }
+    }
+
+
+    /**
+     * Describes an edit or removal that conflicted with a change saved meanwhile.
+     */
+    private static Dropped notWritten(Entry entry, ExpenseRepository.Outcome outcome) {
+        return outcome.conflict()
+                ? new Dropped(entry, "another member changed the expense meanwhile", outcome.current())
+                : new Dropped(entry, "another member removed the expense meanwhile", null);
+    }
+
+
+    /**
+     * Returns the expense with its real ID if it was added offline, or null if that addition was dropped.
+     */
+    private Expense resolve(Expense expense) {
+        if (expense.getId() >= 0) {
+            return expense;
+        }
+        Integer id = realIds.get(expense.getId());
+        return id == null ? null : new Expense(id, expense.getGroupId(), expense.getExpenseName(), expense.getAmountCents(),
+                expense.getDate(), expense.getUsername(), expense.getVersion());
+    }
+
+
+    /**
+     * Returns whether a change was replayed before: null if not, otherwise the ID of the expense it added (0 for other changes).
+     */
+    private static Integer replayedExpenseId(Connection connection, UUID id) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT expenseID FROM journal_replays WHERE op_id = ?")) {
+            preparedStatement.setString(1, id.toString());
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : null;
+            }
+        }
+    }
+}
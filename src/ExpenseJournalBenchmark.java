@@ -0,0 +1,68 @@
+/**
+ * Libraries
+ */
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.UUID;
+
+
+/**
+ * The ExpenseJournalBenchmark class measures how long appending a change to the offline journal takes,
+ * on a temporary journal file, then opens the file again and checks that every change reads back.
+ *
+ * Run with: java ExpenseJournalBenchmark [changes]
+ */
+public class ExpenseJournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        Path file = Files.createTempFile("homex-journal", ".journal");
+        Files.delete(file);
+
+        try {
+            ExpenseJournal journal = new ExpenseJournal(file, false);
+            System.out.println("Warming up...");
+            append(journal, 20_000);
+            journal.close();
+            Files.delete(file);
+
+            journal = new ExpenseJournal(file, false);
+            long[] latencies = append(journal, count);
+            journal.close();
+
+            Arrays.sort(latencies);
+            long total = Arrays.stream(latencies).sum();
+            System.out.printf("%,d appends, %,.0f appends/s, file of %,d bytes%n", count, count / (total / 1e9), Files.size(file));
+            System.out.printf("Latency us: median %.2f, p99 %.2f, p99.9 %.2f, max %.2f%n",
+                    latencies[count / 2] / 1e3, latencies[(int) (count * 0.99)] / 1e3,
+                    latencies[(int) (count * 0.999)] / 1e3, latencies[count - 1] / 1e3);
+
+            long started = System.nanoTime();
+            ExpenseJournal reopened = new ExpenseJournal(file, false);
+            System.out.printf("Read back %,d of %,d changes in %.1f ms%n", reopened.size(), count, (System.nanoTime() - started) / 1e6);
+            reopened.close();
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    /**
+     * Appends additions and edits alternately, timing each append.
+     */
+    private static long[] append(ExpenseJournal journal, int count) throws Exception {
+        long[] latencies = new long[count];
+        for (int i = 0; i < count; i++) {
+            Expense expense = new Expense(-1 - i, 1, "Groceries " + i, -2_550 - i, "2024-03-15", "benchmark", 0);
+            ExpenseJournal.Entry entry = i % 2 == 0
+                    ? new ExpenseJournal.Entry(UUID.randomUUID(), ExpenseRepository.ChangeKind.ADDED, null, expense)
+                    : new ExpenseJournal.Entry(UUID.randomUUID(), ExpenseRepository.ChangeKind.EDITED, expense,
+                    new Expense(expense.getId(), 1, "Groceries (market) " + i, -2_600 - i, "2024-03-16", "benchmark", 1));
+            long started = System.nanoTime();
+            journal.append(entry);
+            latencies[i] = System.nanoTime() - started;
+        }
+        return latencies;
+    }
+}
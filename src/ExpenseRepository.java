@@ -0,0 +1,256 @@
+/**
+ * Libraries
+ */
+import java.time.LocalDate;
+import java.util.List;
+
+
+/**
+ * The ExpenseRepository interface stores the expenses of the groups, with the totals and the change feed
+ * derived from them. It is implemented on MariaDB (MariaDbRepository, through ExpenseDao, ExpenseRollups,
+ * ExpenseChanges and ExpenseWriteQueue) and on the embedded storage (EmbeddedStore);
+ * Repositories.expenses() returns the one in use.
+ *
+ * Rows come in the table order: by date, then by ID. Additions, edits and removals update the caches
+ * that depend on the expenses (see ExpenseService) and wake the group's feed readers once they are stored.
+ * The methods may block and report errors as StorageException, so they run off the event dispatch thread.
+ */
+public interface ExpenseRepository {
+
+    /**
+     * Outcome of an edit or removal made against the version of an expense the user saw.
+     *
+     * @param written True if the change was written.
+     * @param current The expense as now stored: the edited expense, or null once removed. When nothing was
+     *                written, the version another member saved meanwhile, or null if it was removed.
+     */
+    record Outcome(boolean written, Expense current) {
+
+        /**
+         * Returns whether another member changed the expense meanwhile (as opposed to removing it).
+         */
+        public boolean conflict() {
+            return !written && current != null;
+        }
+    }
+
+
+    /**
+     * Totals of one day or one month of a group.
+     *
+     * @param period The day, or the first day of the month.
+     * @param gainsCents The sum of the gains, in cents.
+     * @param lossesCents The sum of the losses, in cents (negative).
+     * @param count The number of expenses.
+     */
+    record PeriodTotal(LocalDate period, long gainsCents, long lossesCents, int count) {
+        public long netCents() {
+            return gainsCents + lossesCents;
+        }
+    }
+
+
+    /**
+     * The kinds of change of the change feed, with the letter each storage records them under.
+     */
+    enum ChangeKind {
+        ADDED('I'), EDITED('U'), REMOVED('D'), RELOAD('R');
+
+        final char code;
+
+        ChangeKind(char code) {
+            this.code = code;
+        }
+
+        static ChangeKind of(String code) {
+            for (ChangeKind kind : values()) {
+                if (kind.code == code.charAt(0)) {
+                    return kind;
+                }
+            }
+            throw new IllegalArgumentException("Unknown change kind " + code);
+        }
+    }
+
+
+    /**
+     * One change of a group's expenses.
+     *
+     * @param seq The number of the change in the group's sequence.
+     * @param kind What happened.
+     * @param before The expense before an edit or removal, reduced to its ID and date (its place in the table), otherwise null.
+     * @param after The expense after an addition or edit, otherwise null.
+     */
+    record Change(long seq, ChangeKind kind, Expense before, Expense after) {
+    }
+
+
+    /**
+     * The changes of a group after a given number.
+     *
+     * @param changes The changes, in order; empty if there are none or if the reader must reload.
+     * @param reload True if the reader must reload the group instead (bulk change, or too far behind).
+     */
+    record Batch(List<Change> changes, boolean reload) {
+
+        static final Batch NONE = new Batch(List.of(), false);
+
+        public boolean isEmpty() {
+            return changes.isEmpty() && !reload;
+        }
+    }
+
+
+    /**
+     * Reads that have to agree with each other (e.g. a row count and a change number), see read().
+     */
+    @FunctionalInterface
+    interface Read<T> {
+        T run() throws StorageException;
+    }
+
+
+    /**
+     * Receives the expenses of a scan one at a time. A visitor that fails throws an unchecked exception,
+     * which ends the scan.
+     */
+    @FunctionalInterface
+    interface Visitor {
+        void visit(Expense expense);
+    }
+
+
+    /**
+     * Runs reads of this repository so that they all see the same state of the expenses.
+     *
+     * @param work Calls to this repository.
+     * @return The result of the work.
+     */
+    <T> T read(Read<T> work) throws StorageException;
+
+
+    /**
+     * Returns an expense by ID, or null if it does not exist.
+     */
+    Expense findById(int expenseId) throws StorageException;
+
+
+    /**
+     * Returns the number of expenses of a group.
+     */
+    int countByGroup(int groupId) throws StorageException;
+
+
+    /**
+     * Returns the expenses of a group that come after a given one in the table order.
+     *
+     * @param groupId The ID of the group.
+     * @param after The last expense already read (only its date and ID are used), or null to start at the first.
+     * @param limit The maximum number of expenses.
+     * @return The expenses, in the table order.
+     */
+    List<Expense> findPage(int groupId, Expense after, int limit) throws StorageException;
+
+
+    /**
+     * Returns every expense of a group in the table order.
+     */
+    List<Expense> findAll(int groupId) throws StorageException;
+
+
+    /**
+     * Returns the expense at a position of the table order, or null past the end.
+     */
+    Expense findAt(int groupId, int position) throws StorageException;
+
+
+    /**
+     * Returns the position of an expense in the table order of its group.
+     *
+     * @param groupId The ID of the group.
+     * @param date The date of the expense (YYYY-MM-DD).
+     * @param expenseId The ID of the expense.
+     * @return The number of expenses before it.
+     */
+    int positionOf(int groupId, String date, int expenseId) throws StorageException;
+
+
+    /**
+     * Streams the expenses of a scope in the table order (date, then ID), for exports and analyses.
+     * Stops with a StorageException (CANCELLED) if the thread is interrupted.
+     */
+    void forEach(ExpenseScope scope, Visitor visitor) throws StorageException;
+
+
+    /**
+     * Streams the expenses of a group with an ID above the given one, in ID order (see ExpenseSearchIndex.sync).
+     */
+    void forEachAfter(int groupId, int afterId, Visitor visitor) throws StorageException;
+
+
+    /**
+     * Returns the wallet totals of the expenses a user added, whatever the group.
+     */
+    WalletSummary summaryForUser(String username) throws StorageException;
+
+
+    /**
+     * Returns the totals of a group by month, for the months from one date to another.
+     *
+     * @param groupId The ID of the group.
+     * @param from A day of the first month, or null for no lower limit.
+     * @param to A day of the last month, or null for no upper limit.
+     * @return The months that have expenses, in order.
+     */
+    List<PeriodTotal> monthly(int groupId, LocalDate from, LocalDate to) throws StorageException;
+
+
+    /**
+     * Returns the number of the last change of a group (see ExpenseChanges); read it inside read() with the rows it describes.
+     */
+    long currentSeq(int groupId) throws StorageException;
+
+
+    /**
+     * Returns the changes of a group after a given number.
+     *
+     * @param groupId The ID of the group.
+     * @param afterSeq The number of the last change the reader has applied, or -1 if it has nothing loaded yet.
+     * @return The changes, or a batch asking to reload.
+     */
+    Batch since(int groupId, long afterSeq) throws StorageException;
+
+
+    /**
+     * Adds an expense.
+     *
+     * @param groupId The ID of the group to which the expense belongs.
+     * @param expenseName The name of the expense.
+     * @param amountCents The amount in cents (positive for gains, negative for losses).
+     * @param date The date of the expense (YYYY-MM-DD).
+     * @param username The username of the user who added the expense.
+     * @return The stored expense, with its ID.
+     */
+    Expense add(int groupId, String expenseName, long amountCents, String date, String username) throws StorageException;
+
+
+    /**
+     * Edits an expense if it is still at the version the user saw (see Outcome).
+     *
+     * @param expense The expense as currently known, with its version.
+     * @param newName The new name of the expense.
+     * @param newAmountCents The new amount in cents.
+     * @param newDate The new date of the expense (YYYY-MM-DD).
+     * @return Whether the edit was written, and the expense as it now is.
+     */
+    Outcome update(Expense expense, String newName, long newAmountCents, String newDate) throws StorageException;
+
+
+    /**
+     * Removes an expense if it is still at the version the user saw.
+     *
+     * @param expense The expense to remove, with its version.
+     * @return Whether the removal was written, and otherwise the expense as it now is (null if already gone).
+     */
+    Outcome remove(Expense expense) throws StorageException;
+}
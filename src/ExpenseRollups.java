@@ -0,0 +1,331 @@
+/**
+ * Libraries
+ */
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * The ExpenseRollups class maintains and reads the per-group totals by day and by month
+ * (tables expense_rollup_day and expense_rollup_month): the sum of the gains, the sum of the losses
+ * and the number of expenses of each bucket.
+ *
+ * Every change to the expenses table goes with a Delta applied on the same connection before the commit,
+ * so the rollups never disagree with the expenses they summarise. Period totals then read one row per
+ * day or month instead of scanning the group's history.
+ *
+ * verify() compares the rollups with the expenses, and rebuild() recomputes them, for example after
+ * expenses were changed outside the application. Both are available from the command line:
+ *
+ *     java ExpenseRollups verify [groupId]
+ *     java ExpenseRollups rebuild [groupId]
+ */
+public class ExpenseRollups {
+
+    private static final String UPSERT_DAY_SQL =
+            "INSERT INTO expense_rollup_day (groupID, day, gains, losses, expense_count) " +
+            "VALUES (?, ?, " + Money.SQL_FROM_CENTS + ", " + Money.SQL_FROM_CENTS + ", ?) " +
+            "ON DUPLICATE KEY UPDATE gains = gains + VALUES(gains), losses = losses + VALUES(losses), expense_count = expense_count + VALUES(expense_count)";
+    private static final String UPSERT_MONTH_SQL =
+            "INSERT INTO expense_rollup_month (groupID, month, gains, losses, expense_count) " +
+            "VALUES (?, ?, " + Money.SQL_FROM_CENTS + ", " + Money.SQL_FROM_CENTS + ", ?) " +
+            "ON DUPLICATE KEY UPDATE gains = gains + VALUES(gains), losses = losses + VALUES(losses), expense_count = expense_count + VALUES(expense_count)";
+
+    // Totals of the expenses themselves, in the same shape as the rollup columns
+    private static final String SUM_GAINS = "SUM(CASE WHEN amount > 0 THEN amount ELSE 0 END)";
+    private static final String SUM_LOSSES = "SUM(CASE WHEN amount < 0 THEN amount ELSE 0 END)";
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ExpenseRollups() {
+    }
+
+
+    /**
+     * Changes to the rollups collected while expenses are written, applied with apply() in the same transaction.
+     * Changes to the same day are merged first, so a batch of expenses costs one upsert per day and per month.
+     * Not thread-safe: one Delta per transaction.
+     */
+    public static class Delta {
+
+        private record Bucket(int groupId, LocalDate day) {}
+
+        private final Map<Bucket, long[]> days = new HashMap<>();   // gains, losses, count
+
+
+        /**
+         * Records an expense added to a group.
+         */
+        public Delta added(int groupId, LocalDate date, long amountCents) {
+            return change(groupId, date, amountCents, 1);
+        }
+
+
+        /**
+         * Records an expense removed from a group.
+         */
+        public Delta removed(int groupId, LocalDate date, long amountCents) {
+            return change(groupId, date, amountCents, -1);
+        }
+
+
+        /**
+         * Returns whether there is nothing to apply.
+         */
+        public boolean isEmpty() {
+            return days.isEmpty();
+        }
+
+
+        /**
+         * Writes the changes to both rollup tables and clears the Delta.
+         * Call it on the connection that changed the expenses, before the commit.
+         *
+         * @param connection The connection to use.
+         */
+        public void apply(Connection connection) throws SQLException {
+            if (days.isEmpty()) {
+                return;
+            }
+
+            Map<Bucket, long[]> months = new HashMap<>();
+            for (Map.Entry<Bucket, long[]> entry : days.entrySet()) {
+                Bucket month = new Bucket(entry.getKey().groupId(), entry.getKey().day().withDayOfMonth(1));
+                long[] totals = months.computeIfAbsent(month, _ -> new long[3]);
+                for (int i = 0; i < 3; i++) {
+                    totals[i] += entry.getValue()[i];
+                }
+            }
+
+            upsert(connection, UPSERT_DAY_SQL, days);
+            upsert(connection, UPSERT_MONTH_SQL, months);
+            deleteEmpty(connection, "DELETE FROM expense_rollup_day WHERE groupID = ? AND day = ? AND expense_count = 0", days);
+            deleteEmpty(connection, "DELETE FROM expense_rollup_month WHERE groupID = ? AND month = ? AND expense_count = 0", months);
+            days.clear();
+        }
+
+
+        private Delta change(int groupId, LocalDate date, long amountCents, int sign) {
+            long[] totals = days.computeIfAbsent(new Bucket(groupId, date), _ -> new long[3]);
+            if (amountCents > 0) {
+                totals[0] += sign * amountCents;
+            } else {
+                totals[1] += sign * amountCents;
+            }
+            totals[2] += sign;
+            return this;
+        }
+
+
+        private static void upsert(Connection connection, String sql, Map<Bucket, long[]> buckets) throws SQLException {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                for (Map.Entry<Bucket, long[]> entry : buckets.entrySet()) {
+                    long[] totals = entry.getValue();
+                    if (totals[0] == 0 && totals[1] == 0 && totals[2] == 0) {
+                        continue;   // An expense edited back and forth within the same day
+                    }
+                    preparedStatement.setInt(1, entry.getKey().groupId());
+                    preparedStatement.setDate(2, Date.valueOf(entry.getKey().day()));
+                    preparedStatement.setLong(3, totals[0]);
+                    preparedStatement.setLong(4, totals[1]);
+                    preparedStatement.setLong(5, totals[2]);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+        }
+
+
+        /**
+         * Removes the buckets whose last expense was removed.
+         */
+        private static void deleteEmpty(Connection connection, String sql, Map<Bucket, long[]> buckets) throws SQLException {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                boolean any = false;
+                for (Map.Entry<Bucket, long[]> entry : buckets.entrySet()) {
+                    if (entry.getValue()[2] < 0) {
+                        preparedStatement.setInt(1, entry.getKey().groupId());
+                        preparedStatement.setDate(2, Date.valueOf(entry.getKey().day()));
+                        preparedStatement.addBatch();
+                        any = true;
+                    }
+                }
+                if (any) {
+                    preparedStatement.executeBatch();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Reads the monthly totals of a group.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @param from The first month included (any day of it).
+     * @param to The last month included (any day of it).
+     * @return The months with at least one expense, in order.
+     */
+    public static List<ExpenseRepository.PeriodTotal> monthly(Connection connection, int groupId, LocalDate from, LocalDate to) throws SQLException {
+        return read(connection, "SELECT month, " + Money.sqlCents("gains") + ", " + Money.sqlCents("losses") + ", expense_count " +
+                "FROM expense_rollup_month WHERE groupID = ? AND month BETWEEN ? AND ? ORDER BY month",
+                groupId, from.withDayOfMonth(1), to.withDayOfMonth(1));
+    }
+
+
+    /**
+     * Reads the daily totals of a group.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group.
+     * @param from The first day included.
+     * @param to The last day included.
+     * @return The days with at least one expense, in order.
+     */
+    public static List<ExpenseRepository.PeriodTotal> daily(Connection connection, int groupId, LocalDate from, LocalDate to) throws SQLException {
+        return read(connection, "SELECT day, " + Money.sqlCents("gains") + ", " + Money.sqlCents("losses") + ", expense_count " +
+                "FROM expense_rollup_day WHERE groupID = ? AND day BETWEEN ? AND ? ORDER BY day",
+                groupId, from, to);
+    }
+
+
+    private static List<ExpenseRepository.PeriodTotal> read(Connection connection, String sql, int groupId, LocalDate from, LocalDate to) throws SQLException {
+        List<ExpenseRepository.PeriodTotal> totals = new ArrayList<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, groupId);
+            preparedStatement.setDate(2, Date.valueOf(from));
+            preparedStatement.setDate(3, Date.valueOf(to));
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    totals.add(new ExpenseRepository.PeriodTotal(resultSet.getDate(1).toLocalDate(), resultSet.getLong(2), resultSet.getLong(3), resultSet.getInt(4)));
+                }
+            }
+        }
+        return totals;
+    }
+
+
+    /**
+     * Compares the rollups with the expenses they summarise.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group to check, or null for every group.
+     * @return A description of every bucket that drifted; empty if the rollups are exact.
+     */
+    public static List<String> verify(Connection connection, Integer groupId) throws SQLException {
+        List<String> drifts = new ArrayList<>();
+        verify(connection, groupId, "expense_rollup_day", "day", "date", drifts);
+        verify(connection, groupId, "expense_rollup_month", "month", "DATE_FORMAT(date, '%Y-%m-01')", drifts);
+        return drifts;
+    }
+
+
+    /**
+     * Compares one rollup table with the expenses grouped the same way.
+     * The two sides are stacked with UNION ALL and summed per bucket, which finds buckets missing on either side.
+     */
+    private static void verify(Connection connection, Integer groupId, String table, String period, String expensePeriod, List<String> drifts) throws SQLException {
+        String expenseFilter = groupId != null ? "groupID = ?" : "groupID IS NOT NULL";
+        String rollupFilter = groupId != null ? "groupID = ?" : "1 = 1";
+        String sql = "SELECT groupID, period, SUM(eg), SUM(el), SUM(ec), SUM(rg), SUM(rl), SUM(rc) FROM (" +
+                "SELECT groupID, " + expensePeriod + " AS period, " +
+                Money.sqlCents(SUM_GAINS) + " AS eg, " + Money.sqlCents(SUM_LOSSES) + " AS el, COUNT(*) AS ec, 0 AS rg, 0 AS rl, 0 AS rc " +
+                "FROM expenses WHERE " + expenseFilter + " AND date IS NOT NULL GROUP BY groupID, " + expensePeriod +
+                " UNION ALL " +
+                "SELECT groupID, " + period + ", 0, 0, 0, " + Money.sqlCents("gains") + ", " + Money.sqlCents("losses") + ", expense_count " +
+                "FROM " + table + " WHERE " + rollupFilter +
+                ") t GROUP BY groupID, period HAVING SUM(eg) <> SUM(rg) OR SUM(el) <> SUM(rl) OR SUM(ec) <> SUM(rc) ORDER BY groupID, period";
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            if (groupId != null) {
+                preparedStatement.setInt(1, groupId);
+                preparedStatement.setInt(2, groupId);
+            }
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    drifts.add(String.format("%s group %d %s: expenses %s / %s / %d, rollup %s / %s / %d", table,
+                            resultSet.getInt(1), resultSet.getString(2),
+                            Money.format(resultSet.getLong(3)), Money.format(resultSet.getLong(4)), resultSet.getLong(5),
+                            Money.format(resultSet.getLong(6)), Money.format(resultSet.getLong(7)), resultSet.getLong(8)));
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Recomputes the rollups from the expenses, in one transaction.
+     *
+     * @param connection The connection to use.
+     * @param groupId The ID of the group to rebuild, or null for every group.
+     */
+    public static void rebuild(Connection connection, Integer groupId) throws SQLException {
+        String filter = groupId != null ? " WHERE groupID = ?" : "";
+        String expenseFilter = groupId != null ? "groupID = ?" : "groupID IS NOT NULL";
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            execute(connection, "DELETE FROM expense_rollup_day" + filter, groupId);
+            execute(connection, "DELETE FROM expense_rollup_month" + filter, groupId);
+            execute(connection, "INSERT INTO expense_rollup_day (groupID, day, gains, losses, expense_count) " +
+                    "SELECT groupID, date, " + SUM_GAINS + ", " + SUM_LOSSES + ", COUNT(*) " +
+                    "FROM expenses WHERE " + expenseFilter + " AND date IS NOT NULL GROUP BY groupID, date", groupId);
+            execute(connection, "INSERT INTO expense_rollup_month (groupID, month, gains, losses, expense_count) " +
+                    "SELECT groupID, DATE_FORMAT(day, '%Y-%m-01'), SUM(gains), SUM(losses), SUM(expense_count) " +
+                    "FROM expense_rollup_day" + filter + " GROUP BY groupID, DATE_FORMAT(day, '%Y-%m-01')", groupId);
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+
+    private static void execute(Connection connection, String sql, Integer groupId) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            if (groupId != null) {
+                preparedStatement.setInt(1, groupId);
+            }
+            preparedStatement.executeUpdate();
+        }
+    }
+
+
+    /**
+     * Command line entry point: verify or rebuild the rollups of one group or of every group.
+     * Usage: java ExpenseRollups verify|rebuild [groupId]
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1 || !(args[0].equals("verify") || args[0].equals("rebuild"))) {
+            System.out.println("Usage: java ExpenseRollups verify|rebuild [groupId]");
+            System.exit(2);
+        }
+        Integer groupId = args.length > 1 ? Integer.valueOf(args[1]) : null;
+
+        SchemaMigrator.migrateOnce().join();
+        try (Connection connection = ConnectionPool.getConnection()) {
+            if (args[0].equals("rebuild")) {
+                rebuild(connection, groupId);
+                System.out.println("Rollups rebuilt for " + (groupId != null ? "group " + groupId : "every group") + ".");
+            }
+
+            List<String> drifts = verify(connection, groupId);
+            for (String drift : drifts) {
+                System.out.println(drift);
+            }
+            System.out.println(drifts.isEmpty() ? "Rollups match the expenses." : drifts.size() + " rollup rows differ from the expenses.");
+            System.exit(drifts.isEmpty() ? 0 : 1);
+        }
+    }
+}
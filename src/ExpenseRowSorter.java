@@ -0,0 +1,651 @@
+/**
+ * Libraries
+ */
+import javax.swing.RowSorter;
+import javax.swing.SortOrder;
+import java.util.*;
+
+
+/**
+ * The ExpenseRowSorter class sorts and filters the expense table of a group.
+ * The model is already in (date, id) order, so sorting by date needs nothing and filtering by date
+ * is a range of model rows; the other sort columns use permutations of the model rows computed once
+ * from primitive key arrays (amount in cents, member rank, case-folded name) and kept up to date as
+ * rows are inserted, edited and removed, instead of being sorted again on every change.
+ * Switching column or direction, or changing the filters, is then a single pass over a permutation.
+ *
+ * While the table shows the default order without filters, the sorter is a pass-through and the model
+ * keeps loading pages lazily. Sorting by another column or filtering asks the model to load every row
+ * first (ExpenseTableModel.setLoadAll), since every row takes part.
+ *
+ * All methods must be called on the event dispatch thread.
+ */
+public class ExpenseRowSorter extends RowSorter<ExpenseTableModel> {
+
+    // Columns of ExpenseTableModel
+    static final int NAME_COLUMN = 1;
+    static final int AMOUNT_COLUMN = 2;
+    static final int DATE_COLUMN = 3;
+    static final int MEMBER_COLUMN = 4;
+
+    // A sort key and a row index packed into one long, so that a permutation is a primitive sort
+    private static final int ROW_BITS = 22;
+    private static final long KEY_OFFSET = 1L << 40;
+
+
+    /**
+     * Which amounts to show.
+     */
+    public enum Type {
+        ALL("Gains and losses"), GAINS("Gains"), LOSSES("Losses");
+
+        private final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+
+    /**
+     * The filters of the table.
+     *
+     * @param fromDate First date shown, as YYYYMMDD, or 0.
+     * @param toDate Last date shown, as YYYYMMDD, or Integer.MAX_VALUE.
+     * @param member The only member whose expenses are shown, or null for everyone.
+     * @param type Gains, losses or both.
+     */
+    public record Filter(int fromDate, int toDate, String member, Type type) {
+        public static final Filter NONE = new Filter(0, Integer.MAX_VALUE, null, Type.ALL);
+
+        boolean isNone() {
+            return fromDate <= 0 && toDate == Integer.MAX_VALUE && member == null && type == Type.ALL;
+        }
+    }
+
+
+    private final ExpenseTableModel model;
+    private List<SortKey> sortKeys = List.of();     // Empty: model order
+    private Filter filter = Filter.NONE;
+
+    // Sort keys of every model row, valid once the model is fully loaded
+    private boolean keysValid = false;
+    private int size = 0;
+    private int[] dates = new int[0];           // YYYYMMDD
+    private long[] cents = new long[0];
+    private int[] members = new int[0];         // Index into memberNames
+    private String[] names = new String[0];     // Case-folded
+    private final Map<String, Integer> memberIds = new HashMap<>();
+    private final List<String> memberNames = new ArrayList<>();
+    private int[] memberRanks = new int[0];     // Alphabetical rank of each member index
+
+    // Ascending permutation of the model rows for each sort column, computed on first use
+    private final Map<Integer, int[]> permutations = new HashMap<>();
+
+    // Current mapping, null while the view is the model itself
+    private int[] viewToModel = null;
+    private int[] modelToView = null;
+
+
+    /**
+     * Creates a sorter for a table model, showing the model order until a column is sorted.
+     */
+    public ExpenseRowSorter(ExpenseTableModel model) {
+        this.model = model;
+    }
+
+
+    @Override
+    public ExpenseTableModel getModel() {
+        return model;
+    }
+
+
+    /**
+     * Sorts by a column ascending, then descending, then back to the date order.
+     */
+    @Override
+    public void toggleSortOrder(int column) {
+        if (column != NAME_COLUMN && column != AMOUNT_COLUMN && column != DATE_COLUMN && column != MEMBER_COLUMN) {
+            return;
+        }
+        SortKey current = sortKeys.isEmpty() ? null : sortKeys.get(0);
+        if (current == null || current.getColumn() != column) {
+            setSortKeys(List.of(new SortKey(column, SortOrder.ASCENDING)));
+        } else if (current.getSortOrder() == SortOrder.ASCENDING) {
+            setSortKeys(List.of(new SortKey(column, SortOrder.DESCENDING)));
+        } else {
+            setSortKeys(List.of());
+        }
+    }
+
+
+    @Override
+    public void setSortKeys(List<? extends SortKey> keys) {
+        List<SortKey> newKeys = keys == null || keys.isEmpty() ? List.of() : List.of(keys.get(0));   // One column at a time
+        if (!newKeys.equals(sortKeys)) {
+            sortKeys = newKeys;
+            fireSortOrderChanged();
+            update();
+        }
+    }
+
+
+    @Override
+    public List<? extends SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+
+    /**
+     * Changes the filters.
+     */
+    public void setFilter(Filter filter) {
+        this.filter = filter != null ? filter : Filter.NONE;
+        update();
+    }
+
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+
+    /**
+     * Returns the members who added the loaded expenses, in alphabetical order.
+     */
+    public List<String> getMembers() {
+        List<String> sorted = new ArrayList<>(memberNames);
+        sorted.sort(String.CASE_INSENSITIVE_ORDER);
+        return sorted;
+    }
+
+
+    @Override
+    public int convertRowIndexToModel(int index) {
+        return viewToModel == null ? index : viewToModel[index];
+    }
+
+
+    @Override
+    public int convertRowIndexToView(int index) {
+        if (modelToView == null) {
+            return index;
+        }
+        return index >= 0 && index < size ? modelToView[index] : -1;
+    }
+
+
+    @Override
+    public int getViewRowCount() {
+        return viewToModel == null ? model.getRowCount() : viewToModel.length;
+    }
+
+
+    @Override
+    public int getModelRowCount() {
+        return model.getRowCount();
+    }
+
+
+    @Override
+    public void modelStructureChanged() {
+        allRowsChanged();
+    }
+
+
+    @Override
+    public void allRowsChanged() {
+        keysValid = false;
+        permutations.clear();
+        if (model.isFullyLoaded()) {
+            loadKeys();
+        }
+        viewToModel = null;
+        modelToView = null;
+        if (!isDefaultOrder()) {
+            update();
+        }
+    }
+
+
+    @Override
+    public void rowsInserted(int firstRow, int endRow) {
+        if (!keysValid) {
+            return;     // Pages of the pass-through view: the table follows the model
+        }
+        int count = endRow - firstRow + 1;
+        growKeys(size + count);
+        shiftKeys(firstRow, firstRow + count, size - firstRow);
+        size += count;
+        for (int row = firstRow; row <= endRow; row++) {
+            readKeys(row);
+        }
+
+        for (Map.Entry<Integer, int[]> entry : permutations.entrySet()) {
+            int[] permutation = entry.getValue();
+            int length = size - count;
+            int[] grown = Arrays.copyOf(permutation, size);
+            for (int i = 0; i < length; i++) {
+                if (grown[i] >= firstRow) {
+                    grown[i] += count;
+                }
+            }
+            for (int row = firstRow; row <= endRow; row++) {
+                length = insertSorted(entry.getKey(), grown, length, row);
+            }
+            entry.setValue(grown);
+        }
+        refreshView();
+    }
+
+
+    @Override
+    public void rowsDeleted(int firstRow, int endRow) {
+        if (!keysValid) {
+            return;
+        }
+        int count = endRow - firstRow + 1;
+        shiftKeys(endRow + 1, firstRow, size - endRow - 1);
+        size -= count;
+
+        for (Map.Entry<Integer, int[]> entry : permutations.entrySet()) {
+            int[] permutation = entry.getValue();
+            int kept = 0;
+            for (int row : permutation) {
+                if (row < firstRow) {
+                    permutation[kept++] = row;
+                } else if (row > endRow) {
+                    permutation[kept++] = row - count;
+                }
+            }
+            entry.setValue(Arrays.copyOf(permutation, kept));
+        }
+        refreshView();
+    }
+
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow) {
+        if (!keysValid) {
+            return;
+        }
+        for (int row = firstRow; row <= endRow && row < size; row++) {
+            long oldCents = cents[row];
+            int oldMember = members[row];
+            String oldName = names[row];
+            int[] memberRanksBefore = memberRanks;
+            readKeys(row);
+            if (memberRanks != memberRanksBefore) {
+                permutations.remove(MEMBER_COLUMN);     // A new member changes the ranks
+            }
+
+            for (Map.Entry<Integer, int[]> entry : permutations.entrySet()) {
+                int column = entry.getKey();
+                boolean changed = column == AMOUNT_COLUMN ? oldCents != cents[row]
+                        : column == MEMBER_COLUMN ? oldMember != members[row]
+                        : !oldName.equals(names[row]);
+                if (changed) {
+                    int[] permutation = entry.getValue();
+                    int length = removeValue(permutation, size, row);
+                    insertSorted(column, permutation, length, row);
+                }
+            }
+        }
+        refreshView();
+    }
+
+
+    @Override
+    public void rowsUpdated(int firstRow, int endRow, int column) {
+        rowsUpdated(firstRow, endRow);
+    }
+
+
+    /**
+     * Returns whether the table shows the model as it is: date order, no filter.
+     */
+    private boolean isDefaultOrder() {
+        SortKey key = sortKeys.isEmpty() ? null : sortKeys.get(0);
+        boolean modelOrder = key == null || (key.getColumn() == DATE_COLUMN && key.getSortOrder() == SortOrder.ASCENDING);
+        return modelOrder && filter.isNone();
+    }
+
+
+    /**
+     * Applies the sort keys and filters, first asking the model for every row if needed.
+     */
+    private void update() {
+        if (!isDefaultOrder() && !model.isFullyLoaded()) {
+            model.setLoadAll(true);     // allRowsChanged() comes back once every row is loaded
+            return;
+        }
+        refreshView();
+    }
+
+
+    /**
+     * Rebuilds the view from the cached permutation and the filters, and tells the table.
+     */
+    private void refreshView() {
+        int[] previous = viewToModel;
+        if (isDefaultOrder() || !keysValid) {
+            if (viewToModel == null) {
+                return;     // Already the model itself
+            }
+            viewToModel = null;
+            modelToView = null;
+            fireRowSorterChanged(previous);
+            return;
+        }
+        if (previous == null) {
+            previous = identity(size);    // Lets the table keep the selection
+        }
+
+        SortKey key = sortKeys.isEmpty() ? new SortKey(DATE_COLUMN, SortOrder.ASCENDING) : sortKeys.get(0);
+        boolean descending = key.getSortOrder() == SortOrder.DESCENDING;
+        int[] order = key.getColumn() == DATE_COLUMN ? null : permutation(key.getColumn());
+
+        // The model is in date order: the date filter is a range of model rows
+        int first = lowerBound(filter.fromDate());
+        int end = filter.toDate() == Integer.MAX_VALUE ? size : lowerBound(filter.toDate() + 1);
+        int member = filter.member() == null ? -1 : memberIds.getOrDefault(filter.member(), -2);
+        Type type = filter.type();
+
+        int[] view = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            int position = descending ? size - 1 - i : i;
+            int row = order == null ? position : order[position];
+            if (row < first || row >= end || (member != -1 && members[row] != member)
+                    || (type == Type.GAINS && cents[row] <= 0) || (type == Type.LOSSES && cents[row] >= 0)) {
+                continue;
+            }
+            view[count++] = row;
+        }
+
+        viewToModel = Arrays.copyOf(view, count);
+        if (modelToView == null || modelToView.length != size) {
+            modelToView = new int[size];
+        }
+        Arrays.fill(modelToView, -1);
+        for (int i = 0; i < count; i++) {
+            modelToView[viewToModel[i]] = i;
+        }
+        fireRowSorterChanged(previous);
+    }
+
+
+    /**
+     * Returns the ascending permutation of a column, sorting it the first time.
+     * Each row's key (cents, member rank, name rank) is packed with the row index into a long,
+     * and the longs are sorted with Arrays.sort; keys too large to pack fall back to a merge sort.
+     */
+    private int[] permutation(int column) {
+        int[] permutation = permutations.get(column);
+        if (permutation != null) {
+            return permutation;
+        }
+
+        long[] keys = switch (column) {
+            case AMOUNT_COLUMN -> Arrays.copyOf(cents, size);
+            case MEMBER_COLUMN -> {
+                long[] ranks = new long[size];
+                for (int row = 0; row < size; row++) {
+                    ranks[row] = memberRanks[members[row]];
+                }
+                yield ranks;
+            }
+            default -> nameRanks();
+        };
+
+        boolean packable = size < 1 << ROW_BITS;
+        for (int row = 0; row < size && packable; row++) {
+            packable = keys[row] > -KEY_OFFSET && keys[row] < KEY_OFFSET;
+        }
+        if (packable) {
+            for (int row = 0; row < size; row++) {
+                keys[row] = (keys[row] + KEY_OFFSET) << ROW_BITS | row;
+            }
+            Arrays.sort(keys);
+            permutation = new int[size];
+            for (int i = 0; i < size; i++) {
+                permutation[i] = (int) (keys[i] & ((1 << ROW_BITS) - 1));
+            }
+        } else {
+            permutation = identity(size);
+            sort(column, permutation, new int[size], 0, size);
+        }
+        permutations.put(column, permutation);
+        return permutation;
+    }
+
+
+    /**
+     * Ranks the rows by name: the distinct names are sorted once, each row gets the rank of its name.
+     */
+    private long[] nameRanks() {
+        Map<String, Integer> distinct = new HashMap<>();
+        for (int row = 0; row < size; row++) {
+            distinct.putIfAbsent(names[row], distinct.size());
+        }
+        String[] sorted = distinct.keySet().toArray(new String[0]);
+        Arrays.sort(sorted);
+        for (int rank = 0; rank < sorted.length; rank++) {
+            distinct.put(sorted[rank], rank);
+        }
+
+        long[] ranks = new long[size];
+        for (int row = 0; row < size; row++) {
+            ranks[row] = distinct.get(names[row]);
+        }
+        return ranks;
+    }
+
+
+    /**
+     * Compares two model rows on a column; ties keep the model (date, id) order.
+     */
+    private int compare(int column, int a, int b) {
+        int result = switch (column) {
+            case AMOUNT_COLUMN -> Long.compare(cents[a], cents[b]);
+            case MEMBER_COLUMN -> Integer.compare(memberRanks[members[a]], memberRanks[members[b]]);
+            default -> names[a].compareTo(names[b]);
+        };
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+
+
+    /**
+     * Merge sort of model rows on a column, without boxing. Used when the keys cannot be packed.
+     */
+    private void sort(int column, int[] rows, int[] buffer, int from, int to) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {   // Insertion sort for short runs
+                int row = rows[i];
+                int j = i - 1;
+                while (j >= from && compare(column, rows[j], row) > 0) {
+                    rows[j + 1] = rows[j];
+                    j--;
+                }
+                rows[j + 1] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(column, rows, buffer, from, middle);
+        sort(column, rows, buffer, middle, to);
+        if (compare(column, rows[middle - 1], rows[middle]) <= 0) {
+            return;     // Already in order
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            rows[i] = right >= to || (left < middle && compare(column, buffer[left], buffer[right]) <= 0) ? buffer[left++] : buffer[right++];
+        }
+    }
+
+
+    /**
+     * Inserts a model row at its place in the first 'length' entries of a permutation.
+     *
+     * @return The new length.
+     */
+    private int insertSorted(int column, int[] permutation, int length, int row) {
+        int low = 0;
+        int high = length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compare(column, permutation[middle], row) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        System.arraycopy(permutation, low, permutation, low + 1, length - low);
+        permutation[low] = row;
+        return length + 1;
+    }
+
+
+    /**
+     * Removes a value from the first 'length' entries of an array, keeping the order.
+     *
+     * @return The new length.
+     */
+    private static int removeValue(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                System.arraycopy(values, i + 1, values, i, length - i - 1);
+                return length - 1;
+            }
+        }
+        return length;
+    }
+
+
+    /**
+     * Returns the first model row whose date is at least the given date.
+     */
+    private int lowerBound(int date) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (dates[middle] < date) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+
+    private static int[] identity(int size) {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+
+    // Key arrays
+
+    private void loadKeys() {
+        size = model.getRowCount();
+        dates = new int[size];
+        cents = new long[size];
+        members = new int[size];
+        names = new String[size];
+        memberIds.clear();
+        memberNames.clear();
+        memberRanks = new int[0];
+
+        Map<String, String> folded = new HashMap<>();   // Repeated names share their case-folded copy
+        for (int row = 0; row < size; row++) {
+            Expense expense = model.getExpenseAt(row);
+            dates[row] = parseDate(expense.getDate());
+            cents[row] = expense.getAmountCents();
+            members[row] = memberId(expense.getUsername());
+            names[row] = folded.computeIfAbsent(expense.getExpenseName() != null ? expense.getExpenseName() : "", name -> name.toLowerCase(Locale.ROOT));
+        }
+        keysValid = true;
+    }
+
+
+    private void readKeys(int row) {
+        Expense expense = model.getExpenseAt(row);
+        dates[row] = parseDate(expense.getDate());
+        cents[row] = expense.getAmountCents();
+        members[row] = memberId(expense.getUsername());
+        names[row] = expense.getExpenseName() != null ? expense.getExpenseName().toLowerCase(Locale.ROOT) : "";
+    }
+
+
+    private int memberId(String username) {
+        String member = username != null ? username : "";
+        Integer id = memberIds.get(member);
+        if (id == null) {
+            id = memberNames.size();
+            memberIds.put(member, id);
+            memberNames.add(member);
+
+            // Recompute the alphabetical ranks; members are few
+            Integer[] order = new Integer[memberNames.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> String.CASE_INSENSITIVE_ORDER.compare(memberNames.get(a), memberNames.get(b)));
+            memberRanks = new int[order.length];
+            for (int rank = 0; rank < order.length; rank++) {
+                memberRanks[order[rank]] = rank;
+            }
+        }
+        return id;
+    }
+
+
+    private void growKeys(int capacity) {
+        if (capacity > dates.length) {
+            int length = Math.max(capacity, dates.length + (dates.length >> 1));
+            dates = Arrays.copyOf(dates, length);
+            cents = Arrays.copyOf(cents, length);
+            members = Arrays.copyOf(members, length);
+            names = Arrays.copyOf(names, length);
+        }
+    }
+
+
+    private void shiftKeys(int from, int to, int count) {
+        System.arraycopy(dates, from, dates, to, count);
+        System.arraycopy(cents, from, cents, to, count);
+        System.arraycopy(members, from, members, to, count);
+        System.arraycopy(names, from, names, to, count);
+    }
+
+
+    /**
+     * Parses "YYYY-MM-DD" into the integer YYYYMMDD, which sorts like the date.
+     */
+    static int parseDate(String date) {
+        if (date == null || date.length() < 10) {
+            return 0;
+        }
+        int value = 0;
+        for (int i = 0; i < 10; i++) {
+            char c = date.charAt(i);
+            if (c != '-') {
+                value = value * 10 + (c - '0');
+            }
+        }
+        return value;
+    }
+}
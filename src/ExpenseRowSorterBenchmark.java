@@ -0,0 +1,137 @@
+/**
+ * Libraries
+ */
+import javax.swing.*;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+
+/**
+ * The ExpenseRowSorterBenchmark class measures sorting and filtering the expense table with ExpenseRowSorter
+ * on 500,000 generated rows, without a database: the rows are handed straight to the table model and the
+ * sorter is attached to a JTable, as on the Group screen.
+ *
+ * It reports the median and worst time of the first sort of each column after loading (which computes its
+ * permutation), of switching between sorted columns and directions, of applying filters, and of adding and
+ * removing one expense while the table is sorted and filtered. The first rounds warm up the JIT and are not reported.
+ *
+ * Run with: java ExpenseRowSorterBenchmark [rows]
+ */
+public class ExpenseRowSorterBenchmark {
+
+    private static final int DEFAULT_ROWS = 500_000;
+    private static final int MEMBERS = 8;
+    private static final int WARM_UP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+    private static final int LOAD_ROUNDS = 10;      // Rounds that reload every row first
+
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+
+        SwingUtilities.invokeAndWait(() -> {
+            ExpenseTableModel model = new ExpenseTableModel(0, null);
+            ExpenseRowSorter sorter = new ExpenseRowSorter(model);
+            JTable table = new JTable(model);
+            table.setRowSorter(sorter);
+
+            List<Expense> rows = generateRows(rowCount);
+            int[] columns = {ExpenseRowSorter.AMOUNT_COLUMN, ExpenseRowSorter.MEMBER_COLUMN, ExpenseRowSorter.NAME_COLUMN};
+
+            // Loading, then the first sort of each column: computes and caches its permutation
+            long[] loadTimes = new long[LOAD_ROUNDS];
+            long[][] firstSortTimes = new long[columns.length][LOAD_ROUNDS];
+            for (int round = -LOAD_ROUNDS / 2; round < LOAD_ROUNDS; round++) {
+                sorter.setSortKeys(List.of());
+                long start = System.nanoTime();
+                model.showRows(rows);
+                long loaded = System.nanoTime() - start;
+                for (int c = 0; c < columns.length; c++) {
+                    start = System.nanoTime();
+                    sorter.toggleSortOrder(columns[c]);
+                    if (round >= 0) {
+                        firstSortTimes[c][round] = System.nanoTime() - start;
+                    }
+                }
+                if (round >= 0) {
+                    loadTimes[round] = loaded;
+                }
+            }
+            report(String.format("load %,d rows", model.getRowCount()), loadTimes);
+            for (int c = 0; c < columns.length; c++) {
+                report("first sort " + model.getColumnName(columns[c]), firstSortTimes[c]);
+            }
+
+            int[] sortColumns = {ExpenseRowSorter.AMOUNT_COLUMN, ExpenseRowSorter.MEMBER_COLUMN, ExpenseRowSorter.NAME_COLUMN, ExpenseRowSorter.DATE_COLUMN};
+            run("re-sort", round -> sorter.toggleSortOrder(sortColumns[round % sortColumns.length]));
+
+            sorter.setSortKeys(List.of(new RowSorter.SortKey(ExpenseRowSorter.AMOUNT_COLUMN, SortOrder.DESCENDING)));
+            ExpenseRowSorter.Filter[] filters = {
+                    new ExpenseRowSorter.Filter(0, Integer.MAX_VALUE, "member3", ExpenseRowSorter.Type.ALL),
+                    new ExpenseRowSorter.Filter(20210101, 20211231, null, ExpenseRowSorter.Type.ALL),
+                    new ExpenseRowSorter.Filter(0, Integer.MAX_VALUE, null, ExpenseRowSorter.Type.GAINS),
+                    new ExpenseRowSorter.Filter(20200101, 20221231, "member5", ExpenseRowSorter.Type.LOSSES),
+                    ExpenseRowSorter.Filter.NONE
+            };
+            run("re-filter", round -> sorter.setFilter(filters[round % filters.length]));
+
+            sorter.setFilter(filters[1]);
+            Expense added = new Expense(rowCount + 1, 0, "Added expense", -1234, "2021-06-15", "member1");
+            run("add + remove", _ -> {
+                model.expenseInserted(added);
+                model.expenseDeleted(added);
+            });
+            System.out.printf("%,d rows shown of %,d%n", table.getRowCount(), model.getRowCount());
+        });
+    }
+
+
+    /**
+     * Action run once per round.
+     */
+    private interface Round {
+        void run(int round);
+    }
+
+
+    /**
+     * Times an action on the event dispatch thread.
+     */
+    private static void run(String name, Round action) {
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            action.run(round);
+        }
+        long[] times = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            action.run(round);
+            times[round] = System.nanoTime() - start;
+        }
+        report(name, times);
+    }
+
+
+    private static void report(String name, long[] times) {
+        Arrays.sort(times);
+        System.out.printf("%-24s median %7.2f ms, worst %7.2f ms%n", name, times[times.length / 2] / 1e6, times[times.length - 1] / 1e6);
+    }
+
+
+    /**
+     * Creates rows in (date, id) order over four years: repeated names, 8 members, a mix of gains and losses.
+     */
+    private static List<Expense> generateRows(int count) {
+        List<Expense> rows = new ArrayList<>(count);
+        LocalDate first = LocalDate.of(2020, 1, 1);
+        int days = 4 * 365;
+        for (int id = 1; id <= count; id++) {
+            String date = first.plusDays((long) (id - 1) * days / count).toString();
+            long cents = (id % 4 == 0 ? 1 : -1) * (100 + id * 7919L % 20_000);
+            rows.add(new Expense(id, 0, "Expense " + id * 7919L % 5_000, cents, date, "member" + id * 31 % MEMBERS));
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Class to describe a set of expenses used by exports and analyses: the expenses of one group,
+ * or every expense added by one user. Exactly one of groupId and username is set.
+ *
+ * @param description Shown to the user.
+ * @param groupId The group whose expenses are included, or null.
+ * @param username The user whose expenses are included, or null.
+ */
+public record ExpenseScope(String description, Integer groupId, String username) {
+
+    /**
+     * The expenses of a group.
+     */
+    public static ExpenseScope group(int groupId, String groupName) {
+        return new ExpenseScope(groupName != null ? groupName : "group " + groupId, groupId, null);
+    }
+
+    /**
+     * Every expense added by a user, whatever the group.
+     */
+    public static ExpenseScope user(String username) {
+        return new ExpenseScope(username, null, username);
+    }
+
+    /**
+     * The WHERE condition on the expenses table aliased 'e', with one parameter.
+     */
+    public String condition() {
+        return groupId != null ? "e.groupID = ?" : "e.username = ?";
+    }
+
+    /**
+     * The value of the condition's parameter.
+     */
+    public Object parameter() {
+        return groupId != null ? groupId : username;
+    }
+}
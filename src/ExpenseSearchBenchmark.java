@@ -0,0 +1,79 @@
+/**
+ * Libraries
+ */
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+
+/**
+ * The ExpenseSearchBenchmark class measures ExpenseSearchIndex on 1,000,000 generated expense names,
+ * without a database: the time to index them, to save and reload the index, and to answer
+ * substring, prefix, multi-word and misspelt queries.
+ * The generated names use a small vocabulary, so every posting list is long: real names are faster to search.
+ *
+ * Run with: java ExpenseSearchBenchmark [expenses]
+ */
+public class ExpenseSearchBenchmark {
+
+    private static final int DEFAULT_EXPENSES = 1_000_000;
+    private static final int GROUP_ID = -1;     // Not a real group, so a real index is never overwritten
+    private static final int WARM_UP_ROUNDS = 100;  // Not reported: lets the JIT compile the search
+    private static final int ROUNDS = 50;
+    private static final String[] WORDS = {
+            "electricity", "water", "gas", "internet", "rent", "groceries", "supermarket", "bakery", "pharmacy",
+            "restaurant", "cinema", "insurance", "phone", "subscription", "train", "fuel", "parking", "taxes",
+            "school", "books", "clothes", "shoes", "gift", "birthday", "holiday", "hotel", "flight", "repair",
+            "plumber", "garden", "furniture", "salary", "refund", "bonus", "transfer", "savings", "bill", "monthly"};
+    private static final String[] QUERIES = {"electricity", "lectric", "elektricity", "gas", "ga", "water bill", "supermarkt", "xyz", "ric", "zq"};
+
+
+    public static void main(String[] args) throws Exception {
+        int expenseCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EXPENSES;
+        Path file = Paths.get("data", "cache", "search", "group-" + GROUP_ID + ".idx");
+        Files.deleteIfExists(file);
+
+        // Index generated names
+        Random random = new Random(42);
+        String today = LocalDate.now().toString();
+        ExpenseSearchIndex index = ExpenseSearchIndex.forGroup(GROUP_ID);
+        long started = System.nanoTime();
+        for (int id = 1; id <= expenseCount; id++) {
+            String name = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + random.nextInt(1000);
+            index.add(id, name, today, random.nextInt(20_000) - 10_000);
+        }
+        System.out.printf("Indexed %,d expenses in %d ms%n", index.size(), (System.nanoTime() - started) / 1_000_000);
+
+        started = System.nanoTime();
+        index.saveIfDirty();
+        System.out.printf("Saved in %d ms (%,d KB)%n", (System.nanoTime() - started) / 1_000_000, Files.size(file) / 1024);
+
+        // Reload through a fresh class state: the saved file is read back with forGroup
+        java.lang.reflect.Field indexes = ExpenseSearchIndex.class.getDeclaredField("indexes");
+        indexes.setAccessible(true);
+        ((java.util.Map<?, ?>) indexes.get(null)).clear();
+        started = System.nanoTime();
+        index = ExpenseSearchIndex.forGroup(GROUP_ID);
+        System.out.printf("Loaded %,d expenses in %d ms%n", index.size(), (System.nanoTime() - started) / 1_000_000);
+
+        for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+            index.search(QUERIES[round % QUERIES.length], 20);
+        }
+
+        for (String query : QUERIES) {
+            List<ExpenseSearchIndex.Hit> hits = null;
+            long[] times = new long[ROUNDS];
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                hits = index.search(query, 20);
+                times[round] = System.nanoTime() - start;
+            }
+            Arrays.sort(times);
+            System.out.printf("%-14s median %6.2f ms, worst %6.2f ms, %2d hits, best: %s%n", "\"" + query + "\"",
+                    times[ROUNDS / 2] / 1e6, times[ROUNDS - 1] / 1e6, hits.size(), hits.isEmpty() ? "-" : hits.get(0).name());
+        }
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,957 @@
+/**
+ * Libraries
+ */
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.Normalizer;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * The ExpenseSearchIndex class is an in-process full-text index of the expense names of one group,
+ * answering substring and typo-tolerant searches in a few milliseconds without querying the database.
+ *
+ * Names are split into trigrams (three-character sequences, "electricity" gives "ele", "lec", "ect", ...);
+ * the index maps each trigram to the expenses containing it (posting lists). A search counts, for every
+ * expense, how many of the query's inner trigrams (the ones without padding) it contains: an expense containing
+ * the query contains all of them, and a name with a typo still shares most of them. Words are also indexed with
+ * start-of-word trigrams ("  e", " el"); in a query they only rank names where the query starts a word first,
+ * since a query found inside a word does not have them. Queries of three characters or fewer have at most one
+ * inner trigram, which says little, so they are looked up as substrings instead: of the names listed under
+ * that trigram for a three-letter word, which are exactly the names containing it, otherwise of every name.
+ *
+ * The index is kept up to date by the expense changes made through the application (expenseAdded, ...) and
+ * by the changes an open group window reads from the change feed (apply), saved to data/cache/search with the
+ * number of the last change it reflects when the group screen is closed, and brought up to date when it is
+ * opened again: the changes made since (additions, edits and removals, also by other processes) are read from
+ * the feed, and the index is rebuilt if the feed no longer has them or the number of expenses does not match.
+ *
+ * All the methods of an index are synchronized; searches run on a background thread.
+ */
+public class ExpenseSearchIndex {
+
+    private static final Path INDEX_DIR = Paths.get("data", "cache", "search");
+    private static final int MAGIC = 0x48585349;    // "HXSI"
+    private static final int VERSION = 2;
+    private static final int START_BITS = 8;        // Low bits of a search counter: start-of-word trigrams found
+    private static final byte[] ASCII_NORMALIZED = new byte[128];   // What normalize() makes of each ASCII character
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            ASCII_NORMALIZED[c] = (byte) normalize(String.valueOf((char) c)).charAt(0);
+        }
+    }
+
+    // Indexes of the groups opened since the start, by group ID
+    private static final ConcurrentHashMap<Integer, ExpenseSearchIndex> indexes = new ConcurrentHashMap<>();
+
+    private final int groupId;
+
+    // One slot per indexed expense; removed expenses keep their slot (nameLength -1) until the next save
+    private int size = 0;
+    private int live = 0;
+    private int maxId = 0;                  // Highest expense ID indexed, for catching up
+    private long changeSeq = -1;            // Last change of the group's feed reflected, -1 if unknown (rebuild)
+    private int[] ids = new int[1024];
+    private int[] epochDays = new int[1024];
+    private long[] amounts = new long[1024];
+    private int[] nameOffsets = new int[1024];
+    private int[] nameLengths = new int[1024];
+    private byte[] names = new byte[1 << 16];  // UTF-8 names, one after the other
+    private int namesUsed = 0;
+
+    private final HashMap<Long, Postings> postings = new HashMap<>();
+    private final SlotMap slotsById = new SlotMap();    // Slot of each live expense, for edits and removals
+    private int[] hitCounts = new int[1024];   // Scratch space of search(), one counter per slot
+    private boolean dirty = false;
+
+
+    /**
+     * One search result.
+     *
+     * @param expenseId The ID of the expense.
+     * @param name The name of the expense.
+     * @param date The date of the expense (YYYY-MM-DD).
+     * @param amountCents The amount of the expense in cents.
+     * @param score The part of the query's trigrams found in the name, from 0 to 1; 1 for a substring.
+     */
+    public record Hit(int expenseId, String name, String date, long amountCents, double score) {
+        @Override
+        public String toString() {
+            return date + "   " + name + "   " + Money.format(amountCents);
+        }
+    }
+
+
+    /**
+     * The slots containing one trigram, in no particular order.
+     */
+    private static class Postings {
+        int[] slots = new int[4];
+        int size = 0;
+
+        void add(int slot) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+            }
+            slots[size++] = slot;
+        }
+
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    slots[i] = slots[--size];   // Order does not matter
+                    return;
+                }
+            }
+        }
+    }
+
+
+    /**
+     * The slots of the live expenses by expense ID, in two int arrays (open addressing, linear probing),
+     * so that the edits and removals of a large group neither scan the slots nor box a million Integers.
+     */
+    private static class SlotMap {
+        private static final int FREE = -1;     // Value of an empty entry; slots are never negative
+        private int[] keys = new int[1024];
+        private int[] values = newValues(1024);
+        private int count = 0;
+
+        int get(int key) {
+            int mask = keys.length - 1;
+            for (int i = hash(key) & mask; values[i] != FREE; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return -1;
+        }
+
+        void put(int key, int value) {
+            if (2 * (count + 1) > keys.length) {
+                resize(keys.length * 2);
+            }
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != FREE && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == FREE) {
+                count++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        void remove(int key) {
+            int mask = keys.length - 1;
+            int i = hash(key) & mask;
+            while (values[i] != FREE && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == FREE) {
+                return;
+            }
+            // Move back the entries of the same probe run that can no longer be reached past the hole
+            for (int j = (i + 1) & mask; values[j] != FREE; j = (j + 1) & mask) {
+                int home = hash(keys[j]) & mask;
+                boolean reachable = i <= j ? i < home && home <= j : i < home || home <= j;
+                if (!reachable) {
+                    keys[i] = keys[j];
+                    values[i] = values[j];
+                    i = j;
+                }
+            }
+            values[i] = FREE;
+            count--;
+        }
+
+        void clear() {
+            keys = new int[1024];
+            values = newValues(1024);
+            count = 0;
+        }
+
+        private void resize(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[capacity];
+            values = newValues(capacity);
+            count = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != FREE) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int[] newValues(int capacity) {
+            int[] values = new int[capacity];
+            Arrays.fill(values, FREE);
+            return values;
+        }
+
+        private static int hash(int key) {
+            int h = key * 0x9E3779B9;     // Spreads consecutive IDs over the table
+            return h ^ (h >>> 16);
+        }
+    }
+
+
+    private ExpenseSearchIndex(int groupId) {
+        this.groupId = groupId;
+    }
+
+
+    /**
+     * Returns the index of a group, loading it from disk the first time. The index may be out of date
+     * until sync() has run.
+     *
+     * @param groupId The ID of the group.
+     * @return The index, empty if none was saved.
+     */
+    public static ExpenseSearchIndex forGroup(int groupId) {
+        return indexes.computeIfAbsent(groupId, id -> {
+            ExpenseSearchIndex index = new ExpenseSearchIndex(id);
+            Path file = index.file();
+            if (Files.exists(file)) {
+                try {
+                    index.load(file);
+                } catch (IOException | RuntimeException e) {
+                    System.out.println("Cannot read search index " + file + ", it will be rebuilt: " + e.getMessage());
+                    index = new ExpenseSearchIndex(id);
+                }
+            }
+            return index;
+        });
+    }
+
+
+    /**
+     * Updates the index of the expense's group, if it is open, after an expense was added.
+     */
+    public static void expenseAdded(Expense expense) {
+        ExpenseSearchIndex index = indexes.get(expense.getGroupId());
+        if (index != null) {
+            index.add(expense.getId(), expense.getExpenseName(), expense.getDate(), expense.getAmountCents());
+        }
+    }
+
+
+    /**
+     * Updates the index of the expense's group, if it is open, after an expense was edited.
+     */
+    public static void expenseUpdated(Expense expense) {
+        ExpenseSearchIndex index = indexes.get(expense.getGroupId());
+        if (index != null) {
+            index.update(expense.getId(), expense.getExpenseName(), expense.getDate(), expense.getAmountCents());
+        }
+    }
+
+
+    /**
+     * Updates the index of the expense's group, if it is open, after an expense was removed.
+     */
+    public static void expenseRemoved(Expense expense) {
+        ExpenseSearchIndex index = indexes.get(expense.getGroupId());
+        if (index != null) {
+            index.remove(expense.getId());
+        }
+    }
+
+
+    /**
+     * Brings the index up to date with the stored expenses: applies the changes of the group's feed made since
+     * the last one it reflects, or rebuilds the whole index if the feed no longer has them or the number of
+     * expenses still differs.
+     *
+     * @param repository The expense storage (see Repositories).
+     */
+    public synchronized void sync(ExpenseRepository repository) throws StorageException {
+        long started = System.nanoTime();
+        int indexed = 0;
+        boolean rebuild = changeSeq < 0;
+        while (!rebuild) {
+            ExpenseRepository.Batch batch = repository.since(groupId, changeSeq);
+            if (batch.isEmpty()) {
+                break;
+            }
+            if (!batch.reload()) {
+                indexed += applyChanges(batch.changes());
+            }
+            rebuild = batch.reload() || changeSeq < 0;
+        }
+
+        if (!rebuild) {
+            int expected = repository.countByGroup(groupId);
+            if (expected != live) {
+                System.out.println("Search index of group " + groupId + " has " + live + " expenses instead of " + expected + ", rebuilding");
+                rebuild = true;
+            }
+        }
+        if (rebuild) {
+            clear();
+            indexed = repository.read(() -> {
+                changeSeq = repository.currentSeq(groupId);  // Read with the rows, so no change falls in between
+                return readExpenses(repository, 0);
+            });
+        }
+        if (indexed > 0) {
+            System.out.printf("Search index of group %d: %,d expenses indexed in %d ms%n", groupId, indexed, (System.nanoTime() - started) / 1_000_000);
+        }
+    }
+
+
+    /**
+     * Applies changes read from the group's change feed, e.g. by an open group window, which also brings the
+     * changes made by other processes.
+     *
+     * @param batch The changes.
+     * @return False if the batch asks to reload or skips changes: then the index needs a sync.
+     */
+    public synchronized boolean apply(ExpenseRepository.Batch batch) {
+        if (batch.reload()) {
+            return false;
+        }
+        for (ExpenseRepository.Change change : batch.changes()) {
+            if (change.seq() > changeSeq + 1) {
+                return false;   // Changes missing in between
+            }
+        }
+        applyChanges(batch.changes());
+        return true;
+    }
+
+
+    /**
+     * Applies the changes that come after the last one reflected; they are idempotent by expense ID, so
+     * repeating one already made through expenseAdded (...) is harmless.
+     *
+     * @return The number of changes applied.
+     */
+    private int applyChanges(List<ExpenseRepository.Change> changes) {
+        int applied = 0;
+        for (ExpenseRepository.Change change : changes) {
+            if (change.seq() <= changeSeq) {
+                continue;
+            }
+            switch (change.kind()) {
+                case ADDED, EDITED -> update(change.after().getId(), change.after().getExpenseName(),
+                        change.after().getDate(), change.after().getAmountCents());
+                case REMOVED -> remove(change.before().getId());
+                case RELOAD -> {
+                    changeSeq = -1;     // Not sent in batches that are not reloads; rebuild at the next sync
+                    return applied;
+                }
+            }
+            changeSeq = change.seq();
+            dirty = true;
+            applied++;
+        }
+        return applied;
+    }
+
+
+    /**
+     * Number of indexed expenses.
+     */
+    public synchronized int size() {
+        return live;
+    }
+
+
+    /**
+     * Finds the expenses whose name contains the query, or resembles it.
+     *
+     * @param query The text to look for.
+     * @param limit The maximum number of results.
+     * @return The best matches first: substrings, then by number of matching trigrams, then by shorter name.
+     */
+    public synchronized List<Hit> search(String query, int limit) {
+        String normalizedQuery = normalize(query).trim();
+        long[] queryTrigrams = trigrams(normalizedQuery, true);
+        int inner = 0;
+        for (long trigram : queryTrigrams) {
+            inner += isPadded(trigram) ? 0 : 1;
+        }
+        if (normalizedQuery.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        if (normalizedQuery.length() <= 3 || inner == 0) {
+            return substringSearch(normalizedQuery, limit);
+        }
+
+        // Count the query trigrams found in each expense, inner ones in the high bits and start-of-word ones
+        // (a ranking bonus) in the low bits, remembering which counters were touched
+        int[] touched = new int[64];
+        int touchedCount = 0;
+        int starts = 0;
+        for (long trigram : queryTrigrams) {
+            Postings list = postings.get(trigram);
+            if (list == null || (isPadded(trigram) && ++starts >= 1 << START_BITS)) {
+                continue;   // Not indexed, or more start-of-word trigrams than the low bits can count
+            }
+            int increment = isPadded(trigram) ? 1 : 1 << START_BITS;
+            int[] slots = list.slots;
+            for (int i = 0; i < list.size; i++) {
+                int slot = slots[i];
+                int before = hitCounts[slot];
+                hitCounts[slot] += increment;
+                if (before == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = slot;
+                }
+            }
+        }
+
+        // A typo changes up to three trigrams, which is most of a short word: require half of the inner ones
+        int required = (inner + 1) / 2;
+
+        // Keep the best 'limit' candidates: rank = shared inner trigrams, then start-of-word ones, then shorter names
+        PriorityQueue<long[]> best = new PriorityQueue<>(Comparator.<long[]>comparingLong(c -> c[0]));
+        for (int t = 0; t < touchedCount; t++) {
+            int slot = touched[t];
+            int shared = hitCounts[slot];
+            hitCounts[slot] = 0;    // Reset for the next search
+            if (shared >>> START_BITS < required) {
+                continue;
+            }
+            long rank = ((long) shared << 32) | (Integer.MAX_VALUE - nameLengths[slot]);
+            if (best.size() < limit * 4) {     // Extra candidates, re-ranked below with the substring test
+                best.add(new long[]{rank, slot});
+            } else if (rank > best.peek()[0]) {
+                best.poll();
+                best.add(new long[]{rank, slot});
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(best.size());
+        for (long[] candidate : best) {
+            int slot = (int) candidate[1];
+            String name = name(slot);
+            int shared = (int) (candidate[0] >>> (32 + START_BITS));
+            double score = normalize(name).contains(normalizedQuery) ? 1.0 : Math.min(0.99, shared / (double) inner);
+            hits.add(hit(slot, name, score));
+        }
+        hits.sort(Comparator.comparingDouble(Hit::score).reversed().thenComparingInt(hit -> hit.name().length()));
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+
+    /**
+     * Finds the names containing a short query, shortest names first.
+     */
+    private List<Hit> substringSearch(String normalizedQuery, int limit) {
+        int[] candidates = null;    // Null for every slot
+        int candidateCount = size;
+        if (normalizedQuery.length() == 3 && normalizedQuery.indexOf(' ') < 0) {
+            Postings list = postings.get(trigram(normalizedQuery, 0));
+            if (list == null) {
+                return List.of();
+            }
+            candidates = list.slots;
+            candidateCount = list.size;
+        }
+
+        // Keep the 'limit' shortest matching names: the longest kept is at the head
+        PriorityQueue<Integer> best = new PriorityQueue<>(Comparator.<Integer>comparingInt(slot -> nameLengths[slot]).reversed());
+        for (int i = 0; i < candidateCount; i++) {
+            int slot = candidates != null ? candidates[i] : i;
+            if (nameLengths[slot] < 0 || (best.size() == limit && nameLengths[slot] >= nameLengths[best.peek()])) {
+                continue;   // Removed, or cannot make the list
+            }
+            if (candidates != null || contains(slot, normalizedQuery)) {
+                best.add(slot);
+                if (best.size() > limit) {
+                    best.poll();
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best.size());
+        for (int slot : best) {
+            hits.add(hit(slot, name(slot), 1.0));
+        }
+        hits.sort(Comparator.comparingInt(hit -> hit.name().length()));
+        return hits;
+    }
+
+
+    /**
+     * Returns whether the normalized name of a slot contains a normalized text, without decoding ASCII names.
+     */
+    private boolean contains(int slot, String normalizedText) {
+        int offset = nameOffsets[slot];
+        int length = nameLengths[slot];
+        for (int i = offset; i < offset + length; i++) {
+            if (names[i] < 0) {
+                return normalize(name(slot)).contains(normalizedText);    // Not ASCII: accents are dropped by normalize
+            }
+        }
+        int textLength = normalizedText.length();
+        char first = normalizedText.charAt(0);
+        next:
+        for (int start = offset; start + textLength <= offset + length; start++) {
+            if (ASCII_NORMALIZED[names[start]] != first) {
+                continue;
+            }
+            for (int i = 1; i < textLength; i++) {
+                if (ASCII_NORMALIZED[names[start + i]] != normalizedText.charAt(i)) {
+                    continue next;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    private Hit hit(int slot, String name, double score) {
+        return new Hit(ids[slot], name, LocalDate.ofEpochDay(epochDays[slot]).toString(), amounts[slot], score);
+    }
+
+
+    /**
+     * Returns whether a trigram is a start-of-word one ("  e", " el"), i.e. contains the padding.
+     */
+    private static boolean isPadded(long trigram) {
+        return (trigram >>> 32) == ' ' || ((trigram >>> 16) & 0xFFFF) == ' ' || (trigram & 0xFFFF) == ' ';
+    }
+
+
+    /**
+     * Saves the index to data/cache/search if it changed since it was loaded or saved.
+     * Removed expenses are dropped from the saved file.
+     */
+    public synchronized void saveIfDirty() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        compact();
+        Files.createDirectories(INDEX_DIR);
+        Path file = file();
+        Path temporary = Files.createTempFile(INDEX_DIR, ".index", ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ChannelWriter writer = new ChannelWriter(channel);
+                writer.putInt(MAGIC).putInt(VERSION).putInt(groupId).putInt(maxId).putLong(changeSeq).putInt(size).putInt(namesUsed);
+                writer.putInts(ids, size).putInts(epochDays, size).putLongs(amounts, size);
+                writer.putInts(nameOffsets, size).putInts(nameLengths, size).putBytes(names, namesUsed);
+                writer.putInt(postings.size());
+                for (Map.Entry<Long, Postings> entry : postings.entrySet()) {
+                    writer.putLong(entry.getKey()).putInt(entry.getValue().size).putInts(entry.getValue().slots, entry.getValue().size);
+                }
+                writer.flush();
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+
+    /**
+     * Saves every open index that changed, e.g. when a screen is closed.
+     */
+    public static void saveAll() {
+        for (ExpenseSearchIndex index : indexes.values()) {
+            try {
+                index.saveIfDirty();
+            } catch (IOException e) {
+                System.out.println("Cannot save search index of group " + index.groupId + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    // Index maintenance
+
+    synchronized void add(int expenseId, String name, String date, long amountCents) {
+        if (find(expenseId) >= 0) {
+            return;     // Already indexed, e.g. by a sync that ran in between
+        }
+        if (size == ids.length) {
+            int capacity = size + (size >> 1);
+            ids = Arrays.copyOf(ids, capacity);
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            amounts = Arrays.copyOf(amounts, capacity);
+            nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+            nameLengths = Arrays.copyOf(nameLengths, capacity);
+            hitCounts = new int[capacity];
+        }
+        int slot = size++;
+        ids[slot] = expenseId;
+        set(slot, name, date, amountCents);
+        slotsById.put(expenseId, slot);
+        live++;
+        maxId = Math.max(maxId, expenseId);
+        dirty = true;
+    }
+
+
+    synchronized void update(int expenseId, String name, String date, long amountCents) {
+        int slot = find(expenseId);
+        if (slot < 0) {
+            add(expenseId, name, date, amountCents);
+            return;
+        }
+        unlink(slot);
+        set(slot, name, date, amountCents);
+        dirty = true;
+    }
+
+
+    synchronized void remove(int expenseId) {
+        int slot = find(expenseId);
+        if (slot >= 0) {
+            unlink(slot);
+            nameLengths[slot] = -1;
+            slotsById.remove(expenseId);
+            live--;
+            dirty = true;
+        }
+    }
+
+
+    /**
+     * Stores the fields of a slot and adds it to the posting lists of its name.
+     */
+    private void set(int slot, String name, String date, long amountCents) {
+        byte[] bytes = (name != null ? name : "").getBytes(StandardCharsets.UTF_8);
+        if (namesUsed + bytes.length > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, namesUsed + bytes.length));
+        }
+        System.arraycopy(bytes, 0, names, namesUsed, bytes.length);
+        nameOffsets[slot] = namesUsed;
+        nameLengths[slot] = bytes.length;
+        namesUsed += bytes.length;
+        epochDays[slot] = date != null ? (int) LocalDate.parse(date).toEpochDay() : 0;
+        amounts[slot] = amountCents;
+
+        for (long trigram : trigrams(normalize(name), false)) {
+            postings.computeIfAbsent(trigram, _ -> new Postings()).add(slot);
+        }
+    }
+
+
+    /**
+     * Removes a slot from the posting lists of its current name.
+     */
+    private void unlink(int slot) {
+        for (long trigram : trigrams(normalize(name(slot)), false)) {
+            Postings list = postings.get(trigram);
+            if (list != null) {
+                list.remove(slot);
+                if (list.size == 0) {
+                    postings.remove(trigram);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Finds the slot of a live expense, or -1.
+     */
+    private int find(int expenseId) {
+        return slotsById.get(expenseId);
+    }
+
+
+    private String name(int slot) {
+        return new String(names, nameOffsets[slot], nameLengths[slot], StandardCharsets.UTF_8);
+    }
+
+
+    private void clear() {
+        size = 0;
+        live = 0;
+        maxId = 0;
+        changeSeq = -1;
+        namesUsed = 0;
+        postings.clear();
+        slotsById.clear();
+        dirty = true;
+    }
+
+
+    /**
+     * Maps the IDs of the slots to the slots again, after they were renumbered or loaded.
+     */
+    private void mapSlots() {
+        slotsById.clear();
+        for (int slot = 0; slot < size; slot++) {
+            if (nameLengths[slot] >= 0) {
+                slotsById.put(ids[slot], slot);
+            }
+        }
+    }
+
+
+    /**
+     * Drops the removed slots and the unused name bytes, renumbering the posting lists.
+     */
+    private void compact() {
+        if (live == size && namesUsed == liveNameBytes()) {
+            return;
+        }
+        int[] newSlot = new int[size];
+        byte[] newNames = new byte[Math.max(16, liveNameBytes())];
+        int used = 0;
+        int next = 0;
+        for (int slot = 0; slot < size; slot++) {
+            if (nameLengths[slot] < 0) {
+                newSlot[slot] = -1;
+                continue;
+            }
+            System.arraycopy(names, nameOffsets[slot], newNames, used, nameLengths[slot]);
+            ids[next] = ids[slot];
+            epochDays[next] = epochDays[slot];
+            amounts[next] = amounts[slot];
+            nameOffsets[next] = used;
+            nameLengths[next] = nameLengths[slot];
+            used += nameLengths[slot];
+            newSlot[slot] = next++;
+        }
+        for (Postings list : postings.values()) {
+            for (int i = 0; i < list.size; i++) {
+                list.slots[i] = newSlot[list.slots[i]];     // Removed slots were already unlinked
+            }
+        }
+        size = next;
+        names = newNames;
+        namesUsed = used;
+        mapSlots();
+    }
+
+
+    private int liveNameBytes() {
+        int bytes = 0;
+        for (int slot = 0; slot < size; slot++) {
+            bytes += Math.max(0, nameLengths[slot]);
+        }
+        return bytes;
+    }
+
+
+    /**
+     * Indexes the expenses of the group with an ID above the given one, streaming them in ID order.
+     *
+     * @return The number of expenses indexed.
+     */
+    private int readExpenses(ExpenseRepository repository, int afterId) throws StorageException {
+        int[] count = {0};
+        repository.forEachAfter(groupId, afterId, expense -> {
+            add(expense.getId(), expense.getExpenseName(), expense.getDate(), expense.getAmountCents());
+            count[0]++;
+        });
+        return count[0];
+    }
+
+
+    // Trigrams
+
+    /**
+     * Lower-cases a text, removes accents and replaces everything but letters and digits by spaces.
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        boolean ascii = true;
+        for (int i = 0; i < lower.length() && ascii; i++) {
+            ascii = lower.charAt(i) < 128;
+        }
+        if (!ascii) {
+            lower = Normalizer.normalize(lower, Normalizer.Form.NFD);
+        }
+        StringBuilder normalized = new StringBuilder(lower.length());
+        for (int i = 0; i < lower.length(); i++) {
+            char c = lower.charAt(i);
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue;   // Accent separated by NFD
+            }
+            normalized.append(Character.isLetterOrDigit(c) ? c : ' ');
+        }
+        return normalized.toString();
+    }
+
+
+    /**
+     * Returns the distinct trigrams of a normalized text, each packed in a long (three 16-bit chars).
+     * Every word contributes "  w", " wo" and its inner trigrams; names also contribute "rd " at the end of each word.
+     * Query words get no end padding, so that they also match the beginning or the middle of a longer word.
+     *
+     * @param query True for a query, false for a name.
+     */
+    static long[] trigrams(String normalized, boolean query) {
+        long[] trigrams = new long[16];
+        int count = 0;
+        for (String word : normalized.split(" ")) {
+            if (word.isEmpty()) {
+                continue;
+            }
+            String padded = query ? "  " + word : "  " + word + " ";
+            for (int i = 0; i + 3 <= padded.length(); i++) {
+                if (count == trigrams.length) {
+                    trigrams = Arrays.copyOf(trigrams, count * 2);
+                }
+                trigrams[count++] = trigram(padded, i);
+            }
+        }
+        Arrays.sort(trigrams, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if (distinct == 0 || trigrams[distinct - 1] != trigrams[i]) {
+                trigrams[distinct++] = trigrams[i];
+            }
+        }
+        return Arrays.copyOf(trigrams, distinct);
+    }
+
+
+    /**
+     * Packs the three characters of a text starting at an index into one number.
+     */
+    private static long trigram(String text, int index) {
+        return ((long) text.charAt(index) << 32) | ((long) text.charAt(index + 1) << 16) | text.charAt(index + 2);
+    }
+
+
+    // Persistence
+
+    private Path file() {
+        return INDEX_DIR.resolve("group-" + groupId + ".idx");
+    }
+
+
+    /**
+     * Reads a saved index, mapping the file so that the arrays are copied in bulk.
+     */
+    private void load(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != groupId) {
+                throw new IOException("not a search index of this version");
+            }
+            maxId = buffer.getInt();
+            changeSeq = buffer.getLong();
+            size = buffer.getInt();
+            namesUsed = buffer.getInt();
+            live = size;    // Removed slots are never saved
+
+            int capacity = Math.max(1024, size);
+            ids = getInts(buffer, size, capacity);
+            epochDays = getInts(buffer, size, capacity);
+            amounts = new long[capacity];
+            buffer.asLongBuffer().get(amounts, 0, size);
+            buffer.position(buffer.position() + size * Long.BYTES);
+            nameOffsets = getInts(buffer, size, capacity);
+            nameLengths = getInts(buffer, size, capacity);
+            names = new byte[Math.max(1 << 16, namesUsed)];
+            buffer.get(names, 0, namesUsed);
+            hitCounts = new int[capacity];
+
+            int trigramCount = buffer.getInt();
+            for (int t = 0; t < trigramCount; t++) {
+                long trigram = buffer.getLong();
+                Postings list = new Postings();
+                list.size = buffer.getInt();
+                list.slots = getInts(buffer, list.size, Math.max(4, list.size));
+                postings.put(trigram, list);
+            }
+            mapSlots();
+        }
+    }
+
+
+    private static int[] getInts(ByteBuffer buffer, int count, int capacity) {
+        int[] values = new int[capacity];
+        buffer.asIntBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + count * Integer.BYTES);
+        return values;
+    }
+
+
+    /**
+     * Writes primitive values and arrays to a file channel through one reused buffer.
+     */
+    private static class ChannelWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+
+        ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        ChannelWriter putInt(int value) throws IOException {
+            ensure(Integer.BYTES);
+            buffer.putInt(value);
+            return this;
+        }
+
+        ChannelWriter putLong(long value) throws IOException {
+            ensure(Long.BYTES);
+            buffer.putLong(value);
+            return this;
+        }
+
+        ChannelWriter putInts(int[] values, int count) throws IOException {
+            for (int i = 0; i < count; ) {
+                ensure(Integer.BYTES);
+                int n = Math.min(count - i, buffer.remaining() / Integer.BYTES);
+                buffer.asIntBuffer().put(values, i, n);
+                buffer.position(buffer.position() + n * Integer.BYTES);
+                i += n;
+            }
+            return this;
+        }
+
+        ChannelWriter putLongs(long[] values, int count) throws IOException {
+            for (int i = 0; i < count; ) {
+                ensure(Long.BYTES);
+                int n = Math.min(count - i, buffer.remaining() / Long.BYTES);
+                buffer.asLongBuffer().put(values, i, n);
+                buffer.position(buffer.position() + n * Long.BYTES);
+                i += n;
+            }
+            return this;
+        }
+
+        ChannelWriter putBytes(byte[] values, int count) throws IOException {
+            for (int i = 0; i < count; ) {
+                ensure(1);
+                int n = Math.min(count - i, buffer.remaining());
+                buffer.put(values, i, n);
+                i += n;
+            }
+            return this;
+        }
+
+        /**
+         * Makes room for at least 'bytes' bytes, writing out the buffer if needed.
+         */
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
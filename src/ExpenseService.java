@@ -0,0 +1,52 @@
+/**
+ * The ExpenseService class keeps the in-memory state that depends on the expenses up to date once an addition,
+ * edit or removal is committed: the cached wallet totals (WalletService) and the open search indexes
+ * (ExpenseSearchIndex). The rollups and the change feed are written by ExpenseDao in the same transaction as
+ * the expense; the hooks then wake the readers of the group's feed in this process (ExpenseChanges.published).
+ *
+ * The writes themselves go through Repositories.expenses(), which the Group screen and the HTTP API (ApiServer)
+ * share: ExpenseWriteQueue calls the hooks once its batch is committed, ExpenseJournal once its replay is, and
+ * EmbeddedStore once the change is in its log. Code writing through ExpenseDao directly calls them after its commit.
+ */
+public class ExpenseService {
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ExpenseService() {
+    }
+
+
+    /**
+     * Updates the caches after an addition was committed.
+     */
+    static void added(Expense added) {
+        WalletService.expenseAdded(added);
+        ExpenseSearchIndex.expenseAdded(added);
+        ExpenseChanges.published(added.getGroupId());
+    }
+
+
+    /**
+     * Updates the caches after an edit was committed.
+     */
+    static void updated(Expense expense, ExpenseRepository.Outcome outcome) {
+        if (outcome.written()) {
+            WalletService.expenseUpdated(expense, outcome.current());
+            ExpenseSearchIndex.expenseUpdated(outcome.current());
+            ExpenseChanges.published(expense.getGroupId());
+        }
+    }
+
+
+    /**
+     * Updates the caches after a removal was committed.
+     */
+    static void removed(Expense expense, ExpenseRepository.Outcome outcome) {
+        if (outcome.written()) {
+            WalletService.expenseRemoved(expense);
+            ExpenseSearchIndex.expenseRemoved(expense);
+            ExpenseChanges.published(expense.getGroupId());
+        }
+    }
+}
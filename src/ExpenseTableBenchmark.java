@@ -0,0 +1,147 @@
+/**
+ * Libraries
+ */
+import javax.swing.*;
+import javax.swing.table.DefaultTableCellRenderer;
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The ExpenseTableBenchmark class measures the cost of painting the expense table while scrolling
+ * through 100,000 rows, without a database: the rows are generated and handed straight to the table model.
+ *
+ * For the current renderer and for the previous one (parse the amount and create a colour per cell),
+ * it reports the time and the bytes allocated per row, both for preparing the cell renderers alone
+ * and for painting the whole table into an offscreen image one viewport at a time.
+ * The "prepare" figure is the cost of the model and the renderer; "paint" adds what Swing and Java2D
+ * allocate themselves (a Graphics per cell, text layout), which the application does not control.
+ *
+ * Run with: java ExpenseTableBenchmark [rows]
+ */
+public class ExpenseTableBenchmark {
+
+    private static final int DEFAULT_ROWS = 100_000;
+    private static final int VIEWPORT_WIDTH = 800;
+    private static final int VIEWPORT_HEIGHT = 600;
+    private static final int ROUNDS = 3;    // The first round warms up the JIT and is not reported
+
+
+    /**
+     * The renderer as it was before ExpenseCellRenderer, kept for comparison.
+     */
+    private static class ParsingRenderer extends DefaultTableCellRenderer {
+        @Override
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
+            Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+            if (column == 2 && value != null) {
+                double amount = Double.parseDouble(value.toString());
+                c.setForeground(amount >= 0 ? new Color(76, 250, 0) : new Color(255, 82, 82));
+            } else {
+                c.setForeground(Color.BLACK);
+            }
+            return c;
+        }
+    }
+
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int rowCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_ROWS;
+
+        SwingUtilities.invokeAndWait(() -> {
+            ExpenseTableModel model = new ExpenseTableModel(0, null);
+            model.showRows(generateRows(rowCount));
+
+            // Same layout as the Group screen: the ID column is hidden
+            JTable table = new JTable(model);
+            table.getColumnModel().getColumn(0).setMinWidth(0);
+            table.getColumnModel().getColumn(0).setMaxWidth(0);
+            table.getColumnModel().getColumn(0).setPreferredWidth(0);
+            table.setSize(VIEWPORT_WIDTH, table.getRowHeight() * rowCount);
+            table.doLayout();
+
+            for (int round = 0; round < ROUNDS; round++) {
+                boolean report = round == ROUNDS - 1;
+                run(table, new ParsingRenderer(), "previous renderer", report);
+                run(table, new ExpenseCellRenderer(), "ExpenseCellRenderer", report);
+            }
+        });
+    }
+
+
+    /**
+     * Measures one renderer: preparing every cell, then painting every viewport.
+     */
+    private static void run(JTable table, DefaultTableCellRenderer renderer, String name, boolean report) {
+        table.setDefaultRenderer(Object.class, renderer);
+        int rows = table.getRowCount();
+        int columns = table.getColumnCount();
+
+        // Preparing the renderer of each visible cell, as the table does before painting it
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                if (table.getColumnModel().getColumn(column).getWidth() > 0) {
+                    table.prepareRenderer(renderer, row, column);
+                }
+            }
+        }
+        long prepareNanos = System.nanoTime() - start;
+        long prepareBytes = allocatedBytes() - bytes;
+
+        // Painting the table one viewport at a time, as when scrolling from top to bottom
+        BufferedImage canvas = new BufferedImage(VIEWPORT_WIDTH, VIEWPORT_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = canvas.createGraphics();
+        AffineTransform scroll = new AffineTransform();
+        int height = table.getHeight();
+
+        bytes = allocatedBytes();
+        start = System.nanoTime();
+        for (int y = 0; y < height; y += VIEWPORT_HEIGHT) {
+            scroll.setToTranslation(0, -y);
+            graphics.setTransform(scroll);
+            graphics.setClip(0, y, VIEWPORT_WIDTH, VIEWPORT_HEIGHT);
+            table.paint(graphics);
+        }
+        long paintNanos = System.nanoTime() - start;
+        long paintBytes = allocatedBytes() - bytes;
+        graphics.dispose();
+
+        if (report) {
+            System.out.printf("%-20s prepare: %7.1f ms, %8.1f bytes/row   paint: %7.1f ms, %8.1f bytes/row%n",
+                    name, prepareNanos / 1e6, (double) prepareBytes / rows, paintNanos / 1e6, (double) paintBytes / rows);
+        }
+    }
+
+
+    /**
+     * Creates rows in (date, id) order, with a mix of gains and losses.
+     */
+    private static List<Expense> generateRows(int count) {
+        List<Expense> rows = new ArrayList<>(count);
+        LocalDate date = LocalDate.of(2020, 1, 1);
+        for (int id = 1; id <= count; id++) {
+            if (id % 50 == 0) {
+                date = date.plusDays(1);
+            }
+            long cents = (id % 3 == 0 ? -1 : 1) * (id * 7919L % 100_000);
+            rows.add(new Expense(id, 0, "Expense " + id, cents, date.toString(), "user" + id % 10));
+        }
+        return rows;
+    }
+
+
+    /**
+     * Bytes allocated so far by the current thread.
+     */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+    }
+}
@@ -0,0 +1,613 @@
+/**
+ * Libraries
+ */
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+
+
+/**
+ * The ExpenseTableModel class backs the expense table of a group with lazily loaded pages.
+ * Rows are ordered by (date, id) and fetched a page at a time with keyset pagination,
+ * only when the table asks for a row that is not cached yet (i.e. when it scrolls into the viewport).
+ * At most MAX_CACHED_PAGES pages stay in memory, so memory use and the time to first paint
+ * do not depend on how many expenses the group has.
+ *
+ * Cached pages are kept as segments of consecutive rows. Added, edited and removed expenses are
+ * patched into the segments in place and announced with fine-grained table events, so a change costs
+ * the same whatever the size of the group and the selection and scroll position are kept.
+ *
+ * When the table is sorted or filtered (see ExpenseRowSorter), setLoadAll(true) switches to loading
+ * every row of the group as a single segment, which is never evicted.
+ *
+ * The model knows the number of the group's last change it reflects (see ExpenseChanges): rows are read in
+ * the same snapshot as that number, and applyChanges() replays the later changes, whoever made them.
+ * A page read after changes the model has not applied yet is set aside until they are.
+ *
+ * All methods must be called on the event dispatch thread; pages are fetched from the expense repository
+ * (see Repositories) through ScreenTasks.
+ */
+public class ExpenseTableModel extends AbstractTableModel {
+
+    static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 16;
+    private static final String[] COLUMN_NAMES = {"Expense ID", "Expense Name", "Amount", "Date", "Added By"};
+
+    // Table order: by date, then by id (also the order of the repositories' pages)
+    static final Comparator<Expense> ORDER =
+            Comparator.comparing(Expense::getDate).thenComparingInt(Expense::getId);
+
+    private final int groupId;
+    private final ScreenTasks tasks;
+    private final ExpenseRepository repository = Repositories.expenses();
+
+    // Cached segments of consecutive rows, keyed by the model index of their first row
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // Row ranges {start, end} currently being fetched
+    private final List<int[]> loading = new ArrayList<>();
+    private int rowCount = 0;
+    private int generation = 0;     // Bumped on reload so that late pages from an older load are ignored
+    private int version = 0;        // Bumped on every local change so that pages fetched before it are ignored
+    private long accessClock = 0;
+    private Segment lastHit;        // Segment of the last row looked up: painting reads rows in order
+    private boolean loadAll = false;        // Load every row instead of pages
+    private boolean fullyLoaded = false;    // Every row is cached
+    private volatile long changeSeq = -1;   // Last change of the group reflected by the rows, -1 while loading
+    private final List<int[]> behind = new ArrayList<>();  // Row ranges read ahead of changeSeq, fetched again once caught up
+    private Runnable catchUp;               // Asks for the missing changes
+
+
+    /**
+     * A run of consecutive cached rows.
+     */
+    private static class Segment {
+        int start;
+        final List<Expense> rows;
+        long lastAccess;
+
+        Segment(int start, List<Expense> rows) {
+            this.start = start;
+            this.rows = rows;
+        }
+
+        int end() {
+            return start + rows.size();
+        }
+
+        Expense first() {
+            return rows.get(0);
+        }
+
+        Expense last() {
+            return rows.get(rows.size() - 1);
+        }
+    }
+
+
+    /**
+     * Creates the model for a group's expenses. Call reload() to start loading.
+     *
+     * @param groupId The ID of the group whose expenses are shown.
+     * @param tasks The background task tracker of the owning screen.
+     */
+    public ExpenseTableModel(int groupId, ScreenTasks tasks) {
+        this.groupId = groupId;
+        this.tasks = tasks;
+    }
+
+
+    /**
+     * Drops all cached pages and reloads the row count and the first page.
+     */
+    public void reload() {
+        int loadGeneration = ++generation;
+        segments.clear();
+        lastHit = null;
+        loading.clear();
+        behind.clear();
+        fullyLoaded = false;
+        changeSeq = -1;
+
+        if (loadAll) {
+            record FullLoad(long seq, List<Expense> rows) {}
+
+            tasks.query(() -> repository.read(() -> new FullLoad(
+                    repository.currentSeq(groupId),
+                    repository.findAll(groupId)
+            )), result -> {
+                if (loadGeneration != generation) {
+                    return;
+                }
+                changeSeq = result.seq();
+                rowCount = result.rows().size();
+                storeSegment(0, new ArrayList<>(result.rows()));
+                fullyLoaded = true;
+                fireTableDataChanged();
+            });
+            return;
+        }
+
+        // The count and the first page travel together so that the first paint needs a single round-trip
+        record FirstLoad(long seq, int count, List<Expense> firstPage) {}
+
+        tasks.query(() -> repository.read(() -> new FirstLoad(
+                repository.currentSeq(groupId),
+                repository.countByGroup(groupId),
+                repository.findPage(groupId, null, PAGE_SIZE)
+        )), result -> {
+            if (loadGeneration != generation) {
+                return;
+            }
+            changeSeq = result.seq();
+            rowCount = Math.max(result.count(), result.firstPage().size());
+            storeSegment(0, new ArrayList<>(result.firstPage()));
+            fireTableDataChanged();
+        });
+    }
+
+
+    /**
+     * Chooses between loading pages as they are displayed and loading every row at once.
+     * Switching to every row reloads the model.
+     *
+     * @param loadAll True to load every row.
+     */
+    public void setLoadAll(boolean loadAll) {
+        if (this.loadAll != loadAll) {
+            this.loadAll = loadAll;
+            if (loadAll) {
+                reload();
+            }
+        }
+    }
+
+
+    /**
+     * Returns whether every row of the group is cached, so that getExpenseAt never returns null.
+     */
+    public boolean isFullyLoaded() {
+        return fullyLoaded;
+    }
+
+
+    /**
+     * Returns the number of the group's last change reflected by the rows. Safe to call from any thread.
+     *
+     * @return The number, or -1 while the rows are loading.
+     */
+    public long getChangeSeq() {
+        return changeSeq;
+    }
+
+
+    /**
+     * Sets what to call when a page turns out to be newer than the rows, so that the missing changes are read now.
+     *
+     * @param catchUp Usually the pollNow of the group's change feed subscription.
+     */
+    public void setCatchUp(Runnable catchUp) {
+        this.catchUp = catchUp;
+    }
+
+
+    /**
+     * Replays the changes of the group that the rows do not reflect yet: changes already applied are skipped,
+     * and a gap in the numbers or a batch asking for it reloads the model.
+     *
+     * @param batch Changes read from the group's change feed.
+     * @return True if the rows changed or are being reloaded.
+     */
+    public boolean applyChanges(ExpenseRepository.Batch batch) {
+        if (changeSeq < 0 || batch.isEmpty()) {
+            return false;   // Still loading: the load reads a newer snapshot anyway
+        }
+        if (batch.reload()) {
+            reload();
+            return true;
+        }
+
+        boolean applied = false;
+        for (ExpenseRepository.Change change : batch.changes()) {
+            if (change.seq() <= changeSeq) {
+                continue;
+            }
+            if (change.seq() != changeSeq + 1) {
+                reload();
+                return true;
+            }
+            switch (change.kind()) {
+                case ADDED -> expenseInserted(change.after());
+                case EDITED -> expenseUpdated(change.before(), change.after());
+                case REMOVED -> expenseDeleted(change.before());
+                case RELOAD -> {
+                    reload();
+                    return true;
+                }
+            }
+            changeSeq = change.seq();
+            applied = true;
+        }
+
+        // Pages that were set aside can be read again now
+        for (int[] range : behind) {
+            int last = Math.min(range[1], rowCount) - 1;
+            if (last >= range[0]) {
+                fireTableRowsUpdated(range[0], last);
+            }
+        }
+        behind.clear();
+        return applied;
+    }
+
+
+    /**
+     * Returns the row of an expense if it is cached.
+     *
+     * @param expense The expense, or at least its ID and date.
+     * @return The row index in the model, or -1 if its page is not cached.
+     */
+    public int rowOf(Expense expense) {
+        return find(expense);
+    }
+
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMN_NAMES.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMN_NAMES[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false; // Make all cells non-editable
+    }
+
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Expense expense = getExpenseAt(row);
+        if (expense == null) {
+            return column == 1 ? "Loading..." : null;     // Placeholder until the page arrives
+        }
+
+        return switch (column) {
+            case 0 -> expense.getId();
+            case 1 -> expense.getExpenseName();
+            case 2 -> expense.getAmount();
+            case 3 -> expense.getDate();
+            default -> expense.getUsername();
+        };
+    }
+
+
+    /**
+     * Returns the expense displayed at a row, requesting its page if it is not cached yet.
+     *
+     * @param row The row index in the model.
+     * @return The expense, or null while its page is still loading.
+     */
+    public Expense getExpenseAt(int row) {
+        // Checked first because it allocates nothing, unlike a TreeMap lookup
+        Segment segment = lastHit;
+        if (segment != null && row >= segment.start && row < segment.end()) {
+            segment.lastAccess = ++accessClock;
+            return segment.rows.get(row - segment.start);
+        }
+
+        Map.Entry<Integer, Segment> entry = segments.floorEntry(row);
+        if (entry != null && row < entry.getValue().end()) {
+            segment = entry.getValue();
+            segment.lastAccess = ++accessClock;
+            lastHit = segment;
+            return segment.rows.get(row - segment.start);
+        }
+
+        requestPage(row);
+        return null;
+    }
+
+
+    /**
+     * Adds a newly created expense at its place in the (date, id) order.
+     *
+     * @param expense The expense that was added to the database.
+     * @return The row index of the expense.
+     */
+    public int expenseInserted(Expense expense) {
+        version++;
+        int row = insertLocal(expense);
+        rowCount++;
+        fireTableRowsInserted(row, row);
+        return row;
+    }
+
+
+    /**
+     * Replaces an edited expense, moving it if its date changed.
+     *
+     * @param before The expense as it was displayed.
+     * @param after The expense as it is now stored.
+     * @return The row index of the edited expense.
+     */
+    public int expenseUpdated(Expense before, Expense after) {
+        version++;
+        if (ORDER.compare(before, after) == 0) {
+            int row = find(before);
+            if (row >= 0) {
+                Segment segment = segments.floorEntry(row).getValue();
+                segment.rows.set(row - segment.start, after);
+                fireTableRowsUpdated(row, row);
+                return row;
+            }
+        }
+
+        // The sort key changed: the row moves
+        int oldRow = removeLocal(before);
+        rowCount--;
+        fireTableRowsDeleted(oldRow, oldRow);
+        int newRow = insertLocal(after);
+        rowCount++;
+        fireTableRowsInserted(newRow, newRow);
+        return newRow;
+    }
+
+
+    /**
+     * Removes a deleted expense.
+     *
+     * @param expense The expense that was removed from the database.
+     */
+    public void expenseDeleted(Expense expense) {
+        version++;
+        int row = removeLocal(expense);
+        rowCount--;
+        fireTableRowsDeleted(row, row);
+    }
+
+
+    /**
+     * Places an expense in the cached segments and shifts the following ones.
+     * An expense that falls between two segments lands in the not yet loaded gap:
+     * only the positions of the following segments change.
+     *
+     * @return The model index of the new row.
+     */
+    private int insertLocal(Expense expense) {
+        Segment previous = null;
+        Segment target = null;
+        for (Segment segment : segments.values()) {
+            if (ORDER.compare(expense, segment.last()) <= 0) {
+                target = segment;
+                break;
+            }
+            previous = segment;
+        }
+
+        int gapStart = previous == null ? 0 : previous.end();
+        Segment into = null;
+        int row;
+        if (target != null && ORDER.compare(expense, target.first()) >= 0) {
+            // Inside a cached segment
+            int index = -Collections.binarySearch(target.rows, expense, ORDER) - 1;
+            into = target;
+            row = target.start + index;
+            target.rows.add(index, expense);
+        } else if (target != null && target.start == gapStart) {
+            // Right before a segment with no unknown rows in front of it
+            into = target;
+            row = target.start;
+            target.rows.add(0, expense);
+        } else if (segments.isEmpty() && fullyLoaded) {
+            // First row of a fully loaded empty group
+            into = new Segment(0, new ArrayList<>(List.of(expense)));
+            segments.put(0, into);
+            row = 0;
+        } else if (target == null && previous != null && previous.end() == rowCount) {
+            // After the last cached segment, which already reaches the end of the group
+            into = previous;
+            row = previous.end();
+            previous.rows.add(expense);
+        } else {
+            // Somewhere in a gap of rows that are not loaded yet
+            row = target != null ? target.start : rowCount;
+        }
+
+        shiftFrom(row, 1, into);
+        return row;
+    }
+
+
+    /**
+     * Takes an expense out of the cached segments and shifts the following ones.
+     *
+     * @return The model index the row had.
+     */
+    private int removeLocal(Expense expense) {
+        int row = find(expense);
+        if (row >= 0) {
+            Segment segment = segments.floorEntry(row).getValue();
+            segment.rows.remove(row - segment.start);
+            if (segment.rows.isEmpty()) {
+                segments.remove(segment.start);
+                lastHit = null;
+            }
+        } else {
+            // Not loaded: it is the last row of the gap in front of the first segment that comes after it
+            row = rowCount - 1;
+            for (Segment segment : segments.values()) {
+                if (ORDER.compare(expense, segment.first()) < 0) {
+                    row = segment.start - 1;
+                    break;
+                }
+            }
+        }
+
+        shiftFrom(row + 1, -1, null);
+        return row;
+    }
+
+
+    /**
+     * Finds the model index of a cached expense by its (date, id) key.
+     *
+     * @return The row index, or -1 if the expense is not in a cached segment.
+     */
+    private int find(Expense expense) {
+        for (Segment segment : segments.values()) {
+            if (ORDER.compare(expense, segment.first()) >= 0 && ORDER.compare(expense, segment.last()) <= 0) {
+                int index = Collections.binarySearch(segment.rows, expense, ORDER);
+                return index >= 0 ? segment.start + index : -1;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Moves every segment that starts at or after a row by delta, except the one that was just modified.
+     */
+    private void shiftFrom(int row, int delta, Segment modified) {
+        List<Segment> moved = new ArrayList<>();
+        Iterator<Segment> iterator = segments.tailMap(row, true).values().iterator();
+        while (iterator.hasNext()) {
+            Segment segment = iterator.next();
+            if (segment != modified) {
+                iterator.remove();
+                segment.start += delta;
+                moved.add(segment);
+            }
+        }
+        for (Segment segment : moved) {
+            segments.put(segment.start, segment);
+        }
+        loading.clear();    // Pending fetches are dropped by the version check
+    }
+
+
+    /**
+     * Fetches the rows around a missing row in the background unless they are already on their way.
+     * When the row is close to the end of a cached segment, the fetch continues from that segment's
+     * last key with a keyset query; otherwise (the user dragged the scrollbar far ahead) the start key
+     * is first located with a single-row index lookup.
+     */
+    private void requestPage(int row) {
+        for (int[] range : loading) {
+            if (row >= range[0] && row < range[1]) {
+                return;
+            }
+        }
+
+        Map.Entry<Integer, Segment> previousEntry = segments.floorEntry(row);
+        Map.Entry<Integer, Segment> nextEntry = segments.higherEntry(row);
+        Segment previous = previousEntry != null ? previousEntry.getValue() : null;
+        int lower = previous != null ? previous.end() : 0;
+        int upper = nextEntry != null ? nextEntry.getKey() : Integer.MAX_VALUE;
+
+        int start = row - lower < PAGE_SIZE ? lower : Math.max(lower, Math.min(row, upper - PAGE_SIZE));
+        int limit = (int) Math.min(PAGE_SIZE, (long) upper - start);
+        Expense after = start == lower && previous != null ? previous.last() : null;
+        boolean seek = start > 0 && after == null;
+
+        int[] range = {start, start + limit};
+        loading.add(range);
+        int loadGeneration = generation;
+        int loadVersion = version;
+
+        record Page(long seq, List<Expense> rows) {}
+
+        tasks.query(() -> repository.read(() -> {
+            long seq = repository.currentSeq(groupId);
+            Expense from = seek ? repository.findAt(groupId, start - 1) : after;
+            if (seek && from == null) {
+                return new Page(seq, List.of());     // The rows lie past the end of the group
+            }
+            return new Page(seq, repository.findPage(groupId, from, limit));
+        }), page -> {
+            if (loadGeneration != generation) {
+                return;
+            }
+            loading.remove(range);
+            if (loadVersion != version) {
+                // Rows moved while the page was in flight, ask again for whatever is visible
+                int last = Math.min(range[1], rowCount) - 1;
+                if (last >= range[0]) {
+                    fireTableRowsUpdated(range[0], last);
+                }
+                return;
+            }
+            if (page.seq() > changeSeq) {
+                // Read after changes the model has not applied yet: the rows would land at the wrong place
+                behind.add(range);
+                if (catchUp != null) {
+                    catchUp.run();
+                }
+                return;
+            }
+
+            List<Expense> rows = page.rows();
+            if (rows.size() < limit && upper == Integer.MAX_VALUE && start + rows.size() < rowCount) {
+                // Fewer rows than counted: the group shrank since the count was taken
+                int oldCount = rowCount;
+                rowCount = start + rows.size();
+                fireTableRowsDeleted(rowCount, oldCount - 1);
+            }
+            if (!rows.isEmpty()) {
+                storeSegment(start, new ArrayList<>(rows));
+                fireTableRowsUpdated(start, start + rows.size() - 1);
+            }
+        });
+    }
+
+
+    /**
+     * Caches a segment, replacing any cached rows it overlaps and evicting the least recently used
+     * segments once more than MAX_CACHED_PAGES are held.
+     */
+    private void storeSegment(int start, List<Expense> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        Segment segment = new Segment(start, rows);
+        segment.lastAccess = ++accessClock;
+
+        Map.Entry<Integer, Segment> before = segments.lowerEntry(start);
+        if (before != null && before.getValue().end() > start) {
+            segments.remove(before.getKey());
+        }
+        segments.subMap(start, true, segment.end(), false).clear();
+        segments.put(start, segment);
+        lastHit = null;
+
+        while (segments.size() > MAX_CACHED_PAGES) {
+            Segment eldest = Collections.min(segments.values(), Comparator.comparingLong(s -> s.lastAccess));
+            segments.remove(eldest.start);
+        }
+    }
+
+
+    /**
+     * Shows a fixed list of rows, already in (date, id) order, without loading anything from the database.
+     * Used by the rendering benchmark.
+     *
+     * @param rows The rows to show.
+     */
+    void showRows(List<Expense> rows) {
+        generation++;
+        segments.clear();
+        loading.clear();
+        lastHit = null;
+        rowCount = rows.size();
+        storeSegment(0, new ArrayList<>(rows));
+        fullyLoaded = true;
+        fireTableDataChanged();
+    }
+}
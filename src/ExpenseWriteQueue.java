@@ -0,0 +1,301 @@
+/**
+ * Libraries
+ */
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+
+/**
+ * The ExpenseWriteQueue class writes expense additions, edits and removals behind the caller's back, in
+ * small batches committed together (group commit). Each change on its own would pay for a connection and
+ * a commit, i.e. a flush of the database log; queued changes share both.
+ *
+ * Changes are queued in one of LANES lanes chosen by group, each written in order by its own virtual
+ * thread, so the changes of a group are committed in the order they were submitted. A lane takes what is
+ * waiting, waits up to FLUSH_MILLIS for more, and writes up to MAX_BATCH changes in one transaction.
+ * A change that fails on its own (e.g. its group was deleted) is dropped from the batch, which is then
+ * written again without it. A transient failure (lost connection, deadlock, busy pool) retries the whole
+ * batch with a growing pause; a failure of the commit itself is reported, not retried, since the batch
+ * may have been written.
+ *
+ * The caches that depend on the expenses (see ExpenseService) are updated once the batch is committed,
+ * and then the futures are completed. stats() reports the queue depth and the batch sizes.
+ */
+public class ExpenseWriteQueue {
+
+    static final int LANES = 4;
+    static final int MAX_BATCH = 100;
+    static final long FLUSH_MILLIS = 5;
+    private static final int MAX_QUEUED = 10_000;      // Per lane; more is refused rather than held in memory
+    private static final int MAX_ATTEMPTS = 5;
+    private static final long RETRY_PAUSE_MILLIS = 50;
+
+    private static final Lane[] lanes = new Lane[LANES];
+
+    private static final AtomicLong committed = new AtomicLong();
+    private static final AtomicLong failed = new AtomicLong();
+    private static final AtomicLong batches = new AtomicLong();
+    private static final AtomicLong retries = new AtomicLong();
+    private static volatile long lastCommitNanos = 0;
+
+    static {
+        for (int i = 0; i < LANES; i++) {
+            lanes[i] = new Lane(i);
+        }
+    }
+
+
+    /**
+     * Figures of the queue since the application started.
+     *
+     * @param queued The changes waiting for a batch.
+     * @param writing The changes of the batches being written.
+     * @param committed The changes committed.
+     * @param failed The changes that failed.
+     * @param batches The batches committed.
+     * @param retries The batches written again after a transient failure.
+     * @param lastCommitMillis How long the last batch took to write and commit.
+     */
+    public record Stats(int queued, int writing, long committed, long failed, long batches, long retries, double lastCommitMillis) {
+
+        public double averageBatch() {
+            return batches == 0 ? 0 : committed / (double) batches;
+        }
+    }
+
+
+    /**
+     * A queued change.
+     */
+    private static class Change<T> {
+        final AsyncDatabase.Work<T> write;     // Runs inside the batch transaction
+        final Consumer<T> afterCommit;          // Updates the caches once committed
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+
+        Change(AsyncDatabase.Work<T> write, Consumer<T> afterCommit) {
+            this.write = write;
+            this.afterCommit = afterCommit;
+        }
+
+        void write(Connection connection) throws SQLException {
+            result = write.run(connection);
+        }
+
+        void complete() {
+            try {
+                afterCommit.accept(result);
+            } finally {
+                future.complete(result);
+            }
+        }
+    }
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ExpenseWriteQueue() {
+    }
+
+
+    /**
+     * Queues a new expense.
+     *
+     * @param groupId The ID of the group to which the expense belongs.
+     * @param expenseName The name of the expense.
+     * @param amountCents The amount in cents (positive for gains, negative for losses).
+     * @param date The date of the expense (YYYY-MM-DD).
+     * @param username The username of the user who added the expense.
+     * @return A future completed with the stored expense once committed.
+     */
+    public static CompletableFuture<Expense> add(int groupId, String expenseName, long amountCents, String date, String username) {
+        return submit(groupId, new Change<>(
+                connection -> ExpenseDao.insert(connection, groupId, expenseName, amountCents, date, username),
+                ExpenseService::added));
+    }
+
+
+    /**
+     * Queues an edit, made against the version of the expense the user saw (see ExpenseDao.update).
+     *
+     * @param expense The expense as it is currently known, with its version.
+     * @param newName The new name of the expense.
+     * @param newAmountCents The new amount in cents.
+     * @param newDate The new date of the expense (YYYY-MM-DD).
+     * @return A future completed with the outcome once committed.
+     */
+    public static CompletableFuture<ExpenseRepository.Outcome> update(Expense expense, String newName, long newAmountCents, String newDate) {
+        return submit(expense.getGroupId(), new Change<>(
+                connection -> ExpenseDao.update(connection, expense, newName, newAmountCents, newDate),
+                outcome -> ExpenseService.updated(expense, outcome)));
+    }
+
+
+    /**
+     * Queues a removal, made against the version of the expense the user saw.
+     *
+     * @param expense The expense to remove, with its version.
+     * @return A future completed with the outcome once committed.
+     */
+    public static CompletableFuture<ExpenseRepository.Outcome> remove(Expense expense) {
+        return submit(expense.getGroupId(), new Change<>(
+                connection -> ExpenseDao.delete(connection, expense),
+                outcome -> ExpenseService.removed(expense, outcome)));
+    }
+
+
+    /**
+     * Returns the current figures of the queue.
+     */
+    public static Stats stats() {
+        int queued = 0;
+        int writing = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+            writing += lane.writing;
+        }
+        return new Stats(queued, writing, committed.get(), failed.get(), batches.get(), retries.get(), lastCommitNanos / 1e6);
+    }
+
+
+    private static <T> CompletableFuture<T> submit(int groupId, Change<T> change) {
+        if (!lanes[Math.floorMod(groupId, LANES)].queue.offer(change)) {
+            change.future.completeExceptionally(new RejectedExecutionException("Too many changes waiting to be saved, please try again."));
+        }
+        return change.future;
+    }
+
+
+    /**
+     * One queue and the virtual thread writing it.
+     */
+    private static class Lane {
+        final BlockingQueue<Change<?>> queue = new LinkedBlockingQueue<>(MAX_QUEUED);
+        volatile int writing = 0;
+
+        Lane(int index) {
+            Thread.ofVirtual().name("homex-writes-" + index).start(this::run);
+        }
+
+        private void run() {
+            List<Change<?>> batch = new ArrayList<>(MAX_BATCH);
+            while (true) {
+                try {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_BATCH - batch.size());
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_MILLIS);
+                    while (batch.size() < MAX_BATCH) {
+                        Change<?> next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        queue.drainTo(batch, MAX_BATCH - batch.size());
+                    }
+                    writing = batch.size();
+                    SchemaMigrator.migrateOnce().join();    // No change is written to an outdated schema
+                    write(batch);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    fail(batch, AsyncDatabase.rootCause(e));    // The schema could not be migrated
+                } finally {
+                    writing = 0;
+                    batch.clear();
+                }
+            }
+        }
+
+        /**
+         * Writes a batch in one transaction, dropping the changes that fail on their own and retrying transient failures.
+         */
+        private void write(List<Change<?>> batch) throws InterruptedException {
+            List<Change<?>> pending = new ArrayList<>(batch);
+            int attempt = 1;
+            while (!pending.isEmpty()) {
+                long started = System.nanoTime();
+                Change<?> current = null;
+                boolean committing = false;
+                try (Connection connection = ConnectionPool.getConnection()) {
+                    connection.setAutoCommit(false);
+                    try {
+                        for (Change<?> change : pending) {
+                            current = change;
+                            change.write(connection);
+                        }
+                        current = null;
+                        committing = true;
+                        connection.commit();
+                    } catch (SQLException | RuntimeException e) {
+                        if (!committing) {
+                            try {
+                                connection.rollback();
+                            } catch (SQLException rollbackError) {
+                                e.addSuppressed(rollbackError);
+                            }
+                        }
+                        throw e;
+                    } finally {
+                        connection.setAutoCommit(true);
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    if (committing) {
+                        fail(pending, new SQLException("The changes may or may not have been saved: " + e.getMessage(), e));
+                        return;
+                    }
+                    if (e instanceof SQLException sqlException && isTransient(sqlException) && attempt < MAX_ATTEMPTS) {
+                        retries.incrementAndGet();
+                        Thread.sleep(RETRY_PAUSE_MILLIS << (attempt - 1));
+                        attempt++;
+                        continue;
+                    }
+                    if (current != null && !(e instanceof SQLException sqlException && isTransient(sqlException))) {
+                        // This change fails on its own: drop it and write the others again
+                        fail(List.of(current), e);
+                        pending.remove(current);
+                        continue;
+                    }
+                    fail(pending, e);
+                    return;
+                }
+
+                lastCommitNanos = System.nanoTime() - started;
+                batches.incrementAndGet();
+                committed.addAndGet(pending.size());
+                for (Change<?> change : pending) {
+                    try {
+                        change.complete();
+                    } catch (RuntimeException e) {
+                        System.out.println("Could not update the caches after saving an expense: " + e);
+                    }
+                }
+                return;
+            }
+        }
+    }
+
+
+    /**
+     * Returns whether a failure is worth retrying: the database was unreachable or busy, or the
+     * transaction lost a deadlock or a lock wait. Nothing of the batch was committed.
+     */
+    static boolean isTransient(SQLException e) {
+        String state = e.getSQLState();
+        return e instanceof SQLTransientException || e instanceof SQLRecoverableException
+                || (state != null && (state.startsWith("08") || state.startsWith("40")))
+                || e.getErrorCode() == 1205;     // Lock wait timeout exceeded
+    }
+
+
+    private static void fail(List<Change<?>> changes, Throwable error) {
+        failed.addAndGet(changes.size());
+        for (Change<?> change : changes) {
+            change.future.completeExceptionally(error);
+        }
+    }
+}
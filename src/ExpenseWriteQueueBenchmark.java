@@ -0,0 +1,117 @@
+/**
+ * Libraries
+ */
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+
+/**
+ * The ExpenseWriteQueueBenchmark class compares adding and removing expenses one transaction at a time
+ * (ExpenseDao, as before the write queue) with going through ExpenseWriteQueue, from many concurrent
+ * clients, against the configured database.
+ *
+ * It adds the given number of expenses named "Benchmark N" to a group and removes them again, so the
+ * group is left as it was. Use a test group: the other members see the expenses come and go.
+ *
+ * Run with: java ExpenseWriteQueueBenchmark groupId [count] [clients] [username]
+ */
+public class ExpenseWriteQueueBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: java ExpenseWriteQueueBenchmark groupId [count] [clients] [username]");
+            return;
+        }
+        int groupId = Integer.parseInt(args[0]);
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 64;
+        String username = args.length > 3 ? args[3] : "benchmark";
+        SchemaMigrator.migrateOnce().join();
+
+        System.out.println("Warming up...");
+        direct(groupId, 200, clients, username);
+        queued(groupId, 200, clients, username);
+
+        System.out.printf("%,d expenses from %d clients%n", count, clients);
+        direct(groupId, count, clients, username);
+        queued(groupId, count, clients, username);
+
+        ExpenseWriteQueue.Stats stats = ExpenseWriteQueue.stats();
+        System.out.printf("Queue: %,d changes in %,d batches (%.1f per batch), %d retries, %d failed%n",
+                stats.committed(), stats.batches(), stats.averageBatch(), stats.retries(), stats.failed());
+    }
+
+
+    /**
+     * Adds then removes the expenses with one connection and one commit each.
+     */
+    private static void direct(int groupId, int count, int clients, String username) throws Exception {
+        List<Expense> added = new ArrayList<>(count);
+        long started = System.nanoTime();
+        List<CompletableFuture<Expense>> additions = new ArrayList<>(count);
+        try (ExecutorService executor = Executors.newFixedThreadPool(clients)) {
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                additions.add(CompletableFuture.supplyAsync(() -> withConnection(connection ->
+                        ExpenseDao.insert(connection, groupId, "Benchmark " + index, -100 - index, "2000-01-01", username)), executor));
+            }
+            additions.forEach(future -> added.add(future.join()));
+            added.forEach(ExpenseService::added);    // After the commits, as the write queue does
+        }
+        report("Direct add", count, started);
+
+        started = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(clients)) {
+            for (Expense expense : added) {
+                executor.submit(() -> ExpenseService.removed(expense, withConnection(connection -> ExpenseDao.delete(connection, expense))));
+            }
+        }
+        report("Direct remove", count, started);
+    }
+
+
+    /**
+     * Adds then removes the expenses through the write queue, with the same number of clients waiting for their change.
+     */
+    private static void queued(int groupId, int count, int clients, String username) throws Exception {
+        List<Expense> added = new ArrayList<>(count);
+        long started = System.nanoTime();
+        List<CompletableFuture<Expense>> additions = new ArrayList<>(count);
+        try (ExecutorService executor = Executors.newFixedThreadPool(clients)) {
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                additions.add(CompletableFuture.supplyAsync(() ->
+                        ExpenseWriteQueue.add(groupId, "Benchmark " + index, -100 - index, "2000-01-01", username).join(), executor));
+            }
+            additions.forEach(future -> added.add(future.join()));
+        }
+        report("Queued add", count, started);
+
+        started = System.nanoTime();
+        try (ExecutorService executor = Executors.newFixedThreadPool(clients)) {
+            for (Expense expense : added) {
+                executor.submit(() -> ExpenseWriteQueue.remove(expense).join());
+            }
+        }
+        report("Queued remove", count, started);
+    }
+
+
+    private static <T> T withConnection(AsyncDatabase.Work<T> work) {
+        try (Connection connection = ConnectionPool.getConnection()) {
+            return work.run(connection);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+
+    private static void report(String label, int count, long started) {
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("%-14s %,10.0f changes/s (%.2f s)%n", label, count / seconds, seconds);
+    }
+}
@@ -2,11 +2,15 @@
  * Libraries
  */
 import javax.swing.*;
-import javax.swing.table.DefaultTableCellRenderer;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.*;
-import java.sql.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.io.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 
 /**
@@ -14,25 +18,56 @@ import java.sql.*;
  * It allows users to add, edit, and remove expenses in a specific group,
  * and view the details of the group's expenses.
  *
- * This class handles interaction with the expenses table in the database and
- * displays a list of expenses for the selected group.
+ * This class reads and writes the group's expenses through the expense repository (see Repositories) and
+ * displays a list of expenses for the selected group. While the window is open it follows the group's
+ * change feed (see ExpenseChanges), so the expenses other members add, edit or remove appear without
+ * reopening it.
  */
 public class Group extends JFrame {
 
-    // Database connection parameters
-    private static final String DB_URL = "jdbc:mariadb://localhost:3306/homex_db";
-    private static final String DB_USER = "your_username";
-    private static final String DB_PASSWORD = "your_password";
-
     // GUI components
     JPanel headerPanel, userInfoPanel, leftPanel, centerPanel;
-    JButton homeButton, personalWalletButton, profileButton, logOutButton, addExpenseButton, editExpenseButton, removeExpenseButton;
-    JLabel pageNameLabel, appNameLabel, usernameLabel, avatarLabel;
+    JButton homeButton, personalWalletButton, profileButton, analysisButton, logOutButton, addExpenseButton, editExpenseButton, removeExpenseButton, importButton, exportButton;
+    JLabel pageNameLabel, appNameLabel, usernameLabel, avatarLabel, monthTotalLabel;
     JTable expenseTable;
-    DefaultTableModel tableModel;
-    private static Image app_logo = Toolkit.getDefaultToolkit().getImage("data/image/logo.png");
+    ExpenseTableModel tableModel;
+    JProgressBar loadingBar;
+    JTextField searchField;
+    JList<ExpenseSearchIndex.Hit> searchResultList;
+    DefaultListModel<ExpenseSearchIndex.Hit> searchResults;
+    JScrollPane searchResultPane;
+    ExpenseRowSorter rowSorter;
+    JTextField fromField, toField;
+    JComboBox<String> memberComboBox;
+    JComboBox<ExpenseRowSorter.Type> typeComboBox;
+    JButton filterButton, clearFilterButton;
+
+    private static final String ALL_MEMBERS = "All members";
+
+    private static final int SEARCH_LIMIT = 50;     // Hits listed for a search
+    private static final int MAX_DROPPED_SHOWN = 20;    // Offline changes listed when they could not be saved
+    private ExpenseSearchIndex searchIndex;         // Null until loaded
+    private Timer searchTimer;
 
     private int groupId;
+    private String groupName;       // Null until known
+    private ScreenTasks tasks;
+    private final ExpenseRepository expenses = Repositories.expenses();
+    private ExpenseChanges.Subscription changeFeed;
+
+    /**
+     * An expense change saved by this window, with the changes of the group read right after it
+     * (the saved one included), so that the table is patched from the feed like for any other member.
+     */
+    private record Saved<T>(T result, ExpenseRepository.Batch changes) {
+    }
+
+    /**
+     * A write to the offline journal (see ExpenseJournal).
+     */
+    private interface JournalWrite {
+        void run() throws IOException;
+    }
 
     /**
      * Constructor to initialize GUI components
@@ -41,28 +76,22 @@ public class Group extends JFrame {
     public Group(int groupID) {
         this.groupId = groupID;
 
-        // Create the expenses table if it does not exist
-        createExpenseTableIfNotExists();
-
         // Frame setup
-        setTitle("Group Details");
+        setTitle(title());
         setSize(1000, 800);
         setLocationRelativeTo(null);
-        setIconImage(app_logo);
+        setIconImage(ImageCache.getAppLogo());
         setLayout(new BorderLayout(0, 0));  // No gaps between regions
         setDefaultCloseOperation(EXIT_ON_CLOSE);
 
-        // Get the group name from the database using the groupID
-        String groupName = getGroupNameById(groupID);
-
         // Create the header panel
         headerPanel = new JPanel(new BorderLayout());
         headerPanel.setBackground(new Color(12, 73, 87));
         headerPanel.setPreferredSize(new Dimension(1000, 80));
         headerPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
 
-        // Page name label (left side) now shows the group name
-        pageNameLabel = new JLabel(groupName != null ? groupName : "Group");
+        // Page name label (left side) shows the group name once it is loaded
+        pageNameLabel = new JLabel("Group");
         pageNameLabel.setForeground(Color.WHITE);
         pageNameLabel.setFont(new Font("Arial", Font.BOLD, 20));
         headerPanel.add(pageNameLabel, BorderLayout.WEST);
@@ -82,10 +111,9 @@ public class Group extends JFrame {
         usernameLabel.setFont(new Font("Arial", Font.BOLD, 16));
 
         avatarLabel = new JLabel();
-        if (User.getAvatarPath() != null) {
-            ImageIcon avatarIcon = new ImageIcon(User.getAvatarPath());
-            Image scaledImage = avatarIcon.getImage().getScaledInstance(50, 50, Image.SCALE_SMOOTH);
-            avatarLabel.setIcon(new ImageIcon(scaledImage));
+        ImageIcon avatarIcon = AvatarStore.getIcon(User.getAvatarPath(), 50);
+        if (avatarIcon != null) {
+            avatarLabel.setIcon(avatarIcon);
         } else {
             avatarLabel.setText("No Avatar");
             avatarLabel.setForeground(Color.WHITE);
@@ -101,7 +129,7 @@ public class Group extends JFrame {
         // Create the left-side panel with buttons
         leftPanel = new JPanel();
         leftPanel.setBackground(new Color(12, 73, 87, 179));
-        leftPanel.setLayout(new GridLayout(4, 1, 10, 10));
+        leftPanel.setLayout(new GridLayout(5, 1, 10, 10));
         leftPanel.setPreferredSize(new Dimension(200, 0));
         leftPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));   // Add padding around the buttons
         add(leftPanel, BorderLayout.WEST);  // Add to the left side
@@ -130,6 +158,14 @@ public class Group extends JFrame {
         });
         leftPanel.add(profileButton);
 
+        // Analysis button: the group's expenses
+        analysisButton = new JButton("Analysis");
+        analysisButton.addActionListener(_ -> {
+            new Analysis(ExpenseScope.group(groupId, pageNameLabel.getText()));
+            dispose();
+        });
+        leftPanel.add(analysisButton);
+
         // Log Out button
         logOutButton = new JButton("Log Out");
         logOutButton.addActionListener(_ -> {
@@ -143,151 +179,226 @@ public class Group extends JFrame {
         centerPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20)); // Padding
         add(centerPanel, BorderLayout.CENTER);
 
-        // Create a table to display expenses
-        tableModel = new DefaultTableModel(new String[]{"Expense ID", "Expense Name", "Amount", "Date", "Added By"}, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false; // Make all cells non-editable
-            }
-        };
+        // Background database work shows the loading bar and is cancelled when the frame is disposed
+        loadingBar = new JProgressBar();
+        loadingBar.setIndeterminate(true);
+        loadingBar.setString("Loading...");
+        loadingBar.setStringPainted(true);
+        tasks = new ScreenTasks(this, loadingBar);
+
+        // Create a table to display expenses, its pages are loaded as they scroll into view
+        tableModel = new ExpenseTableModel(groupId, tasks);
         expenseTable = new JTable(tableModel);
-        expenseTable.setDefaultRenderer(Object.class, new StripedTableCellRenderer());
+        expenseTable.setDefaultRenderer(Object.class, new ExpenseCellRenderer());
+
+        // Clicking a column header sorts by it; the sorter also applies the filters
+        rowSorter = new ExpenseRowSorter(tableModel);
+        expenseTable.setRowSorter(rowSorter);
 
         // Hide the "Expense ID" column from the user
         expenseTable.getColumnModel().getColumn(0).setMinWidth(0);
         expenseTable.getColumnModel().getColumn(0).setMaxWidth(0);
         expenseTable.getColumnModel().getColumn(0).setPreferredWidth(0);
 
-        loadExpenses(groupId); // Load and display expenses in the table
-
         // Add table to scroll pane
         JScrollPane scrollPane = new JScrollPane(expenseTable);
         centerPanel.add(scrollPane, BorderLayout.CENTER);
 
+        // Search box above the table, its ranked hits are listed on the right
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        searchField = new JTextField(30);
+        searchField.setEnabled(false);  // Until the search index is ready
+        searchPanel.add(new JLabel("Search:"));
+        searchPanel.add(searchField);
+
+        // Filters of the table, below the search box
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+        fromField = new JTextField(8);
+        toField = new JTextField(8);
+        fromField.setToolTipText("YYYY-MM-DD, empty for no limit");
+        toField.setToolTipText("YYYY-MM-DD, empty for no limit");
+        memberComboBox = new JComboBox<>(new String[]{ALL_MEMBERS});
+        memberComboBox.setEditable(true);   // Filled with the members once every row is loaded
+        typeComboBox = new JComboBox<>(ExpenseRowSorter.Type.values());
+        filterButton = new JButton("Filter");
+        clearFilterButton = new JButton("Clear");
+        filterPanel.add(new JLabel("From:"));
+        filterPanel.add(fromField);
+        filterPanel.add(new JLabel("To:"));
+        filterPanel.add(toField);
+        filterPanel.add(memberComboBox);
+        filterPanel.add(typeComboBox);
+        filterPanel.add(filterButton);
+        filterPanel.add(clearFilterButton);
+
+        JPanel northPanel = new JPanel(new GridLayout(2, 1, 0, 5));
+        northPanel.add(searchPanel);
+        northPanel.add(filterPanel);
+        centerPanel.add(northPanel, BorderLayout.NORTH);
+
+        filterButton.addActionListener(_ -> applyFilter());
+        clearFilterButton.addActionListener(_ -> {
+            fromField.setText("");
+            toField.setText("");
+            memberComboBox.setSelectedItem(ALL_MEMBERS);
+            typeComboBox.setSelectedItem(ExpenseRowSorter.Type.ALL);
+            rowSorter.setFilter(ExpenseRowSorter.Filter.NONE);
+        });
+        rowSorter.addRowSorterListener(_ -> updateMemberChoices());
+
+        searchResults = new DefaultListModel<>();
+        searchResultList = new JList<>(searchResults);
+        searchResultList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        searchResultPane = new JScrollPane(searchResultList);
+        searchResultPane.setPreferredSize(new Dimension(320, 0));
+        searchResultPane.setVisible(false);     // Shown while there is a query
+        centerPanel.add(searchResultPane, BorderLayout.EAST);
+
+        // Search once the user pauses typing, and show the expense of the selected hit in the table
+        searchTimer = new Timer(150, _ -> search());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            public void removeUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            public void changedUpdate(DocumentEvent e) {
+                searchTimer.restart();
+            }
+        });
+        searchResultList.addListSelectionListener(e -> {
+            ExpenseSearchIndex.Hit hit = searchResultList.getSelectedValue();
+            if (!e.getValueIsAdjusting() && hit != null) {
+                showSearchHit(hit);
+            }
+        });
+
         // Add/Edit/Remove buttons for expenses
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        monthTotalLabel = new JLabel();     // Totals of the current month, read from the group's monthly totals
+        buttonPanel.add(monthTotalLabel);
+        buttonPanel.add(loadingBar);
         addExpenseButton = new JButton("Add Expense");
         editExpenseButton = new JButton("Edit Expense");
         removeExpenseButton = new JButton("Remove Expense");
+        importButton = new JButton("Import CSV");
+        exportButton = new JButton("Export");
 
         buttonPanel.add(addExpenseButton);
         buttonPanel.add(editExpenseButton);
         buttonPanel.add(removeExpenseButton);
+        buttonPanel.add(importButton);
+        if (Repositories.isEmbedded()) {
+            importButton.setEnabled(false);     // The import writes batches of rows straight to MariaDB
+            importButton.setToolTipText("Importing is only available with the MariaDB database.");
+        }
+        buttonPanel.add(exportButton);
         centerPanel.add(buttonPanel, BorderLayout.SOUTH);
 
         // Action listeners for buttons
         addExpenseButton.addActionListener(_ -> openAddExpenseDialog(groupId));
+        importButton.addActionListener(_ -> importStatement(groupId));
+        exportButton.addActionListener(_ -> ExpenseExporter.exportWithDialog(this, tasks,
+                ExpenseScope.group(groupId, pageNameLabel.getText())));
         editExpenseButton.addActionListener(_ -> {
             int selectedRow = expenseTable.getSelectedRow();
-            if (selectedRow != -1) {
-                int expenseId = (int) tableModel.getValueAt(selectedRow, 0);
-                String expenseName = (String) tableModel.getValueAt(selectedRow, 1);
-                String amount = (String) tableModel.getValueAt(selectedRow, 2);
-                String date = (String) tableModel.getValueAt(selectedRow, 3);
-                openEditExpenseDialog(expenseId, expenseName, amount, date);
+            Expense selected = selectedRow != -1 ? tableModel.getExpenseAt(expenseTable.convertRowIndexToModel(selectedRow)) : null;
+            if (selected != null && selected.getId() < 0 && !ExpenseJournal.isJournaled(selected.getId())) {
+                JOptionPane.showMessageDialog(this, "This expense is still being saved, please try again in a moment.", "Error", JOptionPane.ERROR_MESSAGE);
+            } else if (selected != null) {
+                openEditExpenseDialog(selected);
             } else {
                 JOptionPane.showMessageDialog(this, "Please select an expense to edit.", "Error", JOptionPane.ERROR_MESSAGE);
             }
         });
         removeExpenseButton.addActionListener(_ -> {
             int selectedRow = expenseTable.getSelectedRow();
-            if (selectedRow != -1) {
-                int expenseId = (int) tableModel.getValueAt(selectedRow, 0);
-                openRemoveExpenseDialog(expenseId);
+            Expense selected = selectedRow != -1 ? tableModel.getExpenseAt(expenseTable.convertRowIndexToModel(selectedRow)) : null;
+            if (selected != null && selected.getId() < 0 && !ExpenseJournal.isJournaled(selected.getId())) {
+                JOptionPane.showMessageDialog(this, "This expense is still being saved, please try again in a moment.", "Error", JOptionPane.ERROR_MESSAGE);
+            } else if (selected != null) {
+                openRemoveExpenseDialog(selected);
             } else {
                 JOptionPane.showMessageDialog(this, "Please select an expense to remove.", "Error", JOptionPane.ERROR_MESSAGE);
             }
         });
 
-        // Display frame
-        setVisible(true);
-    }
+        // Get the group name (read at login for the user's groups) and the expenses without blocking the UI
+        groupName = User.getGroupName(groupId);
+        if (groupName != null) {
+            pageNameLabel.setText(groupName);
+        } else {
+            tasks.query(() -> Repositories.groups().findGroupName(groupId), name -> {
+                if (name != null) {
+                    groupName = name;
+                    pageNameLabel.setText(name);
+                }
+            });
+        }
+        tableModel.reload();    // Row count and first page in the background, further pages as they scroll into view
+        loadMonthTotal();
+        loadSearchIndex();
 
+        // Follow the changes of the other members; the model replays them on the EDT
+        changeFeed = ExpenseChanges.subscribe(groupId, tableModel::getChangeSeq,
+                batch -> SwingUtilities.invokeLater(() -> applyChanges(batch)));
+        tableModel.setCatchUp(changeFeed::pollNow);
 
-    /**
-     * Custom renderer to color alternate rows in the table and apply color based on gain or loss.
-     */
-    private static class StripedTableCellRenderer extends DefaultTableCellRenderer {
-        @Override
-        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected, boolean hasFocus, int row, int column) {
-            Component c = super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
-
-            if (!isSelected) {
-                // Apply color for gain or loss in the "Amount" column
-                if (column == 2) { // Assuming column 2 is the "Amount" column
-                    double amount = Double.parseDouble(value.toString());
-                    if (amount >= 0) {
-                        c.setForeground(new Color(76, 250, 0));  // Gain
-                    } else {
-                        c.setForeground(new Color(255, 82, 82));  // Loss
-                    }
-                } else {
-                    c.setForeground(Color.BLACK);
-                }
-            } else {
-                c.setBackground(table.getSelectionBackground());
-                c.setForeground(table.getSelectionForeground());
+        // Save the search index, so that it does not have to be rebuilt next time
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                ExpenseSearchIndex.saveAll();   // Exiting the application
             }
 
-            return c;
-        }
+            @Override
+            public void windowClosed(WindowEvent e) {
+                changeFeed.close();
+                AsyncDatabase.background(ExpenseSearchIndex::saveAll);  // Navigating to another screen
+            }
+        });
+
+        // Display frame
+        setVisible(true);
     }
 
 
     /**
-     * Method to create the 'expenses' table within the database if it does not already exist.
+     * Applies changes read from the group's change feed to the table and refreshes the month totals.
+     *
+     * @param batch The changes.
      */
-    private static void createExpenseTableIfNotExists() {
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             Statement statement = connection.createStatement()) {
-
-            // Switch to the 'homex_db' database dynamically
-            statement.executeUpdate("USE homex_db");
-
-            // Create the expenses table if it does not exist
-            String createTableSQL = "CREATE TABLE IF NOT EXISTS expenses (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                    "groupID INT, " +
-                    "expenseName VARCHAR(255), " +
-                    "amount DECIMAL(10, 2), " +
-                    "date DATE, " +
-                    "username VARCHAR(255), " +  // New column to store who added the expense
-                    "FOREIGN KEY (groupID) REFERENCES groups(id))";
-            statement.executeUpdate(createTableSQL);
-
-        } catch (SQLException e) {
-            System.out.println("SQL Exception: " + e.getMessage());
+    private void applyChanges(ExpenseRepository.Batch batch) {
+        setTitle(title());      // The changes saved offline may just have been sent
+        if (isDisplayable() && applyToTable(batch)) {
+            loadMonthTotal();
         }
     }
 
 
     /**
-     * Loads the expenses for a specific group from the database and displays them in the expense table.
+     * Applies changes read from the change feed to the table, and to the caches that changes made by other
+     * processes would otherwise bypass.
      *
-     * @param groupId The ID of the group whose expenses should be loaded.
+     * @param batch The changes.
+     * @return True if the table changed.
      */
-    private void loadExpenses(int groupId) {
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            String sql = "SELECT id, expenseName, amount, date, username FROM expenses WHERE groupID = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, groupId);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            // Clear the existing rows in the table
-            tableModel.setRowCount(0);
-
-            // Add each expense to the table
-            while (resultSet.next()) {
-                int expenseId = resultSet.getInt("id");
-                String expenseName = resultSet.getString("expenseName");
-                String amount = resultSet.getString("amount");
-                String date = resultSet.getString("date");
-                String username = resultSet.getString("username"); // Fetch username
-                tableModel.addRow(new Object[]{expenseId, expenseName, amount, date, username});
-            }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
+    private boolean applyToTable(ExpenseRepository.Batch batch) {
+        WalletService.changesSeen(batch, User.getUsername());
+        ExpenseSearchIndex index = searchIndex;
+        if (index != null && !batch.isEmpty()) {
+            // Off the event thread: a sync may hold the index while it reads
+            tasks.query(() -> index.apply(batch), applied -> {
+                if (!applied) {
+                    loadSearchIndex();      // Too far behind: catch up from the feed, or rebuild
+                }
+            });
         }
+        return tableModel.applyChanges(batch);
     }
 
 
@@ -362,24 +473,21 @@ public class Group extends JFrame {
             String amountStr = amountField.getText();
             String date = dateField.getText();
 
-            // Validate that amount is a number
-            try {
-                Double.parseDouble(amountStr);
-            } catch (NumberFormatException e) {
-                JOptionPane.showMessageDialog(this, "Amount must be a valid number.", "Error", JOptionPane.ERROR_MESSAGE);
+            // Validate that amount is a number and date is a valid date
+            if (!isValidAmountAndDate(amountStr, date)) {
                 return;
             }
 
             // Determine if it is a gain or loss
+            long amount = Money.parse(amountStr);
             if (lossRadioButton.isSelected()) {
-                amountStr = "-" + amountStr;  // Prepend minus sign for loss
+                amount = -Math.abs(amount);  // Negative amount for loss
             }
 
             if (!expenseName.isEmpty() && !amountStr.isEmpty() && !date.isEmpty()) {
-                // Add the expense to the database with the username
-                addExpenseToDatabase(groupId, expenseName, amountStr, date, User.getUsername());
+                // Add the expense to the database with the username, then show it in the table
+                addExpenseToDatabase(groupId, expenseName, amount, date, User.getUsername());
                 addExpenseDialog.dispose();  // Close the dialog
-                loadExpenses(groupId);  // Refresh the displayed expenses
             } else {
                 JOptionPane.showMessageDialog(this, "Please fill in all fields.", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -393,34 +501,303 @@ public class Group extends JFrame {
 
 
     /**
-     * Adds a new expense to the database for a specific group.
+     * Checks that the amount is a number and the date is a valid YYYY-MM-DD date, reporting the problem otherwise.
+     *
+     * @param amount The amount entered by the user.
+     * @param date The date entered by the user.
+     * @return True if both values are valid.
+     */
+    private boolean isValidAmountAndDate(String amount, String date) {
+        try {
+            Money.parse(amount);
+        } catch (NumberFormatException e) {
+            JOptionPane.showMessageDialog(this, "Amount must be a valid number with at most 8 digits before the decimal point.", "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+
+        try {
+            java.sql.Date.valueOf(date);
+        } catch (IllegalArgumentException e) {
+            JOptionPane.showMessageDialog(this, "Date must be a valid date in the format YYYY-MM-DD.", "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Adds a new expense to the group through the expense repository (the write queue on MariaDB). The expense is shown
+     * at once under a provisional negative ID; once it is saved, the provisional row is replaced from the
+     * change feed and the new row is selected. If saving fails, the provisional row is taken away again,
+     * unless the database cannot be reached: then the expense is kept in the offline journal and stays.
      *
      * @param groupId The ID of the group to which the expense belongs.
      * @param expenseName The name of the expense.
-     * @param amount The amount of the expense (positive for gains, negative for losses).
+     * @param amount The amount of the expense in cents (positive for gains, negative for losses).
      * @param date The date of the expense.
      * @param username The username of the user who added the expense.
      */
-    private void addExpenseToDatabase(int groupId, String expenseName, String amount, String date, String username) {
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            String sql = "INSERT INTO expenses (groupID, expenseName, amount, date, username) VALUES (?, ?, ?, ?, ?)";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, groupId);
-            preparedStatement.setString(2, expenseName);
-            preparedStatement.setString(3, amount);
-            preparedStatement.setString(4, date);
-            preparedStatement.setString(5, username); // Store the username of the user adding the expense
-
-            int rowsAffected = preparedStatement.executeUpdate();
-            if (rowsAffected > 0) {
-                System.out.println("Expense added successfully.");
+    private void addExpenseToDatabase(int groupId, String expenseName, long amount, String date, String username) {
+        Expense provisional = new Expense(ExpenseJournal.nextProvisionalId(), groupId, expenseName, amount, date, username);
+        if (tableModel.getChangeSeq() >= 0) {
+            selectRow(tableModel.expenseInserted(provisional));
+        }
+        if (ExpenseJournal.isOffline()) {
+            journalAdd(provisional);
+            return;
+        }
+
+        saved(AsyncDatabase.query(() -> expenses.add(groupId, expenseName, amount, date, username)), () -> journalAdd(provisional), saved -> {
+            System.out.println("Expense added successfully.");
+            User.addGroup(groupId, groupName);  // Now one of the user's groups
+            withdraw(provisional);
+            applyToTable(saved.changes());
+            selectExpense(saved.result());
+            loadMonthTotal();
+        }).whenCompleteAsync((_, error) -> {
+            if (error != null) {
+                withdraw(provisional);
+            }
+        }, AsyncDatabase.EDT);
+    }
+
+
+    /**
+     * Takes a provisional row away from the table. If the table was reloaded meanwhile the row is already
+     * gone; if its page was dropped from the cache, the table is reloaded to get the row count right.
+     *
+     * @param provisional The expense shown before it was saved.
+     */
+    private void withdraw(Expense provisional) {
+        if (tableModel.rowOf(provisional) >= 0) {
+            tableModel.expenseDeleted(provisional);
+        } else if (tableModel.getChangeSeq() >= 0) {
+            tableModel.reload();
+        }
+    }
+
+
+    /**
+     * Waits for a queued change to be committed, then reads the changes of the group after the ones
+     * displayed (the saved one included) and hands both over on the EDT. If the database could not be
+     * reached, offline is called instead and no error is shown.
+     *
+     * @param queued The future of the change, saved through the expense repository.
+     * @param offline Called on the EDT if the database could not be reached; journals the change.
+     * @param onSaved Called on the EDT once the change is saved, unless the window was closed meanwhile.
+     * @return The future of the whole, which fails if saving failed (the error is already reported).
+     */
+    private <T> CompletableFuture<Saved<T>> saved(CompletableFuture<T> queued, Runnable offline, Consumer<Saved<T>> onSaved) {
+        long seen = tableModel.getChangeSeq();
+        CompletableFuture<Saved<T>> future = queued.handle((result, error) -> {
+            if (error == null) {
+                return AsyncDatabase.query(() -> new Saved<>(result, expenses.since(groupId, seen)));
+            }
+            return ExpenseJournal.isUnreachable(error) ? CompletableFuture.<Saved<T>>completedFuture(null) : CompletableFuture.<Saved<T>>failedFuture(error);
+        }).thenCompose(next -> next);
+        return tasks.track(future, saved -> {
+            if (saved == null) {
+                offline.run();
             } else {
-                System.out.println("Failed to add expense.");
+                onSaved.accept(saved);
+            }
+        });
+    }
+
+
+    /**
+     * Keeps an added expense, already shown under its provisional ID, in the offline journal.
+     */
+    private void journalAdd(Expense provisional) {
+        if (!journal(() -> ExpenseJournal.add(provisional))) {
+            withdraw(provisional);
+        }
+    }
+
+
+    /**
+     * Keeps an edit in the offline journal and shows it, with the version it will have once replayed.
+     */
+    private void journalUpdate(Expense expense, String newName, long newAmount, String newDate) {
+        Expense edited = new Expense(expense.getId(), groupId, newName, newAmount, newDate, expense.getUsername(), expense.getVersion() + 1);
+        if (journal(() -> ExpenseJournal.update(expense, edited))) {
+            selectRow(tableModel.expenseUpdated(expense, edited));
+        }
+    }
+
+
+    /**
+     * Keeps a removal in the offline journal and takes the row away.
+     */
+    private void journalRemove(Expense expense) {
+        if (journal(() -> ExpenseJournal.remove(expense))) {
+            tableModel.expenseDeleted(expense);
+        }
+    }
+
+
+    /**
+     * Writes a change to the offline journal, reporting a failure.
+     *
+     * @return True if the change was journaled.
+     */
+    private boolean journal(JournalWrite write) {
+        try {
+            write.run();
+        } catch (IOException e) {
+            JOptionPane.showMessageDialog(this, "The database cannot be reached and the change could not be kept offline: " + e.getMessage(),
+                    "Error", JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+        System.out.println("Database unreachable, change kept in the offline journal.");
+        setTitle(title());
+        return true;
+    }
+
+
+    /**
+     * Returns the window title, which says so while changes saved offline wait for the database.
+     */
+    private static String title() {
+        return ExpenseJournal.isOffline() ? "Group Details (offline: changes are kept on this computer)" : "Group Details";
+    }
+
+
+    /**
+     * Loads the group's search index from disk and brings it up to date in the background,
+     * then enables the search box.
+     */
+    private void loadSearchIndex() {
+        tasks.query(() -> {
+            ExpenseSearchIndex index = ExpenseSearchIndex.forGroup(groupId);
+            index.sync(expenses);
+            return index;
+        }, index -> {
+            searchIndex = index;
+            searchField.setEnabled(true);
+        });
+    }
+
+
+    /**
+     * Searches the expense names for the text of the search box in the background and lists the hits.
+     */
+    private void search() {
+        String query = searchField.getText();
+        if (query.isBlank() || searchIndex == null) {
+            searchResults.clear();
+            searchResultPane.setVisible(false);
+            centerPanel.revalidate();
+            return;
+        }
+
+        ExpenseSearchIndex index = searchIndex;
+        tasks.track(CompletableFuture.supplyAsync(() -> index.search(query, SEARCH_LIMIT)), hits -> {
+            if (!query.equals(searchField.getText())) {
+                return;     // The user typed meanwhile, another search is coming
+            }
+            searchResults.clear();
+            searchResults.addAll(hits);
+            searchResultPane.setVisible(true);
+            centerPanel.revalidate();
+        });
+    }
+
+
+    /**
+     * Selects the row of a search hit in the expense table, loading its page if needed.
+     */
+    private void showSearchHit(ExpenseSearchIndex.Hit hit) {
+        selectExpense(new Expense(hit.expenseId(), groupId, null, 0, hit.date(), null));
+    }
+
+
+    /**
+     * Selects the row of an expense in the expense table. If its page is not cached, its position is
+     * looked up in the repository and the table scrolls there, which loads the page.
+     *
+     * @param expense The expense, or at least its ID and date.
+     */
+    private void selectExpense(Expense expense) {
+        int row = tableModel.rowOf(expense);
+        if (row >= 0) {
+            selectRow(row);
+            return;
+        }
+        tasks.query(() -> expenses.positionOf(groupId, expense.getDate(), expense.getId()), position -> {
+            if (position < tableModel.getRowCount()) {
+                selectRow(position);
             }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Database error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+        });
+    }
+
+
+    /**
+     * Shows the gains and losses of the current month, read from the group's monthly rollup (one row on MariaDB).
+     */
+    private void loadMonthTotal() {
+        LocalDate today = LocalDate.now();
+        tasks.query(() -> expenses.monthly(groupId, today, today), totals -> {
+            long gains = totals.isEmpty() ? 0 : totals.get(0).gainsCents();
+            long losses = totals.isEmpty() ? 0 : totals.get(0).lossesCents();
+            monthTotalLabel.setText("This month: +$" + Money.format(gains) + " / -$" + Money.format(Math.abs(losses)));
+        });
+    }
+
+
+    /**
+     * Selects a row of the expense table and scrolls it into view, unless it is filtered out.
+     *
+     * @param row The row index in the model.
+     */
+    private void selectRow(int row) {
+        if (row < 0 || row >= tableModel.getRowCount()) {
+            return;
         }
+        int viewRow = expenseTable.convertRowIndexToView(row);
+        if (viewRow < 0) {
+            return;
+        }
+        expenseTable.getSelectionModel().setSelectionInterval(viewRow, viewRow);
+        expenseTable.scrollRectToVisible(expenseTable.getCellRect(viewRow, 0, true));
+    }
+
+
+    /**
+     * Reads the filter fields and filters the table. The first filter loads every row of the group.
+     */
+    private void applyFilter() {
+        int fromDate;
+        int toDate;
+        try {
+            fromDate = fromField.getText().isBlank() ? 0 : ExpenseRowSorter.parseDate(LocalDate.parse(fromField.getText().trim()).toString());
+            toDate = toField.getText().isBlank() ? Integer.MAX_VALUE : ExpenseRowSorter.parseDate(LocalDate.parse(toField.getText().trim()).toString());
+        } catch (DateTimeParseException e) {
+            JOptionPane.showMessageDialog(this, "Dates must be valid dates in the format YYYY-MM-DD.", "Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        Object member = memberComboBox.getSelectedItem();
+        String memberName = member == null || member.toString().isBlank() || member.equals(ALL_MEMBERS) ? null : member.toString().trim();
+        rowSorter.setFilter(new ExpenseRowSorter.Filter(fromDate, toDate, memberName, (ExpenseRowSorter.Type) typeComboBox.getSelectedItem()));
+    }
+
+
+    /**
+     * Lists the members of the group in the member filter once the sorter knows them.
+     */
+    private void updateMemberChoices() {
+        java.util.List<String> members = rowSorter.getMembers();
+        if (members.size() == memberComboBox.getItemCount() - 1) {
+            return;     // Unchanged
+        }
+        Object selected = memberComboBox.getSelectedItem();
+        memberComboBox.removeAllItems();
+        memberComboBox.addItem(ALL_MEMBERS);
+        for (String member : members) {
+            memberComboBox.addItem(member);
+        }
+        memberComboBox.setSelectedItem(selected);
     }
 
 
@@ -428,12 +805,13 @@ public class Group extends JFrame {
      * Opens a dialog to edit an existing expense for the group.
      * The dialog allows the user to modify the expense name, amount (gain or loss), and date.
      *
-     * @param expenseId The ID of the expense to be edited.
-     * @param currentName The current name of the expense.
-     * @param currentAmount The current amount of the expense.
-     * @param currentDate The current date of the expense.
+     * @param expense The expense to be edited, as currently displayed.
      */
-    private void openEditExpenseDialog(int expenseId, String currentName, String currentAmount, String currentDate) {
+    private void openEditExpenseDialog(Expense expense) {
+        String currentName = expense.getExpenseName();
+        String currentAmount = expense.getAmount();
+        String currentDate = expense.getDate();
+
         JDialog editExpenseDialog = new JDialog(this, "Edit Expense", true);
         editExpenseDialog.setLayout(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
@@ -466,7 +844,7 @@ public class Group extends JFrame {
         gbc.gridx = 1;
         JRadioButton gainRadioButton = new JRadioButton("Gain");
         JRadioButton lossRadioButton = new JRadioButton("Loss");
-        if (Double.parseDouble(currentAmount) < 0) {
+        if (expense.getAmountCents() < 0) {
             lossRadioButton.setSelected(true);
         } else {
             gainRadioButton.setSelected(true);
@@ -503,14 +881,16 @@ public class Group extends JFrame {
             String newDate = dateField.getText();
 
             if (!newName.isEmpty() && !newAmount.isEmpty() && !newDate.isEmpty()) {
-                if (lossRadioButton.isSelected() && !newAmount.startsWith("-")) {
-                    newAmount = "-" + newAmount;
-                } else if (gainRadioButton.isSelected() && newAmount.startsWith("-")) {
-                    newAmount = newAmount.substring(1);
+                if (!isValidAmountAndDate(newAmount, newDate)) {
+                    return;
                 }
-                updateExpenseInDatabase(expenseId, newName, newAmount, newDate);
+                // The selected option decides the sign
+                long amount = Math.abs(Money.parse(newAmount));
+                if (lossRadioButton.isSelected()) {
+                    amount = -amount;
+                }
+                updateExpenseInDatabase(expense, newName, amount, newDate);  // Patches the table row when done
                 editExpenseDialog.dispose();
-                loadExpenses(groupId);  // Refresh displayed expenses
             } else {
                 JOptionPane.showMessageDialog(this, "Please fill in all fields.", "Error", JOptionPane.ERROR_MESSAGE);
             }
@@ -523,25 +903,106 @@ public class Group extends JFrame {
 
 
     /**
-     * Updates an existing expense in the database with new values.
+     * Updates an existing expense with new values through the expense repository,
+     * then brings the expense table up to date from the change feed. The edit only applies if nobody
+     * changed the expense since it was displayed; otherwise the user picks between the two versions.
+     * While the database cannot be reached, the edit goes to the offline journal instead.
      *
-     * @param expenseId The ID of the expense to be updated.
+     * @param expense The expense to be updated, as currently displayed.
      * @param newName The new name of the expense.
-     * @param newAmount The new amount of the expense (positive for gains, negative for losses).
+     * @param newAmount The new amount of the expense in cents (positive for gains, negative for losses).
      * @param newDate The new date of the expense.
      */
-    private void updateExpenseInDatabase(int expenseId, String newName, String newAmount, String newDate) {
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            String sql = "UPDATE expenses SET expenseName = ?, amount = ?, date = ? WHERE id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, newName);
-            preparedStatement.setString(2, newAmount);
-            preparedStatement.setString(3, newDate);
-            preparedStatement.setInt(4, expenseId);
-            preparedStatement.executeUpdate();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
+    private void updateExpenseInDatabase(Expense expense, String newName, long newAmount, String newDate) {
+        if (ExpenseJournal.isOffline()) {
+            journalUpdate(expense, newName, newAmount, newDate);
+            return;
         }
+        saved(AsyncDatabase.query(() -> expenses.update(expense, newName, newAmount, newDate)), () -> journalUpdate(expense, newName, newAmount, newDate), saved -> {
+            applyToTable(saved.changes());   // Also shows what another member changed meanwhile
+            ExpenseRepository.Outcome outcome = saved.result();
+            if (outcome.written()) {
+                selectExpense(outcome.current());
+                loadMonthTotal();
+            } else if (outcome.conflict()) {
+                resolveEditConflict(expense, newName, newAmount, newDate, outcome.current());
+            } else {
+                JOptionPane.showMessageDialog(this, "This expense no longer exists.", "Error", JOptionPane.ERROR_MESSAGE);
+            }
+        });
+    }
+
+
+    /**
+     * Shows an edit that was not saved because another member changed the expense first, next to their
+     * version, and lets the user keep their own edit (saved over the other version), keep the other
+     * version, or edit the other version again.
+     *
+     * @param original The expense as it was displayed when the user edited it.
+     * @param newName The name entered by the user.
+     * @param newAmount The amount entered by the user, in cents.
+     * @param newDate The date entered by the user.
+     * @param current The version saved by the other member.
+     */
+    private void resolveEditConflict(Expense original, String newName, long newAmount, String newDate, Expense current) {
+        JPanel values = new JPanel(new GridLayout(4, 4, 15, 5));
+        for (String heading : new String[]{"", "Before", "Your edit", "Saved meanwhile"}) {
+            values.add(new JLabel("<html><b>" + heading + "</b></html>"));
+        }
+        String[][] rows = {
+                {"Name", original.getExpenseName(), newName, current.getExpenseName()},
+                {"Amount", Money.format(original.getAmountCents()), Money.format(newAmount), Money.format(current.getAmountCents())},
+                {"Date", original.getDate(), newDate, current.getDate()}
+        };
+        for (String[] row : rows) {
+            for (int column = 0; column < row.length; column++) {
+                JLabel label = new JLabel(row[column]);
+                if (column == 3 && !row[3].equals(row[1])) {
+                    label.setForeground(Color.RED);     // Changed by the other member
+                }
+                values.add(label);
+            }
+        }
+
+        JPanel message = new JPanel(new BorderLayout(10, 10));
+        message.add(new JLabel("Another member changed this expense while you were editing it."), BorderLayout.NORTH);
+        message.add(values, BorderLayout.CENTER);
+
+        String[] options = {"Keep my edit", "Keep theirs", "Edit again"};
+        int choice = JOptionPane.showOptionDialog(this, message, "Edit Conflict", JOptionPane.DEFAULT_OPTION,
+                JOptionPane.WARNING_MESSAGE, null, options, options[1]);
+        switch (choice) {
+            case 0 -> updateExpenseInDatabase(current, newName, newAmount, newDate);   // Against their version now
+            case 2 -> openEditExpenseDialog(current);
+            default -> selectExpense(current);
+        }
+    }
+
+
+    /**
+     * Tells the user which changes made offline could not be saved, e.g. because another member changed the
+     * same expense meanwhile, so that they do not just vanish from the table. Called from the replay thread
+     * of ExpenseJournal (see Main).
+     *
+     * @param dropped The changes that were dropped.
+     */
+    static void showDroppedChanges(java.util.List<ExpenseJournal.Dropped> dropped) {
+        StringBuilder message = new StringBuilder("These changes made while the database could not be reached were not saved:\n\n");
+        int shown = Math.min(dropped.size(), MAX_DROPPED_SHOWN);
+        for (ExpenseJournal.Dropped change : dropped.subList(0, shown)) {
+            message.append("- ").append(change.entry()).append(": ").append(change.reason());
+            Expense current = change.current();
+            if (current != null) {
+                message.append(", it is now ").append(current.getExpenseName()).append(" (")
+                        .append(Money.format(current.getAmountCents())).append(" on ").append(current.getDate()).append(")");
+            }
+            message.append("\n");
+        }
+        if (dropped.size() > shown) {
+            message.append("... and ").append(dropped.size() - shown).append(" more, listed in the console.\n");
+        }
+        SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(null, message.toString(),
+                "Offline Changes Not Saved", JOptionPane.WARNING_MESSAGE));
     }
 
 
@@ -549,9 +1010,9 @@ public class Group extends JFrame {
      * Opens a confirmation dialog to allow the user to remove an expense from the group.
      * If the user confirms, the expense is removed from the database.
      *
-     * @param expenseId The ID of the expense to be removed.
+     * @param expense The expense to be removed.
      */
-    private void openRemoveExpenseDialog(int expenseId) {
+    private void openRemoveExpenseDialog(Expense expense) {
         int response = JOptionPane.showConfirmDialog(
                 this,
                 "Are you sure you want to remove this expense?",
@@ -559,49 +1020,112 @@ public class Group extends JFrame {
                 JOptionPane.YES_NO_OPTION
         );
         if (response == JOptionPane.YES_OPTION) {
-            removeExpenseFromDatabase(expenseId);
-            loadExpenses(groupId);  // Refresh the displayed expenses
+            removeExpenseFromDatabase(expense);  // Removes the table row when done
         }
     }
 
 
     /**
-     * Removes an expense from the database based on the expense ID.
+     * Removes an expense through the expense repository, then brings the expense table up to date
+     * from the change feed. If another member changed the expense since it was displayed, nothing is
+     * removed until the user confirms again with their version in view. While the database cannot be
+     * reached, the removal goes to the offline journal instead.
      *
-     * @param expenseId The ID of the expense to be removed.
+     * @param expense The expense to be removed.
      */
-    private void removeExpenseFromDatabase(int expenseId) {
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            String sql = "DELETE FROM expenses WHERE id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, expenseId);
-            preparedStatement.executeUpdate();
-        } catch (SQLException ex) {
-            ex.printStackTrace();
+    private void removeExpenseFromDatabase(Expense expense) {
+        if (ExpenseJournal.isOffline()) {
+            journalRemove(expense);
+            return;
         }
+        saved(AsyncDatabase.query(() -> expenses.remove(expense)), () -> journalRemove(expense), saved -> {
+            applyToTable(saved.changes());
+            loadMonthTotal();
+            Expense current = saved.result().current();
+            if (saved.result().conflict()) {
+                selectExpense(current);
+                int response = JOptionPane.showConfirmDialog(this,
+                        "Another member changed this expense meanwhile. It is now:\n" + current.getExpenseName() + ", "
+                                + Money.format(current.getAmountCents()) + " on " + current.getDate() + "\n\nRemove it anyway?",
+                        "Edit Conflict", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+                if (response == JOptionPane.YES_OPTION) {
+                    removeExpenseFromDatabase(current);
+                }
+            }
+        });
     }
 
 
     /**
-     * Retrieves the name of a group from the database based on the group ID.
+     * Lets the user pick a CSV bank statement and imports all its lines into the group in the background,
+     * showing the progress and speed. The table is reloaded once, when the import is over.
      *
-     * @param groupID The ID of the group.
-     * @return The name of the group, or null if the group is not found.
+     * @param groupId The ID of the group receiving the expenses.
      */
-    private String getGroupNameById(int groupID) {
-        String groupName = null;
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            String sql = "SELECT groupname FROM groups WHERE id = ?";
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setInt(1, groupID);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
-                groupName = resultSet.getString("groupname");
-            }
-        } catch (SQLException e) {
-            e.printStackTrace();
+    private void importStatement(int groupId) {
+        JFileChooser fileChooser = new JFileChooser();
+        fileChooser.setDialogTitle("Import Bank Statement");
+        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("CSV Files", "csv", "txt"));
+        if (fileChooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
-        return groupName;
+        File file = fileChooser.getSelectedFile();
+        String username = User.getUsername();
+
+        // Progress dialog
+        JDialog progressDialog = new JDialog(this, "Importing " + file.getName(), false);
+        progressDialog.setLayout(new BorderLayout(10, 10));
+        JProgressBar progressBar = new JProgressBar(0, 1000);
+        progressBar.setStringPainted(true);
+        JLabel speedLabel = new JLabel("Reading file...");
+        JButton cancelButton = new JButton("Cancel");
+        JPanel progressPanel = new JPanel(new GridLayout(3, 1, 10, 10));
+        progressPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10)); // Padding
+        progressPanel.add(progressBar);
+        progressPanel.add(speedLabel);
+        progressPanel.add(cancelButton);
+        progressDialog.add(progressPanel, BorderLayout.CENTER);
+        progressDialog.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+        progressDialog.pack();
+        progressDialog.setSize(Math.max(350, progressDialog.getWidth()), progressDialog.getHeight());
+        progressDialog.setLocationRelativeTo(this);
+
+        ExpenseImporter.Progress progress = (rows, fraction, rowsPerSecond) -> SwingUtilities.invokeLater(() -> {
+            progressBar.setValue((int) (fraction * 1000));
+            speedLabel.setText(String.format("%,d rows imported (%,.0f rows/s)", rows, rowsPerSecond));
+        });
+        CompletableFuture<ExpenseImporter.Result> importTask = AsyncDatabase.submit(connection -> {
+            try {
+                return ExpenseImporter.importCsv(connection, groupId, username, file.toPath(), progress);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+
+        importButton.setEnabled(false);
+        cancelButton.addActionListener(_ -> importTask.cancel(true));
+        tasks.track(importTask, result -> {
+            StringBuilder message = new StringBuilder(String.format("Imported %,d expenses in %.1f s (%,.0f rows/s).",
+                    result.imported(), result.elapsedNanos() / 1e9, result.rowsPerSecond()));
+            if (result.rejected() > 0) {
+                message.append(String.format("%n%,d lines were skipped:", result.rejected()));
+                for (String error : result.errors()) {
+                    message.append(System.lineSeparator()).append(error);
+                }
+            }
+            JOptionPane.showMessageDialog(this, message.toString(), "Import Finished",
+                    result.rejected() > 0 ? JOptionPane.WARNING_MESSAGE : JOptionPane.INFORMATION_MESSAGE);
+        });
+        importTask.whenCompleteAsync((_, _) -> {
+            // Whatever the outcome, the committed chunks are in the database: show them all at once
+            progressDialog.dispose();
+            importButton.setEnabled(true);
+            WalletService.invalidate(username);
+            tableModel.reload();
+            loadMonthTotal();
+            loadSearchIndex();  // Indexes the imported expenses
+        }, AsyncDatabase.EDT);
+
+        progressDialog.setVisible(true);
     }
-}
+}
\ No newline at end of file
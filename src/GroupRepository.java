@@ -0,0 +1,35 @@
+/**
+ * The GroupRepository interface stores the expense groups. It is implemented on MariaDB (MariaDbRepository)
+ * and on the embedded storage (EmbeddedStore); Repositories.groups() returns the one in use.
+ *
+ * The methods may block and report errors as StorageException, so they run off the event dispatch thread.
+ */
+public interface GroupRepository {
+
+    /**
+     * Returns the name of a group.
+     *
+     * @param groupId The ID of the group.
+     * @return The name, or null if the group does not exist.
+     */
+    String findGroupName(int groupId) throws StorageException;
+
+
+    /**
+     * Returns the password members give to join a group, to be checked with PasswordHasher.verify.
+     *
+     * @param groupId The ID of the group.
+     * @return The password hash (or plain text stored by an older version), or null if the group does not exist or has no password.
+     */
+    String findGroupPassword(int groupId) throws StorageException;
+
+
+    /**
+     * Creates a group.
+     *
+     * @param groupName The name of the group.
+     * @param passwordHash The password members give to join it, hashed with PasswordHasher.hash, or null.
+     * @return The ID of the new group.
+     */
+    int createGroup(String groupName, String passwordHash) throws StorageException;
+}
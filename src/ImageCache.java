@@ -0,0 +1,279 @@
+/**
+ * Libraries
+ */
+import javax.imageio.ImageIO;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.lang.ref.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * The ImageCache class is the application-wide cache of decoded and scaled images (avatars, logo).
+ * Images are keyed by (path, width, height) and stored already scaled, in the pixel format of the screen,
+ * so drawing them is a plain copy and navigating between screens never decodes or rescales the same image twice.
+ *
+ * Recently used images are held strongly up to MAX_CACHE_BYTES; images pushed out of that budget are kept
+ * behind soft references and come back for free unless the garbage collector needed the memory.
+ *
+ * All methods are thread-safe.
+ */
+public class ImageCache {
+
+    // Application logo, used as the frame icon of every screen
+    public static final String LOGO_PATH = "data/image/Logo.png";
+
+    private static final long MAX_CACHE_BYTES = 16L * 1024 * 1024;
+    private static final int ORIGINAL_SIZE = -1;    // Width/height used to cache an image at its own size
+
+    private static final LinkedHashMap<Key, BufferedImage> strong = new LinkedHashMap<>(64, 0.75f, true);
+    private static final Map<Key, SoftReference<BufferedImage>> soft = new HashMap<>();
+    private static long strongBytes = 0;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong softHits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+
+    /**
+     * Cache key: the image file and the size it is displayed at.
+     */
+    private record Key(String path, int width, int height) {}
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ImageCache() {
+    }
+
+
+    /**
+     * Returns an icon of the image scaled to the given size.
+     *
+     * @param path The path of the image file.
+     * @param width The display width.
+     * @param height The display height.
+     * @return The icon, or null if the path is null or the file cannot be read.
+     */
+    public static ImageIcon getIcon(String path, int width, int height) {
+        BufferedImage image = getImage(path, width, height);
+        return image != null ? new ImageIcon(image) : null;
+    }
+
+
+    /**
+     * Returns the application logo at its own size, for use as a frame icon.
+     */
+    public static Image getAppLogo() {
+        return getImage(LOGO_PATH, ORIGINAL_SIZE, ORIGINAL_SIZE);
+    }
+
+
+    /**
+     * Returns the image scaled to the given size, decoding and scaling it only on the first request.
+     *
+     * @param path The path of the image file.
+     * @param width The display width, or -1 for the image's own size.
+     * @param height The display height, or -1 for the image's own size.
+     * @return The scaled image, or null if the path is null or the file cannot be read.
+     */
+    public static BufferedImage getImage(String path, int width, int height) {
+        if (path == null) {
+            return null;
+        }
+
+        Key key = new Key(path, width, height);
+        BufferedImage image = lookup(key);
+        if (image != null) {
+            return image;
+        }
+
+        // Decode outside the lock so that other screens are not blocked meanwhile
+        misses.incrementAndGet();
+        image = load(path, width, height);
+        if (image != null) {
+            store(key, image);
+        }
+        return image;
+    }
+
+
+    /**
+     * Puts an already scaled image in the cache, e.g. one produced by a background thumbnail task.
+     *
+     * @param path The path of the image file.
+     * @param image The image, already at its display size.
+     */
+    public static void put(String path, BufferedImage image) {
+        store(new Key(path, image.getWidth(), image.getHeight()), image);
+    }
+
+
+    /**
+     * Returns the image at the given size if it is cached, without loading it.
+     *
+     * @return The cached image, or null on a miss.
+     */
+    public static BufferedImage getCached(String path, int width, int height) {
+        return path != null ? lookup(new Key(path, width, height)) : null;
+    }
+
+
+    /**
+     * Returns the hit and miss counters, for diagnostics.
+     */
+    public static String stats() {
+        synchronized (ImageCache.class) {
+            return "ImageCache: " + hits.get() + " hits, " + softHits.get() + " soft hits, " + misses.get() + " misses, "
+                    + strong.size() + " images (" + strongBytes / 1024 + " KB) held, " + soft.size() + " soft";
+        }
+    }
+
+
+    /**
+     * Finds a cached image, counting the hit.
+     */
+    private static synchronized BufferedImage lookup(Key key) {
+        BufferedImage image = strong.get(key);
+        if (image != null) {
+            hits.incrementAndGet();
+            return image;
+        }
+
+        SoftReference<BufferedImage> reference = soft.get(key);
+        if (reference != null) {
+            image = reference.get();
+            if (image == null) {
+                soft.remove(key);   // Collected
+            } else {
+                softHits.incrementAndGet();
+                soft.remove(key);
+                putStrong(key, image);  // Used again: promote it
+            }
+        }
+        return image;
+    }
+
+
+    /**
+     * Adds an image to the strongly held part of the cache.
+     */
+    private static synchronized void store(Key key, BufferedImage image) {
+        soft.remove(key);
+        putStrong(key, image);
+    }
+
+
+    /**
+     * Adds an image to the LRU and moves the least recently used images behind soft references
+     * while the byte budget is exceeded.
+     */
+    private static void putStrong(Key key, BufferedImage image) {
+        BufferedImage previous = strong.put(key, image);
+        if (previous != null) {
+            strongBytes -= sizeOf(previous);
+        }
+        strongBytes += sizeOf(image);
+
+        Iterator<Map.Entry<Key, BufferedImage>> eldest = strong.entrySet().iterator();
+        while (strongBytes > MAX_CACHE_BYTES && strong.size() > 1 && eldest.hasNext()) {
+            Map.Entry<Key, BufferedImage> entry = eldest.next();
+            eldest.remove();
+            strongBytes -= sizeOf(entry.getValue());
+            soft.put(entry.getKey(), new SoftReference<>(entry.getValue()));
+        }
+        soft.values().removeIf(reference -> reference.get() == null);
+    }
+
+
+    /**
+     * Approximate memory used by an image (4 bytes per pixel).
+     */
+    private static long sizeOf(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+
+
+    /**
+     * Decodes an image file and scales it to the given size in the screen's pixel format.
+     */
+    private static BufferedImage load(String path, int width, int height) {
+        // Avatar thumbnails may already be on disk, which is much cheaper than decoding the original
+        if (width == height) {
+            BufferedImage thumbnail = ThumbnailService.readCached(path, width);
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+
+        BufferedImage source;
+        try {
+            source = ImageIO.read(new File(path));
+        } catch (IOException e) {
+            System.out.println("Cannot read image " + path + ": " + e.getMessage());
+            return null;
+        }
+        if (source == null) {
+            return null;    // Not a supported image format
+        }
+
+        if (width == ORIGINAL_SIZE || height == ORIGINAL_SIZE) {
+            width = source.getWidth();
+            height = source.getHeight();
+        }
+        return scale(source, width, height);
+    }
+
+
+    /**
+     * Scales an image to the given size with good quality, into an image compatible with the display.
+     * Large reductions are done in halving steps, which keeps bilinear filtering smooth
+     * (comparable to Image.SCALE_SMOOTH, at a fraction of the cost).
+     *
+     * @param source The image to scale.
+     * @param width The target width.
+     * @param height The target height.
+     * @return The scaled image.
+     */
+    public static BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage current = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            if (currentWidth < width || currentHeight < height || current == source && currentWidth == width && currentHeight == height) {
+                currentWidth = width;
+                currentHeight = height;
+            }
+
+            BufferedImage step = createCompatibleImage(currentWidth, currentHeight);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            graphics.dispose();
+            current = step;
+        } while (currentWidth != width || currentHeight != height);
+
+        return current;
+    }
+
+
+    /**
+     * Creates a translucent image in the pixel format of the default screen, so that painting it needs no conversion.
+     */
+    private static BufferedImage createCompatibleImage(int width, int height) {
+        if (!GraphicsEnvironment.isHeadless()) {
+            GraphicsConfiguration configuration = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                    .getDefaultScreenDevice().getDefaultConfiguration();
+            return configuration.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+}
@@ -0,0 +1,327 @@
+/**
+ * Libraries
+ */
+import java.math.BigDecimal;
+import java.util.*;
+
+
+/**
+ * The Json class reads and writes the JSON documents of the HTTP API (ApiServer), without a library.
+ *
+ * Values map to Java as follows: objects to Map (keys in document order), arrays to List, strings to String,
+ * integers to Long, other numbers to BigDecimal (so that amounts keep their exact digits), true/false to
+ * Boolean and null to null. Writing accepts the same types, plus any other Number and Iterable.
+ */
+public class Json {
+
+    private final String text;
+    private int position;
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private Json(String text) {
+        this.text = text;
+    }
+
+
+    /**
+     * Parses a JSON document.
+     *
+     * @param text The document.
+     * @return The value it holds.
+     * @throws IllegalArgumentException If the document is not valid JSON.
+     */
+    public static Object parse(String text) {
+        Json parser = new Json(text);
+        Object value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position < text.length()) {
+            throw parser.error("Unexpected text after the value");
+        }
+        return value;
+    }
+
+
+    /**
+     * Writes a value as a compact JSON document.
+     *
+     * @param value The value.
+     * @return The document.
+     */
+    public static String write(Object value) {
+        StringBuilder builder = new StringBuilder(128);
+        append(builder, value);
+        return builder.toString();
+    }
+
+
+    /**
+     * Appends a value as JSON.
+     *
+     * @param builder The output.
+     * @param value The value.
+     * @return The builder.
+     */
+    public static StringBuilder append(StringBuilder builder, Object value) {
+        switch (value) {
+            case null -> builder.append("null");
+            case String string -> appendString(builder, string);
+            case Boolean bool -> builder.append(bool.booleanValue());
+            case Double number when number.isNaN() || number.isInfinite() -> builder.append("null");
+            case Float number when number.isNaN() || number.isInfinite() -> builder.append("null");
+            case BigDecimal number -> builder.append(number.toPlainString());
+            case Number number -> builder.append(number);
+            case Map<?, ?> map -> {
+                builder.append('{');
+                boolean first = true;
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    if (!first) {
+                        builder.append(',');
+                    }
+                    first = false;
+                    appendString(builder, String.valueOf(entry.getKey()));
+                    builder.append(':');
+                    append(builder, entry.getValue());
+                }
+                builder.append('}');
+            }
+            case Iterable<?> iterable -> {
+                builder.append('[');
+                boolean first = true;
+                for (Object item : iterable) {
+                    if (!first) {
+                        builder.append(',');
+                    }
+                    first = false;
+                    append(builder, item);
+                }
+                builder.append(']');
+            }
+            default -> appendString(builder, value.toString());
+        }
+        return builder;
+    }
+
+
+    /**
+     * Appends a quoted, escaped string.
+     */
+    private static void appendString(StringBuilder builder, String string) {
+        builder.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            switch (c) {
+                case '"' -> builder.append("\\\"");
+                case '\\' -> builder.append("\\\\");
+                case '\n' -> builder.append("\\n");
+                case '\r' -> builder.append("\\r");
+                case '\t' -> builder.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        builder.append(c);
+                    }
+                }
+            }
+        }
+        builder.append('"');
+    }
+
+
+    // Parser
+
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= text.length()) {
+            throw error("Unexpected end of document");
+        }
+        char c = text.charAt(position);
+        return switch (c) {
+            case '{' -> readObject();
+            case '[' -> readArray();
+            case '"' -> readString();
+            case 't' -> readLiteral("true", Boolean.TRUE);
+            case 'f' -> readLiteral("false", Boolean.FALSE);
+            case 'n' -> readLiteral("null", null);
+            default -> {
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    yield readNumber();
+                }
+                throw error("Unexpected character '" + c + "'");
+            }
+        };
+    }
+
+
+    private Map<String, Object> readObject() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        position++;     // {
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return map;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a property name");
+            }
+            String key = readString();
+            skipWhitespace();
+            expect(':');
+            map.put(key, readValue());
+            skipWhitespace();
+            char c = next();
+            if (c == '}') {
+                return map;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or '}'");
+            }
+        }
+    }
+
+
+    private List<Object> readArray() {
+        List<Object> list = new ArrayList<>();
+        position++;     // [
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return list;
+        }
+        while (true) {
+            list.add(readValue());
+            skipWhitespace();
+            char c = next();
+            if (c == ']') {
+                return list;
+            }
+            if (c != ',') {
+                throw error("Expected ',' or ']'");
+            }
+        }
+    }
+
+
+    private String readString() {
+        position++;     // Opening quote
+        StringBuilder builder = null;
+        int start = position;
+        while (true) {
+            if (position >= text.length()) {
+                throw error("Unterminated string");
+            }
+            char c = text.charAt(position++);
+            if (c == '"') {
+                return builder == null ? text.substring(start, position - 1) : builder.toString();
+            }
+            if (c == '\\') {
+                if (builder == null) {
+                    builder = new StringBuilder(text.substring(start, position - 1));
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case '"', '\\', '/' -> builder.append(escaped);
+                    case 'b' -> builder.append('\b');
+                    case 'f' -> builder.append('\f');
+                    case 'n' -> builder.append('\n');
+                    case 'r' -> builder.append('\r');
+                    case 't' -> builder.append('\t');
+                    case 'u' -> {
+                        if (position + 4 > text.length()) {
+                            throw error("Invalid unicode escape");
+                        }
+                        try {
+                            builder.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Invalid unicode escape");
+                        }
+                        position += 4;
+                    }
+                    default -> throw error("Invalid escape '\\" + escaped + "'");
+                }
+            } else if (c < 0x20) {
+                throw error("Control character in string");
+            } else if (builder != null) {
+                builder.append(c);
+            }
+        }
+    }
+
+
+    private Object readNumber() {
+        int start = position;
+        boolean integral = true;
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c == '.' || c == 'e' || c == 'E') {
+                integral = false;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            position++;
+        }
+        String number = text.substring(start, position);
+        try {
+            if (integral) {
+                try {
+                    return Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    // Too large for a long
+                }
+            }
+            return new BigDecimal(number);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number '" + number + "'");
+        }
+    }
+
+
+    private Object readLiteral(String literal, Object value) {
+        if (!text.startsWith(literal, position)) {
+            throw error("Unexpected value");
+        }
+        position += literal.length();
+        return value;
+    }
+
+
+    private void skipWhitespace() {
+        while (position < text.length()) {
+            char c = text.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+
+    private char peek() {
+        return position < text.length() ? text.charAt(position) : '\0';
+    }
+
+
+    private char next() {
+        if (position >= text.length()) {
+            throw error("Unexpected end of document");
+        }
+        return text.charAt(position++);
+    }
+
+
+    private void expect(char c) {
+        if (next() != c) {
+            throw error("Expected '" + c + "'");
+        }
+    }
+
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
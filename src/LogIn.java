@@ -5,43 +5,34 @@ import javax.swing.*;
 import javax.swing.border.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.sql.*;
 import java.io.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * The LogIn class represents the user interface for logging in to the HomeEx application.
  * Users can log in with their existing accounts or create new accounts.
- * It provides functionality for creating the database and tables if they do not exist,
- * validating user credentials, and navigating to the Home page after successful login.
+ * It provides functionality for validating user credentials,
+ * creating accounts, and navigating to the Home page after successful login.
  */
 public class LogIn extends JFrame {
 
-    // Database connection parameters (base URL without the database)
-    private static final String DB_URL = "jdbc:mariadb://localhost:3306";
-    private static final String DB_USER = "your_username";
-    private static final String DB_PASSWORD = "your_password";
-
     // GUI components
     private JButton logInButton, signUpButton;
     private JTextField usernameTextField;
     private JPasswordField passwordTextField;
     private JLabel usernameLabel, passwordLabel;
-    // Set frame icon to application logo
-    private static Image app_logo = Toolkit.getDefaultToolkit().getImage("data/image/logo.png");
+    private ScreenTasks tasks;
 
 
     /**
      * Constructor to initialize the GUI components.
      */
     public LogIn() {
-        createDatabaseIfNotExists();  // Create the database if it does not exist
-        createTableIfNotExists();   // Create the table if it does not exist
-
         // Frame setup
         setTitle("Log In");
         setSize(500, 400);
         setLocationRelativeTo(null);
-        setIconImage(app_logo);
+        setIconImage(ImageCache.getAppLogo());
         setDefaultCloseOperation(EXIT_ON_CLOSE);
 
         // Set up layout
@@ -50,9 +41,7 @@ public class LogIn extends JFrame {
         gbc.insets = new Insets(10, 10, 10, 10);
 
         // Logo
-        ImageIcon originalLogo = new ImageIcon("data/image/logo.png");
-        Image scaledLogo = originalLogo.getImage().getScaledInstance(100, 100, Image.SCALE_SMOOTH); // Adjust width and height as needed
-        JLabel logoLabel = new JLabel(new ImageIcon(scaledLogo));
+        JLabel logoLabel = new JLabel(ImageCache.getIcon(ImageCache.LOGO_PATH, 100, 100));
         gbc.gridx = 0;
         gbc.gridy = 0;
         gbc.gridwidth = 2;
@@ -106,53 +95,14 @@ public class LogIn extends JFrame {
         logInButton.addActionListener(new LogInListener());
         signUpButton.addActionListener(new SignUpListener());
 
+        // Background database work is cancelled when the frame is disposed
+        tasks = new ScreenTasks(this, null);
+
         // Display frame
         setVisible(true);
     }
 
 
-    /**
-     * Creates the database 'homex_db' if it does not already exist.
-     * This method establishes a connection to the MariaDB server and creates the database.
-     */
-    private static void createDatabaseIfNotExists() {
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             Statement statement = connection.createStatement()) {
-
-            // Create the database if it does not exist
-            statement.executeUpdate("CREATE DATABASE IF NOT EXISTS homex_db");
-
-        } catch (SQLException e) {
-            System.out.println("SQL Exception: " + e.getMessage());
-        }
-    }
-
-
-    /**
-     * Creates the 'users' table in the 'homex_db' database if it does not already exist.
-     * This table stores user information such as username, password, and avatar path.
-     */
-    private static void createTableIfNotExists() {
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
-             Statement statement = connection.createStatement()) {
-
-            // Switch to the 'homex_db' database dynamically
-            statement.executeUpdate("USE homex_db");
-
-            // Create the user's table if it does not exist
-            String createTableSQL = "CREATE TABLE IF NOT EXISTS users (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                    "username VARCHAR(255) UNIQUE, " +
-                    "password VARCHAR(255), " +
-                    "avatar VARCHAR(255))";
-            statement.executeUpdate(createTableSQL);
-
-        } catch (SQLException e) {
-            System.out.println("SQL Exception: " + e.getMessage());
-        }
-    }
-
-
     /**
      * Listener for the Log In button.
      * Handles user log in by checking if the username and password are in the database.
@@ -167,93 +117,25 @@ public class LogIn extends JFrame {
             if (username.isEmpty() || password.isEmpty()) {
                 JOptionPane.showMessageDialog(LogIn.this, "Please enter both username and password.", "Error", JOptionPane.ERROR_MESSAGE);
             } else {
-                // Login validation
-                if (validateLogin(username, password)) {
-                    JOptionPane.showMessageDialog(LogIn.this, "Login successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
-
-                    // Get the avatar path of the logged-in user
-                    String avatarPath = getAvatarPath(username);
-
-                    // Save user information for access in other classes
-                    User.setUser(username, avatarPath);
-
-                    // Open the Home page and close the current frame
-                    SwingUtilities.invokeLater(() -> {
+                // One query reads the hash, the avatar, the groups and the wallet totals, then the hash is
+                // checked on the password workers; null means invalid credentials
+                logInButton.setEnabled(false);
+                tasks.track(AccountService.logIn(username, password), login -> {
+                    if (login != null) {
+                        JOptionPane.showMessageDialog(LogIn.this, "Login successful!", "Success", JOptionPane.INFORMATION_MESSAGE);
+
+                        // Save user information for access in other classes; the next screens read them instead of querying
+                        User.setUser(username, login.avatarPath());
+                        User.setGroups(login.groups());
+
+                        // Open the Home page and close the current frame
                         new Home();  // Use User class to fetch username and avatar
                         LogIn.this.dispose(); // Close the current LogIn
-                    });
-                } else {
-                    JOptionPane.showMessageDialog(LogIn.this, "Invalid username or password.", "Error", JOptionPane.ERROR_MESSAGE);
-                }
-            }
-        }
-
-
-        /**
-         * Retrieves the avatar path for the given username from the database.
-         * If no avatar is set for the user, the default avatar is used.
-         *
-         * @param username The username of the logged-in user.
-         * @return The path to the user's avatar image.
-         */
-        private String getAvatarPath(String username) {
-            String avatarPath = "data/image/default_avatar.png"; // Default avatar path
-            try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-
-                // Switch to 'homex_db' database
-                Statement statement = connection.createStatement();
-                statement.executeUpdate("USE homex_db");
-
-                String sql = "SELECT avatar FROM users WHERE username = ?";
-                PreparedStatement preparedStatement = connection.prepareStatement(sql);
-                preparedStatement.setString(1, username);
-
-                ResultSet result = preparedStatement.executeQuery();
-
-                if (result.next()) {
-                    avatarPath = result.getString("avatar");
-                    if (avatarPath == null || avatarPath.isEmpty()) {
-                        avatarPath = "data/image/default_avatar.png"; // Use default avatar if none is set
+                    } else {
+                        JOptionPane.showMessageDialog(LogIn.this, "Invalid username or password.", "Error", JOptionPane.ERROR_MESSAGE);
                     }
-                }
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(LogIn.this, "Database error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
-            return avatarPath;
-        }
-
-
-        /**
-         * Validates the user's login by checking the database for a matching username and password.
-         *
-         * @param username The username entered by the user.
-         * @param password The password entered by the user.
-         * @return True if the username and password are correct, false otherwise.
-         */
-        private boolean validateLogin(String username, String password) {
-            try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-
-                // Switch to 'homex_db' database
-                Statement statement = connection.createStatement();
-                statement.executeUpdate("USE homex_db");
-
-                String sql = "SELECT password FROM users WHERE username = ?";
-                PreparedStatement preparedStatement = connection.prepareStatement(sql);
-                preparedStatement.setString(1, username);
-
-                ResultSet result = preparedStatement.executeQuery();
-
-                if (result.next()) {
-                    String storedPassword = result.getString("password");
-
-                    return password.equals(storedPassword);
-                }
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(LogIn.this, "Database error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }).whenCompleteAsync((_, _) -> logInButton.setEnabled(true), AsyncDatabase.EDT);
             }
-            return false;
         }
     }
 
@@ -266,6 +148,8 @@ public class LogIn extends JFrame {
         public void actionPerformed(ActionEvent e) {
             // Create a new dialog for sign-up
             JDialog signUpDialog = new JDialog(LogIn.this, "Sign Up", true);
+            ScreenTasks signUpTasks = new ScreenTasks(signUpDialog, null);
+            signUpDialog.setDefaultCloseOperation(WindowConstants.DISPOSE_ON_CLOSE);
             signUpDialog.setLayout(new BorderLayout());
             signUpDialog.setSize(400, 300);
             signUpDialog.setLocationRelativeTo(LogIn.this);
@@ -298,7 +182,7 @@ public class LogIn extends JFrame {
             // Set padding for the label
             selectedAvatarLabel.setBorder(new EmptyBorder(5, 5, 5, 5));
 
-            // Avatar image path
+            // Avatar image path, copied into the avatar store on sign-up
             final String[] selectedAvatarPath = {null};
 
             // Action listener for choosing predefined avatars
@@ -316,11 +200,16 @@ public class LogIn extends JFrame {
 
                     if (avatarFiles != null) {
                         for (File avatarFile : avatarFiles) {
-                            // Display the avatar icons
-                            ImageIcon avatarIcon = new ImageIcon(avatarFile.getAbsolutePath());
-                            Image scaledImage = avatarIcon.getImage().getScaledInstance(100, 100, Image.SCALE_SMOOTH);
-                            ImageIcon scaledIcon = new ImageIcon(scaledImage);
-                            JLabel avatarLabel = new JLabel(scaledIcon);
+                            // Display a placeholder, replaced by the avatar icon once its thumbnail is ready
+                            JLabel avatarLabel = new JLabel("Loading...", SwingConstants.CENTER);
+                            ThumbnailService.thumbnail(avatarFile, 100).whenCompleteAsync((thumbnail, error) -> {
+                                if (thumbnail != null) {
+                                    avatarLabel.setText(null);
+                                    avatarLabel.setIcon(new ImageIcon(thumbnail));
+                                } else {
+                                    avatarLabel.setText(avatarFile.getName());
+                                }
+                            }, AsyncDatabase.EDT);
                             avatarLabel.setBorder(BorderFactory.createLineBorder(Color.BLACK));
                             avatarLabel.setBorder(new EmptyBorder(5, 5, 5, 5)); // Add padding for avatar label
                             avatarLabel.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
@@ -329,6 +218,7 @@ public class LogIn extends JFrame {
                                 public void mouseClicked(MouseEvent me) {
                                     // Set the selected avatar path and close the dialog
                                     selectedAvatarPath[0] = avatarFile.getAbsolutePath();
+                                    AvatarStore.ingest(avatarFile); // Store it in the background while the form is filled in
                                     selectedAvatarLabel.setText("Selected: " + avatarFile.getName());
                                     avatarDialog.dispose(); // Close the avatar selection dialog
                                 }
@@ -364,6 +254,7 @@ public class LogIn extends JFrame {
                     if (userSelection == JFileChooser.APPROVE_OPTION) {
                         File selectedFile = fileChooser.getSelectedFile();
                         selectedAvatarPath[0] = selectedFile.getAbsolutePath(); // Save the selected file path
+                        AvatarStore.ingest(selectedFile); // Store and scale it in the background while the form is filled in
                         selectedAvatarLabel.setText("Selected: " + selectedFile.getName()); // Update label to show the selected file
                     }
                 }
@@ -397,13 +288,19 @@ public class LogIn extends JFrame {
                         return;
 
                     } else {
-                        // Insert the new user into the database
-                        if (insertUser(newUsername, newPassword, selectedAvatarPath[0])) {
-                            JOptionPane.showMessageDialog(signUpDialog, "Account created successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                            signUpDialog.dispose(); // Close the sign-up dialog
-                        } else {
-                            JOptionPane.showMessageDialog(signUpDialog, "User already exists.", "Error", JOptionPane.ERROR_MESSAGE);
-                        }
+                        // Store the avatar and hash the password, then insert the new user, in the background
+                        signUpConfirmButton.setEnabled(false);
+                        CompletableFuture<String> avatar = selectedAvatarPath[0] != null
+                                ? AvatarStore.ingest(new File(selectedAvatarPath[0]))
+                                : CompletableFuture.completedFuture(null);
+                        signUpTasks.track(AccountService.signUp(newUsername, newPassword, avatar), inserted -> {
+                            if (inserted) {
+                                JOptionPane.showMessageDialog(signUpDialog, "Account created successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                                signUpDialog.dispose(); // Close the sign-up dialog
+                            } else {
+                                JOptionPane.showMessageDialog(signUpDialog, "User already exists.", "Error", JOptionPane.ERROR_MESSAGE);
+                            }
+                        }).whenCompleteAsync((_, _) -> signUpConfirmButton.setEnabled(true), AsyncDatabase.EDT);
                     }
                 }
             });
@@ -424,42 +321,7 @@ public class LogIn extends JFrame {
          * @return True if the password meets the criteria, false otherwise.
          */
         public static boolean isValidPassword(String password) {
-            // Check if the password meets the required criteria
-            String regex = "^(?=.*[a-z])(?=.*[A-Z])(?=.*\\d)(?!.*\\s).{8,}$";
-            return password.matches(regex);
-        }
-
-
-        /**
-         * Inserts a new user into the 'users' table in the database.
-         * The method saves the user's username, password, and avatar path.
-         *
-         * @param username The username of the new user.
-         * @param password The password of the new user.
-         * @param avatarPath The path to the user's selected avatar image.
-         * @return True if the user was successfully inserted, false otherwise.
-         */
-        private boolean insertUser(String username, String password, String avatarPath) {
-            try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-                // Switch to 'homex_db' database
-                Statement statement = connection.createStatement();
-                statement.executeUpdate("USE homex_db");
-
-                String sql = "INSERT INTO users (username, password, avatar) VALUES (?, ?, ?)";
-
-                try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-                    preparedStatement.setString(1, username);
-                    preparedStatement.setString(2, password);
-                    preparedStatement.setString(3, avatarPath);
-
-                    int rowsAffected = preparedStatement.executeUpdate();
-                    return rowsAffected > 0; // Return true if user was inserted
-                }
-            } catch (SQLException ex) {
-                ex.printStackTrace();
-                JOptionPane.showMessageDialog(LogIn.this, "Database error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-            }
-            return false; // Return false if insertion failed
+            return AccountService.isValidPassword(password);
         }
     }
 
@@ -1,10 +1,40 @@
+/**
+ * Libraries
+ */
+import java.nio.file.Paths;
+
+
 /**
  * The Main class serves as the entry point for the HomeEx application.
  * It starts the application by launching the LogIn screen,
  * which allows users to log in or sign up for an account.
+ * Started with "--server [port] [address]", it runs the JSON HTTP API (ApiServer) instead, without any window,
+ * listening on the loopback address unless another one is given.
+ * Started with "--embedded [directory]" (before "--server" if both are given), it keeps everything in the
+ * embedded storage (EmbeddedStore) instead of the MariaDB database, so no database server is needed.
  */
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws java.io.IOException {
+        int next = 0;
+        if (args.length > next && args[next].equals("--embedded")) {
+            next++;
+            if (args.length > next && !args[next].startsWith("--")) {
+                Repositories.useEmbedded(Paths.get(args[next++]));
+            } else {
+                Repositories.useEmbedded(EmbeddedStore.DEFAULT_DIRECTORY);
+            }
+        }
+        if (args.length > next && args[next].equals("--server")) {
+            ApiServer.start(args.length > next + 2 ? args[next + 2] : ApiServer.DEFAULT_ADDRESS,
+                    args.length > next + 1 ? Integer.parseInt(args[next + 1]) : ApiServer.DEFAULT_PORT);
+            return;
+        }
+        if (!Repositories.isEmbedded()) {
+            SchemaMigrator.migrateOnce();   // Bring the database schema up to date while the first screen opens
+            ExpenseJournal.onDropped(Group::showDroppedChanges);   // Tell the user about offline changes that could not be saved
+            ExpenseJournal.resume();        // Send the expense changes saved offline during the last run
+        }
+        PasswordHasher.calibrateOnce(); // Measure the password work factor before the first login
         new LogIn();
     }
 }
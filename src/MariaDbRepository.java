@@ -0,0 +1,267 @@
+/**
+ * Libraries
+ */
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+
+/**
+ * The MariaDbRepository class stores the users, groups and expenses in the MariaDB database, through the
+ * DAOs (UserDao, ExpenseDao), the rollups (ExpenseRollups), the change feed (ExpenseChanges) and the
+ * write queue (ExpenseWriteQueue). It is the storage used unless the application runs embedded.
+ *
+ * Each call brings the schema up to date once (SchemaMigrator) and borrows a pooled connection for its
+ * own duration; the calls made inside read() share one connection and one transaction instead.
+ * Additions, edits and removals go through the write queue and wait for their batch to be committed.
+ * The SQLException of a failed call is translated into a StorageException (see translate).
+ */
+public class MariaDbRepository implements UserRepository, GroupRepository, ExpenseRepository {
+
+    static final MariaDbRepository INSTANCE = new MariaDbRepository();
+    private static final int ER_NO_REFERENCED_ROW = 1452;     // MariaDB: a foreign key names a missing row
+
+    // Connection of the read() running on this thread, shared by the calls it makes
+    private final ThreadLocal<Connection> current = new ThreadLocal<>();
+    private volatile boolean migrated = false;
+
+
+    /**
+     * Private constructor, use INSTANCE.
+     */
+    private MariaDbRepository() {
+    }
+
+
+    // Users
+
+    @Override
+    public LoginData findLogin(String username) throws StorageException {
+        return withConnection(connection -> UserDao.findLogin(connection, username));
+    }
+
+    @Override
+    public boolean updatePasswordHash(String username, String oldHash, String newHash) throws StorageException {
+        return withConnection(connection -> UserDao.updatePasswordHash(connection, username, oldHash, newHash));
+    }
+
+    @Override
+    public String findAvatarPath(String username) throws StorageException {
+        return withConnection(connection -> UserDao.findAvatarPath(connection, username));
+    }
+
+    @Override
+    public boolean insertUser(String username, String passwordHash, String avatarPath) throws StorageException {
+        return withConnection(connection -> UserDao.insertUser(connection, username, passwordHash, avatarPath));
+    }
+
+    @Override
+    public boolean updateUser(String currentUsername, String newUsername, String newPasswordHash) throws StorageException {
+        return withConnection(connection -> UserDao.updateUser(connection, currentUsername, newUsername, newPasswordHash));
+    }
+
+
+    // Groups
+
+    @Override
+    public String findGroupName(int groupId) throws StorageException {
+        return withConnection(connection -> ExpenseDao.findGroupName(connection, groupId));
+    }
+
+    @Override
+    public String findGroupPassword(int groupId) throws StorageException {
+        return withConnection(connection -> ExpenseDao.findGroupPassword(connection, groupId));
+    }
+
+    @Override
+    public int createGroup(String groupName, String passwordHash) throws StorageException {
+        return withConnection(connection -> ExpenseDao.insertGroup(connection, groupName, passwordHash));
+    }
+
+
+    // Expenses
+
+    /**
+     * Runs the reads in one transaction on one connection, so they all see the same snapshot (InnoDB's REPEATABLE READ).
+     */
+    @Override
+    public <T> T read(Read<T> work) throws StorageException {
+        if (current.get() != null) {
+            return work.run();      // Already inside a read
+        }
+        return withConnection(connection -> {
+            current.set(connection);
+            try {
+                return ExpenseDao.inTransaction(connection, () -> {
+                    try {
+                        return work.run();
+                    } catch (StorageException e) {
+                        throw new SQLException(e.getMessage(), e);     // Rolls back; unwrapped by translate
+                    }
+                });
+            } finally {
+                current.remove();
+            }
+        });
+    }
+
+    @Override
+    public Expense findById(int expenseId) throws StorageException {
+        return withConnection(connection -> ExpenseDao.findById(connection, expenseId));
+    }
+
+    @Override
+    public int countByGroup(int groupId) throws StorageException {
+        return withConnection(connection -> ExpenseDao.countByGroup(connection, groupId));
+    }
+
+    @Override
+    public List<Expense> findPage(int groupId, Expense after, int limit) throws StorageException {
+        return withConnection(connection -> ExpenseDao.findPage(connection, groupId, after, limit));
+    }
+
+    @Override
+    public List<Expense> findAll(int groupId) throws StorageException {
+        return withConnection(connection -> ExpenseDao.findAll(connection, groupId));
+    }
+
+    @Override
+    public Expense findAt(int groupId, int position) throws StorageException {
+        return withConnection(connection -> ExpenseDao.findAt(connection, groupId, position));
+    }
+
+    @Override
+    public int positionOf(int groupId, String date, int expenseId) throws StorageException {
+        return withConnection(connection -> ExpenseDao.positionOf(connection, groupId, date, expenseId));
+    }
+
+    @Override
+    public void forEach(ExpenseScope scope, Visitor visitor) throws StorageException {
+        withConnection(connection -> {
+            ExpenseDao.forEach(connection, scope, visitor);
+            return null;
+        });
+    }
+
+    @Override
+    public void forEachAfter(int groupId, int afterId, Visitor visitor) throws StorageException {
+        withConnection(connection -> {
+            ExpenseDao.forEachAfter(connection, groupId, afterId, visitor);
+            return null;
+        });
+    }
+
+    @Override
+    public WalletSummary summaryForUser(String username) throws StorageException {
+        return withConnection(connection -> ExpenseDao.summaryForUser(connection, username));
+    }
+
+    @Override
+    public List<PeriodTotal> monthly(int groupId, LocalDate from, LocalDate to) throws StorageException {
+        return withConnection(connection -> ExpenseRollups.monthly(connection, groupId, from, to));
+    }
+
+    @Override
+    public long currentSeq(int groupId) throws StorageException {
+        return withConnection(connection -> ExpenseChanges.currentSeq(connection, groupId));
+    }
+
+    @Override
+    public Batch since(int groupId, long afterSeq) throws StorageException {
+        if (afterSeq < 0) {
+            return Batch.NONE;   // No connection needed
+        }
+        return withConnection(connection -> ExpenseChanges.since(connection, groupId, afterSeq));
+    }
+
+    @Override
+    public Expense add(int groupId, String expenseName, long amountCents, String date, String username) throws StorageException {
+        return await(ExpenseWriteQueue.add(groupId, expenseName, amountCents, date, username));
+    }
+
+    @Override
+    public Outcome update(Expense expense, String newName, long newAmountCents, String newDate) throws StorageException {
+        return await(ExpenseWriteQueue.update(expense, newName, newAmountCents, newDate));
+    }
+
+    @Override
+    public Outcome remove(Expense expense) throws StorageException {
+        return await(ExpenseWriteQueue.remove(expense));
+    }
+
+
+    /**
+     * Runs work on the connection of the current read(), or else on a pooled connection once the schema is up to date.
+     */
+    private <T> T withConnection(AsyncDatabase.Work<T> work) throws StorageException {
+        Connection connection = current.get();
+        if (connection != null) {
+            try {
+                return work.run(connection);
+            } catch (SQLException e) {
+                throw translate(e);
+            }
+        }
+        if (!migrated) {
+            await(SchemaMigrator.migrateOnce());    // No query runs against an outdated schema
+            migrated = true;
+        }
+        try (Connection borrowed = ConnectionPool.getConnection()) {
+            return work.run(borrowed);
+        } catch (SQLException e) {
+            throw translate(e);
+        }
+    }
+
+
+    /**
+     * Waits for a future and rethrows its SQLException as a StorageException.
+     */
+    private static <T> T await(CompletableFuture<T> future) throws StorageException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = AsyncDatabase.rootCause(e);
+            if (cause instanceof SQLException sqlException) {
+                throw translate(sqlException);
+            }
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new StorageException(StorageException.Reason.FAILED, cause.getMessage(), cause);
+        }
+    }
+
+
+    /**
+     * Translates an error of the database into a StorageException, keeping it as the cause. A busy pool is
+     * not an unreachable database, and a commit whose outcome is unknown (see ExpenseWriteQueue) is neither.
+     *
+     * @param e The error of the driver, the pool or the DAOs.
+     * @return The exception to throw.
+     */
+    static StorageException translate(SQLException e) {
+        if (e.getCause() instanceof StorageException storageException) {
+            return storageException;    // Thrown by the work of a read(), see there
+        }
+        String state = e.getSQLState();
+        StorageException.Reason reason;
+        if (e instanceof SQLTimeoutException) {
+            reason = StorageException.Reason.BUSY;
+        } else if (e instanceof SQLRecoverableException || e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLTransientConnectionException || (state != null && state.startsWith("08"))) {
+            reason = StorageException.Reason.UNREACHABLE;
+        } else if (e instanceof SQLIntegrityConstraintViolationException) {
+            reason = e.getErrorCode() == ER_NO_REFERENCED_ROW ? StorageException.Reason.NOT_FOUND : StorageException.Reason.DUPLICATE;
+        } else if (e instanceof SQLDataException) {
+            reason = StorageException.Reason.INVALID;
+        } else if (Thread.currentThread().isInterrupted()) {
+            reason = StorageException.Reason.CANCELLED;
+        } else {
+            reason = StorageException.Reason.FAILED;
+        }
+        return new StorageException(reason, e.getMessage(), e);
+    }
+}
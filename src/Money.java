@@ -0,0 +1,135 @@
+/**
+ * The Money class holds the fixed-point money helpers. Amounts are carried everywhere as a primitive long number of cents,
+ * matching the DECIMAL(10, 2) 'amount' column exactly: no doubles (no rounding drift) and no
+ * BigDecimal or String conversions except when text is typed in or displayed.
+ */
+public class Money {
+
+    // Largest amount a DECIMAL(10, 2) column can hold: 99,999,999.99
+    public static final long MAX_CENTS = 9_999_999_999L;
+
+    // SQL expressions converting between the DECIMAL column and cents, so that JDBC moves plain longs
+    public static final String SQL_AMOUNT_CENTS = sqlCents("amount");
+    public static final String SQL_FROM_CENTS = "? / 100";
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private Money() {
+    }
+
+
+    /**
+     * Returns the SQL expression reading a DECIMAL(10, 2) column as cents.
+     *
+     * @param column The column, possibly qualified (e.g. "e.amount").
+     * @return The expression, e.g. CAST(e.amount * 100 AS SIGNED).
+     */
+    public static String sqlCents(String column) {
+        return "CAST(" + column + " * 100 AS SIGNED)";
+    }
+
+
+    /**
+     * Parses an amount typed by the user, such as "12", "12.5", "-3.25" or "+4.999".
+     * More than two decimals are rounded half up, as the DECIMAL(10, 2) column would.
+     *
+     * @param text The amount as text.
+     * @return The amount in cents.
+     * @throws NumberFormatException If the text is not a number or does not fit the column.
+     */
+    public static long parse(String text) {
+        String amount = text.trim();
+        int length = amount.length();
+        int index = 0;
+        boolean negative = false;
+        if (index < length && (amount.charAt(index) == '-' || amount.charAt(index) == '+')) {
+            negative = amount.charAt(index) == '-';
+            index++;
+        }
+
+        long units = 0;
+        int unitDigits = 0;
+        while (index < length && Character.isDigit(amount.charAt(index))) {
+            units = units * 10 + (amount.charAt(index++) - '0');
+            if (++unitDigits > 8) {
+                throw new NumberFormatException("Amount too large: " + text);
+            }
+        }
+
+        long cents = 0;
+        int decimals = 0;
+        boolean roundUp = false;
+        if (index < length && amount.charAt(index) == '.') {
+            index++;
+            while (index < length && Character.isDigit(amount.charAt(index))) {
+                int digit = amount.charAt(index++) - '0';
+                if (decimals < 2) {
+                    cents = cents * 10 + digit;
+                } else if (decimals == 2) {
+                    roundUp = digit >= 5;   // Only the third decimal decides the rounding
+                }
+                decimals++;
+            }
+        }
+
+        if (index != length || unitDigits + decimals == 0) {
+            throw new NumberFormatException("Not an amount: " + text);
+        }
+        if (decimals == 1) {
+            cents *= 10;
+        }
+
+        long total = units * 100 + cents + (roundUp ? 1 : 0);
+        if (total > MAX_CENTS) {
+            throw new NumberFormatException("Amount too large: " + text);
+        }
+        return negative ? -total : total;
+    }
+
+
+    /**
+     * Formats cents with two decimals, e.g. -1250 as "-12.50", the way the database displays the column.
+     *
+     * @param cents The amount in cents.
+     * @return The amount as text.
+     */
+    public static String format(long cents) {
+        char[] buffer = new char[21];
+        int position = buffer.length;
+        long value = Math.abs(cents);   // Amounts are bounded by MAX_CENTS, far from Long.MIN_VALUE
+
+        buffer[--position] = (char) ('0' + value % 10);
+        value /= 10;
+        buffer[--position] = (char) ('0' + value % 10);
+        value /= 10;
+        buffer[--position] = '.';
+        do {
+            buffer[--position] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+
+        if (cents < 0) {
+            buffer[--position] = '-';
+        }
+        return new String(buffer, position, buffer.length - position);
+    }
+
+
+    /**
+     * Appends cents formatted with two decimals, without creating an intermediate String.
+     *
+     * @param builder The builder to append to.
+     * @param cents The amount in cents.
+     * @return The same builder.
+     */
+    public static StringBuilder append(StringBuilder builder, long cents) {
+        long value = Math.abs(cents);
+        if (cents < 0) {
+            builder.append('-');
+        }
+        int fraction = (int) (value % 100);
+        return builder.append(value / 100).append('.').append((char) ('0' + fraction / 10)).append((char) ('0' + fraction % 10));
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Libraries
+ */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+
+
+/**
+ * The PasswordHashBenchmark class measures PasswordHasher without a database.
+ *
+ * It reports how many verifications per second one thread achieves for a range of work factors,
+ * then the work factor calibrated on this machine, and finally sends bursts of simultaneous logins
+ * at the calibrated cost through the bounded password workers: throughput, median and worst latency,
+ * and how many logins were refused because the queue was full.
+ *
+ * Run with: java PasswordHashBenchmark [burst size]
+ */
+public class PasswordHashBenchmark {
+
+    private static final int[] COSTS = {25_000, 50_000, 100_000, 200_000, 400_000};
+    private static final double SECONDS_PER_COST = 1.0;
+    private static final String PASSWORD = "Correct1Horse";
+
+
+    public static void main(String[] args) {
+        int burst = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        String warmUp = PasswordHasher.encode(PASSWORD, COSTS[0]);
+        for (long end = System.nanoTime() + (long) (SECONDS_PER_COST * 1e9); System.nanoTime() < end; ) {
+            PasswordHasher.matches(PASSWORD, warmUp);   // Warms up the JIT
+        }
+        System.out.println("Iterations   verifications/s   ms each (one thread)");
+        for (int cost : COSTS) {
+            String stored = PasswordHasher.encode(PASSWORD, cost);
+            int count = 0;
+            long started = System.nanoTime();
+            long elapsed;
+            do {
+                PasswordHasher.matches(PASSWORD, stored);
+                count++;
+                elapsed = System.nanoTime() - started;
+            } while (elapsed < SECONDS_PER_COST * 1e9);
+            System.out.printf("%,10d   %15.1f   %8.1f%n", cost, count / (elapsed / 1e9), elapsed / 1e6 / count);
+        }
+
+        int calibrated = PasswordHasher.calibrateOnce().join();
+        System.out.printf("Calibrated to %,d iterations for a target of %d ms%n", calibrated, PasswordHasher.TARGET_MILLIS);
+
+        // Simultaneous logins at the calibrated cost, through the bounded workers
+        String stored = PasswordHasher.encode(PASSWORD, calibrated);
+        for (int size : new int[]{Math.min(burst, 16), burst}) {
+            List<CompletableFuture<Long>> logins = new ArrayList<>();
+            long started = System.nanoTime();
+            for (int i = 0; i < size; i++) {
+                logins.add(PasswordHasher.verify(PASSWORD, stored).thenApply(_ -> System.nanoTime() - started));
+            }
+
+            List<Long> latencies = new ArrayList<>();
+            int refused = 0;
+            for (CompletableFuture<Long> login : logins) {
+                try {
+                    latencies.add(login.join());
+                } catch (CompletionException e) {
+                    if (!(e.getCause() instanceof RejectedExecutionException)) {
+                        throw e;
+                    }
+                    refused++;
+                }
+            }
+            long elapsed = System.nanoTime() - started;
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+            Arrays.sort(sorted);
+            System.out.printf("burst of %3d: %6.1f verifications/s, latency median %7.1f ms, worst %7.1f ms, %d refused%n",
+                    size, latencies.size() / (elapsed / 1e9), sorted.length > 0 ? sorted[sorted.length / 2] / 1e6 : 0,
+                    sorted.length > 0 ? sorted[sorted.length - 1] / 1e6 : 0, refused);
+        }
+    }
+}
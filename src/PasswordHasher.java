@@ -0,0 +1,236 @@
+/**
+ * Libraries
+ */
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+
+/**
+ * The PasswordHasher class hashes and verifies the users' passwords, which are stored as salted
+ * PBKDF2-HMAC-SHA256 hashes instead of plain text:
+ *
+ *   pbkdf2-sha256$iterations$salt$hash      (salt and hash in Base64)
+ *
+ * The number of iterations (the work factor) is calibrated once per application start so that one
+ * verification takes about TARGET_MILLIS on this machine, never less than MIN_ITERATIONS; the system
+ * property "homex.password.iterations" fixes it instead. A stored hash with fewer iterations than the
+ * current setting, or a plain-text password from an older version, is verified as it is and reported
+ * for rehashing, so it is upgraded the next time its user logs in.
+ *
+ * Hashing is CPU-bound and deliberately slow, so it runs on a small pool of its own with a bounded queue,
+ * never on the Swing event thread: a burst of logins waits for a worker or is refused, instead of
+ * occupying every core.
+ */
+public class PasswordHasher {
+
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final String PREFIX = "pbkdf2-sha256$";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final int MIN_ITERATIONS = 100_000;
+    private static final int ITERATION_STEP = 50_000;  // Calibration rounds to a step, so small timing noise does not trigger rehashes
+    private static final int CALIBRATION_ITERATIONS = 20_000;
+    static final long TARGET_MILLIS = 100;
+
+    // At most half the cores verify passwords, the rest keep serving the application
+    private static final int WORKERS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int MAX_QUEUED = 64;
+    private static final ExecutorService workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED), Thread.ofPlatform().name("homex-password-", 0).daemon().factory());
+
+    private static final SecureRandom random = new SecureRandom();
+    private static CompletableFuture<Integer> calibration;
+    private static volatile String dummyHash;   // Verified against when the user does not exist
+
+
+    /**
+     * Outcome of a verification.
+     *
+     * @param valid True if the password matches.
+     * @param rehash The password hashed with the current settings if the stored hash should be replaced, otherwise null.
+     */
+    public record Verification(boolean valid, String rehash) {
+    }
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private PasswordHasher() {
+    }
+
+
+    /**
+     * Starts calibrating the work factor in the background the first time it is called and returns the same future afterwards.
+     *
+     * @return A future completed with the number of iterations used for new hashes.
+     */
+    public static synchronized CompletableFuture<Integer> calibrateOnce() {
+        if (calibration == null) {
+            calibration = CompletableFuture.supplyAsync(PasswordHasher::calibrate, workers);
+        }
+        return calibration;
+    }
+
+
+    /**
+     * Hashes a password with a new random salt and the calibrated work factor.
+     *
+     * @param password The password to hash.
+     * @return A future completed with the encoded hash, or exceptionally if too many hashes are already waiting.
+     */
+    public static CompletableFuture<String> hash(String password) {
+        return calibrateOnce().thenCompose(iterations -> submit(() -> encode(password, iterations)));
+    }
+
+
+    /**
+     * Verifies a password against its stored hash.
+     * An unknown user (stored == null) costs the same time as a wrong password, so that the duration of a
+     * failed login does not tell whether the username exists.
+     *
+     * @param password The password entered by the user.
+     * @param stored The stored hash or legacy plain-text password, or null if the user does not exist.
+     * @return A future completed with the outcome, or exceptionally if too many verifications are already waiting.
+     */
+    public static CompletableFuture<Verification> verify(String password, String stored) {
+        return calibrateOnce().thenCompose(iterations -> submit(() -> {
+            if (stored == null) {
+                matches(password, dummyHash(iterations));
+                return new Verification(false, null);
+            }
+            if (!stored.startsWith(PREFIX)) {
+                // Plain text stored by an older version
+                boolean valid = MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8));
+                return new Verification(valid, valid ? encode(password, iterations) : null);
+            }
+            boolean valid = matches(password, stored);
+            boolean outdated = valid && iterationsOf(stored) < iterations;
+            return new Verification(valid, outdated ? encode(password, iterations) : null);
+        }));
+    }
+
+
+    /**
+     * Hashes a password with a given number of iterations and a new salt. Runs on the calling thread.
+     *
+     * @param password The password to hash.
+     * @param iterations The work factor.
+     * @return The encoded hash.
+     */
+    static String encode(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        random.nextBytes(salt);
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(derive(password, salt, iterations));
+    }
+
+
+    /**
+     * Checks a password against an encoded hash, in constant time once the hash is computed. Runs on the calling thread.
+     *
+     * @param password The password to check.
+     * @param stored The encoded hash.
+     * @return True if the password matches, false if not or if the hash is malformed.
+     */
+    static boolean matches(String password, String stored) {
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            int iterations = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return MessageDigest.isEqual(derive(password, salt, iterations), expected);
+        } catch (IllegalArgumentException e) {
+            return false;   // Not a number or not Base64
+        }
+    }
+
+
+    /**
+     * Returns the work factor of an encoded hash, or 0 if it cannot be read.
+     */
+    static int iterationsOf(String stored) {
+        int end = stored.indexOf('$', PREFIX.length());
+        try {
+            return end < 0 ? 0 : Integer.parseInt(stored.substring(PREFIX.length(), end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Runs PBKDF2.
+     */
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);  // Part of every Java runtime
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+
+    /**
+     * Times PBKDF2 at a small work factor and scales it to TARGET_MILLIS.
+     */
+    private static int calibrate() {
+        String fixed = System.getProperty("homex.password.iterations");
+        if (fixed != null) {
+            return Math.max(1, Integer.parseInt(fixed.trim()));
+        }
+
+        byte[] salt = new byte[SALT_BYTES];
+        for (int round = 0; round < 3; round++) {
+            derive("calibration", salt, CALIBRATION_ITERATIONS);    // Warms up the JIT
+        }
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 3; round++) {
+            long started = System.nanoTime();
+            derive("calibration", salt, CALIBRATION_ITERATIONS);
+            best = Math.min(best, System.nanoTime() - started);
+        }
+
+        long iterations = CALIBRATION_ITERATIONS * TARGET_MILLIS * 1_000_000 / Math.max(1, best);
+        int rounded = (int) Math.min(Integer.MAX_VALUE - ITERATION_STEP, iterations / ITERATION_STEP * ITERATION_STEP);
+        int result = Math.max(MIN_ITERATIONS, rounded);
+        System.out.println("Password hashing calibrated to " + result + " iterations");
+        return result;
+    }
+
+
+    /**
+     * Returns a hash of a random password, created once.
+     */
+    private static String dummyHash(int iterations) {
+        if (dummyHash == null) {
+            dummyHash = encode(Long.toHexString(random.nextLong()), iterations);
+        }
+        return dummyHash;
+    }
+
+
+    /**
+     * Runs hashing work on the password workers, failing fast when the queue is full.
+     */
+    private static <T> CompletableFuture<T> submit(Supplier<T> work) {
+        try {
+            return CompletableFuture.supplyAsync(work, workers);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Too many logins at once, please try again.", e));
+        }
+    }
+}
@@ -3,7 +3,6 @@
  */
 import javax.swing.*;
 import java.awt.*;
-import java.sql.*;
 
 
 /**
@@ -15,20 +14,16 @@ import java.sql.*;
  */
 public class PersonalWallet extends JFrame {
 
-    // Database connection parameters
-    private static final String DB_URL = "jdbc:mariadb://localhost:3306/homex_db";
-    private static final String DB_USER = "your_username";
-    private static final String DB_PASSWORD = "your_password";
-
     private String username;
     private String avatarPath;
-    private double userBudget = 1000.00; // Default budget
+    private long userBudget = 100_000; // Default budget, in cents
 
     // GUI components
     JPanel headerPanel, userInfoPanel, leftPanel, budgetPanel;
-    JButton homeButton, personalWalletButton, profileButton, logOutButton;
+    JButton homeButton, personalWalletButton, profileButton, analysisButton, logOutButton, exportButton;
     JLabel pageNameLabel, appNameLabel, usernameLabel, avatarLabel, budgetLabel, totalGainsLabel, totalLossesLabel, remainingBudgetLabel;
-    private static Image app_logo = Toolkit.getDefaultToolkit().getImage("data/image/logo.png");
+    JProgressBar loadingBar;
+    private ScreenTasks tasks;
 
 
     /**
@@ -42,7 +37,7 @@ public class PersonalWallet extends JFrame {
         setTitle("Personal Wallet");
         setSize(1000, 800);
         setLocationRelativeTo(null);
-        setIconImage(app_logo);
+        setIconImage(ImageCache.getAppLogo());
         setLayout(new BorderLayout(0, 0));
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
@@ -73,10 +68,9 @@ public class PersonalWallet extends JFrame {
         usernameLabel.setFont(new Font("Arial", Font.BOLD, 16));
 
         avatarLabel = new JLabel();
-        if (avatarPath != null) {
-            ImageIcon avatarIcon = new ImageIcon(avatarPath);
-            Image scaledImage = avatarIcon.getImage().getScaledInstance(50, 50, Image.SCALE_SMOOTH);
-            avatarLabel.setIcon(new ImageIcon(scaledImage));
+        ImageIcon avatarIcon = AvatarStore.getIcon(avatarPath, 50);
+        if (avatarIcon != null) {
+            avatarLabel.setIcon(avatarIcon);
         }
 
         userInfoPanel.add(usernameLabel);
@@ -89,7 +83,7 @@ public class PersonalWallet extends JFrame {
         // Create the left-side panel
         leftPanel = new JPanel();
         leftPanel.setBackground(new Color(12, 73, 87, 179));
-        leftPanel.setLayout(new GridLayout(4, 1, 10, 10));
+        leftPanel.setLayout(new GridLayout(5, 1, 10, 10));
         leftPanel.setPreferredSize(new Dimension(200, 0));
         leftPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20)); // Padding around buttons
 
@@ -114,6 +108,14 @@ public class PersonalWallet extends JFrame {
         });
         leftPanel.add(profileButton);
 
+        // Analysis button
+        analysisButton = new JButton("Analysis");
+        analysisButton.addActionListener(_ -> {
+            new Analysis();
+            dispose();
+        });
+        leftPanel.add(analysisButton);
+
         // Log Out button
         logOutButton = new JButton("Log Out");
         logOutButton.addActionListener(_ -> {
@@ -129,87 +131,72 @@ public class PersonalWallet extends JFrame {
         budgetPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20)); // Add padding around the panel
 
         // Total budget label
-        budgetLabel = new JLabel("Total Budget: $" + userBudget);
+        budgetLabel = new JLabel("Total Budget: $" + Money.format(userBudget));
         budgetLabel.setFont(new Font("Arial", Font.PLAIN, 18));
         budgetPanel.add(budgetLabel);
 
-        // Calculate total gains and losses
-        double totalGains = getTotalGainsForUser(username);
-        double totalLosses = getTotalLossesForUser(username);
-
-        // Total gains label
-        totalGainsLabel = new JLabel("Total Gains: $" + totalGains);
+        // Total gains label (filled in once the totals are loaded)
+        totalGainsLabel = new JLabel("Total Gains: ...");
         totalGainsLabel.setFont(new Font("Arial", Font.PLAIN, 18));
         totalGainsLabel.setForeground(Color.GREEN);
         budgetPanel.add(totalGainsLabel);
 
         // Total losses label
-        totalLossesLabel = new JLabel("Total Losses: $" + Math.abs(totalLosses));  // Absolute value to show positive number for losses
+        totalLossesLabel = new JLabel("Total Losses: ...");
         totalLossesLabel.setFont(new Font("Arial", Font.PLAIN, 18));
         totalLossesLabel.setForeground(Color.RED);
         budgetPanel.add(totalLossesLabel);
 
         // Remaining budget label
-        double remainingBudget = userBudget + totalGains + totalLosses;  // Gains increase the budget, losses decrease the budget (negative)
-        remainingBudgetLabel = new JLabel("Remaining Budget: $" + remainingBudget);
+        remainingBudgetLabel = new JLabel("Remaining Budget: ...");
         remainingBudgetLabel.setFont(new Font("Arial", Font.PLAIN, 18));
         budgetPanel.add(remainingBudgetLabel);
 
         // Add the budget panel to the center of the frame
         add(budgetPanel, BorderLayout.CENTER);
 
+        // Loading indicator shown while the totals are computed
+        loadingBar = new JProgressBar();
+        loadingBar.setIndeterminate(true);
+        loadingBar.setString("Loading...");
+        loadingBar.setStringPainted(true);
+
+        // Export of all the expenses added by the user
+        exportButton = new JButton("Export My Expenses");
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 10));
+        buttonPanel.add(loadingBar);
+        buttonPanel.add(exportButton);
+        add(buttonPanel, BorderLayout.SOUTH);
+
+        // Show the cached totals right away, or compute them in the background
+        tasks = new ScreenTasks(this, loadingBar);
+        exportButton.addActionListener(_ -> ExpenseExporter.exportWithDialog(this, tasks, ExpenseScope.user(username)));
+        WalletSummary cached = WalletService.getCached(username);
+        if (cached != null) {
+            showTotals(cached);
+        } else {
+            tasks.query(() -> WalletService.getSummary(username), this::showTotals);
+        }
+
         // Make the frame visible
         setVisible(true);
     }
 
 
     /**
-     * Retrieves the total gains (positive expenses) for the logged-in user from the database.
+     * Displays the user's totals and the resulting remaining budget.
      *
-     * @param username The username of the logged-in user.
-     * @return The total amount of gains for the user.
+     * @param summary The user's totals (losses as a negative value).
      */
-    private double getTotalGainsForUser(String username) {
-        double totalGains = 0.0;
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            String sql = "SELECT SUM(amount) FROM expenses WHERE username = ? AND amount > 0";  // Gains are positif
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, username);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
-                totalGains = resultSet.getDouble(1);  // Sum of gains
-            }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
-        return totalGains;
-    }
-
+    private void showTotals(WalletSummary summary) {
+        totalGainsLabel.setText("Total Gains: $" + Money.format(summary.getTotalGains()));
+        totalLossesLabel.setText("Total Losses: $" + Money.format(Math.abs(summary.getTotalLosses())));  // Absolute value to show positive number for losses
 
-    /**
-     * Retrieves the total losses (negative expenses) for the logged-in user from the database.
-     *
-     * @param username The username of the logged-in user.
-     * @return The total amount of loss for the user (as a negative value).
-     */
-    private double getTotalLossesForUser(String username) {
-        double totalLosses = 0.0;
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-            String sql = "SELECT SUM(amount) FROM expenses WHERE username = ? AND amount < 0";  // Losses are negative
-            PreparedStatement preparedStatement = connection.prepareStatement(sql);
-            preparedStatement.setString(1, username);
-            ResultSet resultSet = preparedStatement.executeQuery();
-
-            if (resultSet.next()) {
-                totalLosses = resultSet.getDouble(1);  // Sum of losses
-            }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-        }
-        return totalLosses;
+        long remainingBudget = summary.remainingBudget(userBudget);  // Gains increase the budget, losses decrease the budget (negative)
+        remainingBudgetLabel.setText("Remaining Budget: $" + Money.format(remainingBudget));
     }
 
+
     /**
      * Main Method to open the Personal Wallet page.
      */
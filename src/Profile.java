@@ -4,22 +4,16 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.sql.*;
 
 public class Profile extends JFrame {
 
-    // Database connection parameters
-    private static final String DB_URL = "jdbc:mariadb://localhost:3307/homex_db";
-    private static final String DB_USER = "root";
-    private static final String DB_PASSWORD = "vj88nx35&*";
-
     // GUI components
     JPanel headerPanel, userInfoPanel, leftPanel, formPanel;
-    JButton homeButton, personalWalletButton, profileButton, logOutButton, updateButton;
+    JButton homeButton, personalWalletButton, profileButton, analysisButton, logOutButton, updateButton;
     JLabel pageNameLabel, appNameLabel, usernameLabel, avatarLabel;
     JTextField newUsernameField;
     JPasswordField newPasswordField, confirmPasswordField;
-    private static Image app_logo = Toolkit.getDefaultToolkit().getImage("data/image/logo.png");
+    private ScreenTasks tasks;
 
     /**
      * Constructor to initialize GUI components
@@ -29,7 +23,7 @@ public class Profile extends JFrame {
         setTitle("Profile");
         setSize(1000, 800);
         setLocationRelativeTo(null);
-        setIconImage(app_logo);
+        setIconImage(ImageCache.getAppLogo());
         setLayout(new BorderLayout(0, 0));
         setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
 
@@ -60,10 +54,9 @@ public class Profile extends JFrame {
         usernameLabel.setFont(new Font("Arial", Font.BOLD, 16));
 
         avatarLabel = new JLabel();
-        if (User.getAvatarPath() != null) {
-            ImageIcon avatarIcon = new ImageIcon(User.getAvatarPath());
-            Image scaledImage = avatarIcon.getImage().getScaledInstance(50, 50, Image.SCALE_SMOOTH);
-            avatarLabel.setIcon(new ImageIcon(scaledImage));
+        ImageIcon avatarIcon = AvatarStore.getIcon(User.getAvatarPath(), 50);
+        if (avatarIcon != null) {
+            avatarLabel.setIcon(avatarIcon);
         } else {
             avatarLabel.setText("No Avatar");
             avatarLabel.setForeground(Color.WHITE);
@@ -79,7 +72,7 @@ public class Profile extends JFrame {
         // Create the left-side panel
         leftPanel = new JPanel();
         leftPanel.setBackground(new Color(12, 73, 87, 179));
-        leftPanel.setLayout(new GridLayout(4, 1, 10, 10));
+        leftPanel.setLayout(new GridLayout(5, 1, 10, 10));
         leftPanel.setPreferredSize(new Dimension(200, 0));
         leftPanel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20)); // Padding around buttons
 
@@ -104,6 +97,14 @@ public class Profile extends JFrame {
         profileButton.setEnabled(false); // Already on the Profile page
         leftPanel.add(profileButton);
 
+        // Analysis button
+        analysisButton = new JButton("Analysis");
+        analysisButton.addActionListener(_ -> {
+            new Analysis();
+            dispose();
+        });
+        leftPanel.add(analysisButton);
+
         // Log Out button
         logOutButton = new JButton("Log Out");
         logOutButton.addActionListener(_ -> {
@@ -160,14 +161,7 @@ public class Profile extends JFrame {
                             JOptionPane.ERROR_MESSAGE);
                 } else {
                     // Update username and password in the database
-                    if (updateUserInDatabase(User.getUsername(), newUsername, newPassword)) {
-                        JOptionPane.showMessageDialog(Profile.this, "Profile updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                        // Update User class fields
-                        User.setUser(newUsername, User.getAvatarPath());  // Keep the current avatarPath
-                        usernameLabel.setText(newUsername); // Update displayed username
-                    } else {
-                        JOptionPane.showMessageDialog(Profile.this, "Failed to update profile.", "Error", JOptionPane.ERROR_MESSAGE);
-                    }
+                    updateUserInDatabase(User.getUsername(), newUsername, newPassword);
                 }
             }
         });
@@ -175,6 +169,9 @@ public class Profile extends JFrame {
         // Add the form panel to the center of the frame
         add(formPanel, BorderLayout.CENTER);
 
+        // Background database work is cancelled when the frame is disposed
+        tasks = new ScreenTasks(this, null);
+
         // Make the frame visible
         setVisible(true);
     }
@@ -187,36 +184,29 @@ public class Profile extends JFrame {
      * @return True if the password meets the criteria, false otherwise.
      */
     public static boolean isValidPassword(String password) {
-        // Check if the password meets the required criteria
-        String regex = "^(?=.*[a-z])(?=.*[A-Z])(?=.*\\d)(?!.*\\s).{8,}$";
-        return password.matches(regex);
+        return AccountService.isValidPassword(password);
     }
 
 
     /**
      * Method to update the user's username and password in the database.
+     * The password is hashed and the update runs in the background; the result is reported once it completes.
      * @param currentUsername: The current username.
      * @param newUsername: The new username.
      * @param newPassword: The new password.
-     * @return true if update was successful, false otherwise.
      */
-    private boolean updateUserInDatabase(String currentUsername, String newUsername, String newPassword) {
-        try (Connection connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD)) {
-
-            String sql = "UPDATE users SET username = ?, password = ? WHERE username = ?";
-            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
-                preparedStatement.setString(1, newUsername);
-                preparedStatement.setString(2, newPassword);
-                preparedStatement.setString(3, currentUsername);
-
-                int rowsAffected = preparedStatement.executeUpdate();
-                return rowsAffected > 0; // Return true if the update was successful
+    private void updateUserInDatabase(String currentUsername, String newUsername, String newPassword) {
+        updateButton.setEnabled(false);
+        tasks.track(AccountService.updateProfile(currentUsername, newUsername, newPassword), updated -> {
+            if (updated) {
+                JOptionPane.showMessageDialog(Profile.this, "Profile updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                // Update User class fields
+                User.setUser(newUsername, User.getAvatarPath());  // Keep the current avatarPath
+                usernameLabel.setText(newUsername); // Update displayed username
+            } else {
+                JOptionPane.showMessageDialog(Profile.this, "Failed to update profile.", "Error", JOptionPane.ERROR_MESSAGE);
             }
-        } catch (SQLException ex) {
-            ex.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Database error: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-        }
-        return false;
+        }).whenCompleteAsync((_, _) -> updateButton.setEnabled(true), AsyncDatabase.EDT);  // Re-enable even on failure
     }
 
 
@@ -0,0 +1,75 @@
+/**
+ * Libraries
+ */
+import java.io.IOException;
+import java.nio.file.Path;
+
+
+/**
+ * The Repositories class hands out the storage of the users, groups and expenses: the MariaDB database
+ * (MariaDbRepository), or the embedded storage (EmbeddedStore) once useEmbedded has been called, which
+ * Main does for "--embedded [directory]". The choice is made at startup, before the first screen opens.
+ */
+public class Repositories {
+
+    private static volatile EmbeddedStore embedded;
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private Repositories() {
+    }
+
+
+    /**
+     * Stores everything in the embedded storage of a directory from now on, instead of the database.
+     * The storage is closed when the application exits.
+     *
+     * @param directory The directory of the storage, created if needed.
+     * @throws IOException If the storage cannot be opened.
+     */
+    public static synchronized void useEmbedded(Path directory) throws IOException {
+        if (embedded == null) {
+            EmbeddedStore store = new EmbeddedStore(directory);
+            Runtime.getRuntime().addShutdownHook(new Thread(store::close, "homex-embedded-close"));
+            embedded = store;
+        }
+    }
+
+
+    /**
+     * Returns whether the embedded storage is used; the MariaDB-only features (CSV import, rollup checks,
+     * offline journal) are left out then.
+     */
+    public static boolean isEmbedded() {
+        return embedded != null;
+    }
+
+
+    /**
+     * Returns the storage of the users.
+     */
+    public static UserRepository users() {
+        EmbeddedStore store = embedded;
+        return store != null ? store : MariaDbRepository.INSTANCE;
+    }
+
+
+    /**
+     * Returns the storage of the groups.
+     */
+    public static GroupRepository groups() {
+        EmbeddedStore store = embedded;
+        return store != null ? store : MariaDbRepository.INSTANCE;
+    }
+
+
+    /**
+     * Returns the storage of the expenses.
+     */
+    public static ExpenseRepository expenses() {
+        EmbeddedStore store = embedded;
+        return store != null ? store : MariaDbRepository.INSTANCE;
+    }
+}
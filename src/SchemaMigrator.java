@@ -0,0 +1,170 @@
+/**
+ * Libraries
+ */
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+
+/**
+ * The SchemaMigrator class brings the 'homex_db' schema up to date once per application start.
+ * Migrations are the numbered SQL scripts in data/migrations (V001__description.sql, V002__...),
+ * applied in order; the 'schema_version' table records which ones have already run,
+ * so the screens never need to issue DDL themselves.
+ */
+public class SchemaMigrator {
+
+    private static final String MIGRATIONS_DIR = "data/migrations";
+    private static final Pattern FILE_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+    private static final int LOCK_TIMEOUT_S = 30;   // Another instance may be migrating at the same time
+
+    private static CompletableFuture<Void> migration;
+
+
+    /**
+     * A migration script found on disk.
+     */
+    private record Migration(int version, String description, Path file) {}
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private SchemaMigrator() {
+    }
+
+
+    /**
+     * Starts the migration in the background the first time it is called and returns the same future afterwards.
+     * If the migration fails (for example because the server is down), the next call tries again.
+     *
+     * @return A future completed once the schema is up to date.
+     */
+    public static synchronized CompletableFuture<Void> migrateOnce() {
+        if (migration == null || migration.isCompletedExceptionally()) {
+            migration = AsyncDatabase.background(() -> {
+                try {
+                    migrate();
+                } catch (SQLException | IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+        return migration;
+    }
+
+
+    /**
+     * Creates the database if needed, then applies every migration newer than the recorded schema version.
+     */
+    private static void migrate() throws SQLException, IOException {
+        // The pooled connections point at 'homex_db', so the database itself is created through the server
+        try (Connection connection = ConnectionPool.openServerConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE DATABASE IF NOT EXISTS homex_db");
+        }
+
+        List<Migration> migrations = findMigrations();
+
+        try (Connection connection = ConnectionPool.getConnection();
+             Statement statement = connection.createStatement()) {
+            lock(statement);
+            try {
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS schema_version (" +
+                        "version INT PRIMARY KEY, " +
+                        "description VARCHAR(255), " +
+                        "applied_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+
+                int current = 0;
+                try (ResultSet resultSet = statement.executeQuery("SELECT COALESCE(MAX(version), 0) FROM schema_version")) {
+                    if (resultSet.next()) {
+                        current = resultSet.getInt(1);
+                    }
+                }
+
+                for (Migration migration : migrations) {
+                    if (migration.version() > current) {
+                        apply(connection, migration);
+                    }
+                }
+            } finally {
+                statement.execute("SELECT RELEASE_LOCK('homex_schema')");
+            }
+        }
+    }
+
+
+    /**
+     * Takes the server-wide advisory lock so that two instances starting together do not migrate twice.
+     */
+    private static void lock(Statement statement) throws SQLException {
+        try (ResultSet resultSet = statement.executeQuery("SELECT GET_LOCK('homex_schema', " + LOCK_TIMEOUT_S + ")")) {
+            if (!resultSet.next() || resultSet.getInt(1) != 1) {
+                throw new SQLException("Timed out waiting for another instance to finish migrating the schema");
+            }
+        }
+    }
+
+
+    /**
+     * Runs the statements of one migration script and records its version.
+     */
+    private static void apply(Connection connection, Migration migration) throws SQLException, IOException {
+        System.out.println("Applying schema migration V" + migration.version() + ": " + migration.description());
+
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : splitStatements(Files.readString(migration.file()))) {
+                statement.executeUpdate(sql);
+            }
+        }
+
+        String sql = "INSERT INTO schema_version (version, description) VALUES (?, ?)";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setInt(1, migration.version());
+            preparedStatement.setString(2, migration.description());
+            preparedStatement.executeUpdate();
+        }
+    }
+
+
+    /**
+     * Lists the migration scripts in version order.
+     */
+    private static List<Migration> findMigrations() throws IOException {
+        List<Migration> migrations = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(Paths.get(MIGRATIONS_DIR), "V*.sql")) {
+            for (Path file : files) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    migrations.add(new Migration(Integer.parseInt(matcher.group(1)), matcher.group(2).replace('_', ' '), file));
+                }
+            }
+        }
+        migrations.sort(Comparator.comparingInt(Migration::version));
+        return migrations;
+    }
+
+
+    /**
+     * Splits a script into statements on ';', ignoring '--' comment lines.
+     */
+    private static List<String> splitStatements(String script) {
+        StringBuilder withoutComments = new StringBuilder();
+        for (String line : script.split("\\R")) {
+            if (!line.trim().startsWith("--")) {
+                withoutComments.append(line).append('\n');
+            }
+        }
+
+        List<String> statements = new ArrayList<>();
+        for (String sql : withoutComments.toString().split(";")) {
+            if (!sql.isBlank()) {
+                statements.add(sql.trim());
+            }
+        }
+        return statements;
+    }
+}
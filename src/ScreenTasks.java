@@ -0,0 +1,168 @@
+/**
+ * Libraries
+ */
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+
+/**
+ * The ScreenTasks class tracks the background database work started by one screen (frame or dialog).
+ * Results are handed back on the event dispatch thread, a loading indicator and a wait cursor are shown
+ * while work is pending, errors are reported with the usual "Database error" dialog,
+ * and everything still running is cancelled when the window is disposed.
+ *
+ * All methods must be called on the event dispatch thread.
+ */
+public class ScreenTasks {
+
+    private final Window window;
+    private final JComponent loadingIndicator;
+    private final Set<Future<?>> pending = new HashSet<>();
+    private boolean disposed = false;
+
+
+    /**
+     * Creates the task tracker for a window.
+     *
+     * @param window The screen that owns the work; its disposal cancels pending work.
+     * @param loadingIndicator Component shown while work is pending, may be null.
+     */
+    public ScreenTasks(Window window, JComponent loadingIndicator) {
+        this.window = window;
+        this.loadingIndicator = loadingIndicator;
+        if (loadingIndicator != null) {
+            loadingIndicator.setVisible(false);
+        }
+
+        window.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                cancelAll();
+            }
+        });
+    }
+
+
+    /**
+     * Runs database work in the background and applies its result on the EDT.
+     *
+     * @param work The database work to run off the EDT.
+     * @param onSuccess Called on the EDT with the result, unless the screen was disposed meanwhile.
+     * @return The future of the work, which can be cancelled.
+     */
+    public <T> CompletableFuture<T> load(AsyncDatabase.Work<T> work, Consumer<T> onSuccess) {
+        return track(AsyncDatabase.submit(work), onSuccess);
+    }
+
+
+    /**
+     * Runs work through the repositories in the background and applies its result on the EDT.
+     *
+     * @param query The work to run off the EDT.
+     * @param onSuccess Called on the EDT with the result, unless the screen was disposed meanwhile.
+     * @return The future of the work, which can be cancelled.
+     */
+    public <T> CompletableFuture<T> query(AsyncDatabase.Query<T> query, Consumer<T> onSuccess) {
+        return track(AsyncDatabase.query(query), onSuccess);
+    }
+
+
+    /**
+     * Runs database work without a result in the background, then calls onDone on the EDT.
+     *
+     * @param work The database work to run off the EDT.
+     * @param onDone Called on the EDT once the work succeeded, may be null.
+     * @return The future of the work, which can be cancelled.
+     */
+    public CompletableFuture<Void> run(AsyncDatabase.VoidWork work, Runnable onDone) {
+        return track(AsyncDatabase.run(work), _ -> {
+            if (onDone != null) {
+                onDone.run();
+            }
+        });
+    }
+
+
+    /**
+     * Registers an already started future so that it shows the loading indicator and is cancelled with the screen.
+     *
+     * @param future The background work.
+     * @param onSuccess Called on the EDT with the result, unless the screen was disposed meanwhile.
+     * @return The same future.
+     */
+    public <T> CompletableFuture<T> track(CompletableFuture<T> future, Consumer<T> onSuccess) {
+        if (disposed) {
+            future.cancel(true);
+            return future;
+        }
+
+        pending.add(future);
+        updateIndicator();
+
+        future.whenCompleteAsync((value, error) -> {
+            pending.remove(future);
+            updateIndicator();
+
+            if (disposed || future.isCancelled()) {
+                return;
+            }
+            if (error != null) {
+                showError(error);
+            } else {
+                onSuccess.accept(value);
+            }
+        }, AsyncDatabase.EDT);
+        return future;
+    }
+
+
+    /**
+     * Returns whether background work is still running for this screen.
+     */
+    public boolean isBusy() {
+        return !pending.isEmpty();
+    }
+
+
+    /**
+     * Cancels all pending work; called automatically when the window is disposed.
+     */
+    public void cancelAll() {
+        disposed = true;
+        for (Future<?> future : new ArrayList<>(pending)) {
+            future.cancel(true);
+        }
+        pending.clear();
+        updateIndicator();
+    }
+
+
+    /**
+     * Shows the loading indicator and wait cursor while work is pending.
+     */
+    private void updateIndicator() {
+        boolean busy = !pending.isEmpty();
+        if (loadingIndicator != null) {
+            loadingIndicator.setVisible(busy);
+        }
+        window.setCursor(busy ? Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR) : Cursor.getDefaultCursor());
+    }
+
+
+    /**
+     * Reports a failed background task to the user.
+     */
+    private void showError(Throwable error) {
+        Throwable cause = AsyncDatabase.rootCause(error);
+        cause.printStackTrace();
+        String kind = cause instanceof IOException ? "File error: "
+                : cause instanceof RejectedExecutionException ? ""     // Overloaded worker pool, the message says so
+                : "Database error: ";
+        JOptionPane.showMessageDialog(window, kind + cause.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * The StorageException class reports a failure of the storage of the users, groups and expenses
+ * (UserRepository, GroupRepository, ExpenseRepository), whichever storage is in use. EmbeddedStore throws it
+ * directly; MariaDbRepository translates the SQLException of the database into it and keeps it as the cause.
+ *
+ * The reason lets callers react without knowing the storage: the HTTP API picks its status code from it
+ * (ApiServer), and the Group screen journals a change offline when the database is unreachable (ExpenseJournal).
+ */
+public class StorageException extends Exception {
+
+    /**
+     * Why the storage failed.
+     */
+    public enum Reason {
+        DUPLICATE,      // A name that must be unique is already taken
+        INVALID,        // A value the storage cannot hold (a malformed date, a row too large)
+        NOT_FOUND,      // The change refers to a group that does not exist
+        BUSY,           // No connection or lock was free in time; worth trying again later
+        UNREACHABLE,    // The database cannot be reached
+        CANCELLED,      // The thread was interrupted while reading
+        FAILED          // Anything else, including a commit whose outcome is unknown
+    }
+
+    private final Reason reason;
+
+
+    public StorageException(Reason reason, String message) {
+        this(reason, message, null);
+    }
+
+
+    public StorageException(Reason reason, String message, Throwable cause) {
+        super(message, cause);
+        this.reason = reason;
+    }
+
+
+    public Reason getReason() {
+        return reason;
+    }
+}
@@ -0,0 +1,218 @@
+/**
+ * Libraries
+ */
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.HexFormat;
+import java.util.concurrent.*;
+
+
+/**
+ * The ThumbnailService class produces the avatar thumbnails (50px for the screen headers, 100px for the
+ * avatar gallery) on a pool of worker threads, so that decoding and scaling never run on the Swing event thread.
+ *
+ * Each source image is decoded once and all its variants are written to an on-disk thumbnail cache
+ * (data/cache/thumbnails), named after a hash of the source path and its modification time:
+ * a later start reads the small thumbnail instead of decoding the original again, and editing the
+ * original changes the name, so a stale thumbnail is never used. Finished thumbnails are also put in
+ * the ImageCache, where the screens pick them up.
+ */
+public class ThumbnailService {
+
+    // Thumbnail sizes generated for every avatar, largest first
+    public static final int[] SIZES = {100, 50};
+
+    private static final Path CACHE_DIR = Paths.get("data/cache/thumbnails");
+
+    // Decoding is CPU-bound: one worker per core, shared with the AvatarStore
+    static final ExecutorService workers = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()),
+            Thread.ofPlatform().name("homex-thumbnail-", 0).daemon().factory());
+
+    // Sources being processed, so that concurrent requests share the work
+    private static final ConcurrentHashMap<String, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private ThumbnailService() {
+    }
+
+
+    /**
+     * Returns a thumbnail of the image, generating all the variants on a worker thread if they are not cached yet.
+     *
+     * @param source The image file.
+     * @param size One of the SIZES.
+     * @return A future completed with the thumbnail, or completed exceptionally if the file cannot be read.
+     */
+    public static CompletableFuture<BufferedImage> thumbnail(File source, int size) {
+        String path = source.getAbsolutePath();
+        BufferedImage cached = ImageCache.getCached(path, size, size);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return prepare(source).thenApply(_ -> {
+            BufferedImage image = ImageCache.getImage(path, size, size);
+            if (image == null) {
+                throw new CompletionException(new IOException("Cannot read image " + path));
+            }
+            return image;
+        });
+    }
+
+
+    /**
+     * Starts generating the thumbnails of an image in the background, e.g. right after the user picks it.
+     *
+     * @param source The image file.
+     * @return A future completed once every variant is cached.
+     */
+    public static CompletableFuture<Void> prepare(File source) {
+        String path = source.getAbsolutePath();
+        CompletableFuture<Void> task = inFlight.computeIfAbsent(path,
+                _ -> CompletableFuture.runAsync(() -> generate(source), workers));
+        task.whenComplete((_, _) -> inFlight.remove(path, task));
+        return task;
+    }
+
+
+    /**
+     * Reads a thumbnail from the on-disk cache, without generating it.
+     * Called by the ImageCache on a miss for one of the thumbnail sizes.
+     *
+     * @param path The path of the image file.
+     * @param size The thumbnail size.
+     * @return The thumbnail, or null if it is not on disk or is out of date.
+     */
+    static BufferedImage readCached(String path, int size) {
+        if (!isThumbnailSize(size)) {
+            return null;
+        }
+        try {
+            Path file = cacheFile(new File(path), size);
+            if (file == null || !Files.isRegularFile(file)) {
+                return null;
+            }
+            BufferedImage thumbnail = ImageIO.read(file.toFile());
+            return thumbnail != null ? ImageCache.scale(thumbnail, size, size) : null;
+        } catch (IOException e) {
+            return null;    // Treat an unreadable thumbnail as missing
+        }
+    }
+
+
+    /**
+     * Returns whether the size is one of the generated thumbnail sizes.
+     */
+    static boolean isThumbnailSize(int size) {
+        for (int thumbnailSize : SIZES) {
+            if (thumbnailSize == size) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Decodes the source once and produces every variant, reusing the on-disk cache where possible.
+     * Runs on a worker thread.
+     */
+    private static void generate(File source) {
+        String path = source.getAbsolutePath();
+        BufferedImage larger = null;
+
+        try {
+            for (int size : SIZES) {
+                if (ImageCache.getCached(path, size, size) != null) {
+                    continue;
+                }
+
+                BufferedImage thumbnail = readCached(path, size);
+                if (thumbnail == null) {
+                    // Scale each variant from the next larger one rather than from the original
+                    if (larger == null) {
+                        larger = ImageIO.read(source);
+                        if (larger == null) {
+                            throw new IOException("Unsupported image format: " + source.getName());
+                        }
+                    }
+                    thumbnail = ImageCache.scale(larger, size, size);
+                    writeCached(source, size, thumbnail);
+                }
+
+                ImageCache.put(path, thumbnail);
+                larger = thumbnail;
+            }
+        } catch (IOException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+
+    /**
+     * Writes a thumbnail to the on-disk cache and deletes the thumbnails of older versions of the same source.
+     */
+    private static void writeCached(File source, int size, BufferedImage thumbnail) {
+        try {
+            Path file = cacheFile(source, size);
+            if (file == null) {
+                return;
+            }
+            Files.createDirectories(CACHE_DIR);
+
+            // Write to a temporary file first so that a concurrent reader never sees half a PNG
+            Path temporary = Files.createTempFile(CACHE_DIR, "thumb", ".tmp");
+            ImageIO.write(thumbnail, "png", temporary.toFile());
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            String current = file.getFileName().toString();
+            String prefix = pathHash(source) + "_";
+            try (DirectoryStream<Path> stale = Files.newDirectoryStream(CACHE_DIR, prefix + "*_" + size + ".png")) {
+                for (Path old : stale) {
+                    if (!old.getFileName().toString().equals(current)) {
+                        Files.deleteIfExists(old);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // The thumbnail is still usable from memory, it will simply be generated again next time
+            System.out.println("Cannot write thumbnail for " + source + ": " + e.getMessage());
+        }
+    }
+
+
+    /**
+     * Returns the cache file of a thumbnail: hash of the source path, source modification time and size.
+     *
+     * @return The cache file, or null if the source does not exist.
+     */
+    private static Path cacheFile(File source, int size) {
+        long modified = source.lastModified();
+        if (modified == 0L) {
+            return null;
+        }
+        return CACHE_DIR.resolve(pathHash(source) + "_" + modified + "_" + size + ".png");
+    }
+
+
+    /**
+     * SHA-256 of the absolute source path, shortened to 32 hex digits.
+     */
+    private static String pathHash(File source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(source.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);     // Every JVM provides SHA-256
+        }
+    }
+}
@@ -1,16 +1,39 @@
 /**
- * Class to save user's name and pathway to avatar image
+ * Libraries
+ */
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Class to save user's name and avatar (content hash in the AvatarStore, or image path for older accounts),
+ * and the groups read at login, so that the following screens do not query them again
  */
 public class User {
     private static String username;
     private static String avatarPath;
+    private static volatile Map<Integer, String> groups = Map.of();  // Group ID -> name, ordered by name
 
-    // Setter
+    // Setters
     public static void setUser(String username, String avatarPath) {
         User.username = username;
         User.avatarPath = avatarPath;
     }
 
+    public static void setGroups(Map<Integer, String> groups) {
+        User.groups = Collections.unmodifiableMap(new LinkedHashMap<>(groups));
+    }
+
+    // Records a group the user just used, e.g. by adding an expense to it
+    public static void addGroup(int groupId, String groupName) {
+        if (groupName != null && !groupName.equals(groups.get(groupId))) {
+            Map<Integer, String> updated = new LinkedHashMap<>(groups);
+            updated.put(groupId, groupName);
+            setGroups(updated);
+        }
+    }
+
     // Getters
     public static String getUsername() {
         return username;
@@ -19,4 +42,13 @@ public class User {
     public static String getAvatarPath() {
         return avatarPath;
     }
+
+    public static Map<Integer, String> getGroups() {
+        return groups;
+    }
+
+    // Name of one of the user's groups, or null if it was not read at login
+    public static String getGroupName(int groupId) {
+        return groups.get(groupId);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+/**
+ * Libraries
+ */
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * The UserDao class groups the SQL used on the 'users' table.
+ * Every method works on a connection supplied by the caller and reports errors as SQLException.
+ */
+public class UserDao {
+
+    // Avatar used when the user did not choose one
+    public static final String DEFAULT_AVATAR = "data/image/default_avatar.png";
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private UserDao() {
+    }
+
+
+    /**
+     * Reads the password hash, the avatar, the groups and the wallet totals of a user in a single round-trip.
+     * The user's expenses are aggregated per group with the index on username: the groups that appear are
+     * the user's groups, and their sums are the wallet totals.
+     *
+     * @param connection The connection to use.
+     * @param username The username entered by the user.
+     * @return The user's data, or null if the user does not exist.
+     */
+    public static UserRepository.LoginData findLogin(Connection connection, String username) throws SQLException {
+        String sql = "SELECT u.password, u.avatar, g.id, g.groupname, m.gains, m.losses, m.expenseCount " +
+                "FROM users u " +
+                "LEFT JOIN (SELECT groupID, " +
+                "CAST(COALESCE(SUM(CASE WHEN amount > 0 THEN amount END), 0) * 100 AS SIGNED) AS gains, " +
+                "CAST(COALESCE(SUM(CASE WHEN amount < 0 THEN amount END), 0) * 100 AS SIGNED) AS losses, " +
+                "COUNT(*) AS expenseCount FROM expenses WHERE username = ? GROUP BY groupID) m ON 1 = 1 " +
+                "LEFT JOIN groups g ON g.id = m.groupID " +
+                "WHERE u.username = ? ORDER BY g.groupname, g.id";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, username);
+            preparedStatement.setString(2, username);
+
+            try (ResultSet result = preparedStatement.executeQuery()) {
+                if (!result.next()) {
+                    return null;
+                }
+                String passwordHash = result.getString(1);
+                String avatarPath = result.getString(2);
+                Map<Integer, String> groups = new LinkedHashMap<>();
+                long gains = 0;
+                long losses = 0;
+                int count = 0;
+                do {
+                    int groupId = result.getInt(3);
+                    if (!result.wasNull()) {
+                        groups.put(groupId, result.getString(4));
+                    }
+                    gains += result.getLong(5);     // 0 when the user has no expense
+                    losses += result.getLong(6);
+                    count += result.getInt(7);
+                } while (result.next());
+
+                return new UserRepository.LoginData(passwordHash,
+                        avatarPath != null && !avatarPath.isEmpty() ? avatarPath : DEFAULT_AVATAR,
+                        groups, new WalletSummary(gains, losses, count));
+            }
+        }
+    }
+
+
+    /**
+     * Replaces a user's password hash after a successful login, e.g. with a higher work factor.
+     * Nothing changes if the stored hash is no longer the verified one (the password was changed meanwhile).
+     *
+     * @param connection The connection to use.
+     * @param username The username of the user.
+     * @param oldHash The stored hash the password was verified against.
+     * @param newHash The new hash of the same password.
+     * @return True if the hash was replaced.
+     */
+    public static boolean updatePasswordHash(Connection connection, String username, String oldHash, String newHash) throws SQLException {
+        String sql = "UPDATE users SET password = ? WHERE username = ? AND password = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, newHash);
+            preparedStatement.setString(2, username);
+            preparedStatement.setString(3, oldHash);
+
+            return preparedStatement.executeUpdate() > 0;
+        }
+    }
+
+
+    /**
+     * Retrieves the avatar of the given username.
+     * If no avatar is set for the user, the default avatar is used.
+     *
+     * @param connection The connection to use.
+     * @param username The username of the user.
+     * @return The content hash of the user's avatar in the AvatarStore, or an image path (older accounts, default avatar).
+     */
+    public static String findAvatarPath(Connection connection, String username) throws SQLException {
+        String sql = "SELECT avatar FROM users WHERE username = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, username);
+
+            try (ResultSet result = preparedStatement.executeQuery()) {
+                if (result.next()) {
+                    String avatarPath = result.getString("avatar");
+                    if (avatarPath != null && !avatarPath.isEmpty()) {
+                        return avatarPath;
+                    }
+                }
+            }
+        }
+        return DEFAULT_AVATAR; // Use default avatar if none is set
+    }
+
+
+    /**
+     * Inserts a new user with its username, password hash, and avatar.
+     *
+     * @param connection The connection to use.
+     * @param username The username of the new user.
+     * @param passwordHash The password of the new user, hashed with PasswordHasher.hash.
+     * @param avatarPath The content hash of the user's avatar in the AvatarStore, or null for the default avatar.
+     * @return True if the user was inserted, false if the username is already taken.
+     */
+    public static boolean insertUser(Connection connection, String username, String passwordHash, String avatarPath) throws SQLException {
+        String sql = "INSERT INTO users (username, password, avatar) VALUES (?, ?, ?)";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, username);
+            preparedStatement.setString(2, passwordHash);
+            preparedStatement.setString(3, avatarPath);
+
+            return preparedStatement.executeUpdate() > 0;
+        } catch (SQLIntegrityConstraintViolationException ex) {
+            return false;   // Username already exists
+        }
+    }
+
+
+    /**
+     * Updates the user's username and password.
+     *
+     * @param connection The connection to use.
+     * @param currentUsername The current username.
+     * @param newUsername The new username.
+     * @param newPasswordHash The new password, hashed with PasswordHasher.hash.
+     * @return True if the update was successful, false otherwise.
+     */
+    public static boolean updateUser(Connection connection, String currentUsername, String newUsername, String newPasswordHash) throws SQLException {
+        String sql = "UPDATE users SET username = ?, password = ? WHERE username = ?";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, newUsername);
+            preparedStatement.setString(2, newPasswordHash);
+            preparedStatement.setString(3, currentUsername);
+
+            return preparedStatement.executeUpdate() > 0;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Libraries
+ */
+import java.util.Map;
+
+
+/**
+ * The UserRepository interface stores the user accounts. It is implemented on MariaDB (MariaDbRepository,
+ * through UserDao) and on the embedded storage (EmbeddedStore); Repositories.users() returns the one in use.
+ *
+ * The methods may block and report errors as StorageException, so they run off the event dispatch thread.
+ */
+public interface UserRepository {
+
+    /**
+     * Everything a login needs, read at once.
+     *
+     * @param passwordHash The stored password hash, to be checked with PasswordHasher.verify.
+     * @param avatarPath The user's avatar, as returned by findAvatarPath.
+     * @param groups The groups the user added expenses to, by ID, ordered by name.
+     * @param wallet The user's wallet totals.
+     */
+    record LoginData(String passwordHash, String avatarPath, Map<Integer, String> groups, WalletSummary wallet) {
+    }
+
+
+    /**
+     * Reads the password hash, the avatar, the groups and the wallet totals of a user at once.
+     *
+     * @param username The username entered by the user.
+     * @return The user's data, or null if the user does not exist.
+     */
+    LoginData findLogin(String username) throws StorageException;
+
+
+    /**
+     * Replaces a user's password hash, unless it is no longer the given one.
+     *
+     * @param username The username of the user.
+     * @param oldHash The stored hash the password was verified against.
+     * @param newHash The new hash of the same password.
+     * @return True if the hash was replaced.
+     */
+    boolean updatePasswordHash(String username, String oldHash, String newHash) throws StorageException;
+
+
+    /**
+     * Returns the avatar of a user.
+     *
+     * @param username The username of the user.
+     * @return The content hash of the avatar in the AvatarStore, or an image path (older accounts, default avatar).
+     */
+    String findAvatarPath(String username) throws StorageException;
+
+
+    /**
+     * Creates a user.
+     *
+     * @param username The username of the new user.
+     * @param passwordHash The password, hashed with PasswordHasher.hash.
+     * @param avatarPath The content hash of the avatar, or null for the default avatar.
+     * @return True if the user was created, false if the username is already taken.
+     */
+    boolean insertUser(String username, String passwordHash, String avatarPath) throws StorageException;
+
+
+    /**
+     * Changes a user's username and password.
+     *
+     * @param currentUsername The current username.
+     * @param newUsername The new username.
+     * @param newPasswordHash The new password, hashed with PasswordHasher.hash.
+     * @return True if the user was updated.
+     */
+    boolean updateUser(String currentUsername, String newUsername, String newPasswordHash) throws StorageException;
+}
@@ -0,0 +1,189 @@
+/**
+ * Libraries
+ */
+import java.util.concurrent.*;
+
+
+/**
+ * The WalletService class computes and caches the wallet totals of each user.
+ * The totals are read with one conditional-aggregation query and then kept up to date in memory:
+ * every expense added, edited or removed through the application adjusts the cached totals of the
+ * user who added that expense, so reopening the Personal Wallet normally needs no query at all.
+ *
+ * Changes made by other processes (another desktop, the HTTP API) do not pass through here: the totals are
+ * forgotten when a group window reads such a change from the change feed (changesSeen), and in any case
+ * after CACHE_TTL_MS, so a long-running process never shows totals older than that.
+ *
+ * All methods are thread-safe.
+ */
+public class WalletService {
+
+    static final long CACHE_TTL_MS = 30_000;
+
+    private static final ConcurrentHashMap<String, Cached> cache = new ConcurrentHashMap<>();
+    // Bumped on every change to a user's expenses, so that a query that raced with a change is not cached
+    private static final ConcurrentHashMap<String, Long> versions = new ConcurrentHashMap<>();
+
+
+    /**
+     * Cached totals, and when they stop being used (System.nanoTime).
+     */
+    private record Cached(WalletSummary summary, long expiresAt) {
+    }
+
+
+    /**
+     * Private constructor, only static methods are exposed.
+     */
+    private WalletService() {
+    }
+
+
+    /**
+     * Returns the cached totals of a user without touching the database.
+     *
+     * @param username The username of the user.
+     * @return The totals, or null if they are not cached or are older than CACHE_TTL_MS.
+     */
+    public static WalletSummary getCached(String username) {
+        Cached cached = cache.get(username);
+        if (cached == null) {
+            return null;
+        }
+        if (cached.expiresAt() - System.nanoTime() < 0) {
+            cache.remove(username, cached);
+            return null;
+        }
+        return cached.summary();
+    }
+
+
+    /**
+     * Returns the totals of a user, from the cache if possible, otherwise from the expense repository
+     * (a single query on MariaDB).
+     *
+     * @param username The username of the user.
+     * @return The user's totals.
+     */
+    public static WalletSummary getSummary(String username) throws StorageException {
+        WalletSummary cached = getCached(username);
+        if (cached != null) {
+            return cached;
+        }
+
+        long version = version(username);
+        WalletSummary summary = Repositories.expenses().summaryForUser(username);
+        cacheIfUnchanged(username, version, summary);
+        return summary;
+    }
+
+
+    /**
+     * Returns the change counter of a user's expenses, to be read before querying totals elsewhere.
+     *
+     * @param username The username of the user.
+     * @return The current version.
+     */
+    public static long version(String username) {
+        return versions.getOrDefault(username, 0L);
+    }
+
+
+    /**
+     * Caches totals read by another query (e.g. the login query), unless an expense of the user changed since
+     * the version was read.
+     *
+     * @param username The username of the user.
+     * @param version The version read before the query.
+     * @param summary The totals returned by the query.
+     */
+    public static void cacheIfUnchanged(String username, long version, WalletSummary summary) {
+        versions.compute(username, (_, current) -> {
+            if ((current == null ? 0L : current) == version) {
+                cache.put(username, new Cached(summary, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CACHE_TTL_MS)));
+            }
+            return current;
+        });
+    }
+
+
+    /**
+     * Records an expense that was added to the database.
+     *
+     * @param expense The stored expense.
+     */
+    public static void expenseAdded(Expense expense) {
+        adjust(expense.getUsername(), expense.getAmountCents(), 1);
+    }
+
+
+    /**
+     * Records an expense that was edited in the database.
+     *
+     * @param before The expense before the edit.
+     * @param after The expense after the edit.
+     */
+    public static void expenseUpdated(Expense before, Expense after) {
+        adjust(before.getUsername(), before.getAmountCents(), -1);
+        adjust(after.getUsername(), after.getAmountCents(), 1);
+    }
+
+
+    /**
+     * Records an expense that was removed from the database.
+     *
+     * @param expense The removed expense.
+     */
+    public static void expenseRemoved(Expense expense) {
+        adjust(expense.getUsername(), expense.getAmountCents(), -1);
+    }
+
+
+    /**
+     * Forgets the cached totals of a user if changes read from a group's change feed may concern their expenses.
+     * Removals only carry the place of the expense, not who added it, so any removal counts; the changes made
+     * in this process were already counted, and counting them again only costs one query.
+     *
+     * @param batch The changes read from the feed.
+     * @param username The username of the user whose totals are shown.
+     */
+    public static void changesSeen(ExpenseRepository.Batch batch, String username) {
+        if (username == null || batch.isEmpty()) {
+            return;
+        }
+        boolean concerned = batch.reload();
+        for (ExpenseRepository.Change change : batch.changes()) {
+            concerned |= change.after() == null || username.equals(change.after().getUsername());
+        }
+        if (concerned) {
+            invalidate(username);
+        }
+    }
+
+
+    /**
+     * Forgets the cached totals of a user, e.g. after a rename.
+     *
+     * @param username The username of the user.
+     */
+    public static void invalidate(String username) {
+        versions.compute(username, (_, current) -> {
+            cache.remove(username);
+            return current == null ? 1L : current + 1;
+        });
+    }
+
+
+    /**
+     * Adds (sign 1) or removes (sign -1) an amount from a user's cached totals.
+     */
+    private static void adjust(String username, long amountCents, int sign) {
+        if (username == null) {
+            return;
+        }
+        versions.compute(username, (_, current) -> {
+            cache.computeIfPresent(username, (_, cached) -> new Cached(cached.summary().plus(amountCents, sign), cached.expiresAt()));
+            return current == null ? 1L : current + 1;
+        });
+    }
+}
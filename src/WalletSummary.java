@@ -0,0 +1,48 @@
+/**
+ * Class to hold the totals of a user's expenses, as shown on the Personal Wallet page.
+ * Amounts are in cents (see Money).
+ */
+public class WalletSummary {
+    private final long totalGains;
+    private final long totalLosses;
+    private final int count;
+
+    // Constructor
+    public WalletSummary(long totalGains, long totalLosses, int count) {
+        this.totalGains = totalGains;
+        this.totalLosses = totalLosses;
+        this.count = count;
+    }
+
+    /**
+     * Returns the summary after adding (sign 1) or removing (sign -1) one expense amount.
+     */
+    public WalletSummary plus(long amountCents, int sign) {
+        if (amountCents > 0) {
+            return new WalletSummary(totalGains + sign * amountCents, totalLosses, count + sign);
+        } else if (amountCents < 0) {
+            return new WalletSummary(totalGains, totalLosses + sign * amountCents, count + sign);
+        }
+        return new WalletSummary(totalGains, totalLosses, count + sign);
+    }
+
+    /**
+     * Remaining budget: gains increase the budget, losses (negative) decrease it.
+     */
+    public long remainingBudget(long budgetCents) {
+        return budgetCents + totalGains + totalLosses;
+    }
+
+    // Getters
+    public long getTotalGains() {
+        return totalGains;
+    }
+
+    public long getTotalLosses() {
+        return totalLosses;
+    }
+
+    public int getCount() {
+        return count;
+    }
+}
\ No newline at end of file